@@ -0,0 +1,172 @@
+package org.nrg.containers.services.impl;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.guava.GuavaModule;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.Option;
+import com.jayway.jsonpath.spi.json.JacksonJsonProvider;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
+import com.jayway.jsonpath.spi.mapper.MappingProvider;
+import org.mockito.Mockito;
+import org.nrg.containers.model.command.auto.Command;
+import org.nrg.containers.model.command.auto.Command.ConfiguredCommand;
+import org.nrg.containers.model.command.auto.ResolvedCommand.PartiallyResolvedCommand;
+import org.nrg.containers.utils.JsonPathCache;
+import org.nrg.xft.security.UserI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-resolves a wrapper whose derived inputs go four levels down (session, scan, resource, file, file path)
+ * against a session with many scans, with the compiled JSONPath expressions cached and with them compiled again
+ * for every resolution.
+ *
+ * Run with ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CommandResolutionBenchmark {
+    private static final int FILES_PER_SCAN = 4;
+
+    @Param({"200"})
+    public int scans;
+
+    private CommandResolutionServiceImpl commandResolutionService;
+    private ConfiguredCommand configuredCommand;
+    private Map<String, String> inputValues;
+    private UserI user;
+
+    @Setup
+    public void setup() throws Exception {
+        Configuration.setDefaults(new Configuration.Defaults() {
+            private final JsonProvider jsonProvider = new JacksonJsonProvider();
+            private final MappingProvider mappingProvider = new JacksonMappingProvider();
+
+            @Override
+            public JsonProvider jsonProvider() {
+                return jsonProvider;
+            }
+
+            @Override
+            public MappingProvider mappingProvider() {
+                return mappingProvider;
+            }
+
+            @Override
+            public Set<Option> options() {
+                return Sets.newHashSet(Option.DEFAULT_PATH_LEAF_TO_NULL);
+            }
+        });
+
+        final ObjectMapper mapper = new ObjectMapper()
+                .configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, true)
+                .registerModule(new GuavaModule());
+
+        final Command command;
+        try (final InputStream commandJson = getClass().getResourceAsStream("/commandResolutionBenchmark/command.json")) {
+            command = mapper.readValue(commandJson, Command.class);
+        }
+        configuredCommand = ConfiguredCommand.initialize(command)
+                .inputs(command.inputs())
+                .wrapper(command.xnatCommandWrappers().get(0))
+                .build();
+
+        inputValues = Maps.newHashMap();
+        inputValues.put("session", sessionJson(mapper, scans));
+
+        user = Mockito.mock(UserI.class);
+        Mockito.when(user.getLogin()).thenReturn("benchmark");
+
+        // Pre-resolution only needs the mapper. It doesn't look anything up, or cache what it resolves.
+        commandResolutionService = new CommandResolutionServiceImpl(null, null, null, mapper, null, null,
+                new PreResolutionCache(0L, 1), 0);
+    }
+
+    @TearDown
+    public void teardown() {
+        commandResolutionService.shutdown();
+    }
+
+    /**
+     * Empties the JSONPath cache before each resolution in {@link Cold}, so every expression is compiled again.
+     */
+    @State(Scope.Thread)
+    public static class Cold {
+        @Setup(Level.Invocation)
+        public void clearJsonPathCache() {
+            JsonPathCache.clear();
+        }
+    }
+
+    @Benchmark
+    public PartiallyResolvedCommand preResolveWithJsonPathCache() throws Exception {
+        return commandResolutionService.preResolve(configuredCommand, inputValues, user);
+    }
+
+    @Benchmark
+    public PartiallyResolvedCommand preResolveWithEmptyJsonPathCache(final Cold cold) throws Exception {
+        return commandResolutionService.preResolve(configuredCommand, inputValues, user);
+    }
+
+    /**
+     * A session with the given number of scans. Every scan has a DICOM resource with a few files,
+     * given in the JSON so that nothing is read from disk.
+     */
+    private static String sessionJson(final ObjectMapper mapper, final int numScans) throws Exception {
+        final ObjectNode session = mapper.createObjectNode();
+        session.put("id", "session1");
+        session.put("type", "Session");
+        session.put("label", "session1");
+        session.put("uri", "/experiments/session1");
+
+        final ArrayNode scans = session.putArray("scans");
+        for (int i = 1; i <= numScans; i++) {
+            final String scanUri = "/experiments/session1/scans/scan" + i;
+            final ObjectNode scan = scans.addObject();
+            scan.put("id", "scan" + i);
+            scan.put("type", "Scan");
+            scan.put("scan-type", i % 2 == 0 ? "OTHER_SCANTYPE" : "SCANTYPE");
+            scan.put("uri", scanUri);
+            scan.put("frames", String.valueOf(i));
+            scan.put("series-description", "series " + i);
+
+            final String resourceUri = scanUri + "/resources/DICOM";
+            final ObjectNode resource = scan.putArray("resources").addObject();
+            resource.put("id", "DICOM");
+            resource.put("type", "Resource");
+            resource.put("label", "DICOM");
+            resource.put("uri", resourceUri);
+            resource.put("directory", "/data/archive/session1/SCANS/" + i + "/DICOM");
+
+            final ArrayNode files = resource.putArray("files");
+            for (int j = 1; j <= FILES_PER_SCAN; j++) {
+                final ObjectNode file = files.addObject();
+                file.put("name", j + ".dcm");
+                file.put("type", "File");
+                file.put("uri", resourceUri + "/files/" + j + ".dcm");
+                file.put("path", "/data/archive/session1/SCANS/" + i + "/DICOM/" + j + ".dcm");
+            }
+        }
+        return mapper.writeValueAsString(session);
+    }
+}
@@ -0,0 +1,97 @@
+package org.nrg.containers.utils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.nrg.containers.exceptions.CommandResolutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders a command template the way command resolution used to, with a JSONPath search for carets and then one
+ * String.replace per replacement key, and with a {@link CompiledTemplate}.
+ *
+ * Each resolution renders every template of the command against the values of all of its inputs, so the
+ * templates here are filled in from a map holding every input's value: a command line that uses all of them,
+ * and a mount or output path that uses one.
+ *
+ * Run with ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompiledTemplateBenchmark {
+    private static final Pattern JSONPATH_SUBSTRING = Pattern.compile("\\^(wrapper:)?(.+)\\^");
+
+    @Param({"5", "20", "50"})
+    public int inputs;
+
+    @Param({"commandLine", "path"})
+    public String templateType;
+
+    private String template;
+    private CompiledTemplate.Keys keys;
+    private Map<String, String> values;
+
+    @Setup
+    public void setup() {
+        final List<String> replacementKeys = Lists.newArrayList();
+        values = Maps.newHashMap();
+        for (int i = 0; i < inputs; i++) {
+            final String key = "#INPUT_" + i + "#";
+            replacementKeys.add(key);
+            values.put(key, "/input/scans/" + i + "/resources/DICOM/files");
+        }
+        keys = CompiledTemplate.Keys.of(replacementKeys);
+
+        if ("commandLine".equals(templateType)) {
+            final StringBuilder commandLine = new StringBuilder("python /usr/local/bin/run_pipeline.py --verbose");
+            for (int i = 0; i < inputs; i++) {
+                commandLine.append(" --input-").append(i).append(" #INPUT_").append(i).append('#');
+            }
+            template = commandLine.append(" --output /output").toString();
+        } else {
+            template = "/output/#INPUT_" + (inputs - 1) + "#/derived";
+        }
+
+        CompiledTemplate.clear();
+    }
+
+    @Benchmark
+    public String replaceEachKey() {
+        String toResolve = template;
+
+        // No search to do, but the template was still checked for one
+        final Matcher jsonpathSubstringMatcher = JSONPATH_SUBSTRING.matcher(toResolve);
+        if (jsonpathSubstringMatcher.find()) {
+            throw new IllegalStateException("Templates in this benchmark have no JSONPath search.");
+        }
+
+        for (final String replacementKey : values.keySet()) {
+            final String replacementValue = values.get(replacementKey);
+            toResolve = toResolve.replace(replacementKey, replacementValue == null ? "" : replacementValue);
+        }
+        return toResolve;
+    }
+
+    @Benchmark
+    public String renderCompiled() throws CommandResolutionException {
+        return CompiledTemplate.compile(template, keys).render(values, null);
+    }
+
+    @Benchmark
+    public String parseAndRender() throws CommandResolutionException {
+        return CompiledTemplate.parse(template, keys).render(values, null);
+    }
+}
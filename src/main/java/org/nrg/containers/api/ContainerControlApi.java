@@ -7,6 +7,7 @@ import org.nrg.containers.exceptions.NoDockerServerException;
 import org.nrg.containers.model.command.auto.ResolvedCommand;
 import org.nrg.containers.model.command.auto.Command;
 import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.model.container.auto.ContainerLogParameters;
 import org.nrg.containers.model.container.auto.ContainerMessage;
 import org.nrg.containers.model.container.auto.ServiceTask;
 import org.nrg.containers.model.dockerhub.DockerHubBase.DockerHub;
@@ -16,6 +17,8 @@ import org.nrg.containers.model.server.docker.DockerServerBase.DockerServerWithP
 import org.nrg.framework.exceptions.NotFoundException;
 import org.nrg.xft.security.UserI;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -57,8 +60,21 @@ public interface ContainerControlApi {
     String getServiceStdoutLog(String serviceId) throws NoDockerServerException, DockerServerException;
     String getServiceStderrLog(String serviceId) throws NoDockerServerException, DockerServerException;
 
+    /**
+     * Copy a container's or service's log to the output stream as docker sends it, without reading it all into memory.
+     * If the parameters ask to follow the log, this does not return until the container stops or the output is closed.
+     *
+     * @param stderr Read stderr if true, stdout if false
+     * @throws IOException If we could not write to the output stream
+     */
+    void writeContainerLog(String containerId, boolean stderr, ContainerLogParameters parameters, OutputStream outputStream)
+            throws NoDockerServerException, DockerServerException, IOException;
+    void writeServiceLog(String serviceId, boolean stderr, ContainerLogParameters parameters, OutputStream outputStream)
+            throws NoDockerServerException, DockerServerException, IOException;
+
     List<DockerContainerEvent> getContainerEvents(final Date since, final Date until) throws NoDockerServerException, DockerServerException;
     void throwContainerEvents(final Date since, final Date until) throws NoDockerServerException, DockerServerException;
+    ContainerEventSubscription subscribeToContainerEvents(final Date since) throws NoDockerServerException, DockerServerException;
 
     void killContainer(final String id) throws NoDockerServerException, DockerServerException, NotFoundException;
 
@@ -66,4 +82,6 @@ public interface ContainerControlApi {
     ServiceTask getTaskForService(DockerServer dockerServer, Container service) throws DockerServerException;
     void throwTaskEventForService(Container service) throws NoDockerServerException, DockerServerException;
     void throwTaskEventForService(DockerServer dockerServer, Container service) throws DockerServerException;
+    Map<String, ServiceTask> getTasksForLabeledServices(DockerServer dockerServer) throws DockerServerException;
+    ServiceTask withContainerExitCode(DockerServer dockerServer, ServiceTask serviceTask) throws DockerServerException;
 }
@@ -0,0 +1,25 @@
+package org.nrg.containers.api;
+
+import org.nrg.containers.events.model.DockerContainerEvent;
+import org.nrg.containers.exceptions.DockerServerException;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+
+/**
+ * An open, unbounded stream of container events from the container server.
+ * Closing the subscription from another thread ends a blocked call to {@link #next()}.
+ */
+public interface ContainerEventSubscription extends Closeable {
+    /**
+     * Block until the next container event arrives.
+     *
+     * @return The next event, or null if the stream has ended
+     * @throws DockerServerException If the stream failed
+     */
+    @Nullable
+    DockerContainerEvent next() throws DockerServerException;
+
+    @Override
+    void close();
+}
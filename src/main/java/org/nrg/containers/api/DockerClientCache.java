@@ -0,0 +1,340 @@
+package org.nrg.containers.api;
+
+import com.google.auto.value.AutoValue;
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerCertificates;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+import org.apache.commons.lang3.StringUtils;
+import org.nrg.containers.exceptions.DockerServerException;
+import org.nrg.containers.model.server.docker.DockerServerBase.DockerServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds long-lived {@link DockerClient}s, one per docker server host and cert path.
+ *
+ * Building a DefaultDockerClient means reloading the certificates and opening new
+ * connections (with a new TLS handshake for remote servers). The clients we hand out here
+ * are built once and reused, and each keeps a bounded pool of HTTP connections.
+ *
+ * Shared clients are handed out as leases from {@link #lease(DockerServer)}. Each lease holds one of the
+ * client's connections until it is closed, so a caller waits here when all of them are in use, and that wait
+ * is what the lease wait times measure. Callers close the lease, never the client.
+ *
+ * When the cache is invalidated, which happens when the docker server is changed, we forget the clients.
+ * A client is closed once the last lease on it is closed, so other threads can finish what they were doing with it.
+ */
+@Component
+public class DockerClientCache {
+    private static final Logger log = LoggerFactory.getLogger(DockerClientCache.class);
+
+    public static final int DEFAULT_CONNECTION_POOL_SIZE = 25;
+
+    private final int connectionPoolSize;
+    private final ConcurrentMap<ClientKey, PooledClient> clients = new ConcurrentHashMap<>();
+    // Clients that were invalidated, but still have leases out
+    private final Set<PooledClient> retiredClients = Collections.newSetFromMap(new ConcurrentHashMap<PooledClient, Boolean>());
+    private final Set<DockerClient> streamingClients = Collections.newSetFromMap(new ConcurrentHashMap<DockerClient, Boolean>());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong leaseCount = new AtomicLong();
+    private final AtomicLong totalLeaseWaitNanos = new AtomicLong();
+    private final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+
+    public DockerClientCache() {
+        this(DEFAULT_CONNECTION_POOL_SIZE);
+    }
+
+    @Autowired
+    public DockerClientCache(final @Value("${containers.docker.connectionPoolSize:25}") int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize > 0 ? connectionPoolSize : DEFAULT_CONNECTION_POOL_SIZE;
+    }
+
+    /**
+     * Lease the shared client for a docker server, building it if we don't have one yet.
+     * If all of the client's connections are leased, wait for one to be returned.
+     *
+     * @param server The docker server
+     * @return A lease on a shared client. Close the lease when you are done with the client; do not close the client.
+     * @throws DockerServerException If we could not build a client, or were interrupted while waiting for one
+     */
+    @Nonnull
+    public ClientLease lease(final @Nonnull DockerServer server) throws DockerServerException {
+        final long start = System.nanoTime();
+        final ClientKey key = ClientKey.create(server);
+        // A lease that had to build a client is a miss, even if that client was invalidated and we leased a newer one
+        boolean built = false;
+        while (true) {
+            PooledClient pooledClient = clients.get(key);
+            if (pooledClient == null) {
+                synchronized (clients) {
+                    pooledClient = clients.get(key);
+                    if (pooledClient == null) {
+                        log.debug("No cached docker client for server {} {}. Creating one.", server.name(), server.host());
+                        pooledClient = new PooledClient(createClient(server, connectionPoolSize, null), connectionPoolSize);
+                        clients.put(key, pooledClient);
+                        built = true;
+                    }
+                }
+            }
+            if (!pooledClient.acquire()) {
+                // It was invalidated between our finding it and leasing it. Get the new one.
+                continue;
+            }
+            try {
+                pooledClient.connections.acquire();
+            } catch (InterruptedException e) {
+                release(pooledClient);
+                Thread.currentThread().interrupt();
+                throw new DockerServerException("Interrupted while waiting for a docker client.", e);
+            }
+            (built ? misses : hits).incrementAndGet();
+            recordLeaseWait(System.nanoTime() - start);
+            return new ClientLease(pooledClient);
+        }
+    }
+
+    private void release(final PooledClient pooledClient) {
+        if (pooledClient.release()) {
+            retiredClients.remove(pooledClient);
+            closeQuietly(pooledClient.client);
+        }
+    }
+
+    /**
+     * Build a new client that is not managed by the cache. The caller must close it.
+     *
+     * @param server The docker server
+     * @return A new client
+     * @throws DockerServerException If we could not build a client
+     */
+    @Nonnull
+    public DockerClient createClient(final @Nonnull DockerServer server) throws DockerServerException {
+        return createClient(server, connectionPoolSize, null);
+    }
+
+    /**
+     * Build a client for a long-lived stream, such as docker events. It has no read timeout, so
+     * a quiet stream is not dropped. The client is not shared, but the cache keeps track of it
+     * so that it is closed (and the stream ended) when the cache is invalidated.
+     * Give it back with {@link #releaseStreamingClient(DockerClient)} when the stream is done.
+     *
+     * @param server The docker server
+     * @return A new client with no read timeout
+     * @throws DockerServerException If we could not build a client
+     */
+    @Nonnull
+    public DockerClient createStreamingClient(final @Nonnull DockerServer server) throws DockerServerException {
+        final DockerClient client = createClient(server, 1, 0L);
+        streamingClients.add(client);
+        return client;
+    }
+
+    public void releaseStreamingClient(final @Nullable DockerClient client) {
+        if (client != null && streamingClients.remove(client)) {
+            closeQuietly(client);
+        }
+    }
+
+    /**
+     * Forget all the cached clients, and close any open streaming clients.
+     * The next request for a client will build a new one. The old clients are closed when their last lease is closed.
+     */
+    public void invalidate() {
+        final List<PooledClient> toRetire;
+        synchronized (clients) {
+            toRetire = new ArrayList<>(clients.values());
+            clients.clear();
+        }
+        for (final DockerClient streamingClient : new ArrayList<>(streamingClients)) {
+            releaseStreamingClient(streamingClient);
+        }
+        if (!toRetire.isEmpty()) {
+            log.info("Closing {} cached docker client(s) once they are no longer in use.", toRetire.size());
+        }
+        for (final PooledClient pooledClient : toRetire) {
+            retiredClients.add(pooledClient);
+            if (pooledClient.retire()) {
+                retiredClients.remove(pooledClient);
+                closeQuietly(pooledClient.client);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        invalidate();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getAverageLeaseWaitMillis() {
+        final long leases = leaseCount.get();
+        return leases == 0 ? 0D : (double) TimeUnit.NANOSECONDS.toMicros(totalLeaseWaitNanos.get()) / (1000D * leases);
+    }
+
+    public long getMaxLeaseWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLeaseWaitNanos.get());
+    }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    /**
+     * @return The number of invalidated clients that are waiting for their leases to be closed
+     */
+    public int getRetiredClientCount() {
+        return retiredClients.size();
+    }
+
+    private void recordLeaseWait(final long waitNanos) {
+        leaseCount.incrementAndGet();
+        totalLeaseWaitNanos.addAndGet(waitNanos);
+        long max = maxLeaseWaitNanos.get();
+        while (waitNanos > max && !maxLeaseWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxLeaseWaitNanos.get();
+        }
+    }
+
+    @Nonnull
+    private static DockerClient createClient(final @Nonnull DockerServer server,
+                                             final int connectionPoolSize,
+                                             final @Nullable Long readTimeoutMillis) throws DockerServerException {
+        DefaultDockerClient.Builder clientBuilder =
+                DefaultDockerClient.builder()
+                        .uri(server.host())
+                        .connectionPoolSize(connectionPoolSize);
+        if (readTimeoutMillis != null) {
+            clientBuilder = clientBuilder.readTimeoutMillis(readTimeoutMillis);
+        }
+
+        if (StringUtils.isNotBlank(server.certPath())) {
+            try {
+                final DockerCertificates certificates =
+                        new DockerCertificates(Paths.get(server.certPath()));
+                clientBuilder = clientBuilder.dockerCertificates(certificates);
+            } catch (DockerCertificateException e) {
+                log.error("Could not find docker certificates at " + server.certPath(), e);
+            }
+        }
+
+        try {
+            return clientBuilder.build();
+        } catch (Throwable e) {
+            log.error("Could not create DockerClient instance. Reason: " + e.getMessage());
+            throw new DockerServerException(e);
+        }
+    }
+
+    private static void closeQuietly(final DockerClient client) {
+        try {
+            client.close();
+        } catch (Exception e) {
+            log.debug("Error closing docker client.", e);
+        }
+    }
+
+    /**
+     * A shared client, leased out for one caller's use. Closing the lease gives the client back.
+     */
+    public class ClientLease implements AutoCloseable {
+        private final PooledClient pooledClient;
+        private boolean closed = false;
+
+        private ClientLease(final PooledClient pooledClient) {
+            this.pooledClient = pooledClient;
+        }
+
+        @Nonnull
+        public DockerClient client() {
+            return pooledClient.client;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                pooledClient.connections.release();
+                release(pooledClient);
+            }
+        }
+    }
+
+    private static class PooledClient {
+        private final DockerClient client;
+        private final Semaphore connections;
+
+        // Guarded by "this"
+        private int leases = 0;
+        private boolean retired = false;
+
+        private PooledClient(final DockerClient client, final int connectionPoolSize) {
+            this.client = client;
+            this.connections = new Semaphore(connectionPoolSize, true);
+        }
+
+        /**
+         * @return false if the client was retired, and can't be leased
+         */
+        private synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+            leases++;
+            return true;
+        }
+
+        /**
+         * @return true if the client was retired, and this was its last lease, so it should be closed
+         */
+        private synchronized boolean release() {
+            leases--;
+            return retired && leases == 0;
+        }
+
+        /**
+         * @return true if the client has no leases, so it should be closed now
+         */
+        private synchronized boolean retire() {
+            retired = true;
+            return leases == 0;
+        }
+    }
+
+    @AutoValue
+    static abstract class ClientKey {
+        abstract String host();
+        @Nullable abstract String certPath();
+
+        static ClientKey create(final @Nonnull DockerServer server) {
+            return new AutoValue_DockerClientCache_ClientKey(server.host(),
+                    StringUtils.isBlank(server.certPath()) ? null : server.certPath());
+        }
+    }
+}
@@ -4,15 +4,12 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.spotify.docker.client.DefaultDockerClient;
-import com.spotify.docker.client.DockerCertificates;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.DockerClient.ListImagesParam;
 import com.spotify.docker.client.DockerClient.LogsParam;
 import com.spotify.docker.client.EventStream;
 import com.spotify.docker.client.LogStream;
 import com.spotify.docker.client.exceptions.ContainerNotFoundException;
-import com.spotify.docker.client.exceptions.DockerCertificateException;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.exceptions.ImageNotFoundException;
 import com.spotify.docker.client.messages.ContainerConfig;
@@ -38,6 +35,7 @@ import com.spotify.docker.client.messages.swarm.TaskSpec;
 import com.spotify.docker.client.messages.swarm.ResourceRequirements;
 import com.spotify.docker.client.messages.swarm.Resources;
 import org.apache.commons.lang3.StringUtils;
+import org.nrg.containers.api.DockerClientCache.ClientLease;
 import org.nrg.containers.events.model.DockerContainerEvent;
 import org.nrg.containers.events.model.ServiceTaskEvent;
 import org.nrg.containers.exceptions.ContainerException;
@@ -47,6 +45,7 @@ import org.nrg.containers.model.command.auto.Command;
 import org.nrg.containers.model.command.auto.ResolvedCommand;
 import org.nrg.containers.model.command.auto.ResolvedCommandMount;
 import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.model.container.auto.ContainerLogParameters;
 import org.nrg.containers.model.container.auto.ContainerMessage;
 import org.nrg.containers.model.container.auto.ServiceTask;
 import org.nrg.containers.model.dockerhub.DockerHubBase.DockerHub;
@@ -66,6 +65,9 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -81,18 +83,25 @@ import static org.nrg.containers.services.CommandLabelService.LABEL_KEY;
 @Service
 public class DockerControlApi implements ContainerControlApi {
     private static final Logger log = LoggerFactory.getLogger(DockerControlApi.class);
+    private static final int LOG_COPY_BUFFER_SIZE = 64 * 1024;
+
+    // Every swarm service we create gets this label, so we can find all their tasks in one request
+    public static final String SERVICE_LABEL_KEY = "org.nrg.containers.service";
 
     private final DockerServerService dockerServerService;
     private final CommandLabelService commandLabelService;
     private final NrgEventService eventService;
+    private final DockerClientCache dockerClientCache;
 
     @Autowired
     public DockerControlApi(final DockerServerService dockerServerService,
                             final CommandLabelService commandLabelService,
-                            final NrgEventService eventService) {
+                            final NrgEventService eventService,
+                            final DockerClientCache dockerClientCache) {
         this.dockerServerService = dockerServerService;
         this.commandLabelService = commandLabelService;
         this.eventService = eventService;
+        this.dockerClientCache = dockerClientCache;
     }
 
     @Nonnull
@@ -114,7 +123,8 @@ public class DockerControlApi implements ContainerControlApi {
     }
 
     private String pingServer(final DockerServer dockerServer) throws DockerServerException {
-        try (final DockerClient client = getClient(dockerServer)) {
+        try (final ClientLease lease = lease(dockerServer)) {
+            final DockerClient client = lease.client();
             return client.ping();
         } catch (DockerException | InterruptedException e) {
             log.error(e.getMessage());
@@ -123,7 +133,8 @@ public class DockerControlApi implements ContainerControlApi {
     }
 
     private String pingSwarmMaster(final DockerServer dockerServer) throws DockerServerException {
-        try (final DockerClient client = getClient(dockerServer)) {
+        try (final ClientLease lease = lease(dockerServer)) {
+            final DockerClient client = lease.client();
             client.listNodes();
             // If we got this far without an exception, then all is well.
         } catch (DockerException | InterruptedException e) {
@@ -158,7 +169,8 @@ public class DockerControlApi implements ContainerControlApi {
     public String pingHub(final @Nonnull DockerHub hub, final @Nullable String username, final @Nullable String password)
             throws DockerServerException, NoDockerServerException {
         int status = 500;
-        try (final DockerClient client = getClient()) {
+        try (final ClientLease lease = lease(getServer())) {
+            final DockerClient client = lease.client();
             status = client.auth(registryAuth(hub, username, password));
         } catch (Exception e) {
             log.error(e.getMessage());
@@ -226,7 +238,8 @@ public class DockerControlApi implements ContainerControlApi {
         final ListImagesParam[] dockerParams =
                 dockerParamsList.toArray(new ListImagesParam[dockerParamsList.size()]);
 
-        try (final DockerClient dockerClient = getClient()) {
+        try (final ClientLease lease = lease(getServer())) {
+            final DockerClient dockerClient = lease.client();
             return dockerClient.listImages(dockerParams);
         } catch (DockerException | InterruptedException e) {
             log.error("Failed to list images. " + e.getMessage());
@@ -247,8 +260,8 @@ public class DockerControlApi implements ContainerControlApi {
     @Nonnull
     public DockerImage getImageById(final String imageId)
         throws NotFoundException, DockerServerException, NoDockerServerException {
-        try (final DockerClient client = getClient()) {
-            return getImageById(imageId, client);
+        try (final ClientLease lease = lease(getServer())) {
+            return getImageById(imageId, lease.client());
         }
     }
 
@@ -542,7 +555,8 @@ public class DockerControlApi implements ContainerControlApi {
             log.debug(message);
         }
 
-        try (final DockerClient client = getClient(server)) {
+        try (final ClientLease lease = lease(server)) {
+            final DockerClient client = lease.client();
             final ContainerCreation container = client.createContainer(containerConfig);
 
             final List<String> warnings = container.warnings();
@@ -646,6 +660,7 @@ public class DockerControlApi implements ContainerControlApi {
                 .build();
         final ServiceSpec serviceSpec =
                 ServiceSpec.builder()
+                        .labels(Collections.singletonMap(SERVICE_LABEL_KEY, "true"))
                         .taskTemplate(taskSpec)
                         .mode(ServiceMode.builder()
                                 .replicated(ReplicatedService.builder()
@@ -678,7 +693,8 @@ public class DockerControlApi implements ContainerControlApi {
             log.debug(message);
         }
 
-        try (final DockerClient client = getClient(server)) {
+        try (final ClientLease lease = lease(server)) {
+            final DockerClient client = lease.client();
             final ServiceCreateResponse serviceCreateResponse = client.createService(serviceSpec);
 
             final List<String> warnings = serviceCreateResponse.warnings();
@@ -704,7 +720,8 @@ public class DockerControlApi implements ContainerControlApi {
                                 final DockerServer server) throws DockerServerException {
         final boolean swarmMode = server.swarmMode();
         final String containerOrServiceId = swarmMode ? containerOrService.serviceId() : containerOrService.containerId();
-        try (final DockerClient client = getClient(server)) {
+        try (final ClientLease lease = lease(server)) {
+            final DockerClient client = lease.client();
             if (swarmMode) {
                 log.debug("Inspecting service " + containerOrServiceId);
                 final com.spotify.docker.client.messages.swarm.Service service = client.inspectService(containerOrServiceId);
@@ -742,7 +759,8 @@ public class DockerControlApi implements ContainerControlApi {
 
     @Override
     public void deleteImageById(final String id, final Boolean force) throws NoDockerServerException, DockerServerException {
-        try (final DockerClient dockerClient = getClient()) {
+        try (final ClientLease lease = lease(getServer())) {
+            final DockerClient dockerClient = lease.client();
             dockerClient.removeImage(id, force, false);
         } catch (DockerException|InterruptedException e) {
             throw new DockerServerException(e);
@@ -765,14 +783,16 @@ public class DockerControlApi implements ContainerControlApi {
     @Override
     @Nullable
     public DockerImage pullImage(final String name, final @Nullable DockerHub hub, final @Nullable String username, final @Nullable String password) throws NoDockerServerException, DockerServerException, NotFoundException {
-        final DockerClient client = getClient();
-        _pullImage(name, registryAuth(hub, username, password), client);  // We want to throw NotFoundException here if the image is not found on the hub
-        try {
-            return getImageById(name, client);  // We don't want to throw NotFoundException from here. If we can't find the image here after it has been pulled, that is a server error.
-        } catch (NotFoundException e) {
-            final String m = String.format("Image \"%s\" was not found", name);
-            log.error(m);
-            throw new DockerServerException(e);
+        try (final ClientLease lease = lease(getServer())) {
+            final DockerClient client = lease.client();
+            _pullImage(name, registryAuth(hub, username, password), client);  // We want to throw NotFoundException here if the image is not found on the hub
+            try {
+                return getImageById(name, client);  // We don't want to throw NotFoundException from here. If we can't find the image here after it has been pulled, that is a server error.
+            } catch (NotFoundException e) {
+                final String m = String.format("Image \"%s\" was not found", name);
+                log.error(m);
+                throw new DockerServerException(e);
+            }
         }
     }
 
@@ -829,7 +849,8 @@ public class DockerControlApi implements ContainerControlApi {
         final DockerClient.ListContainersParam[] dockerParams =
                 dockerParamsList.toArray(new DockerClient.ListContainersParam[dockerParamsList.size()]);
 
-        try (final DockerClient dockerClient = getClient()) {
+        try (final ClientLease lease = lease(getServer())) {
+            final DockerClient dockerClient = lease.client();
             containerList = dockerClient.listContainers(dockerParams);
         } catch (DockerException | InterruptedException e) {
             log.error(e.getMessage());
@@ -864,9 +885,8 @@ public class DockerControlApi implements ContainerControlApi {
     }
 
     private ContainerInfo _getContainer(final String id) throws NoDockerServerException, DockerServerException {
-        final DockerClient client = getClient();
-        try {
-            return client.inspectContainer(id);
+        try (final ClientLease lease = lease(getServer())) {
+            return lease.client().inspectContainer(id);
         } catch (DockerException | InterruptedException e) {
             log.error("Container server error." + e.getMessage());
             throw new DockerServerException(e);
@@ -898,7 +918,8 @@ public class DockerControlApi implements ContainerControlApi {
     }
 
     private String getContainerLog(final String containerId, final LogsParam logType) throws NoDockerServerException, DockerServerException {
-        try (final LogStream logStream = getClient().logs(containerId, logType)) {
+        try (final ClientLease lease = lease(getServer());
+             final LogStream logStream = lease.client().logs(containerId, logType)) {
             return logStream.readFully();
         } catch (NoDockerServerException e) {
             throw e;
@@ -919,7 +940,8 @@ public class DockerControlApi implements ContainerControlApi {
     }
 
     private String getServiceLog(final String serviceId, final LogsParam logType) throws DockerServerException, NoDockerServerException {
-        try (final LogStream logStream = getClient().serviceLogs(serviceId, logType)) {
+        try (final ClientLease lease = lease(getServer());
+             final LogStream logStream = lease.client().serviceLogs(serviceId, logType)) {
             return logStream.readFully();
         } catch (NoDockerServerException e) {
             throw e;
@@ -929,35 +951,115 @@ public class DockerControlApi implements ContainerControlApi {
         }
     }
 
-    @VisibleForTesting
-    @Nonnull
-    public DockerClient getClient() throws NoDockerServerException, DockerServerException {
-        return getClient(getServer());
+    @Override
+    public void writeContainerLog(final String containerId,
+                                  final boolean stderr,
+                                  final ContainerLogParameters parameters,
+                                  final OutputStream outputStream)
+            throws NoDockerServerException, DockerServerException, IOException {
+        final DockerServer server = getServer();
+        final ClientLease lease = parameters.internal() && !parameters.follow() ? lease(server) : null;
+        final DockerClient client = lease == null ? dockerClientCache.createStreamingClient(server) : lease.client();
+        try (final LogStream logStream = client.logs(containerId, logsParams(stderr, parameters))) {
+            copyLog(logStream, outputStream, parameters.follow());
+        } catch (InterruptedException | DockerException | RuntimeException e) {
+            log.error(e.getMessage());
+            throw new DockerServerException(e);
+        } finally {
+            releaseLogClient(client, lease);
+        }
     }
 
-    @Nonnull
-    private DockerClient getClient(final @Nonnull DockerServer server) throws DockerServerException {
+    @Override
+    public void writeServiceLog(final String serviceId,
+                                final boolean stderr,
+                                final ContainerLogParameters parameters,
+                                final OutputStream outputStream)
+            throws NoDockerServerException, DockerServerException, IOException {
+        final DockerServer server = getServer();
+        final ClientLease lease = parameters.internal() && !parameters.follow() ? lease(server) : null;
+        final DockerClient client = lease == null ? dockerClientCache.createStreamingClient(server) : lease.client();
+        try (final LogStream logStream = client.serviceLogs(serviceId, logsParams(stderr, parameters))) {
+            copyLog(logStream, outputStream, parameters.follow());
+        } catch (InterruptedException | DockerException | RuntimeException e) {
+            log.error(e.getMessage());
+            throw new DockerServerException(e);
+        } finally {
+            releaseLogClient(client, lease);
+        }
+    }
 
-        DefaultDockerClient.Builder clientBuilder =
-            DefaultDockerClient.builder()
-                .uri(server.host());
+    /**
+     * A log we send to someone else, like an HTTP download, is read with its own client with no read timeout.
+     * It can be copied only as fast as they take it, and a followed log can go quiet for a long time,
+     * so it must not hold one of the shared client's connections.
+     * Our own bounded reads into local files use a lease on the shared client, like any other request.
+     */
+    private void releaseLogClient(final DockerClient client, final @Nullable ClientLease lease) {
+        if (lease == null) {
+            dockerClientCache.releaseStreamingClient(client);
+        } else {
+            lease.close();
+        }
+    }
 
-        if (StringUtils.isNotBlank(server.certPath())) {
-            try {
-                final DockerCertificates certificates =
-                    new DockerCertificates(Paths.get(server.certPath()));
-                clientBuilder = clientBuilder.dockerCertificates(certificates);
-            } catch (DockerCertificateException e) {
-                log.error("Could not find docker certificates at " + server.certPath(), e);
-            }
+    private static LogsParam[] logsParams(final boolean stderr, final ContainerLogParameters parameters) {
+        final List<LogsParam> logsParams = Lists.newArrayList(stderr ? LogsParam.stderr() : LogsParam.stdout());
+        if (parameters.tail() != null) {
+            logsParams.add(LogsParam.tail(parameters.tail()));
+        }
+        if (parameters.since() != null) {
+            logsParams.add(LogsParam.since(parameters.since()));
+        }
+        if (parameters.follow()) {
+            logsParams.add(LogsParam.follow());
         }
+        if (parameters.timestamps()) {
+            logsParams.add(LogsParam.timestamps());
+        }
+        return logsParams.toArray(new LogsParam[logsParams.size()]);
+    }
 
-        try {
-            return clientBuilder.build();
-        } catch (Throwable e) {
-            log.error("Could not create DockerClient instance. Reason: " + e.getMessage());
-            throw new DockerServerException(e);
+    /**
+     * Write each log frame to the output as it arrives. Only one frame is in memory at a time.
+     * When following a log we flush every frame, so the reader sees it right away.
+     */
+    private static void copyLog(final LogStream logStream, final OutputStream outputStream, final boolean flushEachFrame)
+            throws IOException {
+        final byte[] buffer = new byte[LOG_COPY_BUFFER_SIZE];
+        while (logStream.hasNext()) {
+            final ByteBuffer content = logStream.next().content();
+            while (content.hasRemaining()) {
+                final int length = Math.min(buffer.length, content.remaining());
+                content.get(buffer, 0, length);
+                outputStream.write(buffer, 0, length);
+            }
+            if (flushEachFrame) {
+                outputStream.flush();
+            }
         }
+        outputStream.flush();
+    }
+
+    /**
+     * Build a new client for the configured server. Unlike the clients used internally,
+     * this one is not shared; the caller owns it and is responsible for closing it.
+     *
+     * @return A new DockerClient
+     */
+    @VisibleForTesting
+    @Nonnull
+    public DockerClient getClient() throws NoDockerServerException, DockerServerException {
+        return dockerClientCache.createClient(getServer());
+    }
+
+    /**
+     * Lease the shared client for the server. Close the lease when done, but not the client;
+     * the client is owned by the {@link DockerClientCache}.
+     */
+    @Nonnull
+    private ClientLease lease(final @Nonnull DockerServer server) throws DockerServerException {
+        return dockerClientCache.lease(server);
     }
 
     @Override
@@ -966,25 +1068,31 @@ public class DockerControlApi implements ContainerControlApi {
 
         final List<DockerContainerEvent> events = Lists.newArrayList();
         for (final Event dockerEvent : dockerEventList) {
-            final Event.Actor dockerEventActor = dockerEvent.actor();
-            final Map<String, String> attributes = Maps.newHashMap();
-            if (dockerEventActor != null && dockerEventActor.attributes() != null) {
-                attributes.putAll(dockerEventActor.attributes());
-            }
-            if (attributes.containsKey(LABEL_KEY)) {
-                attributes.put(LABEL_KEY, "<elided>");
-            }
-            final DockerContainerEvent containerEvent =
-                    DockerContainerEvent.create(dockerEvent.action(),
-                            dockerEventActor != null? dockerEventActor.id() : null,
-                            dockerEvent.time(),
-                            dockerEvent.timeNano(),
-                            attributes);
-            events.add(containerEvent);
+            events.add(spotifyToNrg(dockerEvent));
         }
         return events;
     }
 
+    @Override
+    @Nonnull
+    public ContainerEventSubscription subscribeToContainerEvents(final Date since) throws NoDockerServerException, DockerServerException {
+        final DockerClient client = dockerClientCache.createStreamingClient(getServer());
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Opening docker container event stream from " + since.getTime() + ".");
+            }
+            final EventStream eventStream = client.events(since(since.getTime() / 1000), type(Event.Type.CONTAINER));
+            return new DockerEventSubscription(client, eventStream);
+        } catch (InterruptedException | DockerException e) {
+            dockerClientCache.releaseStreamingClient(client);
+            log.error(e.getMessage(), e);
+            throw new DockerServerException(e);
+        } catch (RuntimeException e) {
+            dockerClientCache.releaseStreamingClient(client);
+            throw new DockerServerException(e);
+        }
+    }
+
     @Override
     public void throwContainerEvents(final Date since, final Date until) throws NoDockerServerException, DockerServerException {
         final List<DockerContainerEvent> events = getContainerEvents(since, until);
@@ -998,7 +1106,8 @@ public class DockerControlApi implements ContainerControlApi {
     }
 
     private List<Event> getDockerContainerEvents(final Date since, final Date until) throws NoDockerServerException, DockerServerException {
-        try(final DockerClient client = getClient()) {
+        try (final ClientLease lease = lease(getServer())) {
+            final DockerClient client = lease.client();
             if (log.isDebugEnabled()) {
                 log.debug("Reading all docker container events from " + since.getTime() + " to " + until.getTime() + ".");
             }
@@ -1027,7 +1136,8 @@ public class DockerControlApi implements ContainerControlApi {
 
     @Override
     public void killContainer(final String id) throws NoDockerServerException, DockerServerException, NotFoundException {
-        try(final DockerClient client = getClient()) {
+        try (final ClientLease lease = lease(getServer())) {
+            final DockerClient client = lease.client();
             log.info("Killing container " + id);
             client.killContainer(id);
         } catch (ContainerNotFoundException e) {
@@ -1052,7 +1162,8 @@ public class DockerControlApi implements ContainerControlApi {
     @Nullable
     public ServiceTask getTaskForService(final DockerServer dockerServer, final Container service)
             throws DockerServerException {
-        try (final DockerClient client = getClient(dockerServer)) {
+        try (final ClientLease lease = lease(dockerServer)) {
+            final DockerClient client = lease.client();
             Task task = null;
 
             if (service.taskId() == null) {
@@ -1076,25 +1187,7 @@ public class DockerControlApi implements ContainerControlApi {
             }
 
             if (task != null) {
-                final ServiceTask serviceTask = ServiceTask.create(task, service.serviceId());
-
-                if (serviceTask.isExitStatus() && serviceTask.exitCode() == null) {
-                    // The Task is supposed to have the container exit code, but docker doesn't report it where it should.
-                    // So go get the container info and get the exit code
-                    log.debug("Looking up exit code for container {}.", serviceTask.containerId());
-                    if (serviceTask.containerId() != null) {
-                        final ContainerInfo containerInfo = client.inspectContainer(serviceTask.containerId());
-                        if (containerInfo.state().exitCode() == null) {
-                            log.debug("Welp. Container exit code is null on the container too.");
-                        } else {
-                            return serviceTask.toBuilder().exitCode(containerInfo.state().exitCode()).build();
-                        }
-                    } else {
-                        log.error("Cannot look up exit code. Container ID is null.");
-                    }
-                }
-
-                return serviceTask;
+                return withContainerExitCode(ServiceTask.create(task, service.serviceId()), client);
             }
         } catch (DockerException | InterruptedException e) {
             log.error(e.getMessage(), e);
@@ -1106,6 +1199,69 @@ public class DockerControlApi implements ContainerControlApi {
         return null;
     }
 
+    @Override
+    @Nonnull
+    public Map<String, ServiceTask> getTasksForLabeledServices(final DockerServer dockerServer) throws DockerServerException {
+        final List<Task> tasks;
+        try (final ClientLease lease = lease(dockerServer)) {
+            final DockerClient client = lease.client();
+            tasks = client.listTasks(Task.Criteria.builder().label(SERVICE_LABEL_KEY).build());
+        } catch (DockerException | InterruptedException e) {
+            log.error(e.getMessage(), e);
+            throw new DockerServerException(e);
+        }
+
+        // Our services have one replica and never restart, so there should be one task per service.
+        // If we do find more than one, the most recently created is the one we care about.
+        final Map<String, Task> latestTaskByServiceId = Maps.newHashMap();
+        for (final Task task : tasks) {
+            final Task seen = latestTaskByServiceId.get(task.serviceId());
+            if (seen == null || (task.createdAt() != null && seen.createdAt() != null && task.createdAt().after(seen.createdAt()))) {
+                latestTaskByServiceId.put(task.serviceId(), task);
+            }
+        }
+        log.trace("Found {} tasks for {} labeled services.", tasks.size(), latestTaskByServiceId.size());
+
+        final Map<String, ServiceTask> serviceTasks = Maps.newHashMap();
+        for (final Map.Entry<String, Task> entry : latestTaskByServiceId.entrySet()) {
+            serviceTasks.put(entry.getKey(), ServiceTask.create(entry.getValue(), entry.getKey()));
+        }
+        return serviceTasks;
+    }
+
+    @Override
+    @Nonnull
+    public ServiceTask withContainerExitCode(final DockerServer dockerServer, final ServiceTask serviceTask) throws DockerServerException {
+        try (final ClientLease lease = lease(dockerServer)) {
+            return withContainerExitCode(serviceTask, lease.client());
+        } catch (DockerException | InterruptedException e) {
+            log.error(e.getMessage(), e);
+            throw new DockerServerException(e);
+        }
+    }
+
+    @Nonnull
+    private ServiceTask withContainerExitCode(final ServiceTask serviceTask, final DockerClient client)
+            throws DockerException, InterruptedException {
+        if (serviceTask.isExitStatus() && serviceTask.exitCode() == null) {
+            // The Task is supposed to have the container exit code, but docker doesn't report it where it should.
+            // So go get the container info and get the exit code
+            log.debug("Looking up exit code for container {}.", serviceTask.containerId());
+            if (serviceTask.containerId() != null) {
+                final ContainerInfo containerInfo = client.inspectContainer(serviceTask.containerId());
+                if (containerInfo.state().exitCode() == null) {
+                    log.debug("Welp. Container exit code is null on the container too.");
+                } else {
+                    return serviceTask.toBuilder().exitCode(containerInfo.state().exitCode()).build();
+                }
+            } else {
+                log.error("Cannot look up exit code. Container ID is null.");
+            }
+        }
+
+        return serviceTask;
+    }
+
     @Override
     public void throwTaskEventForService(final Container service) throws NoDockerServerException, DockerServerException {
         throwTaskEventForService(getServer(), service);
@@ -1178,4 +1334,59 @@ public class DockerControlApi implements ContainerControlApi {
                         null
         );
     }
+
+    /**
+     * Convert spotify-docker Event object to xnat-container DockerContainerEvent object
+     *
+     * @param dockerEvent Spotify-Docker Event object
+     * @return NRG DockerContainerEvent object
+     **/
+    @Nonnull
+    private static DockerContainerEvent spotifyToNrg(final @Nonnull Event dockerEvent) {
+        final Event.Actor dockerEventActor = dockerEvent.actor();
+        final Map<String, String> attributes = Maps.newHashMap();
+        if (dockerEventActor != null && dockerEventActor.attributes() != null) {
+            attributes.putAll(dockerEventActor.attributes());
+        }
+        if (attributes.containsKey(LABEL_KEY)) {
+            attributes.put(LABEL_KEY, "<elided>");
+        }
+        return DockerContainerEvent.create(dockerEvent.action(),
+                dockerEventActor != null? dockerEventActor.id() : null,
+                dockerEvent.time(),
+                dockerEvent.timeNano(),
+                attributes);
+    }
+
+    private class DockerEventSubscription implements ContainerEventSubscription {
+        private final DockerClient client;
+        private final EventStream eventStream;
+
+        private DockerEventSubscription(final DockerClient client, final EventStream eventStream) {
+            this.client = client;
+            this.eventStream = eventStream;
+        }
+
+        @Override
+        @Nullable
+        public DockerContainerEvent next() throws DockerServerException {
+            try {
+                return eventStream.hasNext() ? spotifyToNrg(eventStream.next()) : null;
+            } catch (RuntimeException e) {
+                // The event stream wraps its IOExceptions, including the one we get when the stream is closed
+                throw new DockerServerException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                eventStream.close();
+            } catch (RuntimeException e) {
+                log.debug("Error closing docker event stream.", e);
+            } finally {
+                dockerClientCache.releaseStreamingClient(client);
+            }
+        }
+    }
 }
@@ -4,9 +4,13 @@ import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.guava.GuavaModule;
 import org.nrg.containers.events.DockerStatusUpdater;
+import org.nrg.containers.services.CommandLaunchQueue;
+import org.nrg.containers.services.impl.ContainerLogShipper;
+import org.nrg.containers.services.impl.MetricsSummaryLogger;
 import org.nrg.framework.annotations.XnatPlugin;
 import org.nrg.transporter.config.TransporterConfig;
 import org.nrg.xnat.initialization.RootConfig;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.ComponentScan.Filter;
@@ -48,4 +52,31 @@ public class ContainersConfig {
                 new PeriodicTrigger(10L, TimeUnit.SECONDS)
         );
     }
-}
\ No newline at end of file
+
+    @Bean
+    public TriggerTask containerLogShipperTask(final ContainerLogShipper containerLogShipper,
+                                               final @Value("${containers.logShipper.intervalSeconds:30}") long intervalSeconds) {
+        return new TriggerTask(
+                containerLogShipper,
+                new PeriodicTrigger(Math.max(intervalSeconds, 1L), TimeUnit.SECONDS)
+        );
+    }
+
+    @Bean
+    public TriggerTask commandLaunchQueueDrainTask(final CommandLaunchQueue commandLaunchQueue,
+                                                  final @Value("${containers.launchQueue.drainSeconds:30}") long drainSeconds) {
+        return new TriggerTask(
+                commandLaunchQueue,
+                new PeriodicTrigger(Math.max(drainSeconds, 1L), TimeUnit.SECONDS)
+        );
+    }
+
+    @Bean
+    public TriggerTask metricsSummaryLoggerTask(final MetricsSummaryLogger metricsSummaryLogger,
+                                                final @Value("${containers.metrics.logIntervalSeconds:300}") long intervalSeconds) {
+        return new TriggerTask(
+                metricsSummaryLogger,
+                new PeriodicTrigger(Math.max(intervalSeconds, 1L), TimeUnit.SECONDS)
+        );
+    }
+}
@@ -1,6 +1,7 @@
 package org.nrg.containers.daos;
 
 import org.hibernate.Hibernate;
+import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Restrictions;
 import org.nrg.containers.model.container.entity.ContainerEntity;
 import org.nrg.containers.model.container.entity.ContainerEntityHistory;
@@ -84,17 +85,36 @@ public class ContainerEntityRepository extends AbstractHibernateDAO<ContainerEnt
                 .createCriteria(ContainerEntity.class)
                 .add(Restrictions.conjunction()
                         .add(Restrictions.isNotNull("serviceId"))
-                        .add(Restrictions.not(Restrictions.disjunction()
-                                .add(Restrictions.like("status", "Complete"))
-                                .add(Restrictions.like("status", "Done"))
-                                .add(Restrictions.like("status", "Failed"))
-                                .add(Restrictions.like("status", "Killed"))
-                        ))
+                        .add(isNotFinalized())
                 )
                 .list();
         return initializeAndReturnList(servicesResult);
     }
 
+    @Nonnull
+    public List<ContainerEntity> retrieveNonfinalized() {
+        final List result = getSession()
+                .createCriteria(ContainerEntity.class)
+                .add(Restrictions.conjunction()
+                        .add(Restrictions.disjunction()
+                                .add(Restrictions.isNotNull("containerId"))
+                                .add(Restrictions.isNotNull("serviceId"))
+                        )
+                        .add(isNotFinalized())
+                )
+                .list();
+        return initializeAndReturnList(result);
+    }
+
+    private static Criterion isNotFinalized() {
+        return Restrictions.not(Restrictions.disjunction()
+                .add(Restrictions.like("status", "Complete"))
+                .add(Restrictions.like("status", "Done"))
+                .add(Restrictions.like("status", "Failed"))
+                .add(Restrictions.like("status", "Killed"))
+        );
+    }
+
     @Nonnull
     public List<ContainerEntity> retrieveContainersForParentWithSubtype(final long parentId,
                                                                         final String subtype) {
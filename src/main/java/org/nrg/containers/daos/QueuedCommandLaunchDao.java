@@ -0,0 +1,55 @@
+package org.nrg.containers.daos;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.criterion.Restrictions;
+import org.nrg.containers.model.QueuedCommandLaunch;
+import org.nrg.framework.orm.hibernate.AbstractHibernateDAO;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public class QueuedCommandLaunchDao extends AbstractHibernateDAO<QueuedCommandLaunch> {
+
+    /**
+     * Find queued launches with a given status.
+     * If status is blank, return an empty list.
+     *
+     * @param status One of the QueuedCommandLaunch statuses
+     * @return List of queued launches.
+     */
+    public List<QueuedCommandLaunch> findByStatus(final String status) {
+        if (StringUtils.isBlank(status)) {
+            return Lists.newArrayList();
+        }
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("status", status);
+        final List<QueuedCommandLaunch> found = findByProperties(properties);
+        return found == null ? Lists.<QueuedCommandLaunch>newArrayList() : found;
+    }
+
+    /**
+     * Find queued launches with a given status that have not changed status since some time.
+     * If status is blank, return an empty list.
+     *
+     * @param status One of the QueuedCommandLaunch statuses
+     * @param before Only find launches whose status was set before this time
+     * @return List of queued launches.
+     */
+    @SuppressWarnings("unchecked")
+    public List<QueuedCommandLaunch> findByStatusBefore(final String status, final Date before) {
+        if (StringUtils.isBlank(status) || before == null) {
+            return Lists.newArrayList();
+        }
+        final List<QueuedCommandLaunch> found = getSession()
+                .createCriteria(QueuedCommandLaunch.class)
+                .add(Restrictions.eq("status", status))
+                .add(Restrictions.lt("statusTime", before))
+                .list();
+        return found == null ? Lists.<QueuedCommandLaunch>newArrayList() : found;
+    }
+}
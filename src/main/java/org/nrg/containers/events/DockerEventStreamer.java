@@ -0,0 +1,250 @@
+package org.nrg.containers.events;
+
+import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.api.ContainerEventSubscription;
+import org.nrg.containers.events.model.DockerContainerEvent;
+import org.nrg.containers.exceptions.DockerServerException;
+import org.nrg.containers.exceptions.NoDockerServerException;
+import org.nrg.containers.model.server.docker.DockerServerBase.DockerServer;
+import org.nrg.containers.services.DockerServerService;
+import org.nrg.framework.services.NrgEventService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a single docker container event stream open and throws each event as soon as it arrives.
+ *
+ * The {@link DockerStatusUpdater} starts the streamer and keeps polling for events only while the
+ * stream is not connected. When the stream fails, we reconnect with exponential backoff, resuming
+ * from the time of the last event we saw. Events that get delivered twice, by a reconnect or by a poll
+ * that overlaps the stream, are harmless; we skip history items we have already recorded.
+ *
+ * Streaming only applies to plain docker servers. Swarm services are still checked by polling their tasks.
+ */
+@Component
+public class DockerEventStreamer {
+    private static final Logger log = LoggerFactory.getLogger(DockerEventStreamer.class);
+
+    private static final long MIN_BACKOFF_MILLIS = 1000L;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long EVENT_CHECK_TIME_SAVE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final ContainerControlApi controlApi;
+    private final DockerServerService dockerServerService;
+    private final NrgEventService eventService;
+    private final boolean enabled;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+
+    // The thread that is streaming now. A thread that is no longer this one has been stopped,
+    // and must not change anything on its way out.
+    private volatile Thread streamThread;
+    private volatile boolean connected = false;
+    private final AtomicReference<ContainerEventSubscription> subscription = new AtomicReference<>();
+
+    // Shared by each stream thread with the next
+    private volatile Date lastEventTime;
+    private volatile long lastSavedEventCheckTime = 0L;
+
+    @Autowired
+    public DockerEventStreamer(final ContainerControlApi controlApi,
+                               final DockerServerService dockerServerService,
+                               final NrgEventService eventService,
+                               final @Value("${containers.docker.streamEvents:true}") boolean enabled) {
+        this(controlApi, dockerServerService, eventService, enabled, MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    DockerEventStreamer(final ContainerControlApi controlApi,
+                        final DockerServerService dockerServerService,
+                        final NrgEventService eventService,
+                        final boolean enabled,
+                        final long minBackoffMillis,
+                        final long maxBackoffMillis) {
+        this.controlApi = controlApi;
+        this.dockerServerService = dockerServerService;
+        this.eventService = eventService;
+        this.enabled = enabled;
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if a container event stream is open right now and we do not need to poll for events.
+     */
+    public boolean isStreaming() {
+        return connected;
+    }
+
+    /**
+     * Start streaming events in a background thread, if we are enabled and not already running.
+     */
+    public synchronized void start() {
+        if (!enabled || streamThread != null) {
+            return;
+        }
+
+        log.info("Starting docker container event stream.");
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                streamUntilStopped();
+            }
+        }, "docker-event-stream");
+        thread.setDaemon(true);
+        streamThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stop streaming, and wait a little while for the stream thread to finish.
+     */
+    @PreDestroy
+    public void stop() {
+        final Thread toStop;
+        synchronized (this) {
+            toStop = streamThread;
+            if (toStop == null) {
+                return;
+            }
+
+            log.info("Stopping docker container event stream.");
+            streamThread = null;
+            connected = false;
+        }
+
+        closeSubscription(subscription.getAndSet(null));
+        toStop.interrupt();
+        try {
+            toStop.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (toStop.isAlive()) {
+            log.warn("Docker container event stream thread did not stop within {} ms.", STOP_TIMEOUT_MILLIS);
+        }
+    }
+
+    private boolean isCurrentStream() {
+        return streamThread == Thread.currentThread();
+    }
+
+    private void streamUntilStopped() {
+        long backoffMillis = minBackoffMillis;
+        while (isCurrentStream()) {
+            final DockerServer dockerServer = dockerServerService.retrieveServer();
+            if (dockerServer == null || dockerServer.swarmMode()) {
+                log.info("Docker server is {}. Stopping docker container event stream.",
+                        dockerServer == null ? "not defined" : "in swarm mode");
+                break;
+            }
+
+            if (lastEventTime == null) {
+                lastEventTime = dockerServer.lastEventCheckTime();
+            }
+
+            ContainerEventSubscription mySubscription = null;
+            try {
+                mySubscription = controlApi.subscribeToContainerEvents(lastEventTime == null ? new Date(0L) : lastEventTime);
+                subscription.set(mySubscription);
+                if (!isCurrentStream()) {
+                    // We were stopped while connecting, too late for stop() to close this subscription
+                    break;
+                }
+                connected = true;
+                backoffMillis = minBackoffMillis;
+                log.debug("Connected to docker container event stream.");
+
+                DockerContainerEvent event;
+                while (isCurrentStream() && (event = mySubscription.next()) != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Throwing streamed docker container event: " + event);
+                    }
+                    eventService.triggerEvent(event);
+                    lastEventTime = event.time();
+                    saveEventCheckTime(false);
+                }
+                log.debug("Docker container event stream ended.");
+            } catch (NoDockerServerException e) {
+                log.info("Cannot stream Docker container events. No Docker server defined.");
+            } catch (DockerServerException e) {
+                if (isCurrentStream()) {
+                    log.info("Docker container event stream failed. Falling back to polling until we reconnect. Reason: {}", e.getMessage());
+                }
+            } catch (Throwable e) {
+                log.error("There was a problem handling a streamed docker event.", e);
+            } finally {
+                if (isCurrentStream()) {
+                    connected = false;
+                }
+                if (mySubscription != null) {
+                    subscription.compareAndSet(mySubscription, null);
+                    closeSubscription(mySubscription);
+                }
+                saveEventCheckTime(true);
+            }
+
+            if (!isCurrentStream()) {
+                break;
+            }
+
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoffMillis = Math.min(2 * backoffMillis, maxBackoffMillis);
+        }
+
+        synchronized (this) {
+            if (isCurrentStream()) {
+                connected = false;
+                streamThread = null;
+            }
+        }
+    }
+
+    private void closeSubscription(final ContainerEventSubscription toClose) {
+        if (toClose != null) {
+            toClose.close();
+        }
+    }
+
+    /**
+     * Record the time of the last event we have thrown, so a reconnect (or the poller, if we can't reconnect)
+     * picks up where we left off. We don't write every event to the database; it is fine to replay a few.
+     */
+    private void saveEventCheckTime(final boolean force) {
+        if (lastEventTime == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (!force && now - lastSavedEventCheckTime < EVENT_CHECK_TIME_SAVE_INTERVAL_MILLIS) {
+            return;
+        }
+
+        try {
+            // Read the server fresh, so we don't overwrite any change that was made while we were streaming
+            final DockerServer current = dockerServerService.retrieveServer();
+            if (current != null && !current.swarmMode() &&
+                    (current.lastEventCheckTime() == null || current.lastEventCheckTime().before(lastEventTime))) {
+                dockerServerService.update(current.updateEventCheckTime(lastEventTime));
+            }
+            lastSavedEventCheckTime = now;
+        } catch (Exception e) {
+            log.error("Could not save docker event check time.", e);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package org.nrg.containers.events;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.events.model.ServiceTaskEvent;
 import org.nrg.containers.exceptions.DockerServerException;
 import org.nrg.containers.exceptions.NoDockerServerException;
 import org.nrg.containers.model.container.auto.Container;
@@ -10,16 +12,30 @@ import org.nrg.containers.model.server.docker.DockerServerBase.DockerServer;
 import org.nrg.containers.services.ContainerService;
 import org.nrg.containers.services.DockerServerService;
 import org.nrg.framework.exceptions.NotFoundException;
+import org.nrg.framework.services.NrgEventService;
 import org.nrg.xft.schema.XFTManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class DockerStatusUpdater implements Runnable {
@@ -28,6 +44,18 @@ public class DockerStatusUpdater implements Runnable {
     private ContainerControlApi controlApi;
     private DockerServerService dockerServerService;
     private ContainerService containerService;
+    private DockerEventStreamer dockerEventStreamer;
+    private NrgEventService eventService;
+
+    private final ExecutorService executor;
+    private final long timeoutMillis;
+    private final AtomicBoolean inProgress = new AtomicBoolean(false);
+
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong skippedRunCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private volatile long lastRunDurationMillis = 0L;
+    private volatile int lastRunServicesChecked = 0;
 
     private boolean haveLoggedDockerConnectFailure = false;
     private boolean haveLoggedNoServerInDb = false;
@@ -37,14 +65,67 @@ public class DockerStatusUpdater implements Runnable {
     @SuppressWarnings("SpringJavaAutowiringInspection")
     public DockerStatusUpdater(final ContainerControlApi controlApi,
                                final DockerServerService dockerServerService,
-                               final ContainerService containerService) {
+                               final ContainerService containerService,
+                               final DockerEventStreamer dockerEventStreamer,
+                               final NrgEventService eventService,
+                               final @Value("${containers.statusUpdater.threads:4}") int numThreads,
+                               final @Value("${containers.statusUpdater.timeoutSeconds:30}") long timeoutSeconds) {
         this.controlApi = controlApi;
         this.dockerServerService = dockerServerService;
         this.containerService = containerService;
+        this.dockerEventStreamer = dockerEventStreamer;
+        this.eventService = eventService;
+        this.executor = Executors.newFixedThreadPool(Math.max(numThreads, 1),
+                new ThreadFactoryBuilder().setNameFormat("docker-status-updater-%d").setDaemon(true).build());
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(timeoutSeconds, 1L));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
     }
 
     @Override
     public void run() {
+        // A slow run must not pile up behind the next trigger. If the last run is still going, skip this one.
+        if (!inProgress.compareAndSet(false, true)) {
+            skippedRunCount.incrementAndGet();
+            log.debug("Previous status update is still in progress. Skipping this one.");
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            updateStatus();
+        } finally {
+            lastRunDurationMillis = System.currentTimeMillis() - start;
+            runCount.incrementAndGet();
+            inProgress.set(false);
+            log.trace("Status update took {} ms.", lastRunDurationMillis);
+        }
+    }
+
+    public long getRunCount() {
+        return runCount.get();
+    }
+
+    public long getSkippedRunCount() {
+        return skippedRunCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getLastRunDurationMillis() {
+        return lastRunDurationMillis;
+    }
+
+    public int getLastRunServicesChecked() {
+        return lastRunServicesChecked;
+    }
+
+    private void updateStatus() {
         log.trace("Attempting to update status with docker.");
 
         final String skipMessage = "Skipping attempt to update status.";
@@ -114,6 +195,16 @@ public class DockerStatusUpdater implements Runnable {
 
     @Nonnull
     private UpdateReport updateContainers(final DockerServer dockerServer) {
+        if (dockerEventStreamer.isEnabled()) {
+            // Make sure the stream is running. If it is connected, events are thrown as they happen
+            // and we have nothing to poll. If not, we poll until it reconnects.
+            dockerEventStreamer.start();
+            if (dockerEventStreamer.isStreaming()) {
+                log.trace("Docker container events are being streamed. Skipping poll.");
+                return UpdateReport.singleton(UpdateReportEntry.success());
+            }
+        }
+
         final Date lastEventCheckTime = dockerServer.lastEventCheckTime();
         final Date since = lastEventCheckTime == null ? new Date(0L) : lastEventCheckTime;
 
@@ -135,14 +226,60 @@ public class DockerStatusUpdater implements Runnable {
     @Nonnull
     private UpdateReport updateServices(final DockerServer dockerServer) {
         final UpdateReport report = UpdateReport.create();
-        for (final Container service : containerService.retrieveNonfinalizedServices()) {
-            // log.debug("Getting Task info for Service {}.", service.serviceId());
-            try {
-                controlApi.throwTaskEventForService(dockerServer, service);
+        final List<Container> services = containerService.retrieveNonfinalizedServices();
+        if (services.isEmpty()) {
+            lastRunServicesChecked = 0;
+            report.successful = true;
+            return report;
+        }
+
+        // Get the tasks for all our services in one request, then match them up with the services here
+        Map<String, ServiceTask> tasksByServiceId = null;
+        try {
+            tasksByServiceId = controlApi.getTasksForLabeledServices(dockerServer);
+        } catch (DockerServerException e) {
+            log.error("Cannot list tasks for services. Checking services one at a time.", e);
+        }
+
+        // Services that need a request to docker are checked in parallel, each in isolation from the others
+        final List<String> submittedServiceIds = Lists.newArrayList();
+        final List<Future<UpdateReportEntry>> futures = Lists.newArrayList();
+        for (final Container service : services) {
+            final ServiceTask task = tasksByServiceId == null ? null : tasksByServiceId.get(service.serviceId());
+            if (task != null && service.isTaskStatusInHistory(task)) {
+                log.trace("Task status for service {} has not changed.", service.serviceId());
                 report.add(UpdateReportEntry.success(service.serviceId()));
-            } catch (DockerServerException e) {
-                log.error(String.format("Cannot get Tasks for Service %s.", service.serviceId()), e);
-                report.add(UpdateReportEntry.failure(service.serviceId(), e.getMessage()));
+                continue;
+            }
+
+            submittedServiceIds.add(service.serviceId());
+            futures.add(executor.submit(new Callable<UpdateReportEntry>() {
+                @Override
+                public UpdateReportEntry call() {
+                    return updateService(dockerServer, service, task);
+                }
+            }));
+        }
+        lastRunServicesChecked = services.size();
+
+        for (int i = 0; i < futures.size(); i++) {
+            final String serviceId = submittedServiceIds.get(i);
+            final Future<UpdateReportEntry> future = futures.get(i);
+            try {
+                report.add(future.get(timeoutMillis, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                timeoutCount.incrementAndGet();
+                report.add(UpdateReportEntry.failure(serviceId, "Timed out after " + timeoutMillis + " ms."));
+            } catch (ExecutionException e) {
+                report.add(UpdateReportEntry.failure(serviceId, e.getCause() == null ? e.getMessage() : e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (final Future<UpdateReportEntry> toCancel : futures.subList(i, futures.size())) {
+                    toCancel.cancel(true);
+                }
+                report.add(UpdateReportEntry.failure(serviceId, "Interrupted."));
+                break;
             }
         }
 
@@ -160,6 +297,35 @@ public class DockerStatusUpdater implements Runnable {
         return report;
     }
 
+    @Nonnull
+    private UpdateReportEntry updateService(final DockerServer dockerServer,
+                                            final Container service,
+                                            final @Nullable ServiceTask task) {
+        try {
+            if (task == null) {
+                // Either the bulk request failed, or this service has no task in it.
+                // Maybe the service was created before we labeled our services, or its task doesn't exist yet.
+                controlApi.throwTaskEventForService(dockerServer, service);
+            } else {
+                throwTaskEvent(dockerServer, service, task);
+            }
+            return UpdateReportEntry.success(service.serviceId());
+        } catch (DockerServerException e) {
+            log.error(String.format("Cannot get Tasks for Service %s.", service.serviceId()), e);
+            return UpdateReportEntry.failure(service.serviceId(), e.getMessage());
+        } catch (RuntimeException e) {
+            log.error(String.format("Cannot update status for Service %s.", service.serviceId()), e);
+            return UpdateReportEntry.failure(service.serviceId(), e.getMessage());
+        }
+    }
+
+    private void throwTaskEvent(final DockerServer dockerServer, final Container service, final ServiceTask task)
+            throws DockerServerException {
+        final ServiceTask taskWithExitCode = controlApi.withContainerExitCode(dockerServer, task);
+        log.trace("Throwing service task event for service {}.", service.serviceId());
+        eventService.triggerEvent(ServiceTaskEvent.create(taskWithExitCode, service));
+    }
+
     private static class UpdateReport {
         private Boolean successful;
         private List<UpdateReportEntry> updateReports;
@@ -5,16 +5,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Maps;
 import org.apache.commons.lang3.StringUtils;
 import org.nrg.containers.events.model.ScanArchiveEventToLaunchCommands;
-import org.nrg.containers.exceptions.CommandResolutionException;
-import org.nrg.containers.exceptions.ContainerException;
-import org.nrg.containers.exceptions.DockerServerException;
-import org.nrg.containers.exceptions.NoDockerServerException;
-import org.nrg.containers.exceptions.UnauthorizedException;
 import org.nrg.containers.model.CommandEventMapping;
 import org.nrg.containers.model.xnat.Scan;
 import org.nrg.containers.services.CommandEventMappingService;
-import org.nrg.containers.services.ContainerService;
-import org.nrg.framework.exceptions.NotFoundException;
+import org.nrg.containers.services.CommandLaunchQueue;
 import org.nrg.xdat.security.services.UserManagementServiceI;
 import org.nrg.xdat.security.user.exceptions.UserInitException;
 import org.nrg.xdat.security.user.exceptions.UserNotFoundException;
@@ -38,19 +32,19 @@ public class ScanArchiveListenerAndCommandLauncher implements Consumer<Event<Sca
     private static final String EVENT_ID = "ScanArchived";
 
     private ObjectMapper mapper;
-    private ContainerService containerService;
+    private CommandLaunchQueue commandLaunchQueue;
     private CommandEventMappingService commandEventMappingService;
     private UserManagementServiceI userManagementService;
 
     @Autowired
     public ScanArchiveListenerAndCommandLauncher(final EventBus eventBus,
                                                  final ObjectMapper mapper,
-                                                 final ContainerService containerService,
+                                                 final CommandLaunchQueue commandLaunchQueue,
                                                  final CommandEventMappingService commandEventMappingService,
                                                  final UserManagementServiceI userManagementService) {
         eventBus.on(type(ScanArchiveEventToLaunchCommands.class), this);
         this.mapper = mapper;
-        this.containerService = containerService;
+        this.commandLaunchQueue = commandLaunchQueue;
         this.commandEventMappingService = commandEventMappingService;
         this.userManagementService = userManagementService;
     }
@@ -104,15 +98,11 @@ public class ScanArchiveListenerAndCommandLauncher implements Consumer<Event<Sca
                                 }
                             }
                         }
-                        if (subscriptionProjectId != null && !subscriptionProjectId.isEmpty()) {
-                            containerService.resolveCommandAndLaunchContainer(subscriptionProjectId, commandId, wrapperName, inputValues, subscriptionUser);
-                        } else {
-                            containerService.resolveCommandAndLaunchContainer(commandId, wrapperName, inputValues, subscriptionUser);
-                        }
+                        // Resolving and launching happen in the background, so we don't hold up the event bus
+                        commandLaunchQueue.queue(StringUtils.isNotBlank(subscriptionProjectId) ? subscriptionProjectId : null,
+                                commandId, wrapperName, inputValues, subscriptionUser);
                     } catch (UserNotFoundException | UserInitException e) {
                         log.error(String.format("Error launching command %d. Could not find or Init subscription owner: %s", commandId, commandEventMapping.getSubscriptionUserName()), e);
-                    } catch (NotFoundException | CommandResolutionException | NoDockerServerException | DockerServerException | ContainerException | UnauthorizedException e) {
-                        log.error("Error launching command " + commandId, e);
                     }
                 }
             }
@@ -6,17 +6,11 @@ import com.google.common.collect.Maps;
 import org.apache.commons.lang3.StringUtils;
 import org.nrg.containers.events.model.ScanArchiveEventToLaunchCommands;
 import org.nrg.containers.events.model.SessionArchiveEvent;
-import org.nrg.containers.exceptions.CommandResolutionException;
-import org.nrg.containers.exceptions.ContainerException;
-import org.nrg.containers.exceptions.DockerServerException;
-import org.nrg.containers.exceptions.NoDockerServerException;
-import org.nrg.containers.exceptions.UnauthorizedException;
 import org.nrg.containers.model.CommandEventMapping;
 import org.nrg.containers.model.xnat.Scan;
 import org.nrg.containers.model.xnat.Session;
 import org.nrg.containers.services.CommandEventMappingService;
-import org.nrg.containers.services.ContainerService;
-import org.nrg.framework.exceptions.NotFoundException;
+import org.nrg.containers.services.CommandLaunchQueue;
 import org.nrg.framework.services.NrgEventService;
 import org.nrg.xdat.security.services.UserManagementServiceI;
 import org.nrg.xdat.security.user.exceptions.UserInitException;
@@ -42,7 +36,7 @@ public class SessionArchiveListenerAndCommandLauncher implements Consumer<Event<
     private static final String EVENT_ID = "SessionArchived";
 
     private ObjectMapper mapper;
-    private ContainerService containerService;
+    private CommandLaunchQueue commandLaunchQueue;
     private CommandEventMappingService commandEventMappingService;
     private NrgEventService eventService;
     private UserManagementServiceI userManagementService;
@@ -50,13 +44,13 @@ public class SessionArchiveListenerAndCommandLauncher implements Consumer<Event<
     @Autowired
     public SessionArchiveListenerAndCommandLauncher(final EventBus eventBus,
                                                     final ObjectMapper mapper,
-                                                    final ContainerService containerService,
+                                                    final CommandLaunchQueue commandLaunchQueue,
                                                     final CommandEventMappingService commandEventMappingService,
                                                     final NrgEventService eventService,
                                                     final UserManagementServiceI userManagementService) {
         eventBus.on(type(SessionArchiveEvent.class), this);
         this.mapper = mapper;
-        this.containerService = containerService;
+        this.commandLaunchQueue = commandLaunchQueue;
         this.commandEventMappingService = commandEventMappingService;
         this.eventService = eventService;
         this.userManagementService = userManagementService;
@@ -76,6 +70,9 @@ public class SessionArchiveListenerAndCommandLauncher implements Consumer<Event<
         List<CommandEventMapping> commandEventMappings = commandEventMappingService.findByEventType(EVENT_ID);
 
         if (commandEventMappings != null && !commandEventMappings.isEmpty()) {
+            // Serialize the session at most once, and only if some command will be launched with it.
+            // This is what loads the session's children and reads their catalogs.
+            String sessionString = null;
             for (CommandEventMapping commandEventMapping : commandEventMappings) {
                 final Long commandId = commandEventMapping.getCommandId();
                 final String wrapperName = commandEventMapping.getXnatCommandWrapperName();
@@ -85,11 +82,13 @@ public class SessionArchiveListenerAndCommandLauncher implements Consumer<Event<
                 // Allow action to run if subscriptionProjectId is null, empty, or matches sessionProjectId
                 if (subscriptionProjectId == null || subscriptionProjectId.isEmpty() || subscriptionProjectId.equals(sessionProjectId)) {
                     final Map<String, String> inputValues = Maps.newHashMap();
-                    String sessionString = session.getUri();
-                    try {
-                        sessionString = mapper.writeValueAsString(session);
-                    } catch (JsonProcessingException e) {
-                        log.error(String.format("Could not serialize Session %s to json.", session), e);
+                    if (sessionString == null) {
+                        sessionString = session.getUri();
+                        try {
+                            sessionString = mapper.writeValueAsString(session);
+                        } catch (JsonProcessingException e) {
+                            log.error(String.format("Could not serialize Session %s to json.", session), e);
+                        }
                     }
                     inputValues.put("session", sessionString);
                     try {
@@ -113,15 +112,11 @@ public class SessionArchiveListenerAndCommandLauncher implements Consumer<Event<
                                 log.debug(paramEntry.getKey() + ": " + paramEntry.getValue());
                             }
                         }
-                        if (subscriptionProjectId != null && !subscriptionProjectId.isEmpty()) {
-                            containerService.resolveCommandAndLaunchContainer(subscriptionProjectId, commandId, wrapperName, inputValues, subscriptionUser);
-                        } else {
-                            containerService.resolveCommandAndLaunchContainer(commandId, wrapperName, inputValues, subscriptionUser);
-                        }
+                        // Resolving and launching happen in the background, so we don't hold up the event bus
+                        commandLaunchQueue.queue(StringUtils.isNotBlank(subscriptionProjectId) ? subscriptionProjectId : null,
+                                commandId, wrapperName, inputValues, subscriptionUser);
                     } catch (UserNotFoundException | UserInitException e) {
                         log.error(String.format("Error launching command %d. Could not find or Init subscription owner: %s", commandId, commandEventMapping.getSubscriptionUserName()), e);
-                    } catch (NotFoundException | CommandResolutionException | NoDockerServerException | DockerServerException | ContainerException | UnauthorizedException e) {
-                        log.error("Error launching command " + commandId, e);
                     }
                 }
             }
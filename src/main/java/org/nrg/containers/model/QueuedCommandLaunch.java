@@ -0,0 +1,159 @@
+package org.nrg.containers.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+import org.nrg.framework.orm.hibernate.AbstractHibernateEntity;
+
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.MapKeyColumn;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A command launch that has been accepted but not yet finished. We save these before doing any work,
+ * so launches still waiting in the launch queue are picked up again after a restart.
+ */
+@Entity
+public class QueuedCommandLaunch extends AbstractHibernateEntity {
+    public static final String STATUS_QUEUED = "Queued";
+    public static final String STATUS_RESOLVING = "Resolving";
+    public static final String STATUS_LAUNCHING = "Launching";
+    public static final String STATUS_FAILED = "Failed";
+
+    @JsonProperty("project") private String projectId;
+    @JsonProperty("command-id") private Long commandId;
+    @JsonProperty("wrapper-name") private String wrapperName;
+    @JsonProperty("input-values") private Map<String, String> inputValues = Maps.newHashMap();
+    @JsonProperty("user") private String userLogin;
+    @JsonProperty("status") private String status;
+    @JsonProperty("message") private String message;
+    @JsonProperty("status-time") private Date statusTime;
+
+    public QueuedCommandLaunch() {}
+
+    public static QueuedCommandLaunch create(final String projectId,
+                                             final long commandId,
+                                             final String wrapperName,
+                                             final Map<String, String> inputValues,
+                                             final String userLogin) {
+        final QueuedCommandLaunch queuedCommandLaunch = new QueuedCommandLaunch();
+        queuedCommandLaunch.setProjectId(projectId);
+        queuedCommandLaunch.setCommandId(commandId);
+        queuedCommandLaunch.setWrapperName(wrapperName);
+        queuedCommandLaunch.setInputValues(inputValues);
+        queuedCommandLaunch.setUserLogin(userLogin);
+        queuedCommandLaunch.setStatus(STATUS_QUEUED);
+        queuedCommandLaunch.setStatusTime(new Date());
+        return queuedCommandLaunch;
+    }
+
+    public String getProjectId() {
+        return projectId;
+    }
+
+    public void setProjectId(final String projectId) {
+        this.projectId = projectId;
+    }
+
+    public Long getCommandId() {
+        return commandId;
+    }
+
+    public void setCommandId(final Long commandId) {
+        this.commandId = commandId;
+    }
+
+    public String getWrapperName() {
+        return wrapperName;
+    }
+
+    public void setWrapperName(final String wrapperName) {
+        this.wrapperName = wrapperName;
+    }
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @MapKeyColumn(name = "name")
+    @Column(name = "value", columnDefinition = "TEXT")
+    public Map<String, String> getInputValues() {
+        return inputValues;
+    }
+
+    public void setInputValues(final Map<String, String> inputValues) {
+        this.inputValues = inputValues == null ?
+                Maps.<String, String>newHashMap() :
+                Maps.newHashMap(inputValues);
+    }
+
+    public String getUserLogin() {
+        return userLogin;
+    }
+
+    public void setUserLogin(final String userLogin) {
+        this.userLogin = userLogin;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(final String status) {
+        this.status = status;
+    }
+
+    @Column(columnDefinition = "TEXT")
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(final String message) {
+        this.message = message;
+    }
+
+    public Date getStatusTime() {
+        return statusTime;
+    }
+
+    public void setStatusTime(final Date statusTime) {
+        this.statusTime = statusTime == null ? null : new Date(statusTime.getTime());
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+        final QueuedCommandLaunch that = (QueuedCommandLaunch) o;
+        return Objects.equals(this.projectId, that.projectId) &&
+                Objects.equals(this.commandId, that.commandId) &&
+                Objects.equals(this.wrapperName, that.wrapperName) &&
+                Objects.equals(this.inputValues, that.inputValues) &&
+                Objects.equals(this.userLogin, that.userLogin) &&
+                Objects.equals(this.status, that.status) &&
+                Objects.equals(this.message, that.message) &&
+                Objects.equals(this.statusTime, that.statusTime);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), projectId, commandId, wrapperName, inputValues, userLogin, status, message, statusTime);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", getId())
+                .add("projectId", projectId)
+                .add("commandId", commandId)
+                .add("wrapperName", wrapperName)
+                .add("userLogin", userLogin)
+                .add("status", status)
+                .add("message", message)
+                .add("statusTime", statusTime)
+                .toString();
+    }
+}
@@ -191,4 +191,33 @@ public abstract class LaunchReport {
             public abstract BulkLaunchReport build();
         }
     }
+
+    /**
+     * A snapshot of a bulk launch running in the background.
+     * Reports are listed in the order the launches finished. Ask again with {@code since} set to
+     * {@link #next()} to get only the reports that finished after this snapshot.
+     */
+    @AutoValue
+    @JsonInclude(JsonInclude.Include.ALWAYS)
+    public abstract static class BulkLaunchStatus {
+        @JsonProperty("id") public abstract String id();
+        @JsonProperty("total") public abstract int total();
+        @JsonProperty("completed") public abstract int completed();
+        @JsonProperty("successes") public abstract int successCount();
+        @JsonProperty("failures") public abstract int failureCount();
+        @JsonProperty("done") public abstract boolean done();
+        @JsonProperty("next") public abstract int next();
+        @JsonProperty("reports") public abstract ImmutableList<LaunchReport> reports();
+
+        public static BulkLaunchStatus create(final String id,
+                                              final int total,
+                                              final int successCount,
+                                              final int failureCount,
+                                              final int since,
+                                              final @Nonnull List<LaunchReport> reports) {
+            final int completed = successCount + failureCount;
+            return new AutoValue_LaunchReport_BulkLaunchStatus(id, total, completed, successCount, failureCount,
+                    completed >= total, since + reports.size(), ImmutableList.copyOf(reports));
+        }
+    }
 }
@@ -163,6 +163,33 @@ public abstract class LaunchUi {
         }
     }
 
+    /**
+     * A snapshot of a bulk launch UI being pre-resolved in the background.
+     * {@link #launchUi()} has the inputs of the items that finished since {@code since}, in the order they finished,
+     * or is null if none of them succeeded. Ask again with {@code since} set to {@link #next()} to get the rest.
+     */
+    @AutoValue
+    @JsonInclude(JsonInclude.Include.ALWAYS)
+    public abstract static class BulkLaunchUiStatus {
+        @JsonProperty("id") public abstract String id();
+        @JsonProperty("total") public abstract int total();
+        @JsonProperty("completed") public abstract int completed();
+        @JsonProperty("done") public abstract boolean done();
+        @JsonProperty("next") public abstract int next();
+        @Nullable @JsonProperty("launch-ui") public abstract BulkLaunchUi launchUi();
+        @JsonProperty("failures") public abstract ImmutableList<LaunchReport.Failure> failures();
+
+        public static BulkLaunchUiStatus create(final String id,
+                                                final int total,
+                                                final int completed,
+                                                final int next,
+                                                final @Nullable BulkLaunchUi launchUi,
+                                                final @Nonnull List<LaunchReport.Failure> failures) {
+            return new AutoValue_LaunchUi_BulkLaunchUiStatus(id, total, completed, completed >= total, next,
+                    launchUi, ImmutableList.copyOf(failures));
+        }
+    }
+
     private static void addNodesToInputMap(final @Nonnull ResolvedInputTreeNode<? extends Input> node,
                                            final @Nullable String parentName,
                                            final @Nullable String parentValue,
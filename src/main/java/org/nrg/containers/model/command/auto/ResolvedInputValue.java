@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import org.nrg.containers.model.command.entity.CommandInputEntity;
 import org.nrg.containers.model.xnat.XnatModelObject;
 
@@ -13,11 +15,20 @@ import javax.annotation.Nullable;
 @AutoValue
 @JsonInclude(JsonInclude.Include.ALWAYS)
 public abstract class ResolvedInputValue {
+    // Serializing an XNAT model object loads all its children, so we don't do it until someone reads the JSON.
+    // This is derived from the other properties, so it is not part of equals or hashCode.
+    private Supplier<String> jsonValue = Suppliers.ofInstance(null);
+
     @JsonProperty("type") public abstract String type();
     @Nullable @JsonProperty("value") public abstract String value();
     @Nullable @JsonProperty("value-label") public abstract String valueLabel();
     @JsonIgnore @Nullable public abstract XnatModelObject xnatModelObject();
-    @Nullable @JsonProperty("json-value") public abstract String jsonValue();
+
+    @Nullable
+    @JsonProperty("json-value")
+    public String jsonValue() {
+        return jsonValue.get();
+    }
 
     @JsonCreator
     public static ResolvedInputValue create(@JsonProperty("type") final String type,
@@ -39,12 +50,32 @@ public abstract class ResolvedInputValue {
 
     @AutoValue.Builder
     public static abstract class Builder {
+        private Supplier<String> jsonValue = Suppliers.ofInstance(null);
+
         public abstract Builder type(String type);
         public abstract Builder value(String value);
         public abstract Builder valueLabel(String valueLabel);
         public abstract Builder xnatModelObject(XnatModelObject xnatModelObject);
-        public abstract Builder jsonValue(String jsonValue);
 
-        public abstract ResolvedInputValue build();
+        public Builder jsonValue(final String jsonValue) {
+            this.jsonValue = Suppliers.ofInstance(jsonValue);
+            return this;
+        }
+
+        /**
+         * @param jsonValue Called at most once, the first time the JSON value is read
+         */
+        public Builder jsonValue(final Supplier<String> jsonValue) {
+            this.jsonValue = Suppliers.memoize(jsonValue);
+            return this;
+        }
+
+        abstract ResolvedInputValue autoBuild();
+
+        public ResolvedInputValue build() {
+            final ResolvedInputValue resolvedInputValue = autoBuild();
+            resolvedInputValue.jsonValue = jsonValue;
+            return resolvedInputValue;
+        }
     }
 }
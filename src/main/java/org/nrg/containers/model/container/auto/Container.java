@@ -22,11 +22,13 @@ import org.nrg.containers.model.container.entity.ContainerEntityMount;
 import org.nrg.containers.model.container.entity.ContainerEntityOutput;
 import org.nrg.containers.model.container.entity.ContainerMountFilesEntity;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 @AutoValue
 @JsonInclude(JsonInclude.Include.ALWAYS)
@@ -88,6 +90,25 @@ public abstract class Container {
         return exitCode;
     }
 
+    /**
+     * Have we already recorded this task's current status? A status is recorded if a history item
+     * has the same status and external timestamp, which is how the history entity checks for duplicates.
+     *
+     * @param task A task for this service
+     * @return true if the task's status is already in our history
+     */
+    @JsonIgnore
+    public boolean isTaskStatusInHistory(final @Nonnull ServiceTask task) {
+        final ContainerHistory taskHistoryItem = ContainerHistory.fromServiceTask(task);
+        for (final ContainerHistory history : this.history()) {
+            if (Objects.equals(history.status(), taskHistoryItem.status()) &&
+                    Objects.equals(history.externalTimestamp(), taskHistoryItem.externalTimestamp())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @JsonCreator
     public static Container create(@JsonProperty("id") final long databaseId,
                                    @JsonProperty("command-id") final long commandId,
@@ -0,0 +1,62 @@
+package org.nrg.containers.model.container.auto;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Which part of a container's log to read.
+ *
+ * tail is a number of lines from the end, and since is a unix timestamp in seconds.
+ * If follow is set, keep streaming the log until the container stops.
+ * If timestamps is set, docker starts each line with its RFC 3339 timestamp and a space.
+ * Set internal for reads we make for ourselves into a local file, like the log shipper's chunks. Those share
+ * the pooled docker connections; anything else, like a download to a slow client, gets a client of its own.
+ */
+@AutoValue
+public abstract class ContainerLogParameters {
+    @Nullable public abstract Integer tail();
+    @Nullable public abstract Integer since();
+    public abstract boolean follow();
+    public abstract boolean timestamps();
+    public abstract boolean internal();
+
+    public static ContainerLogParameters all() {
+        return builder().build();
+    }
+
+    public static ContainerLogParameters create(final Integer tail, final Integer since, final boolean follow) {
+        return builder()
+                .tail(tail)
+                .since(since)
+                .follow(follow)
+                .build();
+    }
+
+    /**
+     * @return true if this asks for the whole log, as it is right now
+     */
+    public boolean isAll() {
+        return tail() == null && since() == null && !follow() && !timestamps();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_ContainerLogParameters.Builder()
+                .follow(false)
+                .timestamps(false)
+                .internal(false);
+    }
+
+    public abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+        public abstract Builder tail(final Integer tail);
+        public abstract Builder since(final Integer since);
+        public abstract Builder follow(final boolean follow);
+        public abstract Builder timestamps(final boolean timestamps);
+        public abstract Builder internal(final boolean internal);
+
+        public abstract ContainerLogParameters build();
+    }
+}
@@ -36,6 +36,10 @@ public class Assessor extends XnatModelObject {
     @JsonProperty("session-id") private String sessionId;
     private String directory;
 
+    // Resources are built from the XNAT object the first time they are asked for.
+    @JsonIgnore private boolean loadChildrenOnDemand = false;
+    @JsonIgnore private String rootArchivePath;
+
     public Assessor() {}
 
     public Assessor(final AssessorURII assessorURII) {
@@ -87,12 +91,18 @@ public class Assessor extends XnatModelObject {
             }
         }
 
-        this.resources = Lists.newArrayList();
+        this.rootArchivePath = rootArchivePath;
+        this.loadChildrenOnDemand = true;
+    }
+
+    private List<Resource> loadResources() {
+        final List<Resource> resources = Lists.newArrayList();
         for (final XnatAbstractresourceI xnatAbstractresourceI : xnatImageassessordataI.getResources_resource()) {
             if (xnatAbstractresourceI instanceof XnatResourcecatalog) {
                 resources.add(new Resource((XnatResourcecatalog) xnatAbstractresourceI, this.uri, rootArchivePath));
             }
         }
+        return resources;
     }
 
     public static Function<URIManager.ArchiveItemURI, Assessor> uriToModelObject() {
@@ -158,7 +168,10 @@ public class Assessor extends XnatModelObject {
         this.xnatImageassessordataI = xnatImageassessordataI;
     }
 
-    public List<Resource> getResources() {
+    public synchronized List<Resource> getResources() {
+        if (resources == null && loadChildrenOnDemand) {
+            resources = loadResources();
+        }
         return resources;
     }
 
@@ -202,7 +215,10 @@ public class Assessor extends XnatModelObject {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         final Assessor that = (Assessor) o;
-        return Objects.equals(this.resources, that.resources) &&
+        // Resources loaded on demand come from the XNAT object, so we compare the properties that identify it.
+        // Don't load them just to compare them.
+        return this.loadChildrenOnDemand == that.loadChildrenOnDemand &&
+                (loadChildrenOnDemand || Objects.equals(this.resources, that.resources)) &&
                 Objects.equals(this.projectId, that.projectId) &&
                 Objects.equals(this.sessionId, that.sessionId) &&
                 Objects.equals(this.directory, that.directory);
@@ -210,7 +226,8 @@ public class Assessor extends XnatModelObject {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), resources, projectId, sessionId, directory);
+        // Resources loaded on demand are left out, so the hash doesn't change when they are loaded
+        return Objects.hash(super.hashCode(), loadChildrenOnDemand ? null : resources, projectId, sessionId, directory);
     }
 
     @Override
@@ -0,0 +1,212 @@
+package org.nrg.containers.model.xnat;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A shared cache of the file lists we read out of resource catalogs.
+ *
+ * Reading a resource's files means reading and parsing its catalog XML. Catalogs rarely change,
+ * but we used to parse them on every launch, every pre-resolution, and every archive event.
+ * Entries are keyed by the catalog's path, and are only used if the catalog file's modification time
+ * and size have not changed since we read it. A catalog modified within the last
+ * {@link #MIN_CATALOG_AGE_MILLIS} ms is read but not cached, because it could be rewritten
+ * with the same size inside the file system's timestamp resolution and we would never notice.
+ *
+ * The cache is bounded by the (estimated) size of the file lists it holds; the least recently used
+ * catalogs are dropped first. Set containers.catalogCache.maxBytes to change the bound.
+ *
+ * The model objects that read catalogs are not built by Spring, so they use the {@link #shared()} instance.
+ */
+@Component
+public class CatalogFileCache {
+    private static final Logger log = LoggerFactory.getLogger(CatalogFileCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long MIN_CATALOG_AGE_MILLIS = 2000L;
+
+    private static final long ENTRY_OVERHEAD_BYTES = 128L;
+
+    private static volatile CatalogFileCache shared = new CatalogFileCache(DEFAULT_MAX_BYTES);
+
+    private final Map<String, CachedCatalog> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxBytes;
+    private long totalBytes = 0L;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public CatalogFileCache(final @Value("${containers.catalogCache.maxBytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @PostConstruct
+    void share() {
+        shared = this;
+    }
+
+    /**
+     * @return The cache that Spring built, or a default one if we are running without Spring
+     */
+    public static CatalogFileCache shared() {
+        return shared;
+    }
+
+    /**
+     * Get the entries of a catalog, reading them with the loader if we don't have a current copy.
+     *
+     * @param catalogFile The catalog XML file
+     * @param loader Reads the entries out of the catalog
+     * @return The catalog's entries
+     */
+    @Nonnull
+    public List<CatalogEntry> getEntries(final @Nullable File catalogFile,
+                                         final @Nonnull Supplier<List<CatalogEntry>> loader) {
+        if (catalogFile == null || !catalogFile.isFile()) {
+            misses.incrementAndGet();
+            return loader.get();
+        }
+
+        final String path = catalogFile.getAbsolutePath();
+        final long lastModified = catalogFile.lastModified();
+        final long size = catalogFile.length();
+
+        synchronized (cache) {
+            final CachedCatalog cached = cache.get(path);
+            if (cached != null && cached.lastModified() == lastModified && cached.size() == size) {
+                hits.incrementAndGet();
+                return cached.entries();
+            }
+        }
+
+        misses.incrementAndGet();
+        final List<CatalogEntry> entries = Collections.unmodifiableList(loader.get());
+        if (System.currentTimeMillis() - lastModified < MIN_CATALOG_AGE_MILLIS) {
+            log.debug("Not caching catalog {}. It was modified too recently to tell whether it changes again.", path);
+            return entries;
+        }
+        final CachedCatalog toCache = CachedCatalog.create(lastModified, size, entries, estimateBytes(entries));
+        if (toCache.bytes() > maxBytes) {
+            log.debug("Not caching catalog {}. Its file list is larger than the whole cache.", path);
+            return entries;
+        }
+
+        synchronized (cache) {
+            final CachedCatalog replaced = cache.put(path, toCache);
+            if (replaced != null) {
+                totalBytes -= replaced.bytes();
+            }
+            totalBytes += toCache.bytes();
+            evictToSize();
+        }
+        return entries;
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            totalBytes = 0L;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getSizeBytes() {
+        synchronized (cache) {
+            return totalBytes;
+        }
+    }
+
+    public int getCatalogCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    // Must hold the cache lock
+    private void evictToSize() {
+        final Iterator<CachedCatalog> iterator = cache.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            totalBytes -= iterator.next().bytes();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long estimateBytes(final List<CatalogEntry> entries) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        for (final CatalogEntry entry : entries) {
+            bytes += ENTRY_OVERHEAD_BYTES +
+                    2L * (length(entry.name()) + 2 * length(entry.path()) + length(entry.tagsCsv()) +
+                            length(entry.format()) + length(entry.content()));
+        }
+        return bytes;
+    }
+
+    private static int length(final String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * One file in a catalog. This doesn't depend on the URI of the resource we reached it from,
+     * so the same entries can be shared by every {@link Resource} that points at the catalog.
+     */
+    @AutoValue
+    public static abstract class CatalogEntry {
+        @Nullable public abstract String name();
+        @Nullable public abstract String path();
+        @Nullable public abstract String tagsCsv();
+        @Nullable public abstract String format();
+        @Nullable public abstract String content();
+        @Nullable public abstract File file();
+
+        public static CatalogEntry create(final String name,
+                                          final String path,
+                                          final String tagsCsv,
+                                          final String format,
+                                          final String content,
+                                          final File file) {
+            return new AutoValue_CatalogFileCache_CatalogEntry(name, path, tagsCsv, format, content, file);
+        }
+    }
+
+    @AutoValue
+    static abstract class CachedCatalog {
+        abstract long lastModified();
+        abstract long size();
+        abstract List<CatalogEntry> entries();
+        abstract long bytes();
+
+        static CachedCatalog create(final long lastModified, final long size, final List<CatalogEntry> entries, final long bytes) {
+            return new AutoValue_CatalogFileCache_CachedCatalog(lastModified, size, entries, bytes);
+        }
+    }
+}
@@ -6,8 +6,10 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
+import org.nrg.containers.model.xnat.CatalogFileCache.CatalogEntry;
 import org.nrg.xdat.bean.CatCatalogBean;
 import org.nrg.xdat.model.XnatAbstractresourceI;
 import org.nrg.xdat.model.XnatResourcecatalogI;
@@ -36,6 +38,10 @@ public class Resource extends XnatModelObject {
     private String directory;
     private List<XnatFile> files;
 
+    // The catalog is read and its file list built the first time the files are asked for.
+    @JsonIgnore private boolean loadFilesOnDemand = false;
+    @JsonIgnore private String rootArchivePath;
+
     public Resource() {}
 
     public Resource(final ResourceURII resourceURII) {
@@ -70,15 +76,37 @@ public class Resource extends XnatModelObject {
         this.label = xnatResourcecatalog.getLabel();
         this.xsiType = xnatResourcecatalog.getXSIType();
 
-        final CatCatalogBean cat = xnatResourcecatalog.getCleanCatalog(rootArchivePath, true, null, null);
         this.directory = xnatResourcecatalog.getCatalogFile(rootArchivePath).getParent();
 
+        this.rootArchivePath = rootArchivePath;
+        this.loadFilesOnDemand = true;
+    }
+
+    private List<XnatFile> loadFiles() {
+        final List<CatalogEntry> entries = CatalogFileCache.shared().getEntries(xnatResourcecatalog.getCatalogFile(rootArchivePath),
+                new Supplier<List<CatalogEntry>>() {
+                    @Override
+                    public List<CatalogEntry> get() {
+                        return readCatalogEntries();
+                    }
+                });
+
+        final List<XnatFile> files = Lists.newArrayList();
+        for (final CatalogEntry entry : entries) {
+            files.add(new XnatFile(this.uri, entry.name(), entry.path(), entry.tagsCsv(), entry.format(), entry.content(), entry.file()));
+        }
+        return files;
+    }
+
+    private List<CatalogEntry> readCatalogEntries() {
+        final CatCatalogBean cat = xnatResourcecatalog.getCleanCatalog(rootArchivePath, true, null, null);
         final List<Object[]> entryDetails = CatalogUtils.getEntryDetails(cat, this.directory, null, xnatResourcecatalog, true, null, null, "absolutePath");
-        this.files = Lists.newArrayList();
+        final List<CatalogEntry> entries = Lists.newArrayList();
         for (final Object[] entry: entryDetails) {
             // See CatalogUtils.getEntryDetails to see where all these "entry" elements come from
-            files.add(new XnatFile(this.uri, (String) entry[0], (String) entry[2], (String) entry[4], (String) entry[5], (String) entry[6], (File) entry[8]));
+            entries.add(CatalogEntry.create((String) entry[0], (String) entry[2], (String) entry[4], (String) entry[5], (String) entry[6], (File) entry[8]));
         }
+        return entries;
     }
 
     public static Function<URIManager.ArchiveItemURI, Resource> uriToModelObject() {
@@ -149,7 +177,10 @@ public class Resource extends XnatModelObject {
         this.directory = directory;
     }
 
-    public List<XnatFile> getFiles() {
+    public synchronized List<XnatFile> getFiles() {
+        if (files == null && loadFilesOnDemand) {
+            files = loadFiles();
+        }
         return files;
     }
 
@@ -169,13 +200,17 @@ public class Resource extends XnatModelObject {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         final Resource that = (Resource) o;
+        // Files loaded on demand come from the catalog in the directory, which we do compare.
+        // Don't read the catalog just to compare them.
         return Objects.equals(this.directory, that.directory) &&
-                Objects.equals(this.files, that.files);
+                this.loadFilesOnDemand == that.loadFilesOnDemand &&
+                (loadFilesOnDemand || Objects.equals(this.files, that.files));
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), directory, files);
+        // Files loaded on demand are left out, so the hash doesn't change when they are loaded
+        return Objects.hash(super.hashCode(), directory, loadFilesOnDemand ? null : files);
     }
 
     @Override
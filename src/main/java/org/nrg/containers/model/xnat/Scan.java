@@ -43,6 +43,10 @@ public class Scan extends XnatModelObject {
     @JsonProperty("start-time") private Object startTime;
     private String uid;
 
+    // Resources are built from the XNAT object the first time they are asked for.
+    @JsonIgnore private boolean loadChildrenOnDemand = false;
+    @JsonIgnore private String rootArchivePath;
+
     public Scan() {}
 
     public Scan(final ScanURII scanURII) {
@@ -84,13 +88,18 @@ public class Scan extends XnatModelObject {
             this.directory = ((XnatImagescandata) xnatImagescandataI).deriveScanDir();
         }
 
-        this.resources = Lists.newArrayList();
+        this.rootArchivePath = rootArchivePath;
+        this.loadChildrenOnDemand = true;
+    }
+
+    private List<Resource> loadResources() {
+        final List<Resource> resources = Lists.newArrayList();
         for (final XnatAbstractresourceI xnatAbstractresourceI : this.xnatImagescandataI.getFile()) {
             if (xnatAbstractresourceI instanceof XnatResourcecatalog) {
                 resources.add(new Resource((XnatResourcecatalog) xnatAbstractresourceI, this.uri, rootArchivePath));
             }
         }
-
+        return resources;
     }
 
     public static Function<URIManager.ArchiveItemURI, Scan> uriToModelObject() {
@@ -144,7 +153,10 @@ public class Scan extends XnatModelObject {
         this.scanType = scanType;
     }
 
-    public List<Resource> getResources() {
+    public synchronized List<Resource> getResources() {
+        if (resources == null && loadChildrenOnDemand) {
+            resources = loadResources();
+        }
         return resources;
     }
 
@@ -284,10 +296,12 @@ public class Scan extends XnatModelObject {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         final Scan that = (Scan) o;
+        // Resources loaded on demand come from the XNAT object, which we do compare. Don't load them just to compare them.
         return Objects.equals(this.xnatImagescandataI, that.xnatImagescandataI) &&
                 Objects.equals(this.integerId, that.integerId) &&
                 Objects.equals(this.scanType, that.scanType) &&
-                Objects.equals(this.resources, that.resources) &&
+                this.loadChildrenOnDemand == that.loadChildrenOnDemand &&
+                (loadChildrenOnDemand || Objects.equals(this.resources, that.resources)) &&
                 Objects.equals(this.projectId, that.projectId) &&
                 Objects.equals(this.sessionId, that.sessionId) &&
                 Objects.equals(this.directory, that.directory);
@@ -295,7 +309,9 @@ public class Scan extends XnatModelObject {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), xnatImagescandataI, integerId, scanType, resources, projectId, sessionId, directory);
+        // Resources loaded on demand are left out, so the hash doesn't change when they are loaded
+        return Objects.hash(super.hashCode(), xnatImagescandataI, integerId, scanType,
+                loadChildrenOnDemand ? null : resources, projectId, sessionId, directory);
     }
 
     @Override
@@ -38,6 +38,10 @@ public class Session extends XnatModelObject {
     @JsonProperty("subject-id") private String subjectId;
     private String directory;
 
+    // Children are built from the XNAT object the first time they are asked for.
+    @JsonIgnore private boolean loadChildrenOnDemand = false;
+    @JsonIgnore private String rootArchivePath;
+
     public Session() {}
 
     public Session(final String sessionId, final UserI userI) {
@@ -83,22 +87,35 @@ public class Session extends XnatModelObject {
             // ignored, I guess?
         }
 
-        this.scans = Lists.newArrayList();
+        // Scans, resources, and assessors (and their catalogs) are only loaded if someone asks for them
+        this.rootArchivePath = rootArchivePath;
+        this.loadChildrenOnDemand = true;
+    }
+
+    private List<Scan> loadScans() {
+        final List<Scan> scans = Lists.newArrayList();
         for (final XnatImagescandataI xnatImagescandataI : xnatImagesessiondataI.getScans_scan()) {
-            this.scans.add(new Scan(xnatImagescandataI, this.uri, rootArchivePath));
+            scans.add(new Scan(xnatImagescandataI, this.uri, rootArchivePath));
         }
+        return scans;
+    }
 
-        this.resources = Lists.newArrayList();
+    private List<Resource> loadResources() {
+        final List<Resource> resources = Lists.newArrayList();
         for (final XnatAbstractresourceI xnatAbstractresourceI : xnatImagesessiondataI.getResources_resource()) {
             if (xnatAbstractresourceI instanceof XnatResourcecatalog) {
                 resources.add(new Resource((XnatResourcecatalog) xnatAbstractresourceI, this.uri, rootArchivePath));
             }
         }
+        return resources;
+    }
 
-        this.assessors = Lists.newArrayList();
+    private List<Assessor> loadAssessors() {
+        final List<Assessor> assessors = Lists.newArrayList();
         for (final XnatImageassessordataI xnatImageassessordataI : xnatImagesessiondataI.getAssessors_assessor()) {
             assessors.add(new Assessor(xnatImageassessordataI, this.uri, rootArchivePath));
         }
+        return assessors;
     }
 
     public static Function<URIManager.ArchiveItemURI, Session> uriToModelObject() {
@@ -170,7 +187,10 @@ public class Session extends XnatModelObject {
         this.xnatImagesessiondataI = xnatImagesessiondataI;
     }
 
-    public List<Resource> getResources() {
+    public synchronized List<Resource> getResources() {
+        if (resources == null && loadChildrenOnDemand) {
+            resources = loadResources();
+        }
         return resources;
     }
 
@@ -178,7 +198,10 @@ public class Session extends XnatModelObject {
         this.resources = resources;
     }
 
-    public List<Assessor> getAssessors() {
+    public synchronized List<Assessor> getAssessors() {
+        if (assessors == null && loadChildrenOnDemand) {
+            assessors = loadAssessors();
+        }
         return assessors;
     }
 
@@ -186,7 +209,10 @@ public class Session extends XnatModelObject {
         this.assessors = assessors;
     }
 
-    public List<Scan> getScans() {
+    public synchronized List<Scan> getScans() {
+        if (scans == null && loadChildrenOnDemand) {
+            scans = loadScans();
+        }
         return scans;
     }
 
@@ -230,10 +256,13 @@ public class Session extends XnatModelObject {
         if (o == null || getClass() != o.getClass()) return false;
         if (!super.equals(o)) return false;
         final Session that = (Session) o;
+        // Children loaded on demand come from the XNAT object, which we do compare. Don't load them just to compare them.
         return Objects.equals(this.xnatImagesessiondataI, that.xnatImagesessiondataI) &&
-                Objects.equals(this.scans, that.scans) &&
-                Objects.equals(this.assessors, that.assessors) &&
-                Objects.equals(this.resources, that.resources) &&
+                this.loadChildrenOnDemand == that.loadChildrenOnDemand &&
+                (loadChildrenOnDemand ||
+                        Objects.equals(this.scans, that.scans) &&
+                        Objects.equals(this.assessors, that.assessors) &&
+                        Objects.equals(this.resources, that.resources)) &&
                 Objects.equals(this.projectId, that.projectId) &&
                 Objects.equals(this.subjectId, that.subjectId) &&
                 Objects.equals(this.directory, that.directory);
@@ -241,7 +270,12 @@ public class Session extends XnatModelObject {
 
     @Override
     public int hashCode() {
-        return Objects.hash(super.hashCode(), xnatImagesessiondataI, scans, assessors, resources, projectId, subjectId, directory);
+        // Children loaded on demand are left out, so the hash doesn't change when they are loaded
+        return Objects.hash(super.hashCode(), xnatImagesessiondataI,
+                loadChildrenOnDemand ? null : scans,
+                loadChildrenOnDemand ? null : assessors,
+                loadChildrenOnDemand ? null : resources,
+                projectId, subjectId, directory);
     }
 
     @Override
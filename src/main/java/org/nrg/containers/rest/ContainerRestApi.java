@@ -5,11 +5,14 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
+import org.nrg.containers.exceptions.BadRequestException;
 import org.nrg.containers.exceptions.ContainerException;
 import org.nrg.containers.exceptions.DockerServerException;
 import org.nrg.containers.exceptions.NoDockerServerException;
 import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.model.container.auto.ContainerLogParameters;
 import org.nrg.containers.services.ContainerService;
+import org.nrg.containers.utils.LogFiles;
 import org.nrg.framework.annotations.XapiRestController;
 import org.nrg.framework.exceptions.NotFoundException;
 import org.nrg.xapi.exceptions.InsufficientPrivilegesException;
@@ -28,15 +31,18 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
@@ -56,6 +62,13 @@ public class ContainerRestApi extends AbstractXapiRestController {
     private static final String TEXT = MediaType.TEXT_PLAIN_VALUE;
     private static final String ZIP = "application/zip";
     private static final String ATTACHMENT_DISPOSITION = "attachment; filename=\"%s.%s\"";
+    private static final int ZIP_BUFFER_SIZE = 256 * 1024;
+
+    // Tomcat can send a file straight from the page cache to the socket, if we tell it which file
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
 
     private ContainerService containerService;
 
@@ -124,68 +137,177 @@ public class ContainerRestApi extends AbstractXapiRestController {
     public void getLogs(final @PathVariable String containerId,
                         final HttpServletResponse response)
             throws IOException, InsufficientPrivilegesException, NoDockerServerException, DockerServerException, NotFoundException {
-        UserI userI = XDAT.getUserDetails();
-
-        final Map<String, InputStream> logStreams = containerService.getLogStreams(containerId);
-
-        try(final ZipOutputStream zipStream = new ZipOutputStream(response.getOutputStream()) ) {
-            for(final String streamName : logStreams.keySet()){
-                final InputStream inputStream = logStreams.get(streamName);
-                final ZipEntry entry = new ZipEntry(streamName);
-                try {
-                    zipStream.putNextEntry(entry);
+        // Fail before we start the zip if there is no such container
+        containerService.get(containerId);
 
-                    byte[] readBuffer = new byte[2048];
-                    int amountRead;
+        response.setStatus(HttpStatus.OK.value());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, getAttachmentDisposition(containerId, "zip"));
+        response.setHeader(HttpHeaders.CONTENT_TYPE, ZIP);
 
-                    while ((amountRead = inputStream.read(readBuffer)) > 0) {
-                        zipStream.write(readBuffer, 0, amountRead);
-                    }
-                } catch (IOException e) {
-                    log.error("There was a problem writing %s to the zip. " + e.getMessage(), streamName);
+        // Each log is written straight into the zip, whether it comes from a file or from docker.
+        // The large buffer means the deflater and the servlet see big writes, not one per log frame.
+        final ZipOutputStream zipStream =
+                new ZipOutputStream(new BufferedOutputStream(response.getOutputStream(), ZIP_BUFFER_SIZE));
+        for (final String logName : ContainerService.LOG_NAMES) {
+            final ZipEntryOutputStream entryStream = new ZipEntryOutputStream(zipStream, logName);
+            try {
+                // This throws if the log was saved but the file is gone. Then we leave it out of the zip.
+                containerService.getSavedLogFile(containerId, logName);
+                containerService.writeLog(containerId, logName, ContainerLogParameters.all(), entryStream);
+            } catch (NotFoundException | DockerServerException e) {
+                if (entryStream.isStarted()) {
+                    // Part of this log is already in the zip. If we finished the zip, it would look like
+                    // the whole log. So we fail the download instead, and leave the zip unfinished.
+                    throw e;
                 }
+                log.error("There was a problem writing {} to the zip. {}", logName, e.getMessage());
+                continue;
             }
+            // An empty log still gets an entry
+            entryStream.start();
+            zipStream.closeEntry();
+        }
+        zipStream.close();
+    }
+
+    @XapiRequestMapping(value = "/{containerId}/logs/{file}", method = GET, restrictTo = Admin)
+    @ApiOperation(value = "Get Container logs",
+            notes = "Return either stdout or stderr logs. The log is streamed as it is read, so it can be as large as it needs to be. " +
+                    "Use tail to get only the last lines. For a running container, since (a unix timestamp) gets only newer lines, " +
+                    "and follow keeps streaming until the container stops. Once the container is finished its log is saved " +
+                    "without timestamps, so since is rejected with a 400, and follow returns the whole log because there is " +
+                    "nothing more to wait for. A saved log also supports a single byte Range.")
+    public void getLog(final @PathVariable String containerId,
+                       final @PathVariable @ApiParam(allowableValues = "stdout, stderr") String file,
+                       final @RequestParam(required = false) Integer tail,
+                       final @RequestParam(required = false) Integer since,
+                       final @RequestParam(required = false, defaultValue = "false") boolean follow,
+                       final @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                       final HttpServletRequest request,
+                       final HttpServletResponse response)
+            throws IOException, NoDockerServerException, DockerServerException, NotFoundException, BadRequestException {
+        final ContainerLogParameters parameters = ContainerLogParameters.create(tail, since, follow);
+
+        final File savedLog = containerService.getSavedLogFile(containerId, file);
+        if (savedLog != null && since != null) {
+            throw new BadRequestException("Container " + containerId + " is finished. Its saved log has no timestamps, " +
+                    "so it cannot be read since a time. Use tail or a Range instead.");
+        }
+
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, getAttachmentDisposition(containerId + "-" + file, "log"));
+        response.setHeader(HttpHeaders.CONTENT_TYPE, TEXT);
 
+        if (savedLog != null && parameters.tail() == null) {
+            writeSavedLog(savedLog, range, request, response);
+            return;
+        }
+
+        response.setStatus(HttpStatus.OK.value());
+        containerService.writeLog(containerId, file, parameters, response.getOutputStream());
+    }
+
+    private void writeSavedLog(final File savedLog,
+                               final String rangeHeader,
+                               final HttpServletRequest request,
+                               final HttpServletResponse response) throws IOException {
+        final long length = savedLog.length();
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        final LogFiles.ByteRange range = LogFiles.parseRange(rangeHeader, length);
+        if (range == null) {
             response.setStatus(HttpStatus.OK.value());
-            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, getAttachmentDisposition(containerId, "zip"));
-            response.setHeader(HttpHeaders.CONTENT_TYPE, ZIP);
-        } catch (IOException e) {
-            log.error("There was a problem opening the zip stream.", e);
+            response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(length));
+            sendFile(savedLog, 0L, length, request, response);
+        } else if (range.isSatisfiable()) {
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, range.contentRange());
+            response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(range.length()));
+            sendFile(savedLog, range.first(), range.length(), request, response);
+        } else {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, range.contentRange());
         }
+    }
 
-        response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+    /**
+     * If the container supports it, hand the file to Tomcat to send with sendfile, so the bytes never
+     * pass through the JVM. Otherwise copy the file to the response ourselves.
+     */
+    private void sendFile(final File file,
+                          final long start,
+                          final long length,
+                          final HttpServletRequest request,
+                          final HttpServletResponse response) throws IOException {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+        } else {
+            LogFiles.copy(file, start, length, response.getOutputStream());
+        }
     }
 
-    @XapiRequestMapping(value = "/{containerId}/logs/{file}", method = GET, restrictTo = Admin)
-    @ApiOperation(value = "Get Container logs", notes = "Return either stdout or stderr logs")
-    @ResponseBody
-    public ResponseEntity<String> getLog(final @PathVariable String containerId,
-                                         final @PathVariable @ApiParam(allowableValues = "stdout, stderr") String file)
-            throws NoDockerServerException, DockerServerException, NotFoundException {
-        UserI userI = XDAT.getUserDetails();
-
-        final InputStream logStream = containerService.getLogStream(containerId, file);
-        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int length;
-        try {
-            while ((length = logStream.read(buffer)) != -1) {
-                byteArrayOutputStream.write(buffer, 0, length);
+    /**
+     * Writes one entry of a zip, and only starts the entry when the first bytes are written.
+     * That way a log that fails before we read any of it leaves nothing in the zip.
+     */
+    private static class ZipEntryOutputStream extends OutputStream {
+        private final ZipOutputStream zipStream;
+        private final String name;
+        private boolean started = false;
+
+        private ZipEntryOutputStream(final ZipOutputStream zipStream, final String name) {
+            this.zipStream = zipStream;
+            this.name = name;
+        }
+
+        private void start() throws IOException {
+            if (!started) {
+                zipStream.putNextEntry(new ZipEntry(name));
+                started = true;
+            }
+        }
+
+        private boolean isStarted() {
+            return started;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            start();
+            zipStream.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return;
             }
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, getAttachmentDisposition(containerId + "-" + file, "log"))
-                    .header(HttpHeaders.CONTENT_TYPE, TEXT)
-                    .body(byteArrayOutputStream.toString(StandardCharsets.UTF_8.name()));
-        } catch (IOException e) {
-            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            start();
+            zipStream.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            zipStream.flush();
         }
 
+        @Override
+        public void close() {
+            // The entry and the zip are closed by whoever is writing the zip
+        }
     }
 
     private static String getAttachmentDisposition(final String name, final String extension) {
         return String.format(ATTACHMENT_DISPOSITION, name, extension);
     }
 
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(value = {BadRequestException.class})
+    public String handleBadRequest(final Exception e) {
+        return e.getMessage();
+    }
+
     @ResponseStatus(value = HttpStatus.NOT_FOUND)
     @ExceptionHandler(value = {NotFoundException.class})
     public String handleNotFound(final Exception e) {
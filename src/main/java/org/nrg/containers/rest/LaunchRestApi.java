@@ -17,6 +17,7 @@ import org.nrg.containers.model.command.auto.LaunchUi;
 import org.nrg.containers.model.command.auto.ResolvedCommand.PartiallyResolvedCommand;
 import org.nrg.containers.model.configuration.CommandConfiguration;
 import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.services.BulkLaunchService;
 import org.nrg.containers.services.CommandResolutionService;
 import org.nrg.containers.services.CommandService;
 import org.nrg.containers.services.ContainerService;
@@ -66,17 +67,20 @@ public class LaunchRestApi extends AbstractXapiRestController {
     private final CommandService commandService;
     private final ContainerService containerService;
     private final CommandResolutionService commandResolutionService;
+    private final BulkLaunchService bulkLaunchService;
 
     @Autowired
     public LaunchRestApi(final CommandService commandService,
                          final ContainerService containerService,
                          final CommandResolutionService commandResolutionService,
+                         final BulkLaunchService bulkLaunchService,
                          final UserManagementServiceI userManagementService,
                          final RoleHolder roleHolder) {
         super(userManagementService, roleHolder);
         this.commandService = commandService;
         this.containerService = containerService;
         this.commandResolutionService = commandResolutionService;
+        this.bulkLaunchService = bulkLaunchService;
     }
 
     /*
@@ -243,7 +247,24 @@ public class LaunchRestApi extends AbstractXapiRestController {
                                                   final long wrapperId,
                                                   final Map<String, String> allRequestParams)
             throws NotFoundException, CommandResolutionException, UnauthorizedException {
+        final List<Map<String, String>> paramsMapList = expandCsvParams(allRequestParams);
+        try {
+            log.debug("Pre-resolving command {}, wrapperName {}, wrapperId {}, in project {} for {} item(s).", commandId, wrapperName, wrapperId, project, paramsMapList.size());
+            return bulkLaunchService.getLaunchUi(project, commandId, wrapperName, wrapperId, paramsMapList, XDAT.getUserDetails());
+        } catch (Throwable t) {
+            log.error("Error getting launch UI.", t);
+            if (Exception.class.isAssignableFrom(t.getClass())) {
+                // We can re-throw Exceptions, because Spring has methods to catch them.
+                throw t;
+            }
+            return null;
+        }
+    }
 
+    /**
+     * Each param whose value is a CSV is split, and we make one map of params for every combination of the values.
+     */
+    private List<Map<String, String>> expandCsvParams(final Map<String, String> allRequestParams) {
         final List<Map<String, String>> paramsMapList = Lists.newArrayList();
         paramsMapList.add(Maps.<String, String>newHashMap());
         for (final Map.Entry<String, String> param : allRequestParams.entrySet()) {
@@ -266,34 +287,68 @@ public class LaunchRestApi extends AbstractXapiRestController {
                 }
             }
         }
+        return paramsMapList;
+    }
 
-        try {
-            log.debug("Getting {} configuration for command {}, wrapper name {}, wrapper id {}.", project == null ? "site" : "project " + project, commandId, wrapperName, wrapperId);
-            final CommandConfiguration commandConfiguration = getCommandConfiguration(project, commandId, wrapperName, wrapperId);
-
-            final UserI userI = XDAT.getUserDetails();
+    /*
+    BULK LAUNCH UI IN THE BACKGROUND
+     */
+    @XapiRequestMapping(value = {"/wrappers/{wrapperId}/bulklaunch/background"}, method = GET, produces = {JSON})
+    @ApiOperation(value = "Start building the Bulk Launch UI for wrapper in the background",
+            notes = "Returns right away. Poll the bulk launch UI status to get the inputs as they are resolved.")
+    @ResponseBody
+    public LaunchUi.BulkLaunchUiStatus getBulkLaunchUiInBackground(final @PathVariable long wrapperId,
+                                                                   final @RequestParam Map<String, String> allRequestParams)
+            throws NotFoundException {
+        log.info("Background bulk launch UI requested for wrapper {}", wrapperId);
+        return bulkLaunchService.getLaunchUiInBackground(null, 0L, null, wrapperId, expandCsvParams(allRequestParams), XDAT.getUserDetails());
+    }
 
-            LaunchUi.BulkLaunchUi.Builder bulkLaunchUiBuilder = null;
-            for (final Map<String, String> paramsMap : paramsMapList) {
-                log.debug("Preparing to pre-resolve command {}, wrapperName {}, wrapperId {}, in project {} with inputs {}.", commandId, wrapperName, wrapperId, project, paramsMap);
-                final PartiallyResolvedCommand partiallyResolvedCommand = preResolve(project, commandId, wrapperName, wrapperId, paramsMap, userI);
-                log.debug("Done pre-resolving command {}, wrapperName {}, wrapperId {}, in project {}.", commandId, wrapperName, project);
+    @XapiRequestMapping(value = {"/commands/{commandId}/wrappers/{wrapperName}/bulklaunch/background"}, method = GET, produces = {JSON})
+    @ApiOperation(value = "Start building the Bulk Launch UI for wrapper in the background",
+            notes = "Returns right away. Poll the bulk launch UI status to get the inputs as they are resolved.")
+    @ResponseBody
+    public LaunchUi.BulkLaunchUiStatus getBulkLaunchUiInBackground(final @PathVariable long commandId,
+                                                                   final @PathVariable String wrapperName,
+                                                                   final @RequestParam Map<String, String> allRequestParams)
+            throws NotFoundException {
+        log.info("Background bulk launch UI requested for command {}, wrapper {}", commandId, wrapperName);
+        return bulkLaunchService.getLaunchUiInBackground(null, commandId, wrapperName, 0L, expandCsvParams(allRequestParams), XDAT.getUserDetails());
+    }
 
-                bulkLaunchUiBuilder = bulkLaunchUiBuilder == null ?
-                        LaunchUi.BulkLaunchUi.builder(partiallyResolvedCommand, commandConfiguration) :
-                        bulkLaunchUiBuilder.addInputsFromInputTrees(partiallyResolvedCommand, commandConfiguration);
-            }
+    @XapiRequestMapping(value = {"/projects/{project}/wrappers/{wrapperId}/bulklaunch/background"}, method = GET, produces = {JSON}, restrictTo = Member)
+    @ApiOperation(value = "Start building the Bulk Launch UI for wrapper in the background",
+            notes = "Returns right away. Poll the bulk launch UI status to get the inputs as they are resolved.")
+    @ResponseBody
+    public LaunchUi.BulkLaunchUiStatus getBulkLaunchUiInBackground(final @PathVariable String project,
+                                                                   final @PathVariable long wrapperId,
+                                                                   final @RequestParam Map<String, String> allRequestParams)
+            throws NotFoundException {
+        log.info("Background bulk launch UI requested for project {}, wrapper {}", project, wrapperId);
+        return bulkLaunchService.getLaunchUiInBackground(project, 0L, null, wrapperId, expandCsvParams(allRequestParams), XDAT.getUserDetails());
+    }
 
-            log.debug("Creating launch UI.");
-            return bulkLaunchUiBuilder == null ? null : bulkLaunchUiBuilder.build();
-        } catch (Throwable t) {
-            log.error("Error getting launch UI.", t);
-            if (Exception.class.isAssignableFrom(t.getClass())) {
-                // We can re-throw Exceptions, because Spring has methods to catch them.
-                throw t;
-            }
-            return null;
-        }
+    @XapiRequestMapping(value = {"/projects/{project}/commands/{commandId}/wrappers/{wrapperName}/bulklaunch/background"}, method = GET, produces = {JSON}, restrictTo = Member)
+    @ApiOperation(value = "Start building the Bulk Launch UI for wrapper in the background",
+            notes = "Returns right away. Poll the bulk launch UI status to get the inputs as they are resolved.")
+    @ResponseBody
+    public LaunchUi.BulkLaunchUiStatus getBulkLaunchUiInBackground(final @PathVariable String project,
+                                                                   final @PathVariable long commandId,
+                                                                   final @PathVariable String wrapperName,
+                                                                   final @RequestParam Map<String, String> allRequestParams)
+            throws NotFoundException {
+        log.info("Background bulk launch UI requested for project {}, command {}, wrapper {}", project, commandId, wrapperName);
+        return bulkLaunchService.getLaunchUiInBackground(project, commandId, wrapperName, 0L, expandCsvParams(allRequestParams), XDAT.getUserDetails());
+    }
+
+    @XapiRequestMapping(value = {"/bulklaunch/ui/{jobId}"}, method = GET, produces = {JSON})
+    @ApiOperation(value = "Get the inputs of a background Bulk Launch UI",
+            notes = "Set \"since\" to the \"next\" value of the previous response to get only the inputs resolved since then.")
+    @ResponseBody
+    public LaunchUi.BulkLaunchUiStatus getBulkLaunchUiStatus(final @PathVariable String jobId,
+                                                             final @RequestParam(value = "since", required = false, defaultValue = "0") int since)
+            throws NotFoundException {
+        return bulkLaunchService.getLaunchUiStatus(jobId, since, XDAT.getUserDetails());
     }
 
     /*
@@ -495,13 +550,64 @@ public class LaunchRestApi extends AbstractXapiRestController {
                                                      final String wrapperName,
                                                      final long wrapperId,
                                                      final List<Map<String, String>> allRequestParams) {
+        return bulkLaunchService.launch(project, commandId, wrapperName, wrapperId, allRequestParams, XDAT.getUserDetails());
+    }
 
-        final LaunchReport.BulkLaunchReport.Builder reportBuilder = LaunchReport.BulkLaunchReport.builder();
-        for (final Map<String, String> paramsSet : allRequestParams) {
-            reportBuilder.addReport(launchContainer(project, commandId, wrapperName, wrapperId, paramsSet));
-        }
+    /*
+    BACKGROUND BULK LAUNCH
+     */
+    @XapiRequestMapping(value = {"/commands/{commandId}/wrappers/{wrapperName}/bulklaunch/background"}, method = POST, consumes = {JSON})
+    @ApiOperation(value = "Start launching a command once for each set of variable values in the request body",
+            notes = "Returns right away. Poll the bulk launch status to see the launches as they finish.")
+    @ResponseBody
+    public LaunchReport.BulkLaunchStatus bulklaunchInBackground(final @PathVariable long commandId,
+                                                                final @PathVariable String wrapperName,
+                                                                final @RequestBody List<Map<String, String>> allRequestParams) {
+        log.info("Background bulk launch requested for command {}, wrapper name {}.", commandId, wrapperName);
+        return bulkLaunchService.launchInBackground(null, commandId, wrapperName, 0L, allRequestParams, XDAT.getUserDetails());
+    }
+
+    @XapiRequestMapping(value = {"/wrappers/{wrapperId}/bulklaunch/background"}, method = POST, consumes = {JSON})
+    @ApiOperation(value = "Start launching a command once for each set of variable values in the request body",
+            notes = "Returns right away. Poll the bulk launch status to see the launches as they finish.")
+    @ResponseBody
+    public LaunchReport.BulkLaunchStatus bulklaunchInBackground(final @PathVariable long wrapperId,
+                                                                final @RequestBody List<Map<String, String>> allRequestParams) {
+        log.info("Background bulk launch requested for wrapper id {}.", wrapperId);
+        return bulkLaunchService.launchInBackground(null, 0L, null, wrapperId, allRequestParams, XDAT.getUserDetails());
+    }
+
+    @XapiRequestMapping(value = {"/projects/{project}/commands/{commandId}/wrappers/{wrapperName}/bulklaunch/background"}, method = POST, consumes = {JSON})
+    @ApiOperation(value = "Start launching a command once for each set of variable values in the request body",
+            notes = "Returns right away. Poll the bulk launch status to see the launches as they finish.")
+    @ResponseBody
+    public LaunchReport.BulkLaunchStatus bulklaunchInBackground(final @PathVariable String project,
+                                                                final @PathVariable long commandId,
+                                                                final @PathVariable String wrapperName,
+                                                                final @RequestBody List<Map<String, String>> allRequestParams) {
+        log.info("Background bulk launch requested for command {}, wrapper name {}, project {}.", commandId, wrapperName, project);
+        return bulkLaunchService.launchInBackground(project, commandId, wrapperName, 0L, allRequestParams, XDAT.getUserDetails());
+    }
+
+    @XapiRequestMapping(value = {"/projects/{project}/wrappers/{wrapperId}/bulklaunch/background"}, method = POST, consumes = {JSON})
+    @ApiOperation(value = "Start launching a command once for each set of variable values in the request body",
+            notes = "Returns right away. Poll the bulk launch status to see the launches as they finish.")
+    @ResponseBody
+    public LaunchReport.BulkLaunchStatus bulklaunchInBackground(final @PathVariable String project,
+                                                                final @PathVariable long wrapperId,
+                                                                final @RequestBody List<Map<String, String>> allRequestParams) {
+        log.info("Background bulk launch requested for wrapper id {}, project {}.", wrapperId, project);
+        return bulkLaunchService.launchInBackground(project, 0L, null, wrapperId, allRequestParams, XDAT.getUserDetails());
+    }
 
-        return reportBuilder.build();
+    @XapiRequestMapping(value = {"/bulklaunch/{jobId}"}, method = GET, produces = {JSON})
+    @ApiOperation(value = "Get the status of a background bulk launch",
+            notes = "Set \"since\" to the \"next\" value of the previous response to get only the launches that finished since then.")
+    @ResponseBody
+    public LaunchReport.BulkLaunchStatus getBulkLaunchStatus(final @PathVariable String jobId,
+                                                             final @RequestParam(value = "since", required = false, defaultValue = "0") int since)
+            throws NotFoundException {
+        return bulkLaunchService.getStatus(jobId, since, XDAT.getUserDetails());
     }
 
     /*
@@ -0,0 +1,95 @@
+package org.nrg.containers.services;
+
+import org.nrg.containers.exceptions.CommandResolutionException;
+import org.nrg.containers.exceptions.UnauthorizedException;
+import org.nrg.containers.model.command.auto.LaunchReport.BulkLaunchReport;
+import org.nrg.containers.model.command.auto.LaunchReport.BulkLaunchStatus;
+import org.nrg.containers.model.command.auto.LaunchUi.BulkLaunchUi;
+import org.nrg.containers.model.command.auto.LaunchUi.BulkLaunchUiStatus;
+import org.nrg.framework.exceptions.NotFoundException;
+import org.nrg.xft.security.UserI;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Launches one command wrapper many times, once per set of input values, and pre-resolves the bulk launch UI
+ * for those launches.
+ *
+ * The command is looked up and configured once for the whole batch, and the individual launches
+ * run in parallel on a shared, bounded pool of workers. Pre-resolutions for the UI run on a pool of their own.
+ *
+ * The wrapper is identified the same way as for a single launch: either by wrapperId, or by
+ * commandId and wrapperName (with wrapperId 0). If project is null the site-wide configuration is used.
+ */
+public interface BulkLaunchService {
+    /**
+     * Launch all the items and wait for them to finish.
+     */
+    BulkLaunchReport launch(@Nullable String project,
+                            long commandId,
+                            @Nullable String wrapperName,
+                            long wrapperId,
+                            List<Map<String, String>> allRequestParams,
+                            UserI userI);
+
+    /**
+     * Start launching all the items and return right away.
+     * Poll {@link #getStatus(String, int, UserI)} with the returned id to see the launches as they finish.
+     */
+    BulkLaunchStatus launchInBackground(@Nullable String project,
+                                        long commandId,
+                                        @Nullable String wrapperName,
+                                        long wrapperId,
+                                        List<Map<String, String>> allRequestParams,
+                                        UserI userI);
+
+    /**
+     * Get the status of a background bulk launch.
+     *
+     * @param jobId The id returned from {@link #launchInBackground}
+     * @param since Skip this many of the finished reports. Use 0 to get all of them.
+     * @param userI The user asking. Only the user who started the bulk launch can see it.
+     * @throws NotFoundException If there is no bulk launch with that id for this user, or it finished too long ago
+     */
+    BulkLaunchStatus getStatus(String jobId, int since, UserI userI) throws NotFoundException;
+
+    /**
+     * Pre-resolve the command for all the items, for the bulk launch UI, and wait for them to finish.
+     * The items share their lookups of the command and of XNAT objects, and are resolved in parallel.
+     *
+     * @return The UI with the inputs of every item, in the order given, or null if there are no items
+     * @throws CommandResolutionException The failure of the first item that could not be pre-resolved, in the order given
+     */
+    @Nullable
+    BulkLaunchUi getLaunchUi(@Nullable String project,
+                             long commandId,
+                             @Nullable String wrapperName,
+                             long wrapperId,
+                             List<Map<String, String>> allRequestParams,
+                             UserI userI)
+            throws NotFoundException, CommandResolutionException, UnauthorizedException;
+
+    /**
+     * Start pre-resolving all the items for the bulk launch UI and return right away.
+     * Poll {@link #getLaunchUiStatus(String, int, UserI)} with the returned id to get the inputs as they are resolved.
+     */
+    BulkLaunchUiStatus getLaunchUiInBackground(@Nullable String project,
+                                               long commandId,
+                                               @Nullable String wrapperName,
+                                               long wrapperId,
+                                               List<Map<String, String>> allRequestParams,
+                                               UserI userI)
+            throws NotFoundException;
+
+    /**
+     * Get the inputs of a background bulk launch UI that were resolved since the last time we asked.
+     *
+     * @param jobId The id returned from {@link #getLaunchUiInBackground}
+     * @param since Skip this many of the finished items. Use 0 to get all of them.
+     * @param userI The user asking. Only the user who asked for the UI can see it.
+     * @throws NotFoundException If there is no such job for this user, or it finished too long ago
+     */
+    BulkLaunchUiStatus getLaunchUiStatus(String jobId, int since, UserI userI) throws NotFoundException;
+}
@@ -0,0 +1,48 @@
+package org.nrg.containers.services;
+
+import org.nrg.containers.model.QueuedCommandLaunch;
+import org.nrg.xft.security.UserI;
+
+import java.util.Map;
+
+/**
+ * Launches commands in the background, for callers (like event listeners) that should not wait
+ * for commands to be resolved and containers to be created.
+ *
+ * Each launch is saved as a {@link QueuedCommandLaunch} before we return, then resolved on one pool of
+ * workers and created and started on another. The backlog is bounded; when it is full, queueing does not
+ * wait. The launch stays saved as queued, and is submitted later by {@link #drain()}, which runs periodically.
+ */
+public interface CommandLaunchQueue extends Runnable {
+    /**
+     * Queue a command launch.
+     *
+     * @param project The project to launch in, or null to use site-wide command configuration
+     * @param commandId The command id
+     * @param wrapperName The wrapper name, or null for the identity wrapper
+     * @param inputValues Input values to resolve the command with
+     * @param userI The user who will launch the command
+     * @return The saved record of the queued launch
+     */
+    QueuedCommandLaunch queue(String project,
+                              long commandId,
+                              String wrapperName,
+                              Map<String, String> inputValues,
+                              UserI userI);
+
+    /**
+     * Submit saved launches that are still queued, as far as there is room in the backlog,
+     * and delete failed launches that are older than the retention period.
+     *
+     * @return The number of launches submitted
+     */
+    int drain();
+
+    int getResolveQueueDepth();
+    int getLaunchQueueDepth();
+    long getLaunchedCount();
+    long getFailedCount();
+    double getAverageQueueWaitMillis();
+    double getAverageResolveMillis();
+    double getAverageLaunchMillis();
+}
@@ -38,6 +38,25 @@ public interface CommandResolutionService {
                                         UserI userI)
             throws CommandResolutionException, UnauthorizedException;
 
+    /**
+     * Pre-resolve after some input values changed, re-resolving only the inputs under the changed ones.
+     * The previous result must come from pre-resolving the same configured command for the same user.
+     */
+    PartiallyResolvedCommand preResolve(ConfiguredCommand configuredCommand,
+                                        PartiallyResolvedCommand previous,
+                                        Map<String, String> inputValues,
+                                        UserI userI)
+            throws CommandResolutionException, UnauthorizedException;
+
+    /**
+     * Get ready to pre-resolve or resolve one configured command for one user many times, with different input values,
+     * as the bulk launch UI and bulk launches do. The items in a batch share the command's JSON and the XNAT objects
+     * they look up, so items with the same project or subject only load it once. A batch may be used from several
+     * threads at once.
+     */
+    ResolutionBatch resolutionBatch(ConfiguredCommand configuredCommand,
+                                    UserI userI);
+
     ResolvedCommand resolve(long commandId,
                             String wrapperName,
                             Map<String, String> inputValues,
@@ -62,4 +81,11 @@ public interface CommandResolutionService {
                             Map<String, String> inputValues,
                             UserI userI)
             throws NotFoundException, CommandResolutionException, UnauthorizedException;
+
+    interface ResolutionBatch {
+        PartiallyResolvedCommand preResolve(Map<String, String> inputValues)
+                throws CommandResolutionException, UnauthorizedException;
+        ResolvedCommand resolve(Map<String, String> inputValues)
+                throws CommandResolutionException, UnauthorizedException;
+    }
 }
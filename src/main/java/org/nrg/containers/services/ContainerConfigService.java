@@ -2,6 +2,9 @@ package org.nrg.containers.services;
 
 import org.nrg.containers.model.configuration.CommandConfigurationInternal;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface ContainerConfigService {
     String TOOL_ID = "container-service";
     String DEFAULT_DOCKER_HUB_PATH = "default-docker-hub-id";
@@ -27,6 +30,28 @@ public interface ContainerConfigService {
     void disableForProject(String project, long wrapperId, final String username, final String reason) throws CommandConfigurationException;
     boolean isEnabledForProject(String project, long wrapperId);
 
+    /**
+     * Get the configurations for many wrappers on a project at once, each the same as {@link #getProjectConfiguration(String, long)}.
+     * We read all the project's configurations with one query, and all the site configurations with another.
+     *
+     * @return Configurations keyed by wrapper id. Every requested wrapper id has one.
+     */
+    Map<Long, CommandConfigurationInternal> getProjectConfigurations(String project, Collection<Long> wrapperIds);
+
+    /**
+     * Check whether many wrappers are enabled on a project at once, with the same queries as {@link #getProjectConfigurations(String, Collection)}.
+     *
+     * @return Enabled status keyed by wrapper id. Every requested wrapper id has one.
+     */
+    Map<Long, Boolean> isEnabledForProject(String project, Collection<Long> wrapperIds);
+
+    /**
+     * Check whether many wrappers are enabled on the site at once, reading all the site configurations with one query.
+     *
+     * @return Enabled status keyed by wrapper id. Every requested wrapper id has one.
+     */
+    Map<Long, Boolean> isEnabledForSite(Collection<Long> wrapperIds);
+
     class CommandConfigurationException extends Exception {
         public CommandConfigurationException(final String message, final Throwable e) {
             super(message, e);
@@ -20,6 +20,7 @@ public interface ContainerEntityService extends BaseHibernateService<ContainerEn
 
     List<ContainerEntity> retrieveServices();
     List<ContainerEntity> retrieveNonfinalizedServices();
+    List<ContainerEntity> retrieveNonfinalized();
 
     List<ContainerEntity> retrieveSetupContainersForParent(long parentId);
     List<ContainerEntity> retrieveWrapupContainersForParent(long parentId);
@@ -9,10 +9,15 @@ import org.nrg.containers.exceptions.NoDockerServerException;
 import org.nrg.containers.exceptions.UnauthorizedException;
 import org.nrg.containers.model.command.auto.ResolvedCommand;
 import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.model.container.auto.ContainerLogParameters;
 import org.nrg.framework.exceptions.NotFoundException;
 import org.nrg.xft.security.UserI;
 
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -76,4 +81,23 @@ public interface ContainerService {
     Map<String, InputStream> getLogStreams(String containerId) throws NotFoundException, NoDockerServerException, DockerServerException;
     InputStream getLogStream(long id, String logFileName) throws NotFoundException, NoDockerServerException, DockerServerException;
     InputStream getLogStream(String containerId, String logFileName) throws NotFoundException, NoDockerServerException, DockerServerException;
+
+    /**
+     * Write a log to the output stream as it is read, rather than reading it all into memory first.
+     *
+     * If the log has been saved, it is read from the file. A saved log is complete and has no timestamps,
+     * so only the tail parameter applies to it. Otherwise the log is read from docker, and all the parameters apply.
+     *
+     * @throws NotFoundException If there is no container, or no log with that name
+     * @throws IOException If we could not read a saved log or write to the output stream
+     */
+    void writeLog(String containerId, String logFileName, ContainerLogParameters parameters, OutputStream outputStream)
+            throws NotFoundException, NoDockerServerException, DockerServerException, IOException;
+
+    /**
+     * @return The saved log file, or null if the log has not been saved yet and must be read from docker
+     * @throws NotFoundException If there is no container, or the log was saved but the file is gone
+     */
+    @Nullable
+    File getSavedLogFile(String containerId, String logFileName) throws NotFoundException;
 }
@@ -0,0 +1,21 @@
+package org.nrg.containers.services;
+
+import org.nrg.containers.model.QueuedCommandLaunch;
+import org.nrg.framework.orm.hibernate.BaseHibernateService;
+
+import java.util.Date;
+import java.util.List;
+
+public interface QueuedCommandLaunchService extends BaseHibernateService<QueuedCommandLaunch> {
+    List<QueuedCommandLaunch> findByStatus(String status);
+    void setStatus(QueuedCommandLaunch queuedCommandLaunch, String status, String message);
+
+    /**
+     * Delete queued launches with a given status that have not changed status since some time.
+     *
+     * @param status One of the QueuedCommandLaunch statuses
+     * @param before Delete launches whose status was set before this time
+     * @return The number of launches deleted
+     */
+    int deleteByStatusBefore(String status, Date before);
+}
@@ -0,0 +1,336 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills a build directory with the files from a mount's root directory, so a container can write to them
+ * without changing the originals.
+ *
+ * When the build directory is on the same file system as the source, we try not to copy the bytes at all:
+ * <ul>
+ *     <li>"reflink", the default, clones the files with "cp --reflink=always". The clones share blocks with the
+ *     originals until one of them is written. This only works on file systems that support it, like btrfs and XFS.
+ *     If a file system turns out not to support it, we don't try it there again.</li>
+ *     <li>"hardlink" links the files into the build directory. This is fast everywhere, but a container that
+ *     writes into a file rather than replacing it will change the original. Only use it if your commands
+ *     never modify their input files in place.</li>
+ *     <li>"copy" always copies.</li>
+ * </ul>
+ * Otherwise, or if linking fails, we copy the files on a pool of threads.
+ */
+@Component
+public class BuildDirectoryPopulator {
+    private static final Logger log = LoggerFactory.getLogger(BuildDirectoryPopulator.class);
+    private static final long TRANSFER_CHUNK_SIZE = 8L * 1024L * 1024L;
+
+    public enum Method {
+        REFLINK, HARDLINK, COPY
+    }
+
+    private final Method preferredMethod;
+    private final ExecutorService copyExecutor;
+    private final Set<String> fileStoresWithoutReflink = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong populatedCount = new AtomicLong();
+    private final AtomicLong copiedCount = new AtomicLong();
+    private final AtomicLong filesPopulated = new AtomicLong();
+    private final AtomicLong bytesPopulated = new AtomicLong();
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private final AtomicLong millisPopulating = new AtomicLong();
+
+    @Autowired
+    public BuildDirectoryPopulator(final @Value("${containers.buildDirectory.linkMode:reflink}") String linkMode,
+                                   final @Value("${containers.buildDirectory.copyThreads:4}") int copyThreads) {
+        this.preferredMethod = parseMethod(linkMode);
+        this.copyExecutor = Executors.newFixedThreadPool(Math.max(copyThreads, 1),
+                new ThreadFactoryBuilder().setNameFormat("container-build-copy-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Put everything in the source directory into the build directory.
+     *
+     * @param source The directory to read from
+     * @param buildDirectory An empty directory to write to
+     * @return What we did, and how long it took
+     */
+    @Nonnull
+    public Report populate(final @Nonnull Path source, final @Nonnull Path buildDirectory) throws IOException {
+        if (!Files.isDirectory(source)) {
+            throw new IOException("Cannot populate build directory. " + source + " is not a directory.");
+        }
+
+        final long start = System.currentTimeMillis();
+        final String fileStore = Files.getFileStore(source).name();
+        final boolean sameFileStore = Files.getFileStore(source).equals(Files.getFileStore(buildDirectory));
+
+        Report report = null;
+        if (sameFileStore && preferredMethod == Method.REFLINK && !fileStoresWithoutReflink.contains(fileStore)) {
+            report = reflink(source, buildDirectory, start);
+            if (report == null) {
+                log.info("File system {} does not support reflinks. Build directories on it will be copied.", fileStore);
+                fileStoresWithoutReflink.add(fileStore);
+            }
+        } else if (sameFileStore && preferredMethod == Method.HARDLINK) {
+            try {
+                report = walk(source, buildDirectory, Method.HARDLINK, start);
+            } catch (IOException e) {
+                log.info("Could not link {} into {}. Copying instead. {}", source, buildDirectory, e.getMessage());
+            }
+        }
+
+        if (report == null) {
+            clear(buildDirectory);
+            report = walk(source, buildDirectory, Method.COPY, start);
+            copiedCount.incrementAndGet();
+            bytesCopied.addAndGet(report.bytes());
+        }
+
+        populatedCount.incrementAndGet();
+        filesPopulated.addAndGet(report.files());
+        bytesPopulated.addAndGet(report.bytes());
+        millisPopulating.addAndGet(report.millis());
+        log.info("Populated build directory {} from {}. {}", buildDirectory, source, report);
+        return report;
+    }
+
+    public long getPopulatedCount() {
+        return populatedCount.get();
+    }
+
+    /**
+     * @return How many build directories had to be copied, because linking them was not possible
+     */
+    public long getCopiedCount() {
+        return copiedCount.get();
+    }
+
+    public long getFilesPopulated() {
+        return filesPopulated.get();
+    }
+
+    public long getBytesPopulated() {
+        return bytesPopulated.get();
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    public long getMillisPopulating() {
+        return millisPopulating.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        copyExecutor.shutdownNow();
+    }
+
+    /**
+     * @return null if the file system can't clone files
+     */
+    private Report reflink(final Path source, final Path buildDirectory, final long start) throws IOException {
+        final Process process = new ProcessBuilder("cp", "-R", "--reflink=always", "--",
+                source.toString() + "/.", buildDirectory.toString())
+                .redirectErrorStream(true)
+                .start();
+        final String output = new String(ByteStreams.toByteArray(process.getInputStream()), StandardCharsets.UTF_8);
+        final int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cloning " + source);
+        }
+        if (exitCode != 0) {
+            log.debug("Could not clone {} into {}. {}", source, buildDirectory, output.trim());
+            return null;
+        }
+
+        // Count what we cloned
+        final long[] filesAndBytes = new long[2];
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                filesAndBytes[0]++;
+                filesAndBytes[1] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new Report(Method.REFLINK, filesAndBytes[0], filesAndBytes[1], System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Walk the source once, creating directories as we go, and linking or copying each file.
+     * Files are copied on the pool. Symbolic links are copied as links.
+     */
+    private Report walk(final Path source, final Path buildDirectory, final Method method, final long start) throws IOException {
+        final long[] filesAndBytes = new long[2];
+        final List<Future<Void>> copies = Lists.newArrayList();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                    final Path target = buildDirectory.resolve(source.relativize(dir).toString());
+                    if (!Files.isDirectory(target)) {
+                        Files.createDirectory(target);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    final Path target = buildDirectory.resolve(source.relativize(file).toString());
+                    filesAndBytes[0]++;
+                    if (attrs.isSymbolicLink()) {
+                        Files.copy(file, target, LinkOption.NOFOLLOW_LINKS);
+                    } else if (method == Method.HARDLINK) {
+                        Files.createLink(target, file);
+                        filesAndBytes[1] += attrs.size();
+                    } else {
+                        copies.add(copyExecutor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws IOException {
+                                copyFile(file, target);
+                                return null;
+                            }
+                        }));
+                        filesAndBytes[1] += attrs.size();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            for (final Future<Void> copy : copies) {
+                copy.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + source);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            for (final Future<Void> copy : copies) {
+                copy.cancel(true);
+            }
+        }
+        return new Report(method, filesAndBytes[0], filesAndBytes[1], System.currentTimeMillis() - start);
+    }
+
+    private static void copyFile(final Path source, final Path target) throws IOException {
+        try (final RandomAccessFile in = new RandomAccessFile(source.toFile(), "r");
+             final RandomAccessFile out = new RandomAccessFile(target.toFile(), "rw");
+             final FileChannel inChannel = in.getChannel();
+             final FileChannel outChannel = out.getChannel()) {
+            final long size = inChannel.size();
+            long position = 0L;
+            while (position < size) {
+                position += inChannel.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), outChannel);
+            }
+        }
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+    }
+
+    /**
+     * Remove whatever a failed attempt left in the build directory, but not the directory itself.
+     */
+    private static void clear(final Path buildDirectory) throws IOException {
+        Files.walkFileTree(buildDirectory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                if (!dir.equals(buildDirectory)) {
+                    Files.delete(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Method parseMethod(final String linkMode) {
+        for (final Method method : Method.values()) {
+            if (method.name().equalsIgnoreCase(linkMode == null ? "" : linkMode.trim())) {
+                return method;
+            }
+        }
+        log.warn("Unknown build directory link mode \"{}\". Build directories will be copied.", linkMode);
+        return Method.COPY;
+    }
+
+    /**
+     * How a build directory was populated.
+     */
+    public static final class Report {
+        private final Method method;
+        private final long files;
+        private final long bytes;
+        private final long millis;
+
+        private Report(final Method method, final long files, final long bytes, final long millis) {
+            this.method = method;
+            this.files = files;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public Method method() {
+            return method;
+        }
+
+        public long files() {
+            return files;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d files, %d bytes in %d ms.", method.name().toLowerCase(), files, bytes, millis);
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.nrg.containers.exceptions.CommandResolutionException;
+import org.nrg.containers.exceptions.UnauthorizedException;
+import org.nrg.containers.model.command.auto.Command.ConfiguredCommand;
+import org.nrg.containers.model.command.auto.LaunchReport;
+import org.nrg.containers.model.command.auto.LaunchReport.BulkLaunchReport;
+import org.nrg.containers.model.command.auto.LaunchReport.BulkLaunchStatus;
+import org.nrg.containers.model.command.auto.LaunchUi.BulkLaunchUi;
+import org.nrg.containers.model.command.auto.LaunchUi.BulkLaunchUiStatus;
+import org.nrg.containers.model.command.auto.ResolvedCommand.PartiallyResolvedCommand;
+import org.nrg.containers.model.configuration.CommandConfiguration;
+import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.services.BulkLaunchService;
+import org.nrg.containers.services.CommandResolutionService;
+import org.nrg.containers.services.CommandResolutionService.ResolutionBatch;
+import org.nrg.containers.services.CommandService;
+import org.nrg.containers.services.ContainerService;
+import org.nrg.framework.exceptions.NotFoundException;
+import org.nrg.xft.security.UserI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class BulkLaunchServiceImpl implements BulkLaunchService {
+    private static final Logger log = LoggerFactory.getLogger(BulkLaunchServiceImpl.class);
+
+    private final CommandService commandService;
+    private final CommandResolutionService commandResolutionService;
+    private final ContainerService containerService;
+
+    // One pool for all bulk launches, so that many concurrent bulk launches can't swamp docker
+    private final ExecutorService executor;
+    // Pre-resolving for the bulk launch UI only reads from XNAT, so it gets its own pool and doesn't wait on launches
+    private final ExecutorService preResolveExecutor;
+    private final long jobRetentionMillis;
+    private final Map<String, BulkLaunchJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, PreResolutionJob> preResolutionJobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public BulkLaunchServiceImpl(final CommandService commandService,
+                                 final CommandResolutionService commandResolutionService,
+                                 final ContainerService containerService,
+                                 final @Value("${containers.bulkLaunch.threads:4}") int threads,
+                                 final @Value("${containers.bulkLaunch.preResolveThreads:4}") int preResolveThreads,
+                                 final @Value("${containers.bulkLaunch.jobRetentionMinutes:60}") long jobRetentionMinutes) {
+        this.commandService = commandService;
+        this.commandResolutionService = commandResolutionService;
+        this.containerService = containerService;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactoryBuilder().setNameFormat("container-bulk-launch-%d").setDaemon(true).build());
+        this.preResolveExecutor = Executors.newFixedThreadPool(Math.max(1, preResolveThreads),
+                new ThreadFactoryBuilder().setNameFormat("container-bulk-preresolve-%d").setDaemon(true).build());
+        this.jobRetentionMillis = TimeUnit.MINUTES.toMillis(jobRetentionMinutes);
+    }
+
+    @Override
+    public BulkLaunchReport launch(final String project,
+                                   final long commandId,
+                                   final String wrapperName,
+                                   final long wrapperId,
+                                   final List<Map<String, String>> allRequestParams,
+                                   final UserI userI) {
+        final BulkLaunchJob job = start(project, commandId, wrapperName, wrapperId, allRequestParams, userI);
+        try {
+            job.awaitDone();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Interrupted while waiting for bulk launch {}. The remaining launches will continue in the background.", job.id);
+        }
+
+        // Report the items in the order they were given, as this always has
+        final BulkLaunchReport.Builder reportBuilder = BulkLaunchReport.builder();
+        for (final LaunchReport report : job.reportsInInputOrder()) {
+            reportBuilder.addReport(report);
+        }
+        return reportBuilder.build();
+    }
+
+    @Override
+    public BulkLaunchStatus launchInBackground(final String project,
+                                               final long commandId,
+                                               final String wrapperName,
+                                               final long wrapperId,
+                                               final List<Map<String, String>> allRequestParams,
+                                               final UserI userI) {
+        removeExpiredJobs();
+        final BulkLaunchJob job = start(project, commandId, wrapperName, wrapperId, allRequestParams, userI);
+        jobs.put(job.id, job);
+        return job.status(0);
+    }
+
+    @Override
+    public BulkLaunchStatus getStatus(final String jobId, final int since, final UserI userI) throws NotFoundException {
+        removeExpiredJobs();
+        final BulkLaunchJob job = jobs.get(jobId);
+        if (job == null || !job.userLogin.equals(userI.getLogin())) {
+            throw new NotFoundException("No bulk launch with id " + jobId);
+        }
+        return job.status(since);
+    }
+
+    @Override
+    @Nullable
+    public BulkLaunchUi getLaunchUi(final String project,
+                                    final long commandId,
+                                    final String wrapperName,
+                                    final long wrapperId,
+                                    final List<Map<String, String>> allRequestParams,
+                                    final UserI userI)
+            throws NotFoundException, CommandResolutionException, UnauthorizedException {
+        final List<Map<String, String>> items = allRequestParams == null ?
+                Lists.<Map<String, String>>newArrayList() :
+                allRequestParams;
+        final ConfiguredCommand configuredCommand = getAndConfigure(project, commandId, wrapperName, wrapperId);
+        final CommandConfiguration commandConfiguration = getCommandConfiguration(project, commandId, wrapperName, wrapperId);
+        final ResolutionBatch batch = commandResolutionService.resolutionBatch(configuredCommand, userI);
+        log.debug("Pre-resolving command {}, wrapper {} for {} item(s).", configuredCommand.id(), configuredCommand.wrapper().name(), items.size());
+
+        final List<Future<PartiallyResolvedCommand>> futures = Lists.newArrayList();
+        try {
+            for (final Map<String, String> params : items) {
+                futures.add(preResolveExecutor.submit(preResolution(batch, params)));
+            }
+
+            // Add the items to the UI in the order they were given, not the order they finished
+            BulkLaunchUi.Builder bulkLaunchUiBuilder = null;
+            for (final Future<PartiallyResolvedCommand> future : futures) {
+                final PartiallyResolvedCommand partiallyResolvedCommand = future.get();
+                bulkLaunchUiBuilder = bulkLaunchUiBuilder == null ?
+                        BulkLaunchUi.builder(partiallyResolvedCommand, commandConfiguration) :
+                        bulkLaunchUiBuilder.addInputsFromInputTrees(partiallyResolvedCommand, commandConfiguration);
+            }
+            return bulkLaunchUiBuilder == null ? null : bulkLaunchUiBuilder.build();
+        } catch (RejectedExecutionException e) {
+            throw new CommandResolutionException("Bulk launch is shut down.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandResolutionException("Interrupted while pre-resolving the bulk launch UI.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof CommandResolutionException) {
+                throw (CommandResolutionException) cause;
+            } else if (cause instanceof UnauthorizedException) {
+                throw (UnauthorizedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CommandResolutionException(cause.getMessage(), cause);
+        } finally {
+            // If one item failed, the rest are no use
+            for (final Future<PartiallyResolvedCommand> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public BulkLaunchUiStatus getLaunchUiInBackground(final String project,
+                                                      final long commandId,
+                                                      final String wrapperName,
+                                                      final long wrapperId,
+                                                      final List<Map<String, String>> allRequestParams,
+                                                      final UserI userI)
+            throws NotFoundException {
+        removeExpiredJobs();
+        final List<Map<String, String>> items = allRequestParams == null ?
+                Lists.<Map<String, String>>newArrayList() :
+                allRequestParams;
+        final ConfiguredCommand configuredCommand = getAndConfigure(project, commandId, wrapperName, wrapperId);
+        final CommandConfiguration commandConfiguration = getCommandConfiguration(project, commandId, wrapperName, wrapperId);
+        final ResolutionBatch batch = commandResolutionService.resolutionBatch(configuredCommand, userI);
+
+        final PreResolutionJob job = new PreResolutionJob(userI.getLogin(), items.size(), commandConfiguration);
+        log.info("Starting bulk launch UI {} of {} item(s).", job.id, items.size());
+        for (final Map<String, String> params : items) {
+            final Callable<PartiallyResolvedCommand> preResolution = preResolution(batch, params);
+            try {
+                preResolveExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            job.add(preResolution.call());
+                        } catch (Throwable t) {
+                            log.debug("Pre-resolution failed for bulk launch UI {}, inputs {}.", job.id, params, t);
+                            job.add(LaunchReport.Failure.create(t.getMessage() != null ? t.getMessage() : "", params,
+                                    configuredCommand.id(), configuredCommand.wrapper().id()));
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                job.add(LaunchReport.Failure.create("Bulk launch is shut down.", params,
+                        configuredCommand.id(), configuredCommand.wrapper().id()));
+            }
+        }
+        preResolutionJobs.put(job.id, job);
+        return job.status(0);
+    }
+
+    @Override
+    public BulkLaunchUiStatus getLaunchUiStatus(final String jobId, final int since, final UserI userI) throws NotFoundException {
+        removeExpiredJobs();
+        final PreResolutionJob job = preResolutionJobs.get(jobId);
+        if (job == null || !job.userLogin.equals(userI.getLogin())) {
+            throw new NotFoundException("No bulk launch UI with id " + jobId);
+        }
+        return job.status(since);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        preResolveExecutor.shutdownNow();
+    }
+
+    private BulkLaunchJob start(final String project,
+                                final long commandId,
+                                final String wrapperName,
+                                final long wrapperId,
+                                final List<Map<String, String>> allRequestParams,
+                                final UserI userI) {
+        final List<Map<String, String>> items = allRequestParams == null ?
+                Lists.<Map<String, String>>newArrayList() :
+                allRequestParams;
+        final BulkLaunchJob job = new BulkLaunchJob(userI.getLogin(), items.size());
+        log.info("Starting bulk launch {} of {} item(s).", job.id, items.size());
+
+        // Everything that is the same for every item is done once, up front.
+        final ConfiguredCommand configuredCommand;
+        try {
+            configuredCommand = getAndConfigure(project, commandId, wrapperName, wrapperId);
+        } catch (Throwable t) {
+            log.error("Bulk launch {} failed. Could not get command.", job.id, t);
+            final String message = t.getMessage() != null ? t.getMessage() : "";
+            for (int index = 0; index < items.size(); index++) {
+                job.add(index, LaunchReport.Failure.create(message, items.get(index), commandId, wrapperId));
+            }
+            return job;
+        }
+        final ResolutionBatch batch = commandResolutionService.resolutionBatch(configuredCommand, userI);
+
+        // Launch as the user who asked for it, like we do when pre-resolving
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+        for (int index = 0; index < items.size(); index++) {
+            final int itemIndex = index;
+            final Map<String, String> params = items.get(index);
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final SecurityContext previous = SecurityContextHolder.getContext();
+                        SecurityContextHolder.setContext(securityContext);
+                        try {
+                            job.add(itemIndex, launch(batch, configuredCommand, params, userI));
+                        } finally {
+                            SecurityContextHolder.setContext(previous);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                job.add(itemIndex, LaunchReport.Failure.create("Bulk launch is shut down.", params, commandId, wrapperId));
+            }
+        }
+        return job;
+    }
+
+    private ConfiguredCommand getAndConfigure(final String project,
+                                              final long commandId,
+                                              final String wrapperName,
+                                              final long wrapperId) throws NotFoundException {
+        return project == null ?
+                (commandId == 0L && wrapperName == null ?
+                        commandService.getAndConfigure(wrapperId) :
+                        commandService.getAndConfigure(commandId, wrapperName)) :
+                (commandId == 0L && wrapperName == null ?
+                        commandService.getAndConfigure(project, wrapperId) :
+                        commandService.getAndConfigure(project, commandId, wrapperName));
+    }
+
+    private CommandConfiguration getCommandConfiguration(final String project,
+                                                         final long commandId,
+                                                         final String wrapperName,
+                                                         final long wrapperId) throws NotFoundException {
+        return project == null ?
+                (commandId == 0L && wrapperName == null ?
+                        commandService.getSiteConfiguration(wrapperId) :
+                        commandService.getSiteConfiguration(commandId, wrapperName)) :
+                (commandId == 0L && wrapperName == null ?
+                        commandService.getProjectConfiguration(project, wrapperId) :
+                        commandService.getProjectConfiguration(project, commandId, wrapperName));
+    }
+
+    /**
+     * Pre-resolve one item on a worker thread, as the user who asked for it.
+     */
+    private Callable<PartiallyResolvedCommand> preResolution(final ResolutionBatch batch,
+                                                             final Map<String, String> params) {
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+        return new Callable<PartiallyResolvedCommand>() {
+            @Override
+            public PartiallyResolvedCommand call() throws Exception {
+                final SecurityContext previous = SecurityContextHolder.getContext();
+                SecurityContextHolder.setContext(securityContext);
+                try {
+                    return batch.preResolve(params);
+                } finally {
+                    SecurityContextHolder.setContext(previous);
+                }
+            }
+        };
+    }
+
+    @Nonnull
+    private LaunchReport launch(final ResolutionBatch batch,
+                                final ConfiguredCommand configuredCommand,
+                                final Map<String, String> params,
+                                final UserI userI) {
+        try {
+            final Container container = containerService.launchResolvedCommand(batch.resolve(params), userI);
+            if (container == null) {
+                throw new CommandResolutionException("Something happened but I do not know what.");
+            }
+            log.info("Launched command {}, wrapper {}. Produced container {}.",
+                    configuredCommand.id(), configuredCommand.wrapper().name(), container.databaseId());
+
+            return container.isSwarmService() ?
+                    LaunchReport.ServiceSuccess.create(container) :
+                    LaunchReport.ContainerSuccess.create(container);
+        } catch (Throwable t) {
+            log.error("Launch failed for command wrapper name {}.", configuredCommand.wrapper().name(), t);
+            return LaunchReport.Failure.create(t.getMessage() != null ? t.getMessage() : "", params,
+                    configuredCommand.id(), configuredCommand.wrapper().id());
+        }
+    }
+
+    private void removeExpiredJobs() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<BulkLaunchJob> iterator = jobs.values().iterator(); iterator.hasNext(); ) {
+            final BulkLaunchJob job = iterator.next();
+            if (job.isExpired(now, jobRetentionMillis)) {
+                iterator.remove();
+            }
+        }
+        for (final Iterator<PreResolutionJob> iterator = preResolutionJobs.values().iterator(); iterator.hasNext(); ) {
+            final PreResolutionJob job = iterator.next();
+            if (job.isExpired(now, jobRetentionMillis)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class BulkLaunchJob {
+        private final String id = UUID.randomUUID().toString();
+        private final String userLogin;
+        private final int total;
+
+        // Reports in the order the launches finished, for polling, and in the order the items were given.
+        // Guarded by "this".
+        private final List<LaunchReport> reports = Lists.newArrayList();
+        private final LaunchReport[] reportsByIndex;
+        private int successCount = 0;
+        private int failureCount = 0;
+        private long finishedAt = 0L;
+
+        private BulkLaunchJob(final String userLogin, final int total) {
+            this.userLogin = userLogin;
+            this.total = total;
+            this.reportsByIndex = new LaunchReport[total];
+            if (total == 0) {
+                finishedAt = System.currentTimeMillis();
+            }
+        }
+
+        private synchronized void add(final int index, final LaunchReport report) {
+            reports.add(report);
+            reportsByIndex[index] = report;
+            if (report instanceof LaunchReport.Success) {
+                successCount++;
+            } else {
+                failureCount++;
+            }
+            if (reports.size() >= total) {
+                finishedAt = System.currentTimeMillis();
+                notifyAll();
+            }
+        }
+
+        private synchronized void awaitDone() throws InterruptedException {
+            while (reports.size() < total) {
+                wait();
+            }
+        }
+
+        /**
+         * @return The reports of the items that have finished, in the order the items were given
+         */
+        private synchronized List<LaunchReport> reportsInInputOrder() {
+            final List<LaunchReport> inInputOrder = Lists.newArrayList();
+            for (final LaunchReport report : reportsByIndex) {
+                if (report != null) {
+                    inInputOrder.add(report);
+                }
+            }
+            return inInputOrder;
+        }
+
+        private synchronized List<LaunchReport> reportsSince(final int since) {
+            final int from = Math.min(Math.max(0, since), reports.size());
+            return Lists.newArrayList(reports.subList(from, reports.size()));
+        }
+
+        private synchronized BulkLaunchStatus status(final int since) {
+            final int from = Math.min(Math.max(0, since), reports.size());
+            return BulkLaunchStatus.create(id, total, successCount, failureCount, from, reportsSince(from));
+        }
+
+        private synchronized boolean isExpired(final long now, final long retentionMillis) {
+            return finishedAt != 0L && now - finishedAt > retentionMillis;
+        }
+    }
+
+    private static class PreResolutionJob {
+        private final String id = UUID.randomUUID().toString();
+        private final String userLogin;
+        private final int total;
+        private final CommandConfiguration commandConfiguration;
+
+        // Results in the order the items finished: a PartiallyResolvedCommand or a LaunchReport.Failure.
+        // Guarded by "this".
+        private final List<Object> results = Lists.newArrayList();
+        private long finishedAt = 0L;
+
+        private PreResolutionJob(final String userLogin, final int total, final CommandConfiguration commandConfiguration) {
+            this.userLogin = userLogin;
+            this.total = total;
+            this.commandConfiguration = commandConfiguration;
+            if (total == 0) {
+                finishedAt = System.currentTimeMillis();
+            }
+        }
+
+        private synchronized void add(final Object result) {
+            results.add(result);
+            if (results.size() >= total) {
+                finishedAt = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * The UI holds only the inputs of the items that finished since the given one,
+         * so the caller can add them to what it already has.
+         */
+        private synchronized BulkLaunchUiStatus status(final int since) {
+            final int from = Math.min(Math.max(0, since), results.size());
+            BulkLaunchUi.Builder bulkLaunchUiBuilder = null;
+            final List<LaunchReport.Failure> failures = Lists.newArrayList();
+            for (final Object result : results.subList(from, results.size())) {
+                if (result instanceof LaunchReport.Failure) {
+                    failures.add((LaunchReport.Failure) result);
+                } else {
+                    final PartiallyResolvedCommand partiallyResolvedCommand = (PartiallyResolvedCommand) result;
+                    bulkLaunchUiBuilder = bulkLaunchUiBuilder == null ?
+                            BulkLaunchUi.builder(partiallyResolvedCommand, commandConfiguration) :
+                            bulkLaunchUiBuilder.addInputsFromInputTrees(partiallyResolvedCommand, commandConfiguration);
+                }
+            }
+            return BulkLaunchUiStatus.create(id, total, results.size(), results.size(),
+                    bulkLaunchUiBuilder == null ? null : bulkLaunchUiBuilder.build(), failures);
+        }
+
+        private synchronized boolean isExpired(final long now, final long retentionMillis) {
+            return finishedAt != 0L && now - finishedAt > retentionMillis;
+        }
+    }
+}
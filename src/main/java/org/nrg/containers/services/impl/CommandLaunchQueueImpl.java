@@ -0,0 +1,360 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.nrg.containers.model.QueuedCommandLaunch;
+import org.nrg.containers.model.command.auto.ResolvedCommand;
+import org.nrg.containers.services.CommandLaunchQueue;
+import org.nrg.containers.services.CommandResolutionService;
+import org.nrg.containers.services.ContainerService;
+import org.nrg.containers.services.QueuedCommandLaunchService;
+import org.nrg.xdat.security.services.UserManagementServiceI;
+import org.nrg.xft.security.UserI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class CommandLaunchQueueImpl implements CommandLaunchQueue, ApplicationListener<ContextRefreshedEvent> {
+    private static final Logger log = LoggerFactory.getLogger(CommandLaunchQueueImpl.class);
+
+    private final CommandResolutionService commandResolutionService;
+    private final ContainerService containerService;
+    private final QueuedCommandLaunchService queuedCommandLaunchService;
+    private final UserManagementServiceI userManagementService;
+
+    // Resolving is mostly CPU and database work; creating and starting containers is mostly waiting on docker.
+    private final ThreadPoolExecutor resolveExecutor;
+    private final ThreadPoolExecutor launchExecutor;
+    private final long failedRetentionMillis;
+
+    // Ids of saved launches that have been handed to the resolve workers and are not finished yet
+    private final Set<Long> inFlight = Sets.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final AtomicBoolean recovered = new AtomicBoolean(false);
+    private final AtomicLong launched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final StageTimer queueWaitTimer = new StageTimer();
+    private final StageTimer resolveTimer = new StageTimer();
+    private final StageTimer launchTimer = new StageTimer();
+
+    @Autowired
+    public CommandLaunchQueueImpl(final CommandResolutionService commandResolutionService,
+                                  final ContainerService containerService,
+                                  final QueuedCommandLaunchService queuedCommandLaunchService,
+                                  final UserManagementServiceI userManagementService,
+                                  final @Value("${containers.launchQueue.resolveThreads:2}") int resolveThreads,
+                                  final @Value("${containers.launchQueue.launchThreads:4}") int launchThreads,
+                                  final @Value("${containers.launchQueue.maxBacklog:500}") int maxBacklog,
+                                  final @Value("${containers.launchQueue.failedRetentionHours:72}") long failedRetentionHours) {
+        this.commandResolutionService = commandResolutionService;
+        this.containerService = containerService;
+        this.queuedCommandLaunchService = queuedCommandLaunchService;
+        this.userManagementService = userManagementService;
+        // Resolve tasks are queued by event listeners, which must not wait for room, so a full backlog rejects them.
+        // Launch tasks are only queued by resolve workers, which can wait.
+        this.resolveExecutor = boundedExecutor("container-launch-resolve-%d", resolveThreads, maxBacklog,
+                new ThreadPoolExecutor.AbortPolicy());
+        this.launchExecutor = boundedExecutor("container-launch-start-%d", launchThreads, maxBacklog,
+                new BlockWhenFull());
+        this.failedRetentionMillis = TimeUnit.HOURS.toMillis(Math.max(failedRetentionHours, 1L));
+    }
+
+    @Override
+    public QueuedCommandLaunch queue(final String project,
+                                     final long commandId,
+                                     final String wrapperName,
+                                     final Map<String, String> inputValues,
+                                     final UserI userI) {
+        final QueuedCommandLaunch queuedCommandLaunch = queuedCommandLaunchService.create(
+                QueuedCommandLaunch.create(project, commandId, wrapperName, inputValues, userI.getLogin())
+        );
+        log.debug("Queued launch {} of command {} wrapper \"{}\".", queuedCommandLaunch.getId(), commandId, wrapperName);
+        submitToResolve(queuedCommandLaunch, userI);
+        return queuedCommandLaunch;
+    }
+
+    @Override
+    public int drain() {
+        int submitted = 0;
+        try {
+            for (final QueuedCommandLaunch queuedCommandLaunch : queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_QUEUED)) {
+                if (inFlight.contains(queuedCommandLaunch.getId())) {
+                    continue;
+                }
+                if (!submitToResolve(queuedCommandLaunch, null)) {
+                    // Still full. The rest will wait for the next drain.
+                    break;
+                }
+                submitted++;
+            }
+        } catch (Exception e) {
+            log.error("Could not submit queued command launches.", e);
+        }
+        if (submitted > 0) {
+            log.info("Submitted {} queued command launch(es) that were waiting for room in the launch queue.", submitted);
+        }
+
+        try {
+            final int purged = queuedCommandLaunchService.deleteByStatusBefore(QueuedCommandLaunch.STATUS_FAILED,
+                    new Date(System.currentTimeMillis() - failedRetentionMillis));
+            if (purged > 0) {
+                log.debug("Deleted {} failed command launch(es).", purged);
+            }
+        } catch (Exception e) {
+            log.error("Could not delete old failed command launches.", e);
+        }
+        return submitted;
+    }
+
+    @Override
+    public void run() {
+        drain();
+    }
+
+    /**
+     * Once the application is up, pick up any launches that were still queued when we last shut down.
+     * Launches that were interrupted after we started creating their containers are marked failed instead,
+     * since we can't tell whether the container was created.
+     */
+    @Override
+    public void onApplicationEvent(final ContextRefreshedEvent event) {
+        if (!recovered.compareAndSet(false, true)) {
+            return;
+        }
+
+        final Thread recoveryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                recoverPersistedLaunches();
+            }
+        }, "container-launch-recovery");
+        recoveryThread.setDaemon(true);
+        recoveryThread.start();
+    }
+
+    private void recoverPersistedLaunches() {
+        try {
+            for (final QueuedCommandLaunch interrupted : queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_LAUNCHING)) {
+                log.warn("Launch {} was interrupted while its container was being created. Not retrying it.", interrupted.getId());
+                queuedCommandLaunchService.setStatus(interrupted, QueuedCommandLaunch.STATUS_FAILED,
+                        "Interrupted by a restart while the container was being created.");
+            }
+
+            // Resolving has no side effects, so it is safe to start over
+            for (final QueuedCommandLaunch interrupted : queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_RESOLVING)) {
+                queuedCommandLaunchService.setStatus(interrupted, QueuedCommandLaunch.STATUS_QUEUED, null);
+            }
+        } catch (Exception e) {
+            log.error("Could not recover queued command launches.", e);
+        }
+        drain();
+    }
+
+    /**
+     * Hand a saved launch to the resolve workers without waiting.
+     *
+     * @return false if the backlog is full or we are shutting down. The launch is left queued, and will be
+     *         submitted again by {@link #drain()} or on the next startup.
+     */
+    private boolean submitToResolve(final QueuedCommandLaunch queuedCommandLaunch, final UserI userI) {
+        final Long id = queuedCommandLaunch.getId();
+        if (!inFlight.add(id)) {
+            return true;
+        }
+        final long queuedAt = System.nanoTime();
+        try {
+            resolveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    queueWaitTimer.record(System.nanoTime() - queuedAt);
+                    resolve(queuedCommandLaunch, userI);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id);
+            log.info("Launch queue is {}. Launch {} will be submitted later.",
+                    resolveExecutor.isShutdown() ? "shut down" : "full", id);
+            return false;
+        }
+    }
+
+    private void resolve(final QueuedCommandLaunch queuedCommandLaunch, final UserI knownUser) {
+        final long start = System.nanoTime();
+        final ResolvedCommand resolvedCommand;
+        final UserI userI;
+        try {
+            if (knownUser == null) {
+                // Launches picked up by drain() may have finished between listing and submitting them
+                final QueuedCommandLaunch current = queuedCommandLaunchService.retrieve(queuedCommandLaunch.getId());
+                if (current == null || !QueuedCommandLaunch.STATUS_QUEUED.equals(current.getStatus())) {
+                    inFlight.remove(queuedCommandLaunch.getId());
+                    return;
+                }
+            }
+            queuedCommandLaunchService.setStatus(queuedCommandLaunch, QueuedCommandLaunch.STATUS_RESOLVING, null);
+            userI = knownUser != null ? knownUser : userManagementService.getUser(queuedCommandLaunch.getUserLogin());
+
+            final String project = queuedCommandLaunch.getProjectId();
+            final long commandId = queuedCommandLaunch.getCommandId();
+            final String wrapperName = queuedCommandLaunch.getWrapperName();
+            final Map<String, String> inputValues = queuedCommandLaunch.getInputValues();
+            resolvedCommand = StringUtils.isNotBlank(project) ?
+                    commandResolutionService.resolve(project, commandId, wrapperName, inputValues, userI) :
+                    commandResolutionService.resolve(commandId, wrapperName, inputValues, userI);
+        } catch (Exception e) {
+            fail(queuedCommandLaunch, "Could not resolve command", e);
+            inFlight.remove(queuedCommandLaunch.getId());
+            return;
+        } finally {
+            resolveTimer.record(System.nanoTime() - start);
+        }
+
+        try {
+            launchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    launch(queuedCommandLaunch, resolvedCommand, userI);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(queuedCommandLaunch.getId());
+            log.info("Launch queue is shut down. Launch {} will be retried on restart.", queuedCommandLaunch.getId());
+        }
+    }
+
+    private void launch(final QueuedCommandLaunch queuedCommandLaunch, final ResolvedCommand resolvedCommand, final UserI userI) {
+        final long start = System.nanoTime();
+        try {
+            // We never resolve a launch again once it gets this far, so we don't need to keep its input values
+            queuedCommandLaunch.getInputValues().clear();
+            queuedCommandLaunchService.setStatus(queuedCommandLaunch, QueuedCommandLaunch.STATUS_LAUNCHING, null);
+            containerService.launchResolvedCommand(resolvedCommand, userI);
+            launched.incrementAndGet();
+            queuedCommandLaunchService.delete(queuedCommandLaunch);
+            log.debug("Finished launch {}.", queuedCommandLaunch.getId());
+        } catch (Exception e) {
+            fail(queuedCommandLaunch, "Could not launch container", e);
+        } finally {
+            inFlight.remove(queuedCommandLaunch.getId());
+            launchTimer.record(System.nanoTime() - start);
+        }
+    }
+
+    private void fail(final QueuedCommandLaunch queuedCommandLaunch, final String reason, final Exception e) {
+        failed.incrementAndGet();
+        log.error(String.format("Error launching command %s from queued launch %s. %s.",
+                queuedCommandLaunch.getCommandId(), queuedCommandLaunch.getId(), reason), e);
+        try {
+            queuedCommandLaunchService.setStatus(queuedCommandLaunch, QueuedCommandLaunch.STATUS_FAILED,
+                    reason + ": " + e.getMessage());
+        } catch (Exception e2) {
+            log.error("Could not record failure of queued launch " + queuedCommandLaunch.getId(), e2);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Anything we haven't finished is still saved, and will be picked up on the next startup
+        resolveExecutor.shutdownNow();
+        launchExecutor.shutdownNow();
+    }
+
+    @Override
+    public int getResolveQueueDepth() {
+        return resolveExecutor.getQueue().size() + resolveExecutor.getActiveCount();
+    }
+
+    @Override
+    public int getLaunchQueueDepth() {
+        return launchExecutor.getQueue().size() + launchExecutor.getActiveCount();
+    }
+
+    @Override
+    public long getLaunchedCount() {
+        return launched.get();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public double getAverageQueueWaitMillis() {
+        return queueWaitTimer.averageMillis();
+    }
+
+    @Override
+    public double getAverageResolveMillis() {
+        return resolveTimer.averageMillis();
+    }
+
+    @Override
+    public double getAverageLaunchMillis() {
+        return launchTimer.averageMillis();
+    }
+
+    private static ThreadPoolExecutor boundedExecutor(final String nameFormat, final int numThreads, final int maxBacklog,
+                                                      final RejectedExecutionHandler whenFull) {
+        final int threads = Math.max(1, numThreads);
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, maxBacklog)),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(),
+                whenFull);
+    }
+
+    /**
+     * When the backlog is full, make the caller wait for room instead of rejecting the task.
+     * This is what pushes back on the resolve workers when containers can't be created fast enough.
+     */
+    private static class BlockWhenFull implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Launch queue is shut down.");
+            }
+            try {
+                executor.getQueue().put(runnable);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the launch queue.", e);
+            }
+        }
+    }
+
+    private static class StageTimer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        void record(final long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+
+        double averageMillis() {
+            final long n = count.get();
+            return n == 0 ? 0D : TimeUnit.NANOSECONDS.toMicros(totalNanos.get()) / (1000D * n);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.nrg.containers.model.command.auto.Command;
+import org.nrg.containers.model.command.auto.Command.CommandWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable snapshot of all the commands and wrappers, indexed the ways we look them up.
+ *
+ * The commands and wrappers are immutable, so a snapshot can be shared by any number of readers.
+ * When commands change we don't update a snapshot, we throw it away and build a new one.
+ */
+final class CommandRegistry {
+    private final ImmutableList<Command> commands;
+    private final ImmutableMap<Long, Command> commandsById;
+    private final ImmutableMap<Long, CommandWrapper> wrappersById;
+    private final ImmutableMap<Long, Command> commandsByWrapperId;
+    private final ImmutableMap<Long, Command> commandsWithOneWrapperByWrapperId;
+    private final ImmutableMap<String, Long> wrapperIdsByCommandIdAndName;
+    private final ImmutableListMultimap<String, Command> commandsByImage;
+    private final ImmutableListMultimap<String, CommandWrapper> wrappersByContext;
+
+    // Launchable wrappers, in registry order, for each xsiType we have been asked about
+    private final ImmutableList<LaunchableWrapper> launchableWrappers;
+    private final ConcurrentMap<String, ImmutableList<LaunchableWrapper>> launchableWrappersByXsiType = new ConcurrentHashMap<>();
+
+    CommandRegistry(final @Nonnull List<Command> commandList) {
+        final ImmutableList.Builder<Command> commands = ImmutableList.builder();
+        final Map<Long, Command> commandsById = Maps.newHashMap();
+        final Map<Long, CommandWrapper> wrappersById = Maps.newHashMap();
+        final Map<Long, Command> commandsByWrapperId = Maps.newHashMap();
+        final Map<Long, Command> commandsWithOneWrapperByWrapperId = Maps.newHashMap();
+        final Map<String, Long> wrapperIdsByCommandIdAndName = Maps.newHashMap();
+        final ImmutableListMultimap.Builder<String, Command> commandsByImage = ImmutableListMultimap.builder();
+        final ImmutableListMultimap.Builder<String, CommandWrapper> wrappersByContext = ImmutableListMultimap.builder();
+        final ImmutableList.Builder<LaunchableWrapper> launchableWrappers = ImmutableList.builder();
+
+        for (final Command command : commandList) {
+            if (command == null) {
+                continue;
+            }
+            commands.add(command);
+            commandsById.put(command.id(), command);
+            if (command.image() != null) {
+                commandsByImage.put(command.image(), command);
+            }
+
+            for (final CommandWrapper wrapper : command.xnatCommandWrappers()) {
+                wrappersById.put(wrapper.id(), wrapper);
+                commandsByWrapperId.put(wrapper.id(), command);
+                commandsWithOneWrapperByWrapperId.put(wrapper.id(),
+                        command.toBuilder().xnatCommandWrappers(ImmutableList.of(wrapper)).build());
+                wrapperIdsByCommandIdAndName.put(commandIdAndName(command.id(), wrapper.name()), wrapper.id());
+                for (final String context : wrapper.contexts()) {
+                    wrappersByContext.put(context, wrapper);
+                }
+
+                // We can't launch a wrapper from the UI if it needs more than one external input
+                if (wrapper.externalInputs().size() <= 1) {
+                    launchableWrappers.add(new LaunchableWrapper(command, wrapper));
+                }
+            }
+        }
+
+        this.commands = commands.build();
+        this.commandsById = ImmutableMap.copyOf(commandsById);
+        this.wrappersById = ImmutableMap.copyOf(wrappersById);
+        this.commandsByWrapperId = ImmutableMap.copyOf(commandsByWrapperId);
+        this.commandsWithOneWrapperByWrapperId = ImmutableMap.copyOf(commandsWithOneWrapperByWrapperId);
+        this.wrapperIdsByCommandIdAndName = ImmutableMap.copyOf(wrapperIdsByCommandIdAndName);
+        this.commandsByImage = commandsByImage.build();
+        this.wrappersByContext = wrappersByContext.build();
+        this.launchableWrappers = launchableWrappers.build();
+    }
+
+    @Nonnull
+    ImmutableList<Command> getAll() {
+        return commands;
+    }
+
+    @Nullable
+    Command getCommand(final long commandId) {
+        return commandsById.get(commandId);
+    }
+
+    @Nonnull
+    ImmutableList<Command> getByImage(final String image) {
+        return commandsByImage.get(image);
+    }
+
+    @Nullable
+    CommandWrapper getWrapper(final long wrapperId) {
+        return wrappersById.get(wrapperId);
+    }
+
+    @Nullable
+    Command getCommandByWrapperId(final long wrapperId) {
+        return commandsByWrapperId.get(wrapperId);
+    }
+
+    /**
+     * @return The command that owns the wrapper, with every other wrapper removed.
+     */
+    @Nullable
+    Command getCommandWithOneWrapper(final long wrapperId) {
+        return commandsWithOneWrapperByWrapperId.get(wrapperId);
+    }
+
+    /**
+     * Find a wrapper id by the command id and wrapper name. Like the database lookup,
+     * if there is no wrapper with that name we check if the "name" is really the wrapper's id.
+     *
+     * @return The wrapper id, or null if the command has no such wrapper.
+     */
+    @Nullable
+    Long getWrapperId(final long commandId, final String wrapperName) {
+        final Long wrapperId = wrapperIdsByCommandIdAndName.get(commandIdAndName(commandId, wrapperName));
+        if (wrapperId != null) {
+            return wrapperId;
+        }
+
+        try {
+            final long possibleWrapperId = Long.parseLong(wrapperName);
+            final Command command = commandsByWrapperId.get(possibleWrapperId);
+            return command != null && command.id() == commandId ? possibleWrapperId : null;
+        } catch (NumberFormatException ignored) {
+            // No, wrapperName is not a number
+            return null;
+        }
+    }
+
+    @Nonnull
+    ImmutableList<CommandWrapper> getWrappersByContext(final String context) {
+        return wrappersByContext.get(context);
+    }
+
+    /**
+     * Find the wrappers with at most one external input that can run on an xsiType, either because
+     * the xsiType is one of the wrapper's contexts or because it is descended from one of them.
+     *
+     * The first time we are asked about an xsiType we check it against each distinct context once.
+     * After that it is a map lookup.
+     *
+     * @param xsiType The xsiType the user wants to launch on
+     * @param contextMatcher Tells us whether the xsiType can be used where a context is expected
+     * @return The matching wrappers, in the same order as {@link #getAll()}
+     */
+    @Nonnull
+    ImmutableList<LaunchableWrapper> getLaunchableWrappers(final @Nonnull String xsiType,
+                                                           final @Nonnull XsiTypeContextMatcher contextMatcher) {
+        final ImmutableList<LaunchableWrapper> cached = launchableWrappersByXsiType.get(xsiType);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Set<Long> matchingWrapperIds = new HashSet<>();
+        for (final String context : wrappersByContext.keySet()) {
+            if (xsiType.equals(context) || contextMatcher.matches(xsiType, context)) {
+                for (final CommandWrapper wrapper : wrappersByContext.get(context)) {
+                    matchingWrapperIds.add(wrapper.id());
+                }
+            }
+        }
+
+        final ImmutableList.Builder<LaunchableWrapper> matching = ImmutableList.builder();
+        for (final LaunchableWrapper launchableWrapper : launchableWrappers) {
+            if (matchingWrapperIds.contains(launchableWrapper.wrapper().id())) {
+                matching.add(launchableWrapper);
+            }
+        }
+        final ImmutableList<LaunchableWrapper> computed = matching.build();
+        launchableWrappersByXsiType.putIfAbsent(xsiType, computed);
+        return computed;
+    }
+
+    interface XsiTypeContextMatcher {
+        /**
+         * @return true if xsiType is descended from the context xsiType
+         */
+        boolean matches(String xsiType, String context);
+    }
+
+    /**
+     * A wrapper that can be launched from the UI, along with its command and the name of its
+     * single external input (or an empty string if it has none).
+     */
+    static final class LaunchableWrapper {
+        private final Command command;
+        private final CommandWrapper wrapper;
+        private final String externalInputName;
+
+        private LaunchableWrapper(final Command command, final CommandWrapper wrapper) {
+            this.command = command;
+            this.wrapper = wrapper;
+            this.externalInputName = wrapper.externalInputs().isEmpty() ? "" : wrapper.externalInputs().get(0).name();
+        }
+
+        Command command() {
+            return command;
+        }
+
+        CommandWrapper wrapper() {
+            return wrapper;
+        }
+
+        boolean hasExternalInput() {
+            return !wrapper.externalInputs().isEmpty();
+        }
+
+        String externalInputName() {
+            return externalInputName;
+        }
+    }
+
+    private static String commandIdAndName(final long commandId, final String wrapperName) {
+        return commandId + ":" + wrapperName;
+    }
+}
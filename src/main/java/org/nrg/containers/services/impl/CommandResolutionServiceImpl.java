@@ -3,8 +3,10 @@ package org.nrg.containers.services.impl;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.InvalidJsonException;
@@ -54,6 +56,10 @@ import org.nrg.containers.model.xnat.XnatModelObject;
 import org.nrg.containers.services.CommandResolutionService;
 import org.nrg.containers.services.CommandService;
 import org.nrg.containers.services.DockerService;
+import org.nrg.containers.utils.CompiledTemplate;
+import org.nrg.containers.utils.JsonPathCache;
+import org.nrg.containers.utils.ScopedMap;
+import org.nrg.containers.utils.XnatModelObjectMatcher;
 import org.nrg.framework.constants.Scope;
 import org.nrg.framework.exceptions.NotFoundException;
 import org.nrg.xdat.preferences.SiteConfigPreferences;
@@ -66,10 +72,14 @@ import org.nrg.xnat.turbine.utils.ArchivableItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.nio.file.Files;
@@ -78,11 +88,14 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import static org.nrg.containers.model.command.entity.CommandWrapperInputType.ASSESSOR;
 import static org.nrg.containers.model.command.entity.CommandWrapperInputType.BOOLEAN;
@@ -107,18 +120,35 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
     private final SiteConfigPreferences siteConfigPreferences;
     private final ObjectMapper mapper;
     private final DockerService dockerService;
+    private final BuildDirectoryPopulator buildDirectoryPopulator;
+    private final PreResolutionCache preResolutionCache;
+    // Resolves sibling input subtrees in parallel. Null unless parallel resolution is turned on.
+    private final ForkJoinPool resolutionPool;
 
     @Autowired
     public CommandResolutionServiceImpl(final CommandService commandService,
                                         final ConfigService configService,
                                         final SiteConfigPreferences siteConfigPreferences,
                                         final ObjectMapper mapper,
-                                        final DockerService dockerService) {
+                                        final DockerService dockerService,
+                                        final BuildDirectoryPopulator buildDirectoryPopulator,
+                                        final PreResolutionCache preResolutionCache,
+                                        final @Value("${containers.resolution.parallelism:0}") int resolutionParallelism) {
         this.commandService = commandService;
         this.configService = configService;
         this.siteConfigPreferences = siteConfigPreferences;
         this.mapper = mapper;
         this.dockerService = dockerService;
+        this.buildDirectoryPopulator = buildDirectoryPopulator;
+        this.preResolutionCache = preResolutionCache;
+        this.resolutionPool = resolutionParallelism > 0 ? new ForkJoinPool(resolutionParallelism) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (resolutionPool != null) {
+            resolutionPool.shutdownNow();
+        }
     }
 
     @Override
@@ -126,7 +156,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                                                final Map<String, String> inputValues,
                                                final UserI userI)
             throws NotFoundException, CommandResolutionException, UnauthorizedException {
-        return preResolve(commandService.getAndConfigure(wrapperId), inputValues, userI);
+        return preResolveWithCache(null, commandService.getAndConfigure(wrapperId), inputValues, userI);
     }
 
     @Override
@@ -135,7 +165,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                                                final Map<String, String> inputValues,
                                                final UserI userI)
             throws NotFoundException, CommandResolutionException, UnauthorizedException {
-        return preResolve(commandService.getAndConfigure(commandId, wrapperName), inputValues, userI);
+        return preResolveWithCache(null, commandService.getAndConfigure(commandId, wrapperName), inputValues, userI);
     }
 
     @Override
@@ -144,7 +174,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                                                final Map<String, String> inputValues,
                                                final UserI userI)
             throws NotFoundException, CommandResolutionException, UnauthorizedException {
-        return preResolve(commandService.getAndConfigure(project, wrapperId), inputValues, userI);
+        return preResolveWithCache(project, commandService.getAndConfigure(project, wrapperId), inputValues, userI);
     }
 
     @Override
@@ -154,14 +184,55 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                                                final Map<String, String> inputValues,
                                                final UserI userI)
             throws NotFoundException, CommandResolutionException, UnauthorizedException {
-        return preResolve(commandService.getAndConfigure(project, commandId, wrapperName), inputValues, userI);
+        return preResolveWithCache(project, commandService.getAndConfigure(project, commandId, wrapperName), inputValues, userI);
     }
 
     @Override
     public PartiallyResolvedCommand preResolve(final ConfiguredCommand configuredCommand, final Map<String, String> inputValues, final UserI userI)
             throws CommandResolutionException, UnauthorizedException {
         final CommandResolutionHelper helper = new CommandResolutionHelper(configuredCommand, inputValues, userI);
-        return helper.preResolve();
+        return helper.preResolve(null);
+    }
+
+    @Override
+    public PartiallyResolvedCommand preResolve(final ConfiguredCommand configuredCommand,
+                                               final PartiallyResolvedCommand previous,
+                                               final Map<String, String> inputValues,
+                                               final UserI userI)
+            throws CommandResolutionException, UnauthorizedException {
+        final CommandResolutionHelper helper = new CommandResolutionHelper(configuredCommand, inputValues, userI);
+        return helper.preResolve(previous);
+    }
+
+    /**
+     * Pre-resolve for the launch UI, which asks again with the same values, or with one value changed, every time the
+     * user changes an input. Use a recent result if there is one for these values. Otherwise, if there is a recent
+     * result for other values, re-resolve only what changed.
+     */
+    private PartiallyResolvedCommand preResolveWithCache(final String project,
+                                                         final ConfiguredCommand configuredCommand,
+                                                         final Map<String, String> inputValues,
+                                                         final UserI userI)
+            throws CommandResolutionException, UnauthorizedException {
+        if (!preResolutionCache.isEnabled()) {
+            return preResolve(configuredCommand, inputValues, userI);
+        }
+
+        final PreResolutionCache.Context context =
+                PreResolutionCache.Context.create(project, configuredCommand, userI == null ? null : userI.getLogin());
+        final PartiallyResolvedCommand cached = preResolutionCache.get(context, inputValues);
+        if (cached != null) {
+            log.debug("Using cached pre-resolution of wrapper {} with inputs {}.", configuredCommand.wrapper().id(), inputValues);
+            return cached;
+        }
+
+        final long generation = preResolutionCache.generation();
+        final PartiallyResolvedCommand previous = preResolutionCache.getLatest(context);
+        final PartiallyResolvedCommand resolved = previous == null ?
+                preResolve(configuredCommand, inputValues, userI) :
+                preResolve(configuredCommand, previous, inputValues, userI);
+        preResolutionCache.put(context, inputValues, resolved, generation);
+        return resolved;
     }
 
     @Override
@@ -236,47 +307,146 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
         return helper.resolve();
     }
 
-    private class CommandResolutionHelper {
-        private final String JSONPATH_SUBSTRING_REGEX = "\\^(wrapper:)?(.+)\\^";
+    @Override
+    public ResolutionBatch resolutionBatch(final ConfiguredCommand configuredCommand, final UserI userI) {
+        final SharedResolutionContext shared = new SharedResolutionContext(configuredCommand, userI);
+        return new ResolutionBatch() {
+            @Override
+            public PartiallyResolvedCommand preResolve(final Map<String, String> inputValues)
+                    throws CommandResolutionException, UnauthorizedException {
+                return new CommandResolutionHelper(shared, inputValues).preResolve(null);
+            }
+
+            @Override
+            public ResolvedCommand resolve(final Map<String, String> inputValues)
+                    throws CommandResolutionException, UnauthorizedException {
+                return new CommandResolutionHelper(shared, inputValues).resolve();
+            }
+        };
+    }
+
+    /**
+     * Everything about resolving a command for a user that does not depend on the input values.
+     * Resolving one set of input values gets its own, but the items of a batch share one,
+     * so that items with the same project or subject only load it once.
+     *
+     * Input subtrees and batch items may be resolved in parallel, so all of this is shared between threads.
+     */
+    private class SharedResolutionContext {
+        private final ConfiguredCommand command;
+        private final UserI userI;
+        private final CompiledTemplate.Keys replacementKeys;
+        private DocumentContext commandJsonpathSearchContext;
+        private DocumentContext commandWrapperJsonpathSearchContext;
+
+        // Parsed JSON of resolved values, keyed by the identity of the JSON string.
+        // All the children of a resolved value search through the same jsonValue string,
+        // so we only parse it once.
+        private final Map<String, DocumentContext> parsedJsonByIdentity =
+                Collections.synchronizedMap(new IdentityHashMap<String, DocumentContext>());
+        // XNAT objects we have already built from input values, and the ancestors we have looked up for them.
+        // The model objects load their children on demand, so sharing them means each child list is loaded at most once.
+        private final Map<String, XnatModelObject> xnatObjectsByTypeAndValue =
+                Collections.synchronizedMap(Maps.<String, XnatModelObject>newHashMap());
+        // Results of JSONPath searches through the command and wrapper. A null result is cached too.
+        private final Map<String, String> jsonpathSearchResults =
+                Collections.synchronizedMap(Maps.<String, String>newHashMap());
+
+        private SharedResolutionContext(final ConfiguredCommand configuredCommand, final UserI userI) {
+            this.command = configuredCommand;
+            this.userI = userI;
+            this.replacementKeys = findReplacementKeys(configuredCommand);
+        }
 
+        /**
+         * Everything that can be replaced in a template: the replacement keys of the command's and the wrapper's inputs.
+         */
+        private CompiledTemplate.Keys findReplacementKeys(final ConfiguredCommand configuredCommand) {
+            final List<String> keys = Lists.newArrayList();
+            for (final CommandInput input : configuredCommand.inputs()) {
+                keys.add(input.replacementKey());
+            }
+            final CommandWrapper wrapper = configuredCommand.wrapper();
+            if (wrapper != null) {
+                for (final CommandWrapperExternalInput input : wrapper.externalInputs()) {
+                    keys.add(input.replacementKey());
+                }
+                for (final CommandWrapperDerivedInput input : wrapper.derivedInputs()) {
+                    keys.add(input.replacementKey());
+                }
+            }
+            return CompiledTemplate.Keys.of(keys);
+        }
+
+        /**
+         * The command and wrapper are only searched when a value contains a JSONPath substring,
+         * which most commands never use. So we wait to serialize them until the first search.
+         */
+        @Nonnull
+        private synchronized DocumentContext getCommandJsonpathSearchContext() throws CommandResolutionException {
+            if (commandJsonpathSearchContext == null) {
+                commandJsonpathSearchContext = serializeForJsonpathSearch(command, "command");
+            }
+            return commandJsonpathSearchContext;
+        }
+
+        @Nonnull
+        private synchronized DocumentContext getCommandWrapperJsonpathSearchContext() throws CommandResolutionException {
+            if (commandWrapperJsonpathSearchContext == null) {
+                commandWrapperJsonpathSearchContext = serializeForJsonpathSearch(command.wrapper(), "command wrapper");
+            }
+            return commandWrapperJsonpathSearchContext;
+        }
+
+        @Nonnull
+        private DocumentContext serializeForJsonpathSearch(final Object toSerialize, final String name) throws CommandResolutionException {
+            final Configuration c = Configuration.defaultConfiguration().addOptions(Option.ALWAYS_RETURN_LIST);
+            try {
+                return JsonPath.using(c).parse(mapper.writeValueAsString(toSerialize));
+            } catch (JsonProcessingException e) {
+                throw new CommandResolutionException(String.format("Could not serialize %s to JSON.", name), e);
+            }
+        }
+    }
+
+    private class CommandResolutionHelper implements CompiledTemplate.JsonpathSearcher {
+        private final SharedResolutionContext shared;
         private final CommandWrapper commandWrapper;
         private final ConfiguredCommand command;
 
         private final UserI userI;
-        private final Pattern jsonpathSubstringPattern;
-        private final DocumentContext commandJsonpathSearchContext;
-        private final DocumentContext commandWrapperJsonpathSearchContext;
+        private final CompiledTemplate.Keys replacementKeys;
         private String containerHost;
 
         private List<ResolvedCommand> resolvedSetupCommands;
 
-        // Caches
+        // Caches, from the shared context. Input subtrees may be resolved in parallel, so these are shared between threads.
         private Map<String, String> inputValues;
+        private final Map<String, DocumentContext> parsedJsonByIdentity;
+        private final Map<String, XnatModelObject> xnatObjectsByTypeAndValue;
+        private final Map<String, String> jsonpathSearchResults;
+
+        // When re-resolving a previous result, the inputs whose values changed. Everything else
+        // is taken from the previous result, unless it is under one of these.
+        private Set<String> changedInputNames = Collections.emptySet();
 
         private CommandResolutionHelper(final ConfiguredCommand configuredCommand,
                                         final Map<String, String> inputValues,
-                                        final UserI userI) throws CommandResolutionException {
-            this.commandWrapper = configuredCommand.wrapper();
-            this.command = configuredCommand;
-
-            // Set up JSONPath search contexts
-            final Configuration c = Configuration.defaultConfiguration().addOptions(Option.ALWAYS_RETURN_LIST);
-            try {
-                final String commandJson = mapper.writeValueAsString(command);
-                commandJsonpathSearchContext = JsonPath.using(c).parse(commandJson);
-            } catch (JsonProcessingException e) {
-                throw new CommandResolutionException("Could not serialize command to JSON.", e);
-            }
+                                        final UserI userI) {
+            this(new SharedResolutionContext(configuredCommand, userI), inputValues);
+        }
 
-            try {
-                final String commandWrapperJson = mapper.writeValueAsString(commandWrapper);
-                commandWrapperJsonpathSearchContext = JsonPath.using(c).parse(commandWrapperJson);
-            } catch (JsonProcessingException e) {
-                throw new CommandResolutionException("Could not serialize command to JSON.", e);
-            }
+        private CommandResolutionHelper(final SharedResolutionContext shared,
+                                        final Map<String, String> inputValues) {
+            this.shared = shared;
+            this.commandWrapper = shared.command.wrapper();
+            this.command = shared.command;
 
-            this.userI = userI;
-            this.jsonpathSubstringPattern = Pattern.compile(JSONPATH_SUBSTRING_REGEX);
+            this.userI = shared.userI;
+            this.replacementKeys = shared.replacementKeys;
+            this.parsedJsonByIdentity = shared.parsedJsonByIdentity;
+            this.xnatObjectsByTypeAndValue = shared.xnatObjectsByTypeAndValue;
+            this.jsonpathSearchResults = shared.jsonpathSearchResults;
 
             this.inputValues = inputValues == null ?
                     Collections.<String, String>emptyMap() :
@@ -285,41 +455,85 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             this.resolvedSetupCommands = new ArrayList<>();
         }
 
+        @Nonnull
+        private DocumentContext parseJson(final String json) {
+            DocumentContext parsed = parsedJsonByIdentity.get(json);
+            if (parsed == null) {
+                parsed = JsonPath.parse(json);
+                parsedJsonByIdentity.put(json, parsed);
+            }
+            return parsed;
+        }
+
         @Nonnull
         private List<ResolvedInputTreeNode<? extends Input>> resolveInputTrees()
                 throws CommandResolutionException, UnauthorizedException {
-            return resolveInputTrees(Maps.<String, String>newHashMap());
+            return resolveInputTrees(Maps.<String, String>newHashMap(), null);
         }
 
+        /**
+         * Resolve the input trees in order. Each tree can use the uniquely resolved values of the trees before it.
+         *
+         * @param previousTrees If not null, the trees resolved before {@link #changedInputNames} changed. We take
+         *                      what we can from them: the parts of each tree that are not under a changed input,
+         *                      until we come to a tree whose unique values are different than they were before.
+         */
         @Nonnull
-        private List<ResolvedInputTreeNode<? extends Input>> resolveInputTrees(final Map<String, String> resolvedValuesByReplacementKey)
+        private List<ResolvedInputTreeNode<? extends Input>> resolveInputTrees(final Map<String, String> resolvedValuesByReplacementKey,
+                                                                               final @Nullable List<ResolvedInputTreeNode<? extends Input>> previousTrees)
                 throws CommandResolutionException, UnauthorizedException {
             final List<PreresolvedInputTreeNode<? extends Input>> rootNodes = initializePreresolvedInputTree();
 
+            boolean reusePreviousTrees = previousTrees != null && previousTrees.size() == rootNodes.size();
             final List<ResolvedInputTreeNode<? extends Input>> resolvedInputTrees = Lists.newArrayList();
-            for (final PreresolvedInputTreeNode<? extends Input> rootNode : rootNodes) {
+            for (int i = 0; i < rootNodes.size(); i++) {
+                final PreresolvedInputTreeNode<? extends Input> rootNode = rootNodes.get(i);
+                final ResolvedInputTreeNode<? extends Input> previousRootNode =
+                        reusePreviousTrees && previousTrees.get(i).input().name().equals(rootNode.input().name()) ?
+                                previousTrees.get(i) :
+                                null;
+
                 log.debug("Resolving input tree with root input \"{}\".", rootNode.input().name());
                 final ResolvedInputTreeNode<? extends Input> resolvedRootNode =
-                        resolveNode(rootNode, null, resolvedValuesByReplacementKey);
+                        resolveNode(rootNode, null, resolvedValuesByReplacementKey, previousRootNode);
                 log.debug("Done resolving input tree with root input \"{}\".", rootNode.input().name());
                 resolvedInputTrees.add(resolvedRootNode);
 
                 log.debug("Searching input tree for uniquely resolved values.");
-                resolvedValuesByReplacementKey.putAll(findUniqueResolvedValues(resolvedRootNode));
+                final Map<String, String> uniqueResolvedValues = findUniqueResolvedValues(resolvedRootNode);
+                resolvedValuesByReplacementKey.putAll(uniqueResolvedValues);
                 log.debug("Done searching input tree for uniquely resolved values.");
 
+                // The trees after this one can use its unique values. If those changed, resolve the rest from scratch.
+                if (previousRootNode != null && resolvedRootNode != previousRootNode &&
+                        !uniqueResolvedValues.equals(findUniqueResolvedValues(previousRootNode))) {
+                    log.debug("Unique values of input tree \"{}\" changed. Resolving the rest of the trees again.", rootNode.input().name());
+                    reusePreviousTrees = false;
+                }
             }
 
             // TODO turn the input trees into something manageable
             return resolvedInputTrees;
         }
 
+        /**
+         * @param previous If not null, a previous result for this command and user, which we re-resolve
+         *                 for the inputs that have changed since.
+         */
         @Nonnull
-        private PartiallyResolvedCommand preResolve() throws CommandResolutionException, UnauthorizedException {
+        private PartiallyResolvedCommand preResolve(final @Nullable PartiallyResolvedCommand previous)
+                throws CommandResolutionException, UnauthorizedException {
             log.info("Resolving command wrapper inputs.");
             log.debug("{}", commandWrapper);
 
-            final List<ResolvedInputTreeNode<? extends Input>> resolvedInputTrees = resolveInputTrees();
+            final List<ResolvedInputTreeNode<? extends Input>> resolvedInputTrees;
+            if (previous == null) {
+                resolvedInputTrees = resolveInputTrees();
+            } else {
+                changedInputNames = findChangedInputNames(previous.rawInputValues(), inputValues);
+                log.debug("Re-resolving inputs under changed inputs {}.", changedInputNames);
+                resolvedInputTrees = resolveInputTrees(Maps.<String, String>newHashMap(), previous.resolvedInputTrees());
+            }
 
             return PartiallyResolvedCommand.builder()
                     .wrapperId(commandWrapper.id())
@@ -336,13 +550,42 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                     .build();
         }
 
+        private Set<String> findChangedInputNames(final Map<String, String> previousInputValues,
+                                                  final Map<String, String> inputValues) {
+            final Set<String> changed = Sets.newHashSet();
+            for (final String name : Sets.union(previousInputValues.keySet(), inputValues.keySet())) {
+                // Resolution treats a null value the same as a missing one
+                final String previousValue = previousInputValues.get(name);
+                final String value = inputValues.get(name);
+                if (previousValue == null ? value != null : !previousValue.equals(value)) {
+                    changed.add(name);
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * @return Whether the input or any input under it changed since the previous result
+         */
+        private boolean containsChangedInput(final PreresolvedInputTreeNode<? extends Input> node) {
+            if (changedInputNames.contains(node.input().name())) {
+                return true;
+            }
+            for (final PreresolvedInputTreeNode<? extends Input> child : node.children()) {
+                if (containsChangedInput(child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Nonnull
         private ResolvedCommand resolve() throws CommandResolutionException, UnauthorizedException {
             log.info("Resolving command.");
             log.debug("{}", command);
 
             final Map<String, String> resolvedInputValuesByReplacementKey = Maps.newHashMap();
-            final List<ResolvedInputTreeNode<? extends Input>> resolvedInputTrees = resolveInputTrees(resolvedInputValuesByReplacementKey);
+            final List<ResolvedInputTreeNode<? extends Input>> resolvedInputTrees = resolveInputTrees(resolvedInputValuesByReplacementKey, null);
 
             log.debug("Checking for missing required inputs.");
             final List<String> missingRequiredInputs = findMissingRequiredInputs(resolvedInputTrees);
@@ -580,26 +823,20 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
 
             log.info("Done resolving input \"{}\". Resolved value: \"{}\".", input.name(), resolvedValue);
 
-            String jsonValue = resolvedValue;
-            String valueLabel = resolvedValue;
+            final ResolvedInputValue.Builder resolvedInputValue = ResolvedInputValue.builder()
+                    .type(input.type())
+                    .value(resolvedValue)
+                    .valueLabel(resolvedValue)
+                    .xnatModelObject(resolvedModelObject)
+                    .jsonValue(resolvedValue);
             if (resolvedModelObject != null) {
-                valueLabel = resolvedModelObject.getLabel();
-                try {
-                    jsonValue = mapper.writeValueAsString(resolvedModelObject);
-                } catch (JsonProcessingException e) {
-                    log.error("Could not serialize model object to json.", e);
-                }
+                resolvedInputValue.valueLabel(resolvedModelObject.getLabel())
+                        .jsonValue(serializeOnDemand(resolvedModelObject, resolvedValue));
             }
 
             checkForIllegalInputValue(input.name(), resolvedValue);
 
-            return ResolvedInputValue.builder()
-                    .type(input.type())
-                    .value(resolvedValue)
-                    .valueLabel(valueLabel)
-                    .xnatModelObject(resolvedModelObject)
-                    .jsonValue(jsonValue)
-                    .build();
+            return resolvedInputValue.build();
         }
 
         @Nonnull
@@ -622,8 +859,8 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             final String runtimeValue = inputValues.get(input.name());
             final String valueCouldContainId = runtimeValue != null ? runtimeValue : defaultValue;
 
+            // Only read the parent's JSON when we have to search it. Building it loads all the parent's children.
             final XnatModelObject parentXnatObject = parent.xnatModelObject();
-            final String parentJson = parent.jsonValue();
             final String parentType = parent.type();
 
             final List<XnatModelObject> resolvedXnatObjects;
@@ -632,13 +869,13 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             if (type.equals(STRING.getName())) {
                 final String propertyToGet = input.derivedFromXnatObjectProperty();
 
-                if (StringUtils.isBlank(parentJson)) {
+                if (parentXnatObject == null && StringUtils.isBlank(parent.jsonValue())) {
                     log.error("Cannot derive input \"{}\". Parent input's JSON representation is blank.", input.name());
                     resolvedXnatObjects = Collections.emptyList();
                     resolvedValues = Collections.emptyList();
                 } else if (parentType.equals(PROJECT.getName()) || parentType.equals(SUBJECT.getName()) || parentType.equals(SESSION.getName()) ||
                         parentType.equals(SCAN.getName()) || parentType.equals(ASSESSOR.getName()) || parentType.equals(FILE.getName()) || parentType.equals(RESOURCE.getName())) {
-                    final String parentValue = pullStringFromParentJson("$." + propertyToGet, resolvedMatcher, parentJson);
+                    final String parentValue = pullStringFromParent(parent, propertyToGet, resolvedMatcher);
                     resolvedXnatObjects = null;
                     resolvedValues = parentValue != null ? Collections.singletonList(parentValue) : Collections.<String>emptyList();
                 } else {
@@ -655,12 +892,12 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                 resolvedXnatObjects = null;
                 resolvedValues = Collections.emptyList();
             } else if (type.equals(DIRECTORY.getName())) {
-                if (StringUtils.isBlank(parentJson)) {
+                if (parentXnatObject == null && StringUtils.isBlank(parent.jsonValue())) {
                     log.error("Cannot derive input \"{}\". Parent input's JSON representation is blank.", input.name());
                     resolvedXnatObjects = Collections.emptyList();
                     resolvedValues = Collections.emptyList();
                 } else if (parentType.equals(RESOURCE.getName())) {
-                    final String parentValue = pullStringFromParentJson("$.directory", resolvedMatcher, parentJson);
+                    final String parentValue = pullStringFromParent(parent, "directory", resolvedMatcher);
                     resolvedXnatObjects = null;
                     resolvedValues = parentValue != null ? Collections.singletonList(parentValue) : Collections.<String>emptyList();
                     // TODO Need to store the root archive directory for these objects
@@ -672,13 +909,13 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                     resolvedValues = Collections.emptyList();
                 }
             } else if (type.equals(FILES.getName()) || type.equals(FILE.getName())) {
-                if (StringUtils.isBlank(parentJson)) {
+                if (parentXnatObject == null && StringUtils.isBlank(parent.jsonValue())) {
                     log.error("Cannot derive input \"{}\". Parent input's JSON representation is blank.", input.name());
                     resolvedXnatObjects = Collections.emptyList();
                     resolvedValues = Collections.emptyList();
                 } else if (parentType.equals(RESOURCE.getName())) {
                     final List<XnatFile> files = matchChildFromParent(
-                            parentJson,
+                            parent,
                             valueCouldContainId,
                             "files",
                             "name",
@@ -715,13 +952,37 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                 } else {
                     final Project project;
                     if (parentType.equals(SUBJECT.getName())) {
-                        project = ((Subject)parentXnatObject).getProject(userI);
+                        final Subject subject = (Subject) parentXnatObject;
+                        project = findAncestor(Project.class, subject.getProjectId(), new Supplier<Project>() {
+                            @Override
+                            public Project get() {
+                                return subject.getProject(userI);
+                            }
+                        });
                     } else if (parentType.equals(SESSION.getName())) {
-                        project = ((Session)parentXnatObject).getProject(userI);
+                        final Session session = (Session) parentXnatObject;
+                        project = findAncestor(Project.class, session.getProjectId(), new Supplier<Project>() {
+                            @Override
+                            public Project get() {
+                                return session.getProject(userI);
+                            }
+                        });
                     } else if (parentType.equals(SCAN.getName())) {
-                        project = ((Scan)parentXnatObject).getProject(userI);
+                        final Scan scan = (Scan) parentXnatObject;
+                        project = findAncestor(Project.class, scan.getProjectId(), new Supplier<Project>() {
+                            @Override
+                            public Project get() {
+                                return scan.getProject(userI);
+                            }
+                        });
                     } else {
-                        project = ((Assessor)parentXnatObject).getProject(userI);
+                        final Assessor assessor = (Assessor) parentXnatObject;
+                        project = findAncestor(Project.class, assessor.getProjectId(), new Supplier<Project>() {
+                            @Override
+                            public Project get() {
+                                return assessor.getProject(userI);
+                            }
+                        });
                     }
                     resolvedXnatObjects = Collections.<XnatModelObject>singletonList(project);
                     resolvedValues = Collections.singletonList(project.getUri());
@@ -738,7 +999,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                 } else {
                     if (parentType.equals(PROJECT.getName())) {
                         final List<Subject> childList = matchChildFromParent(
-                                parentJson,
+                                parent,
                                 valueCouldContainId,
                                 "subjects",
                                 "id",
@@ -758,7 +1019,13 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                         }
                     } else {
                         // Parent is session
-                        final Subject subject = ((Session)parentXnatObject).getSubject(userI);
+                        final Session session = (Session) parentXnatObject;
+                        final Subject subject = findAncestor(Subject.class, session.getSubjectId(), new Supplier<Subject>() {
+                            @Override
+                            public Subject get() {
+                                return session.getSubject(userI);
+                            }
+                        });
                         resolvedXnatObjects = Collections.<XnatModelObject>singletonList(subject);
                         resolvedValues = Collections.singletonList(subject.getUri());
                     }
@@ -775,7 +1042,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                 } else {
                     if (parentType.equals(SUBJECT.getName())) {
                         final List<Session> childList = matchChildFromParent(
-                                parentJson,
+                                parent,
                                 valueCouldContainId,
                                 "sessions",
                                 "id",
@@ -795,7 +1062,13 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                         }
                     } else {
                         // Parent is scan
-                        final Session session = ((Scan)parentXnatObject).getSession(userI);
+                        final Scan scan = (Scan) parentXnatObject;
+                        final Session session = findAncestor(Session.class, scan.getSessionId(), new Supplier<Session>() {
+                            @Override
+                            public Session get() {
+                                return scan.getSession(userI);
+                            }
+                        });
                         resolvedXnatObjects = Collections.<XnatModelObject>singletonList(session);
                         resolvedValues = Collections.singletonList(session.getUri());
                     }
@@ -811,7 +1084,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                     resolvedValues = Collections.emptyList();
                 } else {
                     final List<Scan> childList = matchChildFromParent(
-                            parentJson,
+                            parent,
                             valueCouldContainId,
                             "scans",
                             "id",
@@ -841,7 +1114,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                     resolvedValues = Collections.emptyList();
                 } else {
                     final List<Assessor> childList = matchChildFromParent(
-                            parentJson,
+                            parent,
                             valueCouldContainId,
                             "assessors",
                             "id",
@@ -875,7 +1148,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                     // Try matching the value they gave us against the resource URI.
                     // That's what the UI will send.
                     List<Resource> childList = matchChildFromParent(
-                            parentJson,
+                            parent,
                             valueCouldContainId,
                             "resources",
                             "uri",
@@ -884,7 +1157,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                     if (childList == null) {
                         // It is also possible that the value they gave us contains an ID
                         childList = matchChildFromParent(
-                                parentJson,
+                                parent,
                                 valueCouldContainId,
                                 "resources",
                                 "id",
@@ -923,24 +1196,18 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                 final String resolvedValue = resolvedValues.get(i);
                 checkForIllegalInputValue(input.name(), resolvedValue);
                 final XnatModelObject xnatModelObject = resolvedXnatObjects == null ? null : resolvedXnatObjects.get(i);
-                String jsonValue = resolvedValue;
-                String valueLabel = resolvedValue;
-                if (xnatModelObject != null) {
-                    valueLabel = xnatModelObject.getLabel();
-                    try {
-                        jsonValue = mapper.writeValueAsString(xnatModelObject);
-                    } catch (JsonProcessingException e) {
-                        log.error("Could not serialize model object to json.", e);
-                    }
-                }
-
-                resolvedInputs.add(ResolvedInputValue.builder()
+                final ResolvedInputValue.Builder resolvedInputValue = ResolvedInputValue.builder()
                         .type(input.type())
                         .value(resolvedValue)
-                        .valueLabel(valueLabel)
+                        .valueLabel(resolvedValue)
                         .xnatModelObject(xnatModelObject)
-                        .jsonValue(jsonValue)
-                        .build());
+                        .jsonValue(resolvedValue);
+                if (xnatModelObject != null) {
+                    resolvedInputValue.valueLabel(xnatModelObject.getLabel())
+                            .jsonValue(serializeOnDemand(xnatModelObject, resolvedValue));
+                }
+
+                resolvedInputs.add(resolvedInputValue.build());
             }
 
             return resolvedInputs;
@@ -1096,11 +1363,25 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             return rootNodes;
         }
 
+        /**
+         * Resolve an input and the inputs under it.
+         *
+         * @param previous If not null, this node as it was resolved before some inputs changed, for the same parent
+         *                 value and replacement key values. If neither this input nor any under it changed, we
+         *                 return it. If only inputs under it changed, we keep its values and resolve below them.
+         */
         @Nonnull
         private ResolvedInputTreeNode<? extends Input> resolveNode(final PreresolvedInputTreeNode<? extends Input> preresolvedInputNode,
                                                                    final @Nullable ResolvedInputValue parentValue,
-                                                                   final Map<String, String> resolvedInputValuesByReplacementKey)
+                                                                   final Map<String, String> resolvedInputValuesByReplacementKey,
+                                                                   final @Nullable ResolvedInputTreeNode<? extends Input> previous)
                 throws CommandResolutionException, UnauthorizedException {
+            if (previous != null && !containsChangedInput(preresolvedInputNode)) {
+                log.debug("Input \"{}\" and the inputs under it have not changed.", preresolvedInputNode.input().name());
+                return previous;
+            }
+            final boolean usePreviousValues = previous != null && !changedInputNames.contains(preresolvedInputNode.input().name());
+
             if (log.isDebugEnabled()) {
                 log.debug("Resolving input \"" + preresolvedInputNode.input().name() + "\"" +
                         (parentValue == null ? "" : " for parent value \"" + parentValue.value() + "\"") + ".");
@@ -1110,7 +1391,12 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
 
             // Resolve a value for this node
             final List<ResolvedInputValue> resolvedInputValues;
-            if (thisNode.input() instanceof CommandWrapperExternalInput) {
+            if (usePreviousValues) {
+                resolvedInputValues = Lists.newArrayList();
+                for (final ResolvedInputTreeValueAndChildren previousValueAndChildren : previous.valuesAndChildren()) {
+                    resolvedInputValues.add(previousValueAndChildren.resolvedValue());
+                }
+            } else if (thisNode.input() instanceof CommandWrapperExternalInput) {
                 resolvedInputValues = Collections.singletonList(
                         resolveExternalWrapperInput((CommandWrapperExternalInput)thisNode.input(),
                                 resolvedInputValuesByReplacementKey)
@@ -1133,21 +1419,45 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             }
 
 
-            // Recursively resolve values for child nodes, using each of this node's resolved values
-            final List<ResolvedInputTreeValueAndChildren> resolvedValuesAndChildren = Lists.newArrayList();
-            for (final ResolvedInputValue resolvedInputValue : resolvedInputValues) {
-                if (preresolvedInputNode.children() != null && !preresolvedInputNode.children().isEmpty()) {
-                    final List<ResolvedInputTreeNode<? extends Input>> resolvedChildNodes = Lists.newArrayList();
-
-                    for (final PreresolvedInputTreeNode<? extends Input> child : preresolvedInputNode.children()) {
+            // Recursively resolve values for child nodes, using each of this node's resolved values.
+            // The subtrees don't depend on one another, so they may be resolved in parallel.
+            final List<PreresolvedInputTreeNode<? extends Input>> children = preresolvedInputNode.children();
+            final boolean hasChildren = children != null && !children.isEmpty();
+            final List<ChildResolution> childResolutions = Lists.newArrayList();
+            if (hasChildren) {
+                for (int valueIndex = 0; valueIndex < resolvedInputValues.size(); valueIndex++) {
+                    final ResolvedInputValue resolvedInputValue = resolvedInputValues.get(valueIndex);
+                    final List<ResolvedInputTreeNode<? extends Input>> previousChildren = usePreviousValues ?
+                            previous.valuesAndChildren().get(valueIndex).children() :
+                            null;
+                    // All the children of this value see it under this input's replacement key.
+                    // The scope shares everything above it rather than copying it.
+                    final Map<String, String> resolvedInputValuesForChildren = ScopedMap.of(resolvedInputValuesByReplacementKey)
+                            .with(thisNode.input().replacementKey(), resolvedInputValue.value());
+                    for (int childIndex = 0; childIndex < children.size(); childIndex++) {
+                        final PreresolvedInputTreeNode<? extends Input> child = children.get(childIndex);
                         log.debug("Resolving input \"{}\" child \"{}\" using value \"{}\".",
                                 thisNode.input().name(),
                                 child.input().name(),
                                 resolvedInputValue.value());
+                        final ResolvedInputTreeNode<? extends Input> previousChild =
+                                previousChildren != null && previousChildren.size() == children.size() ?
+                                        previousChildren.get(childIndex) :
+                                        null;
+                        childResolutions.add(new ChildResolution(child, resolvedInputValue, resolvedInputValuesForChildren, previousChild));
+                    }
+                }
+                resolveChildren(childResolutions);
+            }
 
-                        final Map<String, String> copyOfResolvedInputValuesByReplacementKey = Maps.newHashMap(resolvedInputValuesByReplacementKey);
-                        copyOfResolvedInputValuesByReplacementKey.put(thisNode.input().replacementKey(), resolvedInputValue.value());
-                        resolvedChildNodes.add(resolveNode(child, resolvedInputValue, copyOfResolvedInputValuesByReplacementKey));
+            // Put the children back together with their values, in the order we found them
+            final List<ResolvedInputTreeValueAndChildren> resolvedValuesAndChildren = Lists.newArrayList();
+            int childResolutionIndex = 0;
+            for (final ResolvedInputValue resolvedInputValue : resolvedInputValues) {
+                if (hasChildren) {
+                    final List<ResolvedInputTreeNode<? extends Input>> resolvedChildNodes = Lists.newArrayList();
+                    for (int i = 0; i < children.size(); i++) {
+                        resolvedChildNodes.add(childResolutions.get(childResolutionIndex++).result);
                     }
                     resolvedValuesAndChildren.add(ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren.create(resolvedInputValue, resolvedChildNodes));
                 } else {
@@ -1163,6 +1473,83 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             return thisNode;
         }
 
+        /**
+         * Resolve child subtrees. If parallel resolution is turned on and there is more than one, they are
+         * resolved on the resolution pool, each with the security context of the thread that asked for them.
+         */
+        private void resolveChildren(final List<ChildResolution> childResolutions)
+                throws CommandResolutionException, UnauthorizedException {
+            if (resolutionPool == null || childResolutions.size() < 2) {
+                for (final ChildResolution childResolution : childResolutions) {
+                    childResolution.result = resolveNode(childResolution.child, childResolution.parentValue,
+                            childResolution.resolvedInputValuesByReplacementKey, childResolution.previous);
+                }
+                return;
+            }
+
+            try {
+                if (ForkJoinTask.getPool() == resolutionPool) {
+                    // We are already on the pool, resolving a subtree
+                    ForkJoinTask.invokeAll(childResolutions);
+                } else {
+                    resolutionPool.invoke(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            invokeAll(childResolutions);
+                        }
+                    });
+                }
+            } catch (RuntimeException e) {
+                // The pool may have wrapped our exception in a copy of itself, so look through the causes
+                for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                    if (cause instanceof ResolutionFailure) {
+                        final Throwable failure = cause.getCause();
+                        if (failure instanceof UnauthorizedException) {
+                            throw (UnauthorizedException) failure;
+                        }
+                        throw (CommandResolutionException) failure;
+                    }
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * One child subtree to resolve for one of its parent's values.
+         */
+        private class ChildResolution extends RecursiveAction {
+            private final PreresolvedInputTreeNode<? extends Input> child;
+            private final ResolvedInputValue parentValue;
+            private final Map<String, String> resolvedInputValuesByReplacementKey;
+            private final ResolvedInputTreeNode<? extends Input> previous;
+            private final SecurityContext securityContext;
+            private ResolvedInputTreeNode<? extends Input> result;
+
+            private ChildResolution(final PreresolvedInputTreeNode<? extends Input> child,
+                                    final ResolvedInputValue parentValue,
+                                    final Map<String, String> resolvedInputValuesByReplacementKey,
+                                    final @Nullable ResolvedInputTreeNode<? extends Input> previous) {
+                this.child = child;
+                this.parentValue = parentValue;
+                this.resolvedInputValuesByReplacementKey = resolvedInputValuesByReplacementKey;
+                this.previous = previous;
+                this.securityContext = SecurityContextHolder.getContext();
+            }
+
+            @Override
+            protected void compute() {
+                final SecurityContext previousSecurityContext = SecurityContextHolder.getContext();
+                SecurityContextHolder.setContext(securityContext);
+                try {
+                    result = resolveNode(child, parentValue, resolvedInputValuesByReplacementKey, previous);
+                } catch (CommandResolutionException | UnauthorizedException e) {
+                    throw new ResolutionFailure(e);
+                } finally {
+                    SecurityContextHolder.setContext(previousSecurityContext);
+                }
+            }
+        }
+
         @Nonnull
         private Map<String, String> findUniqueResolvedValues(final ResolvedInputTreeNode<? extends Input> node) {
             // Collect any unique values into the resolvedValuesByReplacementKey map
@@ -1290,6 +1677,30 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             return missingRequiredInputNames;
         }
 
+        /**
+         * Read a simple property of the parent. Without a matcher, we can read it straight off the parent's
+         * model object. Otherwise we search the parent's JSON.
+         */
+        @Nullable
+        private String pullStringFromParent(final @Nonnull ResolvedInputValue parent,
+                                            final @Nonnull String property,
+                                            final String resolvedMatcher) {
+            final XnatModelObject parentXnatObject = parent.xnatModelObject();
+            if (parentXnatObject != null && StringUtils.isBlank(resolvedMatcher)) {
+                try {
+                    final Object value = XnatModelObjectMatcher.getProperty(parentXnatObject, property);
+                    if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+                        log.debug("Reading property \"{}\" of parent directly.", property);
+                        return value == null ? null : String.valueOf(value);
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.debug("Cannot read property \"{}\" of parent directly. Falling back to JSONPath. Reason: {}", property, e.getMessage());
+                }
+            }
+
+            return pullStringFromParentJson("$." + property, resolvedMatcher, parent.jsonValue());
+        }
+
         @Nullable
         private String pullStringFromParentJson(final @Nonnull String rootJsonPathSearch,
                                                 final String resolvedMatcher,
@@ -1308,7 +1719,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                                      final String jsonPathSearch,
                                      final TypeRef<T> typeRef) {
             try {
-                return JsonPath.parse(parentJson).read(jsonPathSearch, typeRef);
+                return parseJson(parentJson).read(JsonPathCache.compile(jsonPathSearch), typeRef);
             } catch (InvalidPathException | InvalidJsonException | MappingException e) {
                 log.error(String.format("Error searching through json with search string \"%s\".", jsonPathSearch), e);
                 log.debug("json: {}", parentJson);
@@ -1316,13 +1727,64 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             return null;
         }
 
+        /**
+         * The JSON of a resolved XNAT object, for JSONPath searches. Serializing the object loads all of its children,
+         * so we wait until something searches it.
+         */
+        private Supplier<String> serializeOnDemand(final @Nonnull XnatModelObject xnatModelObject, final String valueIfNotSerializable) {
+            return new Supplier<String>() {
+                @Override
+                public String get() {
+                    log.debug("Serializing {} to JSON.", xnatModelObject.getUri());
+                    try {
+                        return mapper.writeValueAsString(xnatModelObject);
+                    } catch (JsonProcessingException e) {
+                        log.error("Could not serialize model object to json.", e);
+                        return valueIfNotSerializable;
+                    }
+                }
+            };
+        }
+
+        /**
+         * Get the project, subject, or session that an XNAT object belongs to. Many objects have the same ancestors,
+         * especially in a batch, so we look each one up once by its id.
+         */
+        private <T extends XnatModelObject> T findAncestor(final Class<T> model,
+                                                           final @Nullable String ancestorId,
+                                                           final Supplier<T> lookup) {
+            if (StringUtils.isBlank(ancestorId)) {
+                return lookup.get();
+            }
+
+            final String cacheKey = "ancestor " + model.getSimpleName() + ":" + ancestorId;
+            final XnatModelObject alreadyFound = xnatObjectsByTypeAndValue.get(cacheKey);
+            if (model.isInstance(alreadyFound)) {
+                log.debug("Using {} {} already looked up.", model.getSimpleName(), ancestorId);
+                return model.cast(alreadyFound);
+            }
+            final T ancestor = lookup.get();
+            if (ancestor != null) {
+                xnatObjectsByTypeAndValue.put(cacheKey, ancestor);
+            }
+            return ancestor;
+        }
+
         @Nullable
-        private <T extends XnatModelObject> List<T> matchChildFromParent(final String parentJson,
+        private <T extends XnatModelObject> List<T> matchChildFromParent(final @Nonnull ResolvedInputValue parent,
                                                                          final String value,
                                                                          final String childKey,
                                                                          final String valueMatchProperty,
                                                                          final String matcherFromInput,
                                                                          final TypeRef<List<T>> typeRef) {
+            final XnatModelObject parentXnatObject = parent.xnatModelObject();
+            if (parentXnatObject != null) {
+                final List<T> directMatches = matchChildFromParentObject(parentXnatObject, value, childKey, valueMatchProperty, matcherFromInput);
+                if (directMatches != null) {
+                    return directMatches;
+                }
+            }
+
             final String matcherFromValue = StringUtils.isNotBlank(value) ?
                     String.format("@.%s == '%s'", valueMatchProperty, value) :
                     "";
@@ -1347,7 +1809,45 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
 
             log.info("Attempting to pull value from parent using matcher \"{}\".", jsonPathSearch);
 
-            return jsonPathSearch(parentJson, jsonPathSearch, typeRef);
+            return jsonPathSearch(parent.jsonValue(), jsonPathSearch, typeRef);
+        }
+
+        /**
+         * Match children directly on the parent's model object, without serializing it to JSON.
+         *
+         * @return The matching children, or null if the matcher can't be evaluated directly
+         *         and we need to fall back to a JSONPath search.
+         */
+        @Nullable
+        @SuppressWarnings("unchecked")
+        private <T extends XnatModelObject> List<T> matchChildFromParentObject(final @Nonnull XnatModelObject parentXnatObject,
+                                                                               final String value,
+                                                                               final String childKey,
+                                                                               final String valueMatchProperty,
+                                                                               final String matcherFromInput) {
+            XnatModelObjectMatcher matcher = StringUtils.isNotBlank(value) ?
+                    XnatModelObjectMatcher.propertyEquals(valueMatchProperty, value) :
+                    null;
+            if (StringUtils.isNotBlank(matcherFromInput)) {
+                final XnatModelObjectMatcher inputMatcher = XnatModelObjectMatcher.compile(matcherFromInput);
+                if (inputMatcher == null) {
+                    log.debug("Cannot apply matcher \"{}\" directly. Falling back to JSONPath.", matcherFromInput);
+                    return null;
+                }
+                matcher = matcher == null ? inputMatcher : matcher.and(inputMatcher);
+            }
+
+            try {
+                final List<T> children = (List<T>) XnatModelObjectMatcher.getProperty(parentXnatObject, childKey);
+                if (matcher == null) {
+                    return children == null ? Collections.<T>emptyList() : Lists.newArrayList(children);
+                }
+                log.debug("Matching {} of parent directly.", childKey);
+                return matcher.filter(children);
+            } catch (IllegalArgumentException | ClassCastException e) {
+                log.debug("Cannot match {} of parent directly. Falling back to JSONPath. Reason: {}", childKey, e.getMessage());
+                return null;
+            }
         }
 
         @Nullable
@@ -1367,8 +1867,12 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             log.info("Resolving {} from value.", modelName);
             log.debug("Value: \"{}\"", value);
 
-            T newModelObject = null;
-            if (value.startsWith("/")) {
+            final String cacheKey = modelName + ":" + value;
+            final XnatModelObject alreadyBuilt = xnatObjectsByTypeAndValue.get(cacheKey);
+            T newModelObject = model.isInstance(alreadyBuilt) ? model.cast(alreadyBuilt) : null;
+            if (newModelObject != null) {
+                log.debug("Using {} already built from this value.", modelName);
+            } else if (value.startsWith("/")) {
                 log.debug("Attempting to initialize a {} using value as URI.", modelName);
 
                 URIManager.DataURIA uri = null;
@@ -1422,9 +1926,26 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                 return null;
             }
             log.debug("Successfully instantiated a {}.", modelName);
+            xnatObjectsByTypeAndValue.put(cacheKey, newModelObject);
 
             T aMatch = null;
-            if (StringUtils.isNotBlank(matcher)) {
+            final XnatModelObjectMatcher directMatcher = StringUtils.isNotBlank(matcher) ? XnatModelObjectMatcher.compile(matcher) : null;
+            Boolean directMatch = null;
+            if (directMatcher != null) {
+                try {
+                    directMatch = directMatcher.matches(newModelObject);
+                } catch (IllegalArgumentException e) {
+                    log.debug("Cannot apply matcher \"{}\" directly. Falling back to JSONPath.", matcher);
+                }
+            }
+
+            if (directMatch != null) {
+                if (directMatch) {
+                    aMatch = newModelObject;
+                } else {
+                    log.debug("{} did not match matcher \"{}\".", modelName, matcher);
+                }
+            } else if (StringUtils.isNotBlank(matcher)) {
                 // To apply the JSONPath matcher, we have to serialize our object to JSON.
                 log.debug("Serializing {} to JSON to apply matcher.", modelName);
                 String newModelObjectJson = null;
@@ -1444,7 +1965,7 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                     );
 
                     log.debug("Using JSONPath matcher \"{}\" to search for matching items.", jsonPathSearch);
-                    doMatch = JsonPath.parse(newModelObjectJson).read(jsonPathSearch, new TypeRef<List<T>>() {});
+                    doMatch = JsonPath.parse(newModelObjectJson).read(JsonPathCache.compile(jsonPathSearch), new TypeRef<List<T>>() {});
 
                     if (doMatch != null && !doMatch.isEmpty()) {
                         // We found a match!
@@ -1866,7 +2387,12 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                         throw new CommandResolutionException(message);
                     }
 
-                    rootDirectory = JsonPath.parse(resolvedInputValue.jsonValue()).read("directory", String.class);
+                    try {
+                        final Object directory = XnatModelObjectMatcher.getProperty(xnatModelObject, "directory");
+                        rootDirectory = directory == null ? null : String.valueOf(directory);
+                    } catch (IllegalArgumentException e) {
+                        rootDirectory = parseJson(resolvedInputValue.jsonValue()).read(JsonPathCache.compile("$.directory"), String.class);
+                    }
                     uri = xnatModelObject.getUri();
 
                 } else {
@@ -1925,8 +2451,11 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                     }
                     log.debug("Mount \"{}\" has a root directory and is set to \"writable\". Copying all files from the root directory to build directory.", resolvedCommandMountName);
 
-                    // TODO CS-54 We must copy all files out of the root directory to a build directory.
-                    log.debug("TODO");
+                    try {
+                        buildDirectoryPopulator.populate(Paths.get(directory), Paths.get(localDirectory));
+                    } catch (IOException e) {
+                        throw new ContainerMountResolutionException("Could not copy files to build directory.", partiallyResolvedCommandMount, e);
+                    }
                 } else if (hasDirectory) {
                     // The source of files can be directly mounted
                     log.debug("Mount \"{}\" has a root directory and is not set to \"writable\". The root directory can be mounted directly into the container.", resolvedCommandMountName);
@@ -2011,23 +2540,12 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
                 return template;
             }
 
-            // First find any JSONPath strings in the template
-            String toResolve = resolveJsonpathSubstring(template);
+            // The template is parsed once into literals, replacement keys, and any JSONPath search,
+            // and filled in with one pass over those parts.
+            final String resolved = CompiledTemplate.compile(template, replacementKeys).render(valuesMap, this);
 
-            // Look through the provided map of cached replacement values, and replace any that are found.
-            for (final String replacementKey : valuesMap.keySet()) {
-                final String replacementValue = valuesMap.get(replacementKey);
-                final String copyForLogging = toResolve;
-
-                toResolve = toResolve.replace(replacementKey, replacementValue == null ? "" : replacementValue);
-                if (!toResolve.equals(copyForLogging)) {
-                    // If the replacement operation changed the template, log the replacement
-                    log.debug("{} -> {}", replacementKey, replacementValue);
-                }
-            }
-
-            log.debug("Resolved template: \"{}\".", toResolve);
-            return toResolve;
+            log.debug("Resolved template: \"{}\".", resolved);
+            return resolved;
         }
 
         /**
@@ -2046,54 +2564,57 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
             if (StringUtils.isNotBlank(stringThatMayContainJsonpathSubstring)) {
                 log.debug("Checking for JSONPath substring in \"{}\".", stringThatMayContainJsonpathSubstring);
 
-                final Matcher jsonpathSubstringMatcher = jsonpathSubstringPattern.matcher(stringThatMayContainJsonpathSubstring);
-
-                // TODO - Consider this: should I be looking for multiple JSONPath substrings and replacing them all?
-                if (jsonpathSubstringMatcher.find()) {
-
-                    final String jsonpathSearchWithMarkers = jsonpathSubstringMatcher.group(0);
-                    final String useWrapper = jsonpathSubstringMatcher.group(1);
-                    final String jsonpathSearchWithoutMarkers = jsonpathSubstringMatcher.group(2);
-
-                    log.debug("Found possible JSONPath substring \"{}\".", jsonpathSearchWithMarkers);
-
-                    if (StringUtils.isNotBlank(jsonpathSearchWithoutMarkers)) {
+                // Input values are only seen once, so we don't keep their compiled form
+                final String resolved = CompiledTemplate.parse(stringThatMayContainJsonpathSubstring, CompiledTemplate.Keys.NONE)
+                        .render(Collections.<String, String>emptyMap(), this);
+                log.debug("Result: \"{}\".", resolved);
+                return resolved;
+            }
+            return stringThatMayContainJsonpathSubstring;
+        }
 
-                        final List<String> searchResult;
-                        if (StringUtils.isNotBlank(useWrapper)) {
-                            log.debug("Performing JSONPath search through command wrapper with search string \"{}\".", jsonpathSearchWithoutMarkers);
-                            searchResult = commandWrapperJsonpathSearchContext.read(jsonpathSearchWithoutMarkers);
-                        } else {
-                            log.debug("Performing JSONPath search through command with search string \"{}\".", jsonpathSearchWithoutMarkers);
-                            searchResult = commandJsonpathSearchContext.read(jsonpathSearchWithoutMarkers);
-                        }
+        /**
+         * Search through the command or the command wrapper. They don't change while we resolve,
+         * so each search is only done once.
+         *
+         * @return The single result of the search, or null if there is none
+         */
+        @Override
+        @Nullable
+        public String search(final String jsonpath, final boolean searchWrapper) throws CommandResolutionException {
+            final String cacheKey = (searchWrapper ? "wrapper:" : "") + jsonpath;
+            if (jsonpathSearchResults.containsKey(cacheKey)) {
+                return jsonpathSearchResults.get(cacheKey);
+            }
 
-                        if (searchResult != null && !searchResult.isEmpty() && searchResult.get(0) != null) {
-                            log.debug("JSONPath search result: {}", searchResult);
-                            if (searchResult.size() == 1) {
-                                final String result = searchResult.get(0);
-                                final String replacement = stringThatMayContainJsonpathSubstring.replace(jsonpathSearchWithMarkers, result);
-                                log.debug("Replacing \"{}\" with \"{}\" in \"{}\".", jsonpathSearchWithMarkers, result, stringThatMayContainJsonpathSubstring);
-                                log.debug("Result: \"{}\".", replacement);
-                                return replacement;
-                            } else {
-                                final String message =
-                                        String.format(
-                                                "JSONPath search \"%s\" returned multiple results: %s. Cannot determine value to replace.",
-                                                jsonpathSearchWithoutMarkers,
-                                                searchResult.toString());
-                                log.error(message);
-                                throw new CommandResolutionException(message);
-                            }
-                        } else {
-                            log.debug("No result");
-                        }
-                    }
+            final List<String> searchResult;
+            if (searchWrapper) {
+                log.debug("Performing JSONPath search through command wrapper with search string \"{}\".", jsonpath);
+                searchResult = shared.getCommandWrapperJsonpathSearchContext().read(JsonPathCache.compile(jsonpath));
+            } else {
+                log.debug("Performing JSONPath search through command with search string \"{}\".", jsonpath);
+                searchResult = shared.getCommandJsonpathSearchContext().read(JsonPathCache.compile(jsonpath));
+            }
+
+            final String result;
+            if (searchResult != null && !searchResult.isEmpty() && searchResult.get(0) != null) {
+                log.debug("JSONPath search result: {}", searchResult);
+                if (searchResult.size() != 1) {
+                    final String message =
+                            String.format(
+                                    "JSONPath search \"%s\" returned multiple results: %s. Cannot determine value to replace.",
+                                    jsonpath,
+                                    searchResult.toString());
+                    log.error(message);
+                    throw new CommandResolutionException(message);
                 }
-
-                log.debug("No jsonpath substring found.");
+                result = searchResult.get(0);
+            } else {
+                log.debug("No result");
+                result = null;
             }
-            return stringThatMayContainJsonpathSubstring;
+            jsonpathSearchResults.put(cacheKey, result);
+            return result;
         }
 
         @Nullable
@@ -2138,6 +2659,15 @@ public class CommandResolutionServiceImpl implements CommandResolutionService {
         }
     }
 
+    /**
+     * Carries a checked exception out of a subtree being resolved on the resolution pool.
+     */
+    private static class ResolutionFailure extends RuntimeException {
+        private ResolutionFailure(final Exception cause) {
+            super(cause);
+        }
+    }
+
     @Nonnull
     private String getBuildDirectory() throws IOException {
         final String rootBuildPath = siteConfigPreferences.getBuildPath();
@@ -22,6 +22,8 @@ import org.nrg.containers.services.CommandEntityService;
 import org.nrg.containers.services.CommandService;
 import org.nrg.containers.services.ContainerConfigService;
 import org.nrg.containers.services.ContainerConfigService.CommandConfigurationException;
+import org.nrg.containers.services.impl.CommandRegistry.LaunchableWrapper;
+import org.nrg.containers.services.impl.CommandRegistry.XsiTypeContextMatcher;
 import org.nrg.framework.exceptions.NotFoundException;
 import org.nrg.framework.exceptions.NrgRuntimeException;
 import org.nrg.framework.exceptions.NrgServiceRuntimeException;
@@ -36,15 +38,19 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class CommandServiceImpl implements CommandService, InitializingBean {
@@ -52,12 +58,21 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
 
     private final CommandEntityService commandEntityService;
     private final ContainerConfigService containerConfigService;
+    private final PreResolutionCache preResolutionCache;
+
+    // All the commands, loaded on first use and thrown away whenever a command or wrapper changes.
+    // Null means it must be loaded again.
+    private volatile CommandRegistry registry;
+    private final AtomicLong registryGeneration = new AtomicLong();
+    private final AtomicInteger uncommittedCommandChanges = new AtomicInteger();
 
     @Autowired
     public CommandServiceImpl(final CommandEntityService commandEntityService,
-                              final ContainerConfigService containerConfigService) {
+                              final ContainerConfigService containerConfigService,
+                              final PreResolutionCache preResolutionCache) {
         this.commandEntityService = commandEntityService;
         this.containerConfigService = containerConfigService;
+        this.preResolutionCache = preResolutionCache;
     }
 
     @Override
@@ -98,26 +113,33 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
             log.error(sb.toString());
             throw new CommandValidationException(errors);
         }
-        return toPojo(commandEntityService.create(fromPojo(command)));
+        try {
+            return toPojo(commandEntityService.create(fromPojo(command)));
+        } finally {
+            commandsChanged();
+        }
     }
 
     @Override
     @Nonnull
     public List<Command> getAll() {
-        return toPojo(commandEntityService.getAll());
+        return Lists.newArrayList(registry().getAll());
     }
 
     @Override
     @Nullable
     public Command retrieve(final long id) {
-        final CommandEntity commandEntity = commandEntityService.retrieve(id);
-        return commandEntity == null ? null : toPojo(commandEntity);
+        return registry().getCommand(id);
     }
 
     @Override
     @Nonnull
     public Command get(final long id) throws NotFoundException {
-        return toPojo(commandEntityService.get(id));
+        final Command command = retrieve(id);
+        if (command == null) {
+            throw new NotFoundException("No command with id " + String.valueOf(id));
+        }
+        return command;
     }
 
     @Override
@@ -135,7 +157,11 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
             throw new CommandValidationException(errors);
         }
         final CommandEntity updatableEntity = fromPojo(toUpdate);
-        commandEntityService.update(updatableEntity);
+        try {
+            commandEntityService.update(updatableEntity);
+        } finally {
+            commandsChanged();
+        }
         return toPojo(updatableEntity);
     }
 
@@ -146,11 +172,15 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
 
     @Override
     public void delete(final Command command) {
-        for (final CommandWrapper commandWrapper : command.xnatCommandWrappers()) {
-            commandEntityService.deleteWrapper(commandWrapper.id());
-        }
+        try {
+            for (final CommandWrapper commandWrapper : command.xnatCommandWrappers()) {
+                commandEntityService.deleteWrapper(commandWrapper.id());
+            }
 
-        commandEntityService.delete(command.id());
+            commandEntityService.delete(command.id());
+        } finally {
+            commandsChanged();
+        }
     }
 
     @Override
@@ -173,7 +203,7 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     @Override
     @Nonnull
     public List<Command> getByImage(final String image) {
-        return toPojo(commandEntityService.getByImage(image));
+        return Lists.newArrayList(registry().getByImage(image));
     }
 
     @Override
@@ -194,7 +224,12 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     @Nonnull
     @Transactional
     public CommandWrapper addWrapper(final @Nonnull Command command, final @Nonnull CommandWrapper wrapperToAdd) throws CommandValidationException, NotFoundException {
-        final CommandWrapper created = toPojo(commandEntityService.addWrapper(fromPojo(command), fromPojo(wrapperToAdd)));
+        final CommandWrapper created;
+        try {
+            created = toPojo(commandEntityService.addWrapper(fromPojo(command), fromPojo(wrapperToAdd)));
+        } finally {
+            commandsChanged();
+        }
 
         final List<String> errors = get(command.id()).validate();
         if (!errors.isEmpty()) {
@@ -206,27 +241,35 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     @Override
     @Nullable
     public CommandWrapper retrieveWrapper(final long wrapperId) {
-        final CommandWrapperEntity commandWrapperEntity = commandEntityService.retrieveWrapper(wrapperId);
-        return commandWrapperEntity == null ? null : toPojo(commandWrapperEntity);
+        return registry().getWrapper(wrapperId);
     }
 
     @Override
     @Nullable
     public CommandWrapper retrieveWrapper(final long commandId, final String wrapperName) {
-        final CommandWrapperEntity commandWrapperEntity = commandEntityService.retrieveWrapper(commandId, wrapperName);
-        return commandWrapperEntity == null ? null : toPojo(commandWrapperEntity);
+        final CommandRegistry registry = registry();
+        final Long wrapperId = registry.getWrapperId(commandId, wrapperName);
+        return wrapperId == null ? null : registry.getWrapper(wrapperId);
     }
 
     @Override
     @Nonnull
     public CommandWrapper getWrapper(final long wrapperId) throws NotFoundException {
-        return toPojo(commandEntityService.getWrapper(wrapperId));
+        final CommandWrapper commandWrapper = retrieveWrapper(wrapperId);
+        if (commandWrapper == null) {
+            throw new NotFoundException(String.format("No command wrapper for id %d", wrapperId));
+        }
+        return commandWrapper;
     }
 
     @Override
     @Nonnull
     public CommandWrapper getWrapper(final long commandId, final String wrapperName) throws NotFoundException {
-        return toPojo(commandEntityService.getWrapper(commandId, wrapperName));
+        final CommandWrapper commandWrapper = retrieveWrapper(commandId, wrapperName);
+        if (commandWrapper == null) {
+            throw new NotFoundException(String.format("No command wrapper for command id %d, wrapper name %s", commandId, wrapperName));
+        }
+        return commandWrapper;
     }
 
     @Override
@@ -235,7 +278,12 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     public CommandWrapper updateWrapper(final long commandId, final @Nonnull CommandWrapper toUpdate) throws CommandValidationException, NotFoundException {
         final CommandEntity commandEntity = commandEntityService.get(commandId);
         final CommandWrapperEntity template = commandEntityService.getWrapper(toUpdate.id());
-        final CommandWrapper updated = toPojo(commandEntityService.update(template.update(toUpdate)));
+        final CommandWrapper updated;
+        try {
+            updated = toPojo(commandEntityService.update(template.update(toUpdate)));
+        } finally {
+            commandsChanged();
+        }
 
         final List<String> errors = toPojo(commandEntity).validate();
         if (!errors.isEmpty()) {
@@ -247,7 +295,11 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     @Override
     @Transactional
     public void deleteWrapper(final long wrapperId) {
-        commandEntityService.deleteWrapper(wrapperId);
+        try {
+            commandEntityService.deleteWrapper(wrapperId);
+        } finally {
+            commandsChanged();
+        }
     }
 
     @Override
@@ -260,6 +312,7 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
         containerConfigService.configureForSite(
                 CommandConfigurationInternal.create(enabledStatusToSet, commandConfiguration),
                 wrapperId, username, reason);
+        preResolutionCache.invalidate(wrapperId);
     }
 
     @Override
@@ -277,6 +330,7 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
         containerConfigService.configureForProject(
                 CommandConfigurationInternal.create(enabledStatusToSet, commandConfiguration),
                 project, wrapperId, username, reason);
+        preResolutionCache.invalidate(wrapperId);
     }
 
     @Override
@@ -345,21 +399,23 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     @Override
     public void deleteSiteConfiguration(final long wrapperId, final String username) throws CommandConfigurationException {
         containerConfigService.deleteSiteConfiguration(wrapperId, username);
+        preResolutionCache.invalidate(wrapperId);
     }
 
     @Override
     public void deleteSiteConfiguration(final long commandId, final String wrapperName, final String username) throws CommandConfigurationException, NotFoundException {
-        containerConfigService.deleteSiteConfiguration(getWrapperId(commandId, wrapperName), username);
+        deleteSiteConfiguration(getWrapperId(commandId, wrapperName), username);
     }
 
     @Override
     public void deleteProjectConfiguration(final String project, final long wrapperId, final String username) throws CommandConfigurationException, NotFoundException {
         containerConfigService.deleteProjectConfiguration(project, wrapperId, username);
+        preResolutionCache.invalidate(wrapperId);
     }
 
     @Override
     public void deleteProjectConfiguration(final String project, final long commandId, final String wrapperName, final String username) throws CommandConfigurationException, NotFoundException {
-        containerConfigService.deleteProjectConfiguration(project, getWrapperId(commandId, wrapperName), username);
+        deleteProjectConfiguration(project, getWrapperId(commandId, wrapperName), username);
     }
 
     @Override
@@ -441,37 +497,34 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     public List<CommandSummaryForContext> available(final String project,
                                                     final String xsiType,
                                                     final UserI userI) throws ElementNotFoundException {
-        final List<CommandSummaryForContext> available = new ArrayList<>();
-
-        for (final Command command : getAll()) {
-            for (final CommandWrapper wrapper : command.xnatCommandWrappers()) {
-
-                // Can only launch if the user gave us an xsiType that matches
-                // one of the wrapper's contexts
-                if (!xsiTypesMatch(xsiType, wrapper.contexts())) {
-                    continue;
-                }
+        final List<LaunchableWrapper> launchableWrappers = new ArrayList<>();
+        final List<Long> wrapperIds = new ArrayList<>();
+
+        // Only wrappers whose contexts match the xsiType the user gave us, and that have at most one external input
+        for (final LaunchableWrapper launchable : registry().getLaunchableWrappers(xsiType, xsiTypeContextMatcher)) {
+            // Can only launch with a single external input
+            // It seems iffy to me to bake this into the code, but I don't know a way around it.
+            // We don't have any UI right now where a user can sensibly launch
+            //   on two completely unconnected objects.
+            if (!launchable.hasExternalInput()) {
+                continue;
+            }
 
-                // Can only launch if this user has permission
-                if (!userCanLaunch(userI, project, wrapper)) {
-                    continue;
-                }
+            // Can only launch if this user has permission
+            if (!userCanLaunch(userI, project, launchable.wrapper())) {
+                continue;
+            }
 
-                // Can only launch with a single external input
-                // It seems iffy to me to bake this into the code, but I don't know a way around it.
-                // We don't have any UI right now where a user can sensibly launch
-                //   on two completely unconnected objects.
-                final String externalInputName;
-                if (wrapper.externalInputs().size() == 1) {
-                    externalInputName = wrapper.externalInputs().get(0).name();
-                } else {
-                    continue;
-                }
+            launchableWrappers.add(launchable);
+            wrapperIds.add(launchable.wrapper().id());
+        }
 
-                available.add(CommandSummaryForContext.create(command, wrapper,
-                        containerConfigService.isEnabledForProject(project, wrapper.id()),
-                        externalInputName));
-            }
+        final Map<Long, Boolean> enabledByWrapperId = containerConfigService.isEnabledForProject(project, wrapperIds);
+        final List<CommandSummaryForContext> available = new ArrayList<>();
+        for (final LaunchableWrapper launchable : launchableWrappers) {
+            available.add(CommandSummaryForContext.create(launchable.command(), launchable.wrapper(),
+                    Boolean.TRUE.equals(enabledByWrapperId.get(launchable.wrapper().id())),
+                    launchable.externalInputName()));
         }
 
         return available;
@@ -481,36 +534,20 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     @Nonnull
     public List<CommandSummaryForContext> available(final String xsiType,
                                                     final UserI userI) throws ElementNotFoundException {
-        final List<CommandSummaryForContext> available = new ArrayList<>();
-
-        for (final Command command : getAll()) {
-            for (final CommandWrapper wrapper : command.xnatCommandWrappers()) {
-
-                // Can only launch if the user gave us an xsiType that matches
-                // one of the wrapper's contexts
-                if (!xsiTypesMatch(xsiType, wrapper.contexts())) {
-                    continue;
-                }
-
-                // Can only launch with a single external input
-                // It seems iffy to me to bake this into the code, but I don't know a way around it.
-                // We don't have any UI right now where a user can sensibly launch
-                //   on two completely unconnected objects.
-                final String externalInputName;
-                if (wrapper.externalInputs().size() == 1) {
-                    externalInputName = wrapper.externalInputs().get(0).name();
-                } else if (wrapper.externalInputs().size() == 0) {
-                    // I guess it's fine to have no external inputs. Site-wide command wrappers won't have any.
-                    //      - JF 2017-09-28
-                    externalInputName = "";
-                } else {
-                    continue;
-                }
+        // Only wrappers whose contexts match the xsiType the user gave us, and that have at most one external input.
+        // It's fine to have no external inputs here. Site-wide command wrappers won't have any.
+        final List<LaunchableWrapper> launchableWrappers = registry().getLaunchableWrappers(xsiType, xsiTypeContextMatcher);
+        final List<Long> wrapperIds = new ArrayList<>();
+        for (final LaunchableWrapper launchable : launchableWrappers) {
+            wrapperIds.add(launchable.wrapper().id());
+        }
 
-                available.add(CommandSummaryForContext.create(command, wrapper,
-                        containerConfigService.isEnabledForSite(wrapper.id()),
-                        externalInputName));
-            }
+        final Map<Long, Boolean> enabledByWrapperId = containerConfigService.isEnabledForSite(wrapperIds);
+        final List<CommandSummaryForContext> available = new ArrayList<>();
+        for (final LaunchableWrapper launchable : launchableWrappers) {
+            available.add(CommandSummaryForContext.create(launchable.command(), launchable.wrapper(),
+                    Boolean.TRUE.equals(enabledByWrapperId.get(launchable.wrapper().id())),
+                    launchable.externalInputName()));
         }
 
         return available;
@@ -523,65 +560,58 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
 
     // Cache the pairs of (parent, child) xsiType relationships.
     // If child is descended from parent, return true. Else return false.
-    private Map<XsiTypePair, Boolean> xsiTypePairCache = new HashMap<>();
+    // These depend only on the XFT schema, so they outlive any changes to the commands.
+    private final Map<XsiTypePair, Boolean> xsiTypePairCache = new ConcurrentHashMap<>();
+
+    private final XsiTypeContextMatcher xsiTypeContextMatcher = new XsiTypeContextMatcher() {
+        @Override
+        public boolean matches(final String xsiType, final String context) {
+            return isDescendedFrom(xsiType, context);
+        }
+    };
 
     /**
-     * Check if the xsiType that the user gave us is equal to *or* *descended* *from*
-     * one of the xsiTypes in the wrapper's contexts set.
+     * Check if the xsiType that the user gave us is descended from an xsiType in a wrapper's contexts.
      *
      * Example
-     * If a wrapper can run on {"xnat:mrSessionData", "xnat:petSessionData"}, and
+     * If a wrapper can run on "xnat:imageSessionData", and
      * the user asks 'what can I run on an "xnat:mrSessionData"?' we return true.
      *
-     * If a wrapper can run on {"xnat:imageSessionData", "xnat:imageAssessorData"}, and
-     * the user asks 'what can I run on an "xnat:mrSessionData"?' we return true.
-
-     * If a wrapper can run on {"xnat:mrSessionData"}, and
+     * If a wrapper can run on "xnat:mrSessionData", and
      * the user asks 'what can I run on an "xnat:imageSessionData"?' we return false.
      *
      * @param xsiType A user asked "what commands can run on this xsiType"?
-     * @param wrapperXsiTypes For a particular command wrapper, there are the xsiTypes it can run on.
-     *                        This may include "parent" xsiTypes. We want all the "child" types of that
-     *                        "parent" type to match as well.
-     * @return Can this wrapper run on this xsiType?
+     * @param wrapperXsiType One of the xsiTypes in a wrapper's contexts.
+     *                       This may be a "parent" xsiType. We want all the "child" types of that
+     *                       "parent" type to match as well.
+     * @return Can a wrapper with this context run on this xsiType?
      */
-    private boolean xsiTypesMatch(final @Nonnull String xsiType,
-                                  final @Nonnull Set<String> wrapperXsiTypes) throws ElementNotFoundException {
-        if (wrapperXsiTypes.contains(xsiType)) {
-            return true;
+    private boolean isDescendedFrom(final @Nonnull String xsiType,
+                                    final @Nonnull String wrapperXsiType) {
+        final XsiTypePair xsiTypeKey = new XsiTypePair(wrapperXsiType, xsiType);
+
+        // Return a result from the cache if it exists.
+        final Boolean cached = xsiTypePairCache.get(xsiTypeKey);
+        if (cached != null) {
+            return cached;
         }
 
-        for (final String wrapperXsiType : wrapperXsiTypes) {
-            final XsiTypePair xsiTypeKey = new XsiTypePair(wrapperXsiType, xsiType);
-
-            // Return a result from the cache if it exists.
-            if (xsiTypePairCache.containsKey(xsiTypeKey)) {
-                final Boolean cached = xsiTypePairCache.get(xsiTypeKey);
-                return cached == null ? false : cached; // Should never be null. But let's check for safety.
-            }
-
-            // Compute new result
-            boolean match = false;
-            try {
-                match = SchemaElement.GetElement(xsiType).getGenericXFTElement().instanceOf(wrapperXsiType);
-            } catch (XFTInitException e) {
-                log.error("XFT not initialized."); // If this happens, we have a lot of other problems.
-            } catch (ElementNotFoundException e) {
-                // I was treating this as an error. Now I want to log it and move on.
-                // This will allow users to set whatever they want as the context and request it by name.
-                //      - JF 2017-09-28
-                log.debug("Did not find XSI type \"{}\".", xsiType);
-            }
-
-            // Add result to cache
-            xsiTypePairCache.put(xsiTypeKey, match);
-
-            // Shortcut loop if a result is true
-            if (match) {
-                return true;
-            }
+        // Compute new result
+        boolean match = false;
+        try {
+            match = SchemaElement.GetElement(xsiType).getGenericXFTElement().instanceOf(wrapperXsiType);
+        } catch (XFTInitException e) {
+            log.error("XFT not initialized."); // If this happens, we have a lot of other problems.
+        } catch (ElementNotFoundException e) {
+            // I was treating this as an error. Now I want to log it and move on.
+            // This will allow users to set whatever they want as the context and request it by name.
+            //      - JF 2017-09-28
+            log.debug("Did not find XSI type \"{}\".", xsiType);
         }
-        return false;
+
+        // Add result to cache
+        xsiTypePairCache.put(xsiTypeKey, match);
+        return match;
     }
 
     private boolean userCanLaunch(final UserI userI, final String project, final CommandWrapper wrapper) {
@@ -627,22 +657,67 @@ public class CommandServiceImpl implements CommandService, InitializingBean {
     }
 
     private long getWrapperId(final long commandId, final String wrapperName) throws NotFoundException {
-        return commandEntityService.getWrapperId(commandId, wrapperName);
+        final CommandRegistry registry = registry();
+        final Long wrapperId = registry.getWrapperId(commandId, wrapperName);
+        if (wrapperId == null) {
+            throw new NotFoundException(registry.getCommand(commandId) == null ?
+                    "No command with id " + String.valueOf(commandId) :
+                    "Command " + String.valueOf(commandId) + " has no wrapper " + wrapperName);
+        }
+        return wrapperId;
     }
 
     @Nonnull
     private Command getCommandWithOneWrapper(final long wrapperId) throws NotFoundException {
-        final CommandEntity commandEntity = commandEntityService.getCommandByWrapperId(wrapperId);
-        final List<CommandWrapperEntity> listWithOneWrapper = Lists.newArrayList();
-        for (final CommandWrapperEntity wrapper : commandEntity.getCommandWrapperEntities()) {
-            if (wrapper.getId() == wrapperId) {
-                listWithOneWrapper.add(wrapper);
-                break;
+        final Command command = registry().getCommandWithOneWrapper(wrapperId);
+        if (command == null) {
+            throw new NotFoundException("No command with wrapper with id " + String.valueOf(wrapperId));
+        }
+        return command;
+    }
+
+    @Nonnull
+    private CommandRegistry registry() {
+        final CommandRegistry current = registry;
+        if (current != null) {
+            return current;
+        }
+
+        final long generation = registryGeneration.get();
+        final CommandRegistry loaded = new CommandRegistry(toPojo(commandEntityService.getAll()));
+        synchronized (this) {
+            // If commands changed while we were loading, or a change has not been committed yet,
+            // what we loaded may already be out of date. Use it for this call but don't keep it.
+            if (generation == registryGeneration.get() && uncommittedCommandChanges.get() == 0) {
+                registry = loaded;
             }
         }
-        commandEntity.setCommandWrapperEntities(listWithOneWrapper);
-        return toPojo(commandEntity);
+        return loaded;
+    }
+
+    /**
+     * Throw away the registry after a command or wrapper changes. If the change is part of a transaction,
+     * we throw it away again once the transaction is done, because other threads can't see the change
+     * (or it never happened, if the transaction rolled back) until then.
+     */
+    private void commandsChanged() {
+        invalidateRegistry();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            uncommittedCommandChanges.incrementAndGet();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(final int status) {
+                    uncommittedCommandChanges.decrementAndGet();
+                    invalidateRegistry();
+                }
+            });
+        }
+    }
 
+    private synchronized void invalidateRegistry() {
+        registryGeneration.incrementAndGet();
+        registry = null;
+        preResolutionCache.invalidateAll();
     }
 
     private static class XsiTypePair {
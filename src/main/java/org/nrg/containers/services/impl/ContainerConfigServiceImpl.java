@@ -12,23 +12,50 @@ import org.nrg.framework.constants.Scope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 public class ContainerConfigServiceImpl implements ContainerConfigService {
     private static final Logger log = LoggerFactory.getLogger(ContainerConfigService.class);
 
+    private static final int MAX_CACHED_CONFIGURATIONS = 10000;
+    private static final Pattern WRAPPER_CONFIG_PATH_PATTERN = Pattern.compile("wrapper-(\\d+)");
+
     private final ConfigService configService;
     private final ObjectMapper mapper;
 
+    // Stored command configurations, keyed by scope, project, and wrapper id. We write through this cache when we
+    // change a configuration. Configurations can also be changed through the generic XNAT config API,
+    // or on another node, so entries only last for a while. A TTL of 0 turns the cache off.
+    private final long cacheTtlMillis;
+    private final Map<String, CachedConfiguration> configurationCache =
+            Collections.synchronizedMap(new LinkedHashMap<String, CachedConfiguration>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, CachedConfiguration> eldest) {
+                    return size() > MAX_CACHED_CONFIGURATIONS;
+                }
+            });
+
     @Autowired
     public ContainerConfigServiceImpl(final ConfigService configService,
-                                      final ObjectMapper mapper) {
+                                      final ObjectMapper mapper,
+                                      final @Value("${containers.configCache.ttlSeconds:60}") long cacheTtlSeconds) {
         this.configService = configService;
         this.mapper = mapper;
+        this.cacheTtlMillis = TimeUnit.SECONDS.toMillis(Math.max(0L, cacheTtlSeconds));
     }
 
     @Override
@@ -130,6 +157,41 @@ public class ContainerConfigServiceImpl implements ContainerConfigService {
         return isEnabledForSite(wrapperId) && projectIsEnabledConfig != null && projectIsEnabledConfig;
     }
 
+    @Override
+    public Map<Long, CommandConfigurationInternal> getProjectConfigurations(final String project, final Collection<Long> wrapperIds) {
+        prefetchCommandConfigurations(Scope.Site, null, wrapperIds);
+        prefetchCommandConfigurations(Scope.Project, project, wrapperIds);
+
+        final Map<Long, CommandConfigurationInternal> configurations = new HashMap<>();
+        for (final Long wrapperId : wrapperIds) {
+            configurations.put(wrapperId, getProjectConfiguration(project, wrapperId));
+        }
+        return configurations;
+    }
+
+    @Override
+    public Map<Long, Boolean> isEnabledForProject(final String project, final Collection<Long> wrapperIds) {
+        prefetchCommandConfigurations(Scope.Site, null, wrapperIds);
+        prefetchCommandConfigurations(Scope.Project, project, wrapperIds);
+
+        final Map<Long, Boolean> enabled = new HashMap<>();
+        for (final Long wrapperId : wrapperIds) {
+            enabled.put(wrapperId, isEnabledForProject(project, wrapperId));
+        }
+        return enabled;
+    }
+
+    @Override
+    public Map<Long, Boolean> isEnabledForSite(final Collection<Long> wrapperIds) {
+        prefetchCommandConfigurations(Scope.Site, null, wrapperIds);
+
+        final Map<Long, Boolean> enabled = new HashMap<>();
+        for (final Long wrapperId : wrapperIds) {
+            enabled.put(wrapperId, isEnabledForSite(wrapperId));
+        }
+        return enabled;
+    }
+
     private void setCommandEnabled(final Boolean enabled, final Scope scope, final String project, final long wrapperId, final String username, final String reason) throws CommandConfigurationException {
         final CommandConfigurationInternal alreadyExists = getCommandConfiguration(scope, project, wrapperId);
         final CommandConfigurationInternal toSet =
@@ -162,10 +224,12 @@ public class ContainerConfigServiceImpl implements ContainerConfigService {
         try {
             configService.replaceConfig(username, reason, TOOL_ID, path, contents, scope, project);
         } catch (ConfigServiceException e) {
+            configurationCache.remove(cacheKey(scope, project, wrapperId));
             final String message = String.format("Could not save configuration for wrapper id %d.", wrapperId);
             log.error(message);
             throw new CommandConfigurationException(message, e);
         }
+        cacheConfiguration(scope, project, wrapperId, commandConfigurationInternal);
     }
 
     @Nullable
@@ -184,8 +248,68 @@ public class ContainerConfigServiceImpl implements ContainerConfigService {
             // TODO error
         }
 
+        final CachedConfiguration cached = getCachedConfiguration(scope, project, wrapperId);
+        if (cached != null) {
+            return cached.configuration;
+        }
+
         final String path = String.format(WRAPPER_CONFIG_PATH_TEMPLATE, wrapperId);
-        final Configuration configuration = configService.getConfig(TOOL_ID, path, scope, project);
+        final CommandConfigurationInternal commandConfigurationInternal =
+                deserialize(configService.getConfig(TOOL_ID, path, scope, project), scope, project, wrapperId);
+        cacheConfiguration(scope, project, wrapperId, commandConfigurationInternal);
+        return commandConfigurationInternal;
+    }
+
+    /**
+     * Read all the stored configurations for a scope with one query, and cache the ones for the wrappers we asked about.
+     * Wrappers with no stored configuration are cached as having none.
+     */
+    private void prefetchCommandConfigurations(final Scope scope, final String project, final Collection<Long> wrapperIds) {
+        if (cacheTtlMillis <= 0L) {
+            return;
+        }
+
+        boolean allCached = true;
+        for (final Long wrapperId : wrapperIds) {
+            if (getCachedConfiguration(scope, project, wrapperId) == null) {
+                allCached = false;
+                break;
+            }
+        }
+        if (allCached) {
+            return;
+        }
+
+        final List<Configuration> configurations = configService.getConfigsByTool(TOOL_ID, scope, project);
+
+        // If a path has more than one configuration, the latest one is current
+        final Map<Long, Configuration> latestByWrapperId = new HashMap<>();
+        if (configurations != null) {
+            for (final Configuration configuration : configurations) {
+                if (configuration == null || configuration.getPath() == null) {
+                    continue;
+                }
+                final Matcher matcher = WRAPPER_CONFIG_PATH_PATTERN.matcher(configuration.getPath());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                final Long wrapperId = Long.valueOf(matcher.group(1));
+                final Configuration existing = latestByWrapperId.get(wrapperId);
+                if (existing == null || existing.getId() < configuration.getId()) {
+                    latestByWrapperId.put(wrapperId, configuration);
+                }
+            }
+        }
+
+        for (final Long wrapperId : wrapperIds) {
+            cacheConfiguration(scope, project, wrapperId,
+                    deserialize(latestByWrapperId.get(wrapperId), scope, project, wrapperId));
+        }
+    }
+
+    @Nullable
+    private CommandConfigurationInternal deserialize(final @Nullable Configuration configuration,
+                                                     final Scope scope, final String project, final long wrapperId) {
         if (configuration == null) {
             return null;
         }
@@ -223,10 +347,41 @@ public class ContainerConfigServiceImpl implements ContainerConfigService {
         if (commandConfigurationInternal.enabled() == null) {
             final String path = String.format(WRAPPER_CONFIG_PATH_TEMPLATE, wrapperId);
             configService.delete(configService.getConfig(TOOL_ID, path, scope, project));
+            cacheConfiguration(scope, project, wrapperId, null);
             return;
         }
 
         setCommandConfigurationInternal(CommandConfigurationInternal.create(commandConfigurationInternal.enabled(), null),
                 scope, project, wrapperId, username, "Deleting command configuration");
     }
+
+    @Nullable
+    private CachedConfiguration getCachedConfiguration(final Scope scope, final String project, final long wrapperId) {
+        if (cacheTtlMillis <= 0L) {
+            return null;
+        }
+        final CachedConfiguration cached = configurationCache.get(cacheKey(scope, project, wrapperId));
+        return cached != null && System.currentTimeMillis() - cached.cachedAt < cacheTtlMillis ? cached : null;
+    }
+
+    private void cacheConfiguration(final Scope scope, final String project, final long wrapperId,
+                                    final @Nullable CommandConfigurationInternal commandConfigurationInternal) {
+        if (cacheTtlMillis <= 0L) {
+            return;
+        }
+        configurationCache.put(cacheKey(scope, project, wrapperId), new CachedConfiguration(commandConfigurationInternal));
+    }
+
+    private static String cacheKey(final Scope scope, final String project, final long wrapperId) {
+        return scope.name() + ":" + (project == null ? "" : project) + ":" + wrapperId;
+    }
+
+    private static class CachedConfiguration {
+        @Nullable private final CommandConfigurationInternal configuration;
+        private final long cachedAt = System.currentTimeMillis();
+
+        CachedConfiguration(final @Nullable CommandConfigurationInternal configuration) {
+            this.configuration = configuration;
+        }
+    }
 }
@@ -0,0 +1,272 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.nrg.containers.exceptions.ContainerException;
+import org.nrg.containers.exceptions.DockerServerException;
+import org.nrg.containers.exceptions.NoDockerServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs container finalizations on a pool of their own, so that uploading one container's outputs
+ * does not hold up the threads that process docker events and service task statuses.
+ *
+ * A container is finalized by at most one thread at a time. If a container is asked to be finalized
+ * while it is waiting or being finalized, the request is dropped. So is a request to queue a container
+ * that has already been finalized, which happens when two of its wrapup containers finish at the same time.
+ * If docker can't be reached, the finalization is tried again after a delay that doubles each time.
+ * Any other failure is logged and not retried.
+ */
+@Component
+public class ContainerFinalizationQueue {
+    private static final Logger log = LoggerFactory.getLogger(ContainerFinalizationQueue.class);
+    private static final long MAX_FINALIZED_IDS = 10000L;
+
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Set<Long> claimed = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final Set<Long> finalized = Collections.newSetFromMap(
+            CacheBuilder.newBuilder().maximumSize(MAX_FINALIZED_IDS).<Long, Boolean>build().asMap());
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong totalDurationMillis = new AtomicLong();
+    private final AtomicLong maxDurationMillis = new AtomicLong();
+    private volatile long lastDurationMillis = 0L;
+
+    @Autowired
+    public ContainerFinalizationQueue(final @Value("${containers.finalize.threads:4}") int threads,
+                                      final @Value("${containers.finalize.maxRetries:3}") int maxRetries,
+                                      final @Value("${containers.finalize.retryBackoffSeconds:10}") long retryBackoffSeconds) {
+        this(threads, maxRetries, TimeUnit.SECONDS.toMillis(retryBackoffSeconds), TimeUnit.MILLISECONDS);
+    }
+
+    ContainerFinalizationQueue(final int threads, final int maxRetries, final long retryBackoff, final TimeUnit unit) {
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.retryBackoffMillis = Math.max(unit.toMillis(retryBackoff), 0L);
+        this.executor = new ScheduledThreadPoolExecutor(Math.max(threads, 1),
+                new ThreadFactoryBuilder().setNameFormat("container-finalize-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Finalize a container in the background.
+     *
+     * @param databaseId The container's database id
+     * @param finalization What to do to finalize it
+     * @return false if the container is already finalized, waiting to be finalized, or being finalized, and this request was dropped
+     */
+    public boolean submit(final long databaseId, final Finalization finalization) {
+        if (!claimed.add(databaseId)) {
+            log.debug("Container {} is already being finalized. Not queueing it again.", databaseId);
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        if (finalized.contains(databaseId)) {
+            claimed.remove(databaseId);
+            log.debug("Container {} is already finalized. Not queueing it again.", databaseId);
+            droppedCount.incrementAndGet();
+            return false;
+        }
+
+        waiting.incrementAndGet();
+        try {
+            executor.execute(new Attempt(databaseId, finalization, 0));
+        } catch (RejectedExecutionException e) {
+            waiting.decrementAndGet();
+            claimed.remove(databaseId);
+            log.error("Could not queue finalization for container {}. The queue has been shut down.", databaseId);
+            return false;
+        }
+        log.debug("Queued finalization for container {}.", databaseId);
+        return true;
+    }
+
+    /**
+     * Finalize a container on this thread, unless it is already waiting to be finalized or being finalized.
+     * Unlike {@link #submit(long, Finalization)}, this runs even if the container has been finalized before.
+     * Failures are not retried; they are thrown to the caller.
+     *
+     * @return false if the container is already being finalized and nothing was done
+     */
+    public boolean runNow(final long databaseId, final Finalization finalization)
+            throws ContainerException, NoDockerServerException, DockerServerException {
+        if (!claimed.add(databaseId)) {
+            log.debug("Container {} is already being finalized.", databaseId);
+            droppedCount.incrementAndGet();
+            return false;
+        }
+
+        running.incrementAndGet();
+        final long start = System.currentTimeMillis();
+        boolean succeeded = false;
+        try {
+            finalization.run();
+            succeeded = true;
+        } finally {
+            running.decrementAndGet();
+            claimed.remove(databaseId);
+            recordDuration(System.currentTimeMillis() - start);
+            (succeeded ? completedCount : failedCount).incrementAndGet();
+        }
+        return true;
+    }
+
+    public boolean isFinalizing(final long databaseId) {
+        return claimed.contains(databaseId);
+    }
+
+    /**
+     * Record that a container is finalized, so later requests to queue it are dropped.
+     * A finalization calls this when it is done, not when it only launched the container's wrapup containers.
+     * Only the most recently finalized containers are remembered.
+     */
+    public void markFinalized(final long databaseId) {
+        finalized.add(databaseId);
+    }
+
+    public boolean isFinalized(final long databaseId) {
+        return finalized.contains(databaseId);
+    }
+
+    /**
+     * @return How many finalizations are waiting for a thread, including those waiting to be retried
+     */
+    public int getQueueDepth() {
+        return waiting.get();
+    }
+
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    public long getMaxDurationMillis() {
+        return maxDurationMillis.get();
+    }
+
+    /**
+     * @return Mean time spent in a finalization attempt, whether it succeeded or not
+     */
+    public long getMeanDurationMillis() {
+        final long attempts = completedCount.get() + failedCount.get() + retryCount.get();
+        return attempts == 0 ? 0L : totalDurationMillis.get() / attempts;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void recordDuration(final long millis) {
+        lastDurationMillis = millis;
+        totalDurationMillis.addAndGet(millis);
+        long max = maxDurationMillis.get();
+        while (millis > max && !maxDurationMillis.compareAndSet(max, millis)) {
+            max = maxDurationMillis.get();
+        }
+    }
+
+    /**
+     * Everything it takes to finalize one container.
+     */
+    public interface Finalization {
+        void run() throws ContainerException, NoDockerServerException, DockerServerException;
+    }
+
+    private class Attempt implements Runnable {
+        private final long databaseId;
+        private final Finalization finalization;
+        private final int retries;
+
+        private Attempt(final long databaseId, final Finalization finalization, final int retries) {
+            this.databaseId = databaseId;
+            this.finalization = finalization;
+            this.retries = retries;
+        }
+
+        @Override
+        public void run() {
+            waiting.decrementAndGet();
+            running.incrementAndGet();
+            final long start = System.currentTimeMillis();
+            boolean retrying = false;
+            try {
+                finalization.run();
+                completedCount.incrementAndGet();
+            } catch (NoDockerServerException | DockerServerException e) {
+                retrying = retry(e);
+            } catch (ContainerException | RuntimeException e) {
+                log.error("Container finalization failed for container " + databaseId, e);
+                failedCount.incrementAndGet();
+            } finally {
+                running.decrementAndGet();
+                recordDuration(System.currentTimeMillis() - start);
+                if (!retrying) {
+                    claimed.remove(databaseId);
+                }
+            }
+        }
+
+        /**
+         * @return true if another attempt has been scheduled
+         */
+        private boolean retry(final Exception e) {
+            if (retries >= maxRetries) {
+                log.error("Container finalization failed for container " + databaseId + " after " + (retries + 1) + " attempts.", e);
+                failedCount.incrementAndGet();
+                return false;
+            }
+
+            final long delayMillis = retryBackoffMillis << Math.min(retries, 20);
+            log.info("Could not reach docker to finalize container {}. Trying again in {} ms. {}", databaseId, delayMillis, e.getMessage());
+            waiting.incrementAndGet();
+            try {
+                executor.schedule(new Attempt(databaseId, finalization, retries + 1), delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException rejected) {
+                waiting.decrementAndGet();
+                failedCount.incrementAndGet();
+                return false;
+            }
+            retryCount.incrementAndGet();
+            return true;
+        }
+    }
+}
@@ -4,47 +4,48 @@ import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.nrg.action.ClientException;
 import org.nrg.containers.api.ContainerControlApi;
 import org.nrg.containers.exceptions.ContainerException;
-import org.nrg.containers.exceptions.DockerServerException;
-import org.nrg.containers.exceptions.NoDockerServerException;
 import org.nrg.containers.exceptions.UnauthorizedException;
 import org.nrg.containers.model.container.auto.Container;
 import org.nrg.containers.model.container.auto.Container.ContainerMount;
 import org.nrg.containers.model.container.auto.Container.ContainerOutput;
 import org.nrg.containers.services.ContainerFinalizeService;
-import org.nrg.containers.services.ContainerService;
 import org.nrg.containers.services.ContainerUtils;
+import org.nrg.containers.utils.FileListing;
 import org.nrg.transporter.TransportService;
 import org.nrg.xdat.om.XnatResourcecatalog;
 import org.nrg.xdat.preferences.SiteConfigPreferences;
 import org.nrg.xdat.security.helpers.Permissions;
 import org.nrg.xft.event.persist.PersistentWorkflowUtils;
 import org.nrg.xft.security.UserI;
-import org.nrg.xft.utils.FileUtils;
 import org.nrg.xnat.helpers.uri.URIManager;
 import org.nrg.xnat.helpers.uri.UriParserUtils;
-import org.nrg.xnat.restlet.util.XNATRestConstants;
 import org.nrg.xnat.services.archive.CatalogService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.nrg.containers.model.command.entity.CommandWrapperOutputEntity.Type.ASSESSOR;
 import static org.nrg.containers.model.command.entity.CommandWrapperOutputEntity.Type.RESOURCE;
@@ -57,16 +58,30 @@ public class ContainerFinalizeServiceImpl implements ContainerFinalizeService {
     private final SiteConfigPreferences siteConfigPreferences;
     private final TransportService transportService;
     private final CatalogService catalogService;
+    private final ContainerLogShipper containerLogShipper;
+
+    // Shared by all finalizations, so the number of concurrent uploads has a limit
+    private final ExecutorService outputUploadExecutor;
 
     @Autowired
     public ContainerFinalizeServiceImpl(final ContainerControlApi containerControlApi,
                                         final SiteConfigPreferences siteConfigPreferences,
                                         final TransportService transportService,
-                                        final CatalogService catalogService) {
+                                        final CatalogService catalogService,
+                                        final ContainerLogShipper containerLogShipper,
+                                        final @Value("${containers.finalize.outputUploadThreads:4}") int outputUploadThreads) {
         this.containerControlApi = containerControlApi;
         this.siteConfigPreferences = siteConfigPreferences;
         this.transportService = transportService;
         this.catalogService = catalogService;
+        this.containerLogShipper = containerLogShipper;
+        this.outputUploadExecutor = Executors.newFixedThreadPool(Math.max(outputUploadThreads, 1),
+                new ThreadFactoryBuilder().setNameFormat("container-output-upload-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        outputUploadExecutor.shutdownNow();
     }
 
     @Override
@@ -90,6 +105,13 @@ public class ContainerFinalizeServiceImpl implements ContainerFinalizeService {
 
         private Map<String, Container> wrapupContainerMap;
 
+        // Outputs that other outputs can be uploaded to
+        private final Map<String, String> createdUrisByOutputName = new ConcurrentHashMap<>();
+
+        // One walk of each mount that outputs select from with a glob that crosses directories, by the mount's path
+        // on the XNAT machine. Shared by all the outputs of the mount.
+        private final Map<String, FileListing> fileListingsByMount = Maps.newHashMap();
+
         private ContainerFinalizeHelper(final Container toFinalize,
                                         final UserI userI,
                                         final boolean isFailed,
@@ -156,104 +178,37 @@ public class ContainerFinalizeServiceImpl implements ContainerFinalizeService {
         }
 
         private List<String> uploadLogs() {
-            log.info(prefix + "Getting logs.");
-            final List<String> logPaths = Lists.newArrayList();
-
-            final String stdoutLogStr = getStdoutLogStr();
-            final String stderrLogStr = getStderrLogStr();
-
-            if (StringUtils.isNotBlank(stdoutLogStr) || StringUtils.isNotBlank(stderrLogStr)) {
-
-                final String archivePath = siteConfigPreferences.getArchivePath(); // TODO find a place to upload this thing. Root of the archive if sitewide, else under the archive path of the root object
-                if (StringUtils.isNotBlank(archivePath)) {
-                    final SimpleDateFormat formatter = new SimpleDateFormat(XNATRestConstants.PREARCHIVE_TIMESTAMP);
-                    final String datestamp = formatter.format(new Date());
-                    final String containerExecPath = FileUtils.AppendRootPath(archivePath, "CONTAINER_EXEC/");
-                    final String destinationPath = containerExecPath + datestamp + "/LOGS/";
-                    final File destination = new File(destinationPath);
-                    destination.mkdirs();
-
-                    log.info(prefix + "Saving logs to " + destinationPath);
-
-                    if (StringUtils.isNotBlank(stdoutLogStr)) {
-                        log.debug("Saving stdout");
-                        final File stdoutFile = new File(destination, ContainerService.STDOUT_LOG_NAME);
-                        FileUtils.OutputToFile(stdoutLogStr, stdoutFile.getAbsolutePath());
-                        logPaths.add(stdoutFile.getAbsolutePath());
-                    } else {
-                        log.debug("Stdout was blank");
-                    }
-
-                    if (StringUtils.isNotBlank(stderrLogStr)) {
-                        log.debug("Saving stderr");
-                        final File stderrFile = new File(destination, ContainerService.STDERR_LOG_NAME);
-                        FileUtils.OutputToFile(stderrLogStr, stderrFile.getAbsolutePath());
-                        logPaths.add(stderrFile.getAbsolutePath());
-                    } else {
-                        log.debug("Stderr was blank");
-                    }
-                }
-            }
-
-            if (log.isDebugEnabled()) {
-                log.debug("Adding log paths to container");
-            }
-            return logPaths;
-        }
-
-        private String getStderrLogStr() {
-            if (toFinalize.isSwarmService()) {
-                try {
-                    return containerControlApi.getServiceStderrLog(toFinalize.serviceId());
-                } catch (DockerServerException | NoDockerServerException e) {
-                    log.error(prefix + "Could not get service stderr log.", e);
-                }
-            } else {
-                try {
-                    return containerControlApi.getContainerStderrLog(toFinalize.containerId());
-                } catch (DockerServerException | NoDockerServerException e) {
-                    log.error(prefix + "Could not get container stderr log.", e);
-                }
-            }
-            return null;
-        }
-
-        private String getStdoutLogStr() {
-            if (toFinalize.isSwarmService()) {
-                try {
-                    return containerControlApi.getServiceStdoutLog(toFinalize.serviceId());
-                } catch (DockerServerException | NoDockerServerException e) {
-                    log.error(prefix + "Could not get service stdout log.", e);
-                }
-            } else {
-                try {
-                    return containerControlApi.getContainerStdoutLog(toFinalize.containerId());
-                } catch (DockerServerException | NoDockerServerException e) {
-                    log.error(prefix + "Could not get container stdout log.", e);
-                }
-            }
-            return null;
+            // Most of the logs have been saved already while the container ran. Save whatever is left.
+            return containerLogShipper.finish(toFinalize);
         }
 
+        /**
+         * Upload all the outputs, in parallel where that is safe. See {@link OutputUploadStages}.
+         */
         private OutputsAndExceptions uploadOutputs() {
             log.info(prefix + "Uploading outputs.");
+            final long start = System.currentTimeMillis();
+
+            final List<OutputUpload> uploads = Lists.newArrayList();
+            for (final ContainerOutput nonUploadedOutput : toFinalize.outputs()) {
+                uploads.add(new OutputUpload(nonUploadedOutput));
+            }
+            new OutputUploadStages(outputUploadExecutor, prefix).uploadAll(uploads);
 
             final List<ContainerOutput> outputs = Lists.newArrayList();
             final List<Exception> exceptions = Lists.newArrayList();
-            for (final ContainerOutput nonUploadedOuput: toFinalize.outputs()) {
-                try {
-                    outputs.add(uploadOutput(nonUploadedOuput));
-                } catch (UnauthorizedException | ContainerException | RuntimeException e) {
-                    log.error("Cannot upload files for command output " + nonUploadedOuput.name(), e);
-                    if (nonUploadedOuput.required()) {
-                        exceptions.add(e);
-                    }
-                    outputs.add(nonUploadedOuput);
+            final Map<String, Long> uploadMillis = Maps.newLinkedHashMap();
+            for (final OutputUpload upload : uploads) {
+                outputs.add(upload.result);
+                uploadMillis.put(upload.output.name(), upload.durationMillis);
+                if (upload.exception != null && upload.output.required()) {
+                    exceptions.add(upload.exception);
                 }
             }
 
-            log.info(prefix + "Done uploading outputs.");
-            return new OutputsAndExceptions(outputs, exceptions);
+            log.info(prefix + "Done uploading outputs in {} ms. Time per output (ms): {}",
+                    System.currentTimeMillis() - start, uploadMillis);
+            return new OutputsAndExceptions(outputs, exceptions, uploadMillis);
         }
 
         private ContainerOutput uploadOutput(final ContainerOutput output) throws ContainerException, UnauthorizedException {
@@ -302,7 +257,12 @@ public class ContainerFinalizeServiceImpl implements ContainerFinalizeService {
                     FilenameUtils.concat(mountXnatHostPath, relativeFilePath);
             final String globMatcher = output.glob() != null ? output.glob() : "";
 
-            final List<File> toUpload = matchGlob(filePath, globMatcher);
+            final List<File> toUpload;
+            try {
+                toUpload = matchGlob(mountXnatHostPath, filePath, globMatcher);
+            } catch (IOException e) {
+                throw new ContainerException(String.format(prefix + "Could not list files for output \"%s\".", output.name()), e);
+            }
             if (toUpload == null || toUpload.size() == 0) {
                 if (output.required()) {
                     throw new ContainerException(String.format(prefix + "Nothing to upload for output \"%s\".", output.name()));
@@ -312,7 +272,7 @@ public class ContainerFinalizeServiceImpl implements ContainerFinalizeService {
 
             final String label = StringUtils.isNotBlank(output.label()) ? output.label() : output.name();
 
-            String parentUri = getWrapperInputValue(output.handledByWrapperInput());
+            String parentUri = getParentUri(output.handledByWrapperInput());
             if (parentUri == null) {
                 throw new ContainerException(String.format(prefix + "Cannot upload output \"%s\". Could not instantiate object from input \"%s\".", output.name(), output.handledByWrapperInput()));
             }
@@ -399,7 +359,7 @@ public class ContainerFinalizeServiceImpl implements ContainerFinalizeService {
             return output.toBuilder().created(createdUri).build();
         }
 
-        private ContainerMount getMount(final String mountName) throws ContainerException {
+        private synchronized ContainerMount getMount(final String mountName) throws ContainerException {
             // If mount has been transported, we're done
             if (transportedMounts.containsKey(mountName)) {
                 return transportedMounts.get(mountName);
@@ -432,6 +392,16 @@ public class ContainerFinalizeServiceImpl implements ContainerFinalizeService {
             throw new ContainerException(String.format(prefix + "Mount \"%s\" does not exist.", mountName));
         }
 
+        /**
+         * The URI of the object that an output is uploaded to. That is either the value of a wrapper input
+         * or the object created by another output, which must have been uploaded already.
+         */
+        @Nullable
+        private String getParentUri(final String inputOrOutputName) {
+            final String wrapperInputValue = getWrapperInputValue(inputOrOutputName);
+            return wrapperInputValue != null ? wrapperInputValue : createdUrisByOutputName.get(inputOrOutputName);
+        }
+
         private String getWrapperInputValue(final String inputName) {
             if (log.isDebugEnabled()) {
                 log.debug(String.format(prefix + "Getting URI for input \"%s\".", inputName));
@@ -453,21 +423,124 @@ public class ContainerFinalizeServiceImpl implements ContainerFinalizeService {
             return wrapupContainerMap.get(parentSourceObjectName);
         }
 
-        private List<File> matchGlob(final String rootPath, final String glob) {
-            final File rootDir = new File(rootPath);
-            final File[] files = rootDir.listFiles();
-            return files == null ? Lists.<File>newArrayList() : Arrays.asList(files);
+        /**
+         * Select the files for an output from the directory it points to.
+         * Only a glob that can cross directories needs a walk of the tree. Then we walk the whole mount, once,
+         * and every output of the mount selects from that listing.
+         *
+         * @param mountXnatHostPath The mount's directory on the XNAT machine
+         * @param filePath The directory, or file, that the output points to
+         * @param glob Which files to select. If blank, select everything in the directory.
+         */
+        private List<File> matchGlob(final String mountXnatHostPath, final String filePath, final String glob) throws IOException {
+            final Path path = Paths.get(filePath);
+            if (!FileListing.needsWalk(glob)) {
+                return FileListing.matchChildren(path, glob);
+            }
+
+            final FileListing mountListing = getFileListing(mountXnatHostPath);
+            if (!mountListing.contains(path)) {
+                // The output's path leads out of its mount. Walk what it points to on its own.
+                return FileListing.walk(path).match(path, glob);
+            }
+            return mountListing.match(path, glob);
+        }
+
+        private FileListing getFileListing(final String mountXnatHostPath) throws IOException {
+            synchronized (fileListingsByMount) {
+                FileListing fileListing = fileListingsByMount.get(mountXnatHostPath);
+                if (fileListing == null) {
+                    fileListing = FileListing.walk(Paths.get(mountXnatHostPath));
+                    log.debug(prefix + "Listed files under {}.", fileListing.getRoot());
+                    fileListingsByMount.put(mountXnatHostPath, fileListing);
+                }
+                return fileListing;
+            }
+        }
+
+        /**
+         * One output on its way to being uploaded. Written by the thread that uploads it, and read
+         * after that thread is done.
+         */
+        private class OutputUpload implements OutputUploadStages.Upload {
+            private final ContainerOutput output;
+            private volatile ContainerOutput result;
+            private volatile Exception exception;
+            private volatile long durationMillis = 0L;
+            private volatile boolean done = false;
+
+            private OutputUpload(final ContainerOutput output) {
+                this.output = output;
+                this.result = output;
+            }
+
+            @Override
+            public String name() {
+                return output.name();
+            }
+
+            @Override
+            @Nullable
+            public String dependsOn() {
+                final String handledBy = output.handledByWrapperInput();
+                return toFinalize.getWrapperInputs().containsKey(handledBy) ? null : handledBy;
+            }
+
+            @Override
+            @Nullable
+            public String parentUri() {
+                return getParentUri(output.handledByWrapperInput());
+            }
+
+            @Override
+            public void upload() {
+                final long start = System.currentTimeMillis();
+                try {
+                    succeed(uploadOutput(output), System.currentTimeMillis() - start);
+                } catch (UnauthorizedException | ContainerException | RuntimeException e) {
+                    log.error("Cannot upload files for command output " + output.name(), e);
+                    fail(e, System.currentTimeMillis() - start);
+                }
+            }
+
+            private void succeed(final ContainerOutput uploaded, final long durationMillis) {
+                this.result = uploaded;
+                this.durationMillis = durationMillis;
+                if (uploaded.created() != null) {
+                    createdUrisByOutputName.put(output.name(), uploaded.created());
+                }
+                this.done = true;
+            }
+
+            @Override
+            public void fail(final Exception e) {
+                fail(e, 0L);
+            }
+
+            private void fail(final Exception e, final long durationMillis) {
+                this.exception = e;
+                this.durationMillis = durationMillis;
+                this.done = true;
+            }
+
+            @Override
+            public boolean isDone() {
+                return done;
+            }
         }
     }
 
     private static class OutputsAndExceptions {
         List<ContainerOutput> outputs;
         List<Exception> exceptions;
+        Map<String, Long> uploadMillis;
 
         OutputsAndExceptions(final List<ContainerOutput> outputs,
-                             final List<Exception> exceptions) {
+                             final List<Exception> exceptions,
+                             final Map<String, Long> uploadMillis) {
             this.outputs = outputs;
             this.exceptions = exceptions;
+            this.uploadMillis = uploadMillis;
         }
     }
 }
@@ -0,0 +1,408 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang3.StringUtils;
+import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.exceptions.DockerServerException;
+import org.nrg.containers.exceptions.NoDockerServerException;
+import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.model.container.auto.ContainerLogParameters;
+import org.nrg.containers.model.container.entity.ContainerEntity;
+import org.nrg.containers.services.ContainerEntityService;
+import org.nrg.containers.services.ContainerService;
+import org.nrg.xdat.preferences.SiteConfigPreferences;
+import org.nrg.xft.schema.XFTManager;
+import org.nrg.xft.utils.FileUtils;
+import org.nrg.xnat.restlet.util.XNATRestConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies the logs of running containers and services into their CONTAINER_EXEC/timestamp/LOGS directory
+ * while they run, a bounded chunk at a time, so finalization only has to copy whatever is left.
+ *
+ * We read the logs from docker with timestamps and remember the last one we wrote. The next read starts
+ * from that second, and lines we have already written are dropped. After each chunk, the log directory and
+ * the last timestamps are saved to CONTAINER_EXEC/.shipping/(container id).properties, so if XNAT restarts
+ * while a container is running we carry on in the same directory from where we left off. A chunk that was
+ * written but not yet recorded when XNAT stopped is copied again.
+ */
+@Component
+public class ContainerLogShipper implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(ContainerLogShipper.class);
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String STATE_DIRECTORY_NAME = ".shipping";
+    private static final String DIRECTORY_PROPERTY = "directory";
+
+    private final ContainerControlApi containerControlApi;
+    private final ContainerEntityService containerEntityService;
+    private final SiteConfigPreferences siteConfigPreferences;
+    private final long chunkBytes;
+
+    private final ConcurrentMap<Long, ShippedLogs> shippedLogsByContainerId = new ConcurrentHashMap<>();
+    private final AtomicBoolean inProgress = new AtomicBoolean(false);
+
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong bytesShipped = new AtomicLong();
+
+    @Autowired
+    public ContainerLogShipper(final ContainerControlApi containerControlApi,
+                               final ContainerEntityService containerEntityService,
+                               final SiteConfigPreferences siteConfigPreferences,
+                               final @Value("${containers.logShipper.chunkMegabytes:16}") long chunkMegabytes) {
+        this.containerControlApi = containerControlApi;
+        this.containerEntityService = containerEntityService;
+        this.siteConfigPreferences = siteConfigPreferences;
+        this.chunkBytes = Math.max(chunkMegabytes, 1L) * 1024L * 1024L;
+    }
+
+    @Override
+    public void run() {
+        if (!XFTManager.isInitialized()) {
+            return;
+        }
+        ship();
+    }
+
+    /**
+     * Copy the next chunk of the logs of every container that has not been finalized.
+     */
+    void ship() {
+        // If the last run is still copying, skip this one
+        if (!inProgress.compareAndSet(false, true)) {
+            log.debug("Previous log shipping run is still in progress. Skipping this one.");
+            return;
+        }
+
+        try {
+            final Set<Long> running = Sets.newHashSet();
+            for (final ContainerEntity containerEntity : containerEntityService.retrieveNonfinalized()) {
+                running.add(containerEntity.getId());
+
+                // One container we can't ship doesn't stop us shipping the rest
+                try {
+                    final Container container = Container.create(containerEntity);
+                    final ShippedLogs shippedLogs = getOrCreateShippedLogs(container);
+                    if (shippedLogs != null) {
+                        shippedLogs.ship(container, chunkBytes);
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Could not ship logs for container {}.", containerEntity.getId(), e);
+                }
+            }
+
+            // Forget containers that have been finalized since the last run.
+            // One that stopped but has not been finalized yet still needs what we remember about it.
+            for (final Map.Entry<Long, ShippedLogs> entry : shippedLogsByContainerId.entrySet()) {
+                if (!running.contains(entry.getKey()) && entry.getValue().isFinished()) {
+                    shippedLogsByContainerId.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not ship container logs.", e);
+        } finally {
+            runCount.incrementAndGet();
+            inProgress.set(false);
+        }
+    }
+
+    /**
+     * Copy whatever is left of the container's logs, and stop copying them.
+     * If the container's logs were already finished, nothing is copied.
+     *
+     * @return The paths of the saved logs. Empty logs are not saved.
+     */
+    @Nonnull
+    public List<String> finish(final Container container) {
+        final ShippedLogs shippedLogs = getOrCreateShippedLogs(container);
+        if (shippedLogs == null) {
+            return Lists.newArrayList();
+        }
+        return shippedLogs.finish(container);
+    }
+
+    public long getRunCount() {
+        return runCount.get();
+    }
+
+    public long getBytesShipped() {
+        return bytesShipped.get();
+    }
+
+    @Nullable
+    private ShippedLogs getOrCreateShippedLogs(final Container container) {
+        final ShippedLogs existing = shippedLogsByContainerId.get(container.databaseId());
+        if (existing != null) {
+            return existing;
+        }
+
+        final String archivePath = siteConfigPreferences.getArchivePath();
+        if (StringUtils.isBlank(archivePath)) {
+            return null;
+        }
+
+        final ShippedLogs created = new ShippedLogs(container, archivePath);
+        final ShippedLogs raced = shippedLogsByContainerId.putIfAbsent(container.databaseId(), created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * Seconds since the epoch of a docker timestamp like 2018-03-05T19:31:56.123456789Z.
+     */
+    @Nullable
+    static Integer toEpochSeconds(final @Nullable String dockerTimestamp) {
+        if (dockerTimestamp == null || dockerTimestamp.length() < 19) {
+            return null;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return (int) (format.parse(dockerTimestamp.substring(0, 19)).getTime() / 1000L);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Where one container's logs go, and how far we have copied each of them. Guarded by "this".
+     */
+    private class ShippedLogs {
+        private final String prefix;
+        private final String archivePath;
+        private final File stateFile;
+        private File directory;
+        private final Map<String, String> lastTimestamps = Maps.newHashMap();
+        private boolean finished = false;
+        // Kept so that finishing again, like when finalization is retried, gives the same logs
+        private final List<String> savedLogPaths = Lists.newArrayList();
+
+        private ShippedLogs(final Container container, final String archivePath) {
+            this.prefix = "Container " + container.databaseId() + ": ";
+            this.archivePath = archivePath;
+            this.stateFile = new File(FileUtils.AppendRootPath(archivePath, "CONTAINER_EXEC/" + STATE_DIRECTORY_NAME),
+                    container.databaseId() + ".properties");
+            loadState();
+        }
+
+        private synchronized boolean isFinished() {
+            return finished;
+        }
+
+        private synchronized void ship(final Container container, final long maxBytes) {
+            if (finished) {
+                return;
+            }
+            for (final String logName : ContainerService.LOG_NAMES) {
+                if (!shipLog(container, logName, maxBytes)) {
+                    // Docker can't give us logs for this container (yet). Try again next time.
+                    return;
+                }
+            }
+        }
+
+        private synchronized List<String> finish(final Container container) {
+            if (finished) {
+                return Lists.newArrayList(savedLogPaths);
+            }
+            finished = true;
+
+            log.info(prefix + "Getting logs.");
+            for (final String logName : ContainerService.LOG_NAMES) {
+                shipLog(container, logName, Long.MAX_VALUE);
+            }
+            if (stateFile.isFile() && !stateFile.delete()) {
+                log.warn(prefix + "Could not delete " + stateFile.getAbsolutePath());
+            }
+            // Only goes if no other container is being shipped
+            stateFile.getParentFile().delete();
+            if (directory == null) {
+                return Lists.newArrayList(savedLogPaths);
+            }
+
+            for (final String logName : ContainerService.LOG_NAMES) {
+                final File logFile = new File(directory, logName);
+                if (logFile.length() > 0) {
+                    savedLogPaths.add(logFile.getAbsolutePath());
+                } else {
+                    log.debug(prefix + "{} was blank", logName);
+                    logFile.delete();
+                }
+            }
+            if (savedLogPaths.isEmpty()) {
+                // Nothing to keep. Remove the LOGS directory and the timestamp directory above it.
+                directory.delete();
+                directory.getParentFile().delete();
+            }
+            return Lists.newArrayList(savedLogPaths);
+        }
+
+        /**
+         * @return false if docker could not give us the log
+         */
+        private boolean shipLog(final Container container, final String logName, final long maxBytes) {
+            final String containerOrServiceId = container.isSwarmService() ? container.serviceId() : container.containerId();
+            if (StringUtils.isBlank(containerOrServiceId)) {
+                return false;
+            }
+
+            final String lastTimestamp = lastTimestamps.get(logName);
+            final ContainerLogParameters parameters = ContainerLogParameters.builder()
+                    .since(toEpochSeconds(lastTimestamp))
+                    .timestamps(true)
+                    .internal(true)
+                    .build();
+            final boolean stderr = logName.equals(ContainerService.STDERR_LOG_NAME);
+
+            TimestampedLogOutputStream logOutputStream = null;
+            try {
+                final File logFile = new File(getDirectory(container), logName);
+                logOutputStream = new TimestampedLogOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(logFile, true), WRITE_BUFFER_SIZE),
+                        lastTimestamp, maxBytes);
+                if (container.isSwarmService()) {
+                    containerControlApi.writeServiceLog(containerOrServiceId, stderr, parameters, logOutputStream);
+                } else {
+                    containerControlApi.writeContainerLog(containerOrServiceId, stderr, parameters, logOutputStream);
+                }
+            } catch (TimestampedLogOutputStream.ChunkFullException e) {
+                log.debug(prefix + "Shipped a full chunk of {}. The rest will be shipped next time.", logName);
+            } catch (NoDockerServerException | DockerServerException e) {
+                log.debug(prefix + "Could not get {} from docker. {}", logName, e.getMessage());
+                return false;
+            } catch (IOException e) {
+                log.error(prefix + "Could not write " + logName, e);
+            } finally {
+                if (logOutputStream != null) {
+                    closeQuietly(logOutputStream);
+                    lastTimestamps.put(logName, logOutputStream.lastTimestamp());
+                    bytesShipped.addAndGet(logOutputStream.bytesWritten());
+                    if (!finished) {
+                        saveState();
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Pick up where we left off before a restart, if we were shipping this container's logs.
+         */
+        private void loadState() {
+            if (!stateFile.isFile()) {
+                return;
+            }
+
+            final Properties state = new Properties();
+            try (final InputStream inputStream = new FileInputStream(stateFile)) {
+                state.load(inputStream);
+            } catch (IOException e) {
+                log.error(prefix + "Could not read " + stateFile.getAbsolutePath() + ". Copying logs from the start.", e);
+                return;
+            }
+
+            final String savedDirectory = state.getProperty(DIRECTORY_PROPERTY);
+            if (StringUtils.isBlank(savedDirectory) || !new File(savedDirectory).isDirectory()) {
+                return;
+            }
+            directory = new File(savedDirectory);
+            for (final String logName : ContainerService.LOG_NAMES) {
+                final String lastTimestamp = state.getProperty(logName);
+                if (StringUtils.isNotBlank(lastTimestamp)) {
+                    lastTimestamps.put(logName, lastTimestamp);
+                }
+            }
+            log.info(prefix + "Resuming saving logs to " + directory.getAbsolutePath());
+        }
+
+        private void saveState() {
+            if (directory == null) {
+                return;
+            }
+
+            final Properties state = new Properties();
+            state.setProperty(DIRECTORY_PROPERTY, directory.getAbsolutePath());
+            for (final Map.Entry<String, String> lastTimestamp : lastTimestamps.entrySet()) {
+                if (lastTimestamp.getValue() != null) {
+                    state.setProperty(lastTimestamp.getKey(), lastTimestamp.getValue());
+                }
+            }
+
+            // Write a new file and move it into place, so a restart never reads half of one
+            final File stateDirectory = stateFile.getParentFile();
+            final File tempFile = new File(stateDirectory, stateFile.getName() + ".tmp");
+            try {
+                if (!stateDirectory.mkdirs() && !stateDirectory.isDirectory()) {
+                    throw new IOException("Could not create " + stateDirectory.getAbsolutePath());
+                }
+                try (final OutputStream outputStream = new FileOutputStream(tempFile)) {
+                    state.store(outputStream, null);
+                }
+                Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                log.error(prefix + "Could not save how far we have copied the logs. A restart will copy them again.", e);
+            }
+        }
+
+        private File getDirectory(final Container container) throws IOException {
+            if (directory != null) {
+                return directory;
+            }
+
+            final SimpleDateFormat formatter = new SimpleDateFormat(XNATRestConstants.PREARCHIVE_TIMESTAMP);
+            final String datestamp = formatter.format(new Date());
+            final File containerExecDirectory = new File(FileUtils.AppendRootPath(archivePath, "CONTAINER_EXEC/"));
+            containerExecDirectory.mkdirs();
+
+            // Many containers can start shipping in the same instant. Each one needs a directory of its own.
+            File timestampDirectory = new File(containerExecDirectory, datestamp);
+            if (!timestampDirectory.mkdir()) {
+                timestampDirectory = new File(containerExecDirectory, datestamp + "_" + container.databaseId());
+            }
+            final File logsDirectory = new File(timestampDirectory, "LOGS");
+            if (!logsDirectory.mkdirs() && !logsDirectory.isDirectory()) {
+                throw new IOException("Could not create " + logsDirectory.getAbsolutePath());
+            }
+
+            log.info(prefix + "Saving logs to " + logsDirectory.getAbsolutePath());
+            directory = logsDirectory;
+            return directory;
+        }
+
+        private void closeQuietly(final TimestampedLogOutputStream logOutputStream) {
+            try {
+                logOutputStream.close();
+            } catch (IOException e) {
+                log.error(prefix + "Could not close log file.", e);
+            }
+        }
+    }
+}
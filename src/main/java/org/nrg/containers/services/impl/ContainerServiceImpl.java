@@ -19,6 +19,7 @@ import org.nrg.containers.model.command.auto.ResolvedInputTreeNode;
 import org.nrg.containers.model.command.auto.ResolvedInputValue;
 import org.nrg.containers.model.container.auto.Container;
 import org.nrg.containers.model.container.auto.Container.ContainerHistory;
+import org.nrg.containers.model.container.auto.ContainerLogParameters;
 import org.nrg.containers.model.container.auto.ServiceTask;
 import org.nrg.containers.model.container.entity.ContainerEntity;
 import org.nrg.containers.model.container.entity.ContainerEntityHistory;
@@ -28,6 +29,7 @@ import org.nrg.containers.services.CommandResolutionService;
 import org.nrg.containers.services.ContainerEntityService;
 import org.nrg.containers.services.ContainerFinalizeService;
 import org.nrg.containers.services.ContainerService;
+import org.nrg.containers.utils.LogFiles;
 import org.nrg.framework.exceptions.NotFoundException;
 import org.nrg.xdat.entities.AliasToken;
 import org.nrg.xdat.preferences.SiteConfigPreferences;
@@ -48,9 +50,12 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -78,6 +83,7 @@ public class ContainerServiceImpl implements ContainerService {
     private final AliasTokenService aliasTokenService;
     private final SiteConfigPreferences siteConfigPreferences;
     private final ContainerFinalizeService containerFinalizeService;
+    private final ContainerFinalizationQueue containerFinalizationQueue;
 
     @Autowired
     public ContainerServiceImpl(final ContainerControlApi containerControlApi,
@@ -85,13 +91,15 @@ public class ContainerServiceImpl implements ContainerService {
                                 final CommandResolutionService commandResolutionService,
                                 final AliasTokenService aliasTokenService,
                                 final SiteConfigPreferences siteConfigPreferences,
-                                final ContainerFinalizeService containerFinalizeService) {
+                                final ContainerFinalizeService containerFinalizeService,
+                                final ContainerFinalizationQueue containerFinalizationQueue) {
         this.containerControlApi = containerControlApi;
         this.containerEntityService = containerEntityService;
         this.commandResolutionService = commandResolutionService;
         this.aliasTokenService = aliasTokenService;
         this.siteConfigPreferences = siteConfigPreferences;
         this.containerFinalizeService = containerFinalizeService;
+        this.containerFinalizationQueue = containerFinalizationQueue;
     }
 
     @Override
@@ -355,13 +363,11 @@ public class ContainerServiceImpl implements ContainerService {
 
                 final Container containerWithAddedEvent = addContainerEventToHistory(event, userI);
                 if (event.isExitStatus()) {
-                    log.debug("Container is dead. Finalizing.");
-                    finalize(containerWithAddedEvent, userI, event.exitCode());
+                    log.debug("Container is dead. Queueing finalization.");
+                    queueFinalization(containerWithAddedEvent, userI, event.exitCode());
                 }
             } catch (UserInitException | UserNotFoundException e) {
                 log.error("Could not update container status. Could not get user details for user " + userLogin, e);
-            } catch (ContainerException | NoDockerServerException | DockerServerException e) {
-                log.error("Container finalization failed.", e);
             }
         } else {
             log.debug("Nothing to do. Container was null after retrieving by id {}.", event.containerId());
@@ -403,16 +409,14 @@ public class ContainerServiceImpl implements ContainerService {
                     log.debug("Skipping task status we have already seen.");
                 } else {
                     if (task.exitCode() != null || task.isExitStatus()) {
-                        log.debug("Service has exited. Finalizing.");
+                        log.debug("Service has exited. Queueing finalization.");
                         final String exitCodeString = task.exitCode() == null ? null : String.valueOf(task.exitCode());
                         final Container serviceWithAddedEvent = retrieve(service.databaseId());
-                        finalize(serviceWithAddedEvent, userI, exitCodeString);
+                        queueFinalization(serviceWithAddedEvent, userI, exitCodeString);
                     }
                 }
             } catch (UserInitException | UserNotFoundException e) {
                 log.error("Could not update container status. Could not get user details for user " + userLogin, e);
-            } catch (ContainerException | NoDockerServerException | DockerServerException e) {
-                log.error("Container finalization failed.", e);
             }
         }
 
@@ -433,6 +437,35 @@ public class ContainerServiceImpl implements ContainerService {
 
     @Override
     public void finalize(final Container notFinalized, final UserI userI, final String exitCode) throws ContainerException, NoDockerServerException, DockerServerException {
+        final boolean finalized = containerFinalizationQueue.runNow(notFinalized.databaseId(), new ContainerFinalizationQueue.Finalization() {
+            @Override
+            public void run() throws ContainerException, NoDockerServerException, DockerServerException {
+                doFinalize(notFinalized, userI, exitCode);
+            }
+        });
+        if (!finalized) {
+            throw new ContainerFinalizationException(notFinalized,
+                    String.format("Container %d is already being finalized.", notFinalized.databaseId()));
+        }
+    }
+
+    /**
+     * Finalize the container on one of the finalization threads, so the caller does not wait for its outputs to upload.
+     * If the container is already being finalized, do nothing.
+     */
+    private void queueFinalization(final @Nullable Container notFinalized, final UserI userI, final String exitCode) {
+        if (notFinalized == null) {
+            return;
+        }
+        containerFinalizationQueue.submit(notFinalized.databaseId(), new ContainerFinalizationQueue.Finalization() {
+            @Override
+            public void run() throws ContainerException, NoDockerServerException, DockerServerException {
+                doFinalize(notFinalized, userI, exitCode);
+            }
+        });
+    }
+
+    private void doFinalize(final Container notFinalized, final UserI userI, final String exitCode) throws ContainerException, NoDockerServerException, DockerServerException {
         final long databaseId = notFinalized.databaseId();
         log.debug("Beginning finalization for container {}.", databaseId);
 
@@ -473,6 +506,7 @@ public class ContainerServiceImpl implements ContainerService {
         log.debug("Done uploading for Container {}. Now saving information about created outputs.", databaseId);
 
         containerEntityService.update(fromPojo(finalized));
+        containerFinalizationQueue.markFinalized(databaseId);
 
         // Now check if this container *is* a setup or wrapup container.
         // If so, we need to re-check the parent.
@@ -531,12 +565,8 @@ public class ContainerServiceImpl implements ContainerService {
                         // If none of the wrapup containers have failed and none of the exit codes are null,
                         // that means all the wrapup containers have succeeded.
                         // We should finalize the parent container.
-                        log.info("All wrapup containers for parent Container {} are finished and not failed. Finalizing container id {}.", parentDatabaseId, parentContainerId);
-                        try {
-                            ContainerServiceImpl.this.finalize(parent, userI);
-                        } catch (NoDockerServerException | DockerServerException | ContainerException e) {
-                            log.error("Failed to finalize parent Container {} with container id {}.", parentDatabaseId, parentContainerId);
-                        }
+                        log.info("All wrapup containers for parent Container {} are finished and not failed. Queueing finalization for container id {}.", parentDatabaseId, parentContainerId);
+                        queueFinalization(parent, userI, parent.exitCode());
                     }
                 };
 
@@ -705,6 +735,59 @@ public class ContainerServiceImpl implements ContainerService {
         return null;
     }
 
+    @Override
+    public void writeLog(final String containerId,
+                         final String logFileName,
+                         final ContainerLogParameters parameters,
+                         final OutputStream outputStream)
+            throws NotFoundException, NoDockerServerException, DockerServerException, IOException {
+        final Container container = get(containerId);
+
+        final File savedLog = getSavedLogFile(container, logFileName);
+        if (savedLog != null) {
+            final long start = parameters.tail() == null ? 0L : LogFiles.tailOffset(savedLog, parameters.tail());
+            LogFiles.copy(savedLog, start, savedLog.length() - start, outputStream);
+            return;
+        }
+
+        // We have not yet saved the logs from docker. Stream them from there.
+        final boolean stderr;
+        if (ContainerService.STDOUT_LOG_NAME.contains(logFileName)) {
+            stderr = false;
+        } else if (ContainerService.STDERR_LOG_NAME.contains(logFileName)) {
+            stderr = true;
+        } else {
+            throw new NotFoundException(String.format("Container %s has no log %s.", containerId, logFileName));
+        }
+
+        if (container.isSwarmService()) {
+            containerControlApi.writeServiceLog(container.serviceId(), stderr, parameters, outputStream);
+        } else {
+            containerControlApi.writeContainerLog(container.containerId(), stderr, parameters, outputStream);
+        }
+    }
+
+    @Override
+    @Nullable
+    public File getSavedLogFile(final String containerId, final String logFileName) throws NotFoundException {
+        return getSavedLogFile(get(containerId), logFileName);
+    }
+
+    @Nullable
+    private File getSavedLogFile(final Container container, final String logFileName) throws NotFoundException {
+        final String logPath = container.getLogPath(logFileName);
+        if (StringUtils.isBlank(logPath)) {
+            return null;
+        }
+
+        final File logFile = new File(logPath);
+        if (!logFile.isFile()) {
+            log.error("Container {} log file {} not found. Path: {}", container.databaseId(), logFileName, logPath);
+            throw new NotFoundException(String.format("Container %s log file %s not found.", container.databaseId(), logFileName));
+        }
+        return logFile;
+    }
+
     private void handleFailure(final Container container) {
         // TODO handle failure
     }
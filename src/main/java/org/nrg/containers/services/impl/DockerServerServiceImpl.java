@@ -2,6 +2,7 @@ package org.nrg.containers.services.impl;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
+import org.nrg.containers.api.DockerClientCache;
 import org.nrg.containers.model.server.docker.DockerServerBase.DockerServer;
 import org.nrg.containers.model.server.docker.DockerServerEntity;
 import org.nrg.containers.services.DockerServerEntityService;
@@ -17,10 +18,13 @@ import java.util.List;
 @Service
 public class DockerServerServiceImpl implements DockerServerService {
     private final DockerServerEntityService dockerServerEntityService;
+    private final DockerClientCache dockerClientCache;
 
     @Autowired
-    public DockerServerServiceImpl(final DockerServerEntityService dockerServerEntityService) {
+    public DockerServerServiceImpl(final DockerServerEntityService dockerServerEntityService,
+                                   final DockerClientCache dockerClientCache) {
         this.dockerServerEntityService = dockerServerEntityService;
+        this.dockerClientCache = dockerClientCache;
     }
 
     @Override
@@ -47,7 +51,11 @@ public class DockerServerServiceImpl implements DockerServerService {
 
     @Override
     public DockerServer setServer(final DockerServer dockerServer) {
-        return toPojo(dockerServerEntityService.create(fromPojo(dockerServer)));
+        final DockerServer created = toPojo(dockerServerEntityService.create(fromPojo(dockerServer)));
+
+        // Clients built for the old server may point at the wrong host or certs
+        dockerClientCache.invalidate();
+        return created;
     }
 
     @Override
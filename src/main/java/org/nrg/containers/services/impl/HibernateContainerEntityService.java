@@ -81,6 +81,12 @@ public class HibernateContainerEntityService
         return getDao().retrieveNonfinalizedServices();
     }
 
+    @Override
+    @Nonnull
+    public List<ContainerEntity> retrieveNonfinalized() {
+        return getDao().retrieveNonfinalized();
+    }
+
     @Override
     @Nonnull
     public List<ContainerEntity> retrieveSetupContainersForParent(final long parentId) {
@@ -0,0 +1,40 @@
+package org.nrg.containers.services.impl;
+
+import org.nrg.containers.daos.QueuedCommandLaunchDao;
+import org.nrg.containers.model.QueuedCommandLaunch;
+import org.nrg.containers.services.QueuedCommandLaunchService;
+import org.nrg.framework.orm.hibernate.AbstractHibernateEntityService;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+@Service
+@Transactional
+public class HibernateQueuedCommandLaunchService extends AbstractHibernateEntityService<QueuedCommandLaunch, QueuedCommandLaunchDao>
+        implements QueuedCommandLaunchService {
+
+    @Override
+    public List<QueuedCommandLaunch> findByStatus(final String status) {
+        return getDao().findByStatus(status);
+    }
+
+    @Override
+    public void setStatus(final QueuedCommandLaunch queuedCommandLaunch, final String status, final String message) {
+        queuedCommandLaunch.setStatus(status);
+        queuedCommandLaunch.setMessage(message);
+        queuedCommandLaunch.setStatusTime(new Date());
+        update(queuedCommandLaunch);
+    }
+
+    @Override
+    public int deleteByStatusBefore(final String status, final Date before) {
+        // Delete one at a time rather than in bulk, so hibernate also removes the input values
+        final List<QueuedCommandLaunch> toDelete = getDao().findByStatusBefore(status, before);
+        for (final QueuedCommandLaunch queuedCommandLaunch : toDelete) {
+            delete(queuedCommandLaunch);
+        }
+        return toDelete.size();
+    }
+}
@@ -0,0 +1,71 @@
+package org.nrg.containers.services.impl;
+
+import org.nrg.containers.api.DockerClientCache;
+import org.nrg.containers.events.DockerStatusUpdater;
+import org.nrg.containers.model.xnat.CatalogFileCache;
+import org.nrg.containers.services.CommandLaunchQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs a summary of what our background workers have been doing, one line for each, on a schedule.
+ * Set containers.metrics.logIntervalSeconds to change how often.
+ */
+@Component
+public class MetricsSummaryLogger implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(MetricsSummaryLogger.class);
+
+    private final DockerStatusUpdater dockerStatusUpdater;
+    private final CommandLaunchQueue commandLaunchQueue;
+    private final ContainerFinalizationQueue containerFinalizationQueue;
+    private final CatalogFileCache catalogFileCache;
+    private final DockerClientCache dockerClientCache;
+
+    @Autowired
+    public MetricsSummaryLogger(final DockerStatusUpdater dockerStatusUpdater,
+                                final CommandLaunchQueue commandLaunchQueue,
+                                final ContainerFinalizationQueue containerFinalizationQueue,
+                                final CatalogFileCache catalogFileCache,
+                                final DockerClientCache dockerClientCache) {
+        this.dockerStatusUpdater = dockerStatusUpdater;
+        this.commandLaunchQueue = commandLaunchQueue;
+        this.containerFinalizationQueue = containerFinalizationQueue;
+        this.catalogFileCache = catalogFileCache;
+        this.dockerClientCache = dockerClientCache;
+    }
+
+    @Override
+    public void run() {
+        log.info("Status updater: {} runs, {} skipped while a run was in progress, {} service checks timed out. " +
+                        "Last run took {} ms and checked {} services.",
+                dockerStatusUpdater.getRunCount(), dockerStatusUpdater.getSkippedRunCount(), dockerStatusUpdater.getTimeoutCount(),
+                dockerStatusUpdater.getLastRunDurationMillis(), dockerStatusUpdater.getLastRunServicesChecked());
+        log.info("Launch queue: {} waiting to resolve, {} waiting to launch. {} launched, {} failed. " +
+                        "Average ms queued {}, resolving {}, launching {}.",
+                commandLaunchQueue.getResolveQueueDepth(), commandLaunchQueue.getLaunchQueueDepth(),
+                commandLaunchQueue.getLaunchedCount(), commandLaunchQueue.getFailedCount(),
+                millis(commandLaunchQueue.getAverageQueueWaitMillis()), millis(commandLaunchQueue.getAverageResolveMillis()),
+                millis(commandLaunchQueue.getAverageLaunchMillis()));
+        log.info("Finalization queue: {} waiting, {} running. {} finalized, {} failed, {} retried, {} dropped as duplicates. " +
+                        "Attempts took {} ms on average, {} ms at most, {} ms last.",
+                containerFinalizationQueue.getQueueDepth(), containerFinalizationQueue.getRunningCount(),
+                containerFinalizationQueue.getCompletedCount(), containerFinalizationQueue.getFailedCount(),
+                containerFinalizationQueue.getRetryCount(), containerFinalizationQueue.getDroppedCount(),
+                containerFinalizationQueue.getMeanDurationMillis(), containerFinalizationQueue.getMaxDurationMillis(),
+                containerFinalizationQueue.getLastDurationMillis());
+        log.info("Catalog cache: {} hits, {} misses, {} evictions. Holding {} catalogs in about {} bytes.",
+                catalogFileCache.getHitCount(), catalogFileCache.getMissCount(), catalogFileCache.getEvictionCount(),
+                catalogFileCache.getCatalogCount(), catalogFileCache.getSizeBytes());
+        log.info("Docker clients: {} leases on a cached client, {} built a new one. Waited {} ms for a connection on average, " +
+                        "{} ms at most, with {} connections per client. {} invalidated clients still have leases out.",
+                dockerClientCache.getHitCount(), dockerClientCache.getMissCount(),
+                millis(dockerClientCache.getAverageLeaseWaitMillis()), dockerClientCache.getMaxLeaseWaitMillis(),
+                dockerClientCache.getConnectionPoolSize(), dockerClientCache.getRetiredClientCount());
+    }
+
+    private static String millis(final double millis) {
+        return String.format("%.1f", millis);
+    }
+}
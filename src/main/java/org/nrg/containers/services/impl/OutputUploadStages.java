@@ -0,0 +1,163 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.nrg.containers.exceptions.ContainerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Uploads one container's outputs, in parallel where that is safe.
+ *
+ * An output that is uploaded to the object created by another output waits until that output is uploaded.
+ * Outputs that go to the same parent object are uploaded one at a time, in order, so they don't make
+ * conflicting changes to it. So several resources on one session are still uploaded one after another;
+ * only outputs going to different objects are uploaded at the same time.
+ */
+class OutputUploadStages {
+    private static final Logger log = LoggerFactory.getLogger(OutputUploadStages.class);
+
+    /**
+     * One output to upload. It records its own result.
+     */
+    interface Upload {
+        String name();
+
+        /**
+         * @return The name of the output whose created object this output is uploaded to,
+         *         or null if it is uploaded to a wrapper input
+         */
+        @Nullable
+        String dependsOn();
+
+        /**
+         * @return The URI of the object this output is uploaded to, or null if it is not known.
+         *         Only asked for once the output it depends on, if any, is uploaded.
+         */
+        @Nullable
+        String parentUri();
+
+        void upload();
+        void fail(Exception e);
+        boolean isDone();
+    }
+
+    private final ExecutorService executor;
+    private final String prefix;
+
+    OutputUploadStages(final ExecutorService executor, final String prefix) {
+        this.executor = executor;
+        this.prefix = prefix;
+    }
+
+    void uploadAll(final List<? extends Upload> uploads) {
+        for (final List<Upload> stage : orderByDependencies(uploads)) {
+            uploadStage(stage);
+        }
+    }
+
+    /**
+     * Split the uploads into stages. Each output is in a later stage than the output it depends on, if any.
+     * An output that depends on itself, directly or not, fails without being uploaded.
+     */
+    List<List<Upload>> orderByDependencies(final List<? extends Upload> uploads) {
+        final Map<String, Upload> uploadsByName = Maps.newHashMap();
+        for (final Upload upload : uploads) {
+            uploadsByName.put(upload.name(), upload);
+        }
+
+        final List<List<Upload>> stages = Lists.newArrayList();
+        final List<Upload> staged = Lists.newArrayList();
+        List<Upload> remaining = Lists.<Upload>newArrayList(uploads);
+        while (!remaining.isEmpty()) {
+            final List<Upload> stage = Lists.newArrayList();
+            final List<Upload> notReady = Lists.newArrayList();
+            for (final Upload upload : remaining) {
+                final Upload dependency = upload.dependsOn() == null ? null : uploadsByName.get(upload.dependsOn());
+                if (dependency == null || staged.contains(dependency)) {
+                    stage.add(upload);
+                } else {
+                    notReady.add(upload);
+                }
+            }
+
+            if (stage.isEmpty()) {
+                for (final Upload upload : notReady) {
+                    upload.fail(new ContainerException(String.format(prefix + "Cannot upload output \"%s\". It depends on itself through output \"%s\".",
+                            upload.name(), upload.dependsOn())));
+                }
+                break;
+            }
+            stages.add(stage);
+            staged.addAll(stage);
+            remaining = notReady;
+        }
+        return stages;
+    }
+
+    void uploadStage(final List<Upload> stage) {
+        // Outputs with the same parent are uploaded in order, on one thread
+        final Map<String, List<Upload>> uploadsByParent = Maps.newLinkedHashMap();
+        for (final Upload upload : stage) {
+            final String parentUri = upload.parentUri();
+            final String key = parentUri == null ? "output:" + upload.name() : parentUri;
+            if (!uploadsByParent.containsKey(key)) {
+                uploadsByParent.put(key, Lists.<Upload>newArrayList());
+            }
+            uploadsByParent.get(key).add(upload);
+        }
+
+        if (uploadsByParent.size() == 1) {
+            uploadInOrder(stage);
+            return;
+        }
+
+        final List<Future<?>> futures = Lists.newArrayList();
+        for (final List<Upload> sameParent : uploadsByParent.values()) {
+            try {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        uploadInOrder(sameParent);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                log.error(prefix + "Output uploads are shut down.");
+                break;
+            }
+        }
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (final Future<?> toCancel : futures) {
+                    toCancel.cancel(true);
+                }
+                break;
+            } catch (ExecutionException e) {
+                log.error(prefix + "Output upload failed.", e.getCause());
+            }
+        }
+
+        for (final Upload upload : stage) {
+            if (!upload.isDone()) {
+                upload.fail(new ContainerException(String.format(prefix + "Upload of output \"%s\" was interrupted.", upload.name())));
+            }
+        }
+    }
+
+    private void uploadInOrder(final List<Upload> uploads) {
+        for (final Upload upload : uploads) {
+            upload.upload();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Maps;
+import org.nrg.containers.model.command.auto.Command.ConfiguredCommand;
+import org.nrg.containers.model.command.auto.ResolvedCommand.PartiallyResolvedCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recent pre-resolution results for the launch UI. The UI pre-resolves a command when the launch dialog opens,
+ * and again every time the user changes an input, usually with the same values it sent a moment ago.
+ *
+ * Results are keyed by wrapper, project, user, the configured command, and the input values. The configured command
+ * stands in for the command and configuration version: if either one changes, so does the configured command, and
+ * the old results are no longer found. We also throw results away when a command or configuration is changed here.
+ *
+ * Resolution reads XNAT objects and permissions, which can change without our knowing, so results only last
+ * for a short while. A TTL of 0 turns the cache off.
+ *
+ * For each wrapper, project, user, and configured command we also remember the latest result, so that
+ * when an input changes, we can re-resolve only the inputs under it.
+ */
+@Component
+public class PreResolutionCache {
+    private static final Logger log = LoggerFactory.getLogger(PreResolutionCache.class);
+
+    private final long ttlMillis;
+    private final int maxSize;
+
+    // Guarded by this
+    private final Map<Key, CachedResult> results;
+    private final Map<Context, Key> latestKeys = Maps.newHashMap();
+
+    // Bumped by every invalidation, so a resolution that started before one is not cached after it
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public PreResolutionCache(final @Value("${containers.launchUi.cacheSeconds:30}") long ttlSeconds,
+                              final @Value("${containers.launchUi.cacheSize:500}") int maxSize) {
+        this(TimeUnit.SECONDS.toMillis(Math.max(0L, ttlSeconds)), maxSize, TimeUnit.MILLISECONDS);
+    }
+
+    PreResolutionCache(final long ttl, final int maxSize, final TimeUnit unit) {
+        this.ttlMillis = unit.toMillis(Math.max(0L, ttl));
+        this.maxSize = Math.max(1, maxSize);
+        this.results = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, CachedResult> eldest) {
+                if (size() > PreResolutionCache.this.maxSize) {
+                    if (eldest.getKey().equals(latestKeys.get(eldest.getKey().context))) {
+                        latestKeys.remove(eldest.getKey().context);
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0L;
+    }
+
+    /**
+     * Call this before resolving, and pass it to {@link #put(Context, Map, PartiallyResolvedCommand, long)} after.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @return The result of pre-resolving with these input values, if we did so recently
+     */
+    @Nullable
+    public synchronized PartiallyResolvedCommand get(final @Nonnull Context context,
+                                                     final @Nullable Map<String, String> inputValues) {
+        if (!isEnabled()) {
+            return null;
+        }
+        final Key key = new Key(context, normalize(inputValues));
+        final CachedResult cached = results.get(key);
+        if (cached == null || isExpired(cached)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.result;
+    }
+
+    /**
+     * @return The latest result for this wrapper, project, user, and configured command, whatever its input values
+     */
+    @Nullable
+    public synchronized PartiallyResolvedCommand getLatest(final @Nonnull Context context) {
+        if (!isEnabled()) {
+            return null;
+        }
+        final Key key = latestKeys.get(context);
+        final CachedResult cached = key == null ? null : results.get(key);
+        return cached == null || isExpired(cached) ? null : cached.result;
+    }
+
+    /**
+     * Cache a result, unless the cache was invalidated since the given generation.
+     */
+    public synchronized void put(final @Nonnull Context context,
+                                 final @Nullable Map<String, String> inputValues,
+                                 final @Nonnull PartiallyResolvedCommand result,
+                                 final long resolvedInGeneration) {
+        if (!isEnabled() || resolvedInGeneration != generation.get()) {
+            return;
+        }
+        final Key key = new Key(context, normalize(inputValues));
+        results.put(key, new CachedResult(result));
+        latestKeys.put(context, key);
+    }
+
+    /**
+     * Throw away the results for a wrapper, after its configuration changes.
+     */
+    public synchronized void invalidate(final long wrapperId) {
+        generation.incrementAndGet();
+        for (final Iterator<Key> keys = results.keySet().iterator(); keys.hasNext(); ) {
+            if (keys.next().context.wrapperId == wrapperId) {
+                keys.remove();
+            }
+        }
+        for (final Iterator<Context> contexts = latestKeys.keySet().iterator(); contexts.hasNext(); ) {
+            if (contexts.next().wrapperId == wrapperId) {
+                contexts.remove();
+            }
+        }
+        log.debug("Dropped cached pre-resolution results for wrapper {}.", wrapperId);
+    }
+
+    /**
+     * Throw away all the results, after a command or wrapper changes.
+     */
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        results.clear();
+        latestKeys.clear();
+        log.debug("Dropped all cached pre-resolution results.");
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private boolean isExpired(final CachedResult cached) {
+        return System.currentTimeMillis() - cached.cachedAt >= ttlMillis;
+    }
+
+    /**
+     * Input values in a fixed order, without the null ones. Resolution treats a null value the same as a missing one.
+     */
+    private static SortedMap<String, String> normalize(final @Nullable Map<String, String> inputValues) {
+        final SortedMap<String, String> normalized = Maps.newTreeMap();
+        if (inputValues != null) {
+            for (final Map.Entry<String, String> inputValue : inputValues.entrySet()) {
+                if (inputValue.getKey() != null && inputValue.getValue() != null) {
+                    normalized.put(inputValue.getKey(), inputValue.getValue());
+                }
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Everything a result depends on except the input values.
+     */
+    public static final class Context {
+        private final long wrapperId;
+        @Nullable private final String project;
+        @Nullable private final String username;
+        private final Object configuration;
+        private final int hash;
+
+        Context(final long wrapperId,
+                final @Nullable String project,
+                final @Nullable String username,
+                final @Nonnull Object configuration) {
+            this.wrapperId = wrapperId;
+            this.project = project;
+            this.username = username;
+            this.configuration = configuration;
+            // The configured command is big, so only hash it once
+            this.hash = Objects.hash(wrapperId, project, username, configuration);
+        }
+
+        public static Context create(final @Nullable String project,
+                                     final @Nonnull ConfiguredCommand configuredCommand,
+                                     final @Nullable String username) {
+            return new Context(configuredCommand.wrapper().id(), project, username, configuredCommand);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Context that = (Context) o;
+            return this.hash == that.hash &&
+                    this.wrapperId == that.wrapperId &&
+                    Objects.equals(this.project, that.project) &&
+                    Objects.equals(this.username, that.username) &&
+                    Objects.equals(this.configuration, that.configuration);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Key {
+        private final Context context;
+        private final SortedMap<String, String> inputValues;
+
+        private Key(final Context context, final SortedMap<String, String> inputValues) {
+            this.context = context;
+            this.inputValues = inputValues;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key that = (Key) o;
+            return Objects.equals(this.context, that.context) &&
+                    Objects.equals(this.inputValues, that.inputValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, inputValues);
+        }
+    }
+
+    private static final class CachedResult {
+        private final PartiallyResolvedCommand result;
+        private final long cachedAt = System.currentTimeMillis();
+
+        private CachedResult(final PartiallyResolvedCommand result) {
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.nrg.containers.services.impl;
+
+import javax.annotation.Nullable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a docker log that was read with timestamps, without the timestamps, and remembers the
+ * timestamp of the last line it wrote. Lines at or before a given timestamp are dropped, so a log
+ * can be read again from the last second we saw without writing any line twice.
+ *
+ * Docker timestamps are fixed-width RFC 3339 in UTC, so we can compare them as strings.
+ */
+class TimestampedLogOutputStream extends FilterOutputStream {
+    private static final int MAX_TIMESTAMP_LENGTH = 64;
+
+    private final long maxBytes;
+    private final byte[] timestamp = new byte[MAX_TIMESTAMP_LENGTH];
+    private int timestampLength = 0;
+    private boolean atLineStart = true;
+    private boolean droppingLine = false;
+    private String lastTimestamp;
+    private long bytesWritten = 0L;
+
+    /**
+     * @param out Where to write the log lines
+     * @param after Drop lines with this timestamp or earlier. If null, write every line.
+     * @param maxBytes When we have written this many bytes, stop at the end of the line
+     *                 by throwing {@link ChunkFullException}.
+     */
+    TimestampedLogOutputStream(final OutputStream out, final @Nullable String after, final long maxBytes) {
+        super(out);
+        this.lastTimestamp = after;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The timestamp of the last line we started writing, or the starting timestamp if we have written nothing
+     */
+    @Nullable
+    String lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    long bytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (atLineStart) {
+            if (b == ' ' && looksLikeTimestamp()) {
+                startLine();
+                return;
+            }
+            if (b != ' ' && b != '\n' && timestampLength < MAX_TIMESTAMP_LENGTH) {
+                timestamp[timestampLength++] = (byte) b;
+                return;
+            }
+
+            // This line has no timestamp. Write what we took for one, and the rest of the line as it comes.
+            atLineStart = false;
+            droppingLine = false;
+            out.write(timestamp, 0, timestampLength);
+            bytesWritten += timestampLength;
+            timestampLength = 0;
+        }
+
+        if (!droppingLine) {
+            out.write(b);
+            bytesWritten++;
+        }
+        if (b == '\n') {
+            endLine();
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        final int end = off + len;
+        int position = off;
+        while (position < end) {
+            if (atLineStart) {
+                write(b[position++]);
+                continue;
+            }
+
+            int lineEnd = position;
+            while (lineEnd < end && b[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            final boolean foundNewline = lineEnd < end;
+            final int stop = foundNewline ? lineEnd + 1 : end;
+            if (!droppingLine) {
+                out.write(b, position, stop - position);
+                bytesWritten += stop - position;
+            }
+            position = stop;
+            if (foundNewline) {
+                endLine();
+            }
+        }
+    }
+
+    private boolean looksLikeTimestamp() {
+        return timestampLength >= 20 && timestamp[0] >= '0' && timestamp[0] <= '9' && timestamp[10] == 'T';
+    }
+
+    private void startLine() {
+        final String lineTimestamp = new String(timestamp, 0, timestampLength, StandardCharsets.US_ASCII);
+        timestampLength = 0;
+        atLineStart = false;
+        droppingLine = lastTimestamp != null && lineTimestamp.compareTo(lastTimestamp) <= 0;
+        if (!droppingLine) {
+            lastTimestamp = lineTimestamp;
+        }
+    }
+
+    private void endLine() throws ChunkFullException {
+        atLineStart = true;
+        if (bytesWritten >= maxBytes) {
+            throw new ChunkFullException();
+        }
+    }
+
+    /**
+     * We have written as much as we were asked to. The rest of the log can be read starting from {@link #lastTimestamp()}.
+     */
+    static class ChunkFullException extends IOException {
+        ChunkFullException() {
+            super("Log chunk is full.");
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package org.nrg.containers.utils;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import org.nrg.containers.exceptions.CommandResolutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A command template, parsed once into literal text, replacement keys, and a JSONPath search, so it can be
+ * rendered with a single pass over its parts instead of one String.replace per replacement key.
+ *
+ * Which substrings are replacement keys depends on the inputs of the command and wrapper, so templates are
+ * compiled against a set of {@link Keys} and cached by the keys and the template text. Editing a command changes
+ * its templates or its keys, so nothing needs to be invalidated; old entries fall out of the cache.
+ *
+ * A template may contain one JSONPath search through the command or wrapper, between carets: "^$.name^" or
+ * "^wrapper:$.name^". The search is done when the template is rendered. If it finds nothing, the search text is
+ * left in place.
+ *
+ * For use cases, see tests in org.nrg.containers.utils.CompiledTemplateTest.
+ */
+public class CompiledTemplate {
+    public static final int MAX_SIZE = 1000;
+    private static final Pattern JSONPATH_SUBSTRING = Pattern.compile("\\^(wrapper:)?(.+)\\^");
+
+    private static final Map<String, CompiledTemplate> CACHE = new LinkedHashMap<String, CompiledTemplate>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CompiledTemplate> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private final String template;
+    private final List<Segment> segments;
+
+    private CompiledTemplate(final String template, final List<Segment> segments) {
+        this.template = template;
+        this.segments = segments;
+    }
+
+    /**
+     * Get the compiled form of a template, compiling it if we haven't seen it recently.
+     *
+     * @param template The template text
+     * @param keys The replacement keys that can appear in it
+     */
+    @Nonnull
+    public static CompiledTemplate compile(final @Nonnull String template, final @Nonnull Keys keys) {
+        final String cacheKey = keys.signature + '\u0000' + template;
+        synchronized (CACHE) {
+            final CompiledTemplate cached = CACHE.get(cacheKey);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        misses.incrementAndGet();
+        final CompiledTemplate compiled = parse(template, keys);
+        synchronized (CACHE) {
+            CACHE.put(cacheKey, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Compile a template without caching it. Use this for text that is only rendered once, like input values.
+     */
+    @Nonnull
+    public static CompiledTemplate parse(final @Nonnull String template, final @Nonnull Keys keys) {
+        final List<Segment> segments = Lists.newArrayList();
+        final Matcher matcher = template.indexOf('^') < 0 ? null : JSONPATH_SUBSTRING.matcher(template);
+        if (matcher == null || !matcher.find()) {
+            addKeysAndLiterals(template, keys, segments);
+            return new CompiledTemplate(template, segments);
+        }
+
+        // Every occurrence of the search text is replaced by the search result
+        final String searchWithMarkers = matcher.group(0);
+        final List<Segment> unresolved = Lists.newArrayList();
+        addKeysAndLiterals(searchWithMarkers, keys, unresolved);
+        final JsonpathSegment jsonpath = new JsonpathSegment(matcher.group(1) != null, matcher.group(2), unresolved);
+        int position = 0;
+        int found;
+        while ((found = template.indexOf(searchWithMarkers, position)) >= 0) {
+            addKeysAndLiterals(template.substring(position, found), keys, segments);
+            segments.add(jsonpath);
+            position = found + searchWithMarkers.length();
+        }
+        addKeysAndLiterals(template.substring(position), keys, segments);
+        return new CompiledTemplate(template, segments);
+    }
+
+    /**
+     * Fill in the template.
+     *
+     * @param values Values by replacement key. A key that is not in the map is left in place. A null value is replaced by "".
+     * @param jsonpathSearcher Does the JSONPath search, if the template has one
+     */
+    @Nonnull
+    public String render(final @Nonnull Map<String, String> values, final @Nullable JsonpathSearcher jsonpathSearcher)
+            throws CommandResolutionException {
+        if (segments.size() == 1 && segments.get(0) instanceof LiteralSegment) {
+            return template;
+        }
+
+        // The search result is the same wherever the search appears
+        String jsonpathResult = null;
+        boolean searched = false;
+
+        final StringBuilder rendered = new StringBuilder(template.length() + 64);
+        for (final Segment segment : segments) {
+            if (segment instanceof JsonpathSegment) {
+                if (!searched) {
+                    final JsonpathSegment jsonpath = (JsonpathSegment) segment;
+                    jsonpathResult = jsonpathSearcher == null || jsonpath.path.trim().isEmpty() ?
+                            null :
+                            jsonpathSearcher.search(jsonpath.path, jsonpath.searchWrapper);
+                    searched = true;
+                }
+                if (jsonpathResult != null) {
+                    rendered.append(jsonpathResult);
+                    continue;
+                }
+            }
+            segment.appendTo(rendered, values);
+        }
+        return rendered.toString();
+    }
+
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * Split text into literals and replacement keys. Where keys overlap, the one that starts first wins,
+     * and of those that start at the same place, the longest.
+     */
+    private static void addKeysAndLiterals(final String text, final Keys keys, final List<Segment> segments) {
+        int position = 0;
+        while (position < text.length()) {
+            int nextStart = -1;
+            String nextKey = null;
+            for (final String key : keys.longestFirst) {
+                final int start = text.indexOf(key, position);
+                if (start >= 0 && (nextStart < 0 || start < nextStart)) {
+                    nextStart = start;
+                    nextKey = key;
+                }
+            }
+            if (nextKey == null) {
+                break;
+            }
+            if (nextStart > position) {
+                segments.add(new LiteralSegment(text.substring(position, nextStart)));
+            }
+            segments.add(new KeySegment(nextKey));
+            position = nextStart + nextKey.length();
+        }
+        if (position < text.length()) {
+            segments.add(new LiteralSegment(text.substring(position)));
+        }
+    }
+
+    /**
+     * Searches the command or wrapper for the value of a JSONPath expression.
+     */
+    public interface JsonpathSearcher {
+        /**
+         * @return The single result, or null if there is none
+         * @throws CommandResolutionException If there is more than one result
+         */
+        @Nullable
+        String search(String jsonpath, boolean searchWrapper) throws CommandResolutionException;
+    }
+
+    /**
+     * The replacement keys of a command and wrapper's inputs.
+     */
+    public static final class Keys {
+        public static final Keys NONE = new Keys(Collections.<String>emptyList());
+
+        private final List<String> longestFirst;
+        private final String signature;
+
+        private Keys(final Collection<String> keys) {
+            final List<String> nonEmpty = Lists.newArrayList();
+            for (final String key : keys) {
+                if (key != null && !key.isEmpty() && !nonEmpty.contains(key)) {
+                    nonEmpty.add(key);
+                }
+            }
+            this.longestFirst = new Ordering<String>() {
+                @Override
+                public int compare(final String left, final String right) {
+                    return right.length() != left.length() ? right.length() - left.length() : left.compareTo(right);
+                }
+            }.sortedCopy(nonEmpty);
+            this.signature = Joiner.on('\u0001').join(longestFirst);
+        }
+
+        public static Keys of(final Collection<String> keys) {
+            return keys.isEmpty() ? NONE : new Keys(keys);
+        }
+    }
+
+    private interface Segment {
+        void appendTo(StringBuilder rendered, Map<String, String> values);
+    }
+
+    private static final class LiteralSegment implements Segment {
+        private final String text;
+
+        private LiteralSegment(final String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void appendTo(final StringBuilder rendered, final Map<String, String> values) {
+            rendered.append(text);
+        }
+    }
+
+    private static final class KeySegment implements Segment {
+        private final String key;
+
+        private KeySegment(final String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void appendTo(final StringBuilder rendered, final Map<String, String> values) {
+            if (values.containsKey(key)) {
+                final String value = values.get(key);
+                rendered.append(value == null ? "" : value);
+            } else {
+                rendered.append(key);
+            }
+        }
+    }
+
+    private static final class JsonpathSegment implements Segment {
+        private final boolean searchWrapper;
+        private final String path;
+        // What to write if the search finds nothing: the search text, with any replacement keys in it filled in
+        private final List<Segment> unresolved;
+
+        private JsonpathSegment(final boolean searchWrapper, final String path, final List<Segment> unresolved) {
+            this.searchWrapper = searchWrapper;
+            this.path = path;
+            this.unresolved = unresolved;
+        }
+
+        @Override
+        public void appendTo(final StringBuilder rendered, final Map<String, String> values) {
+            for (final Segment segment : unresolved) {
+                segment.appendTo(rendered, values);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.nrg.containers.utils;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything under a directory, read with a single walk of the file tree. Once we have the listing,
+ * we can pick out the files that match any number of globs without touching the file system again.
+ *
+ * Globs use the syntax of {@link java.nio.file.FileSystem#getPathMatcher(String)}, and are matched against
+ * paths relative to the directory we are selecting from. "*" does not cross directories and "**" does.
+ * A glob that starts with "**&#47;" also matches at the top level, so "**&#47;*.dcm" matches "a.dcm" as well as "x/y/a.dcm".
+ *
+ * A glob that can't cross directories only needs the directory's own contents. {@link #matchChildren(Path, String)}
+ * lists just those, so there is no need to walk the tree for it.
+ *
+ * For use cases, see tests in org.nrg.containers.utils.FileListingTest.
+ */
+public class FileListing {
+    private final Path root;
+    // Every file and directory under the root, relative to it. A directory comes before its contents.
+    private final List<Entry> entries;
+
+    private FileListing(final Path root, final List<Entry> entries) {
+        this.root = root;
+        this.entries = entries;
+    }
+
+    /**
+     * Walk the file tree under a directory once. Symbolic links are not followed.
+     * If the directory does not exist, the listing is empty.
+     */
+    @Nonnull
+    public static FileListing walk(final @Nonnull Path root) throws IOException {
+        final Path normalizedRoot = root.toAbsolutePath().normalize();
+        if (!Files.isDirectory(normalizedRoot)) {
+            return new FileListing(normalizedRoot, Collections.<Entry>emptyList());
+        }
+
+        final List<Entry> entries = Lists.newArrayList();
+        Files.walkFileTree(normalizedRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                if (!dir.equals(normalizedRoot)) {
+                    entries.add(new Entry(normalizedRoot.relativize(dir), true));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                entries.add(new Entry(normalizedRoot.relativize(file), attrs.isDirectory()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                // Skip what we can't read, as listFiles would
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new FileListing(normalizedRoot, entries);
+    }
+
+    /**
+     * @return true if the glob can select something below the directory's own contents, so it needs a walk of the tree
+     */
+    public static boolean needsWalk(final String glob) {
+        return StringUtils.isNotBlank(glob) &&
+                (glob.contains("**") || glob.contains("/") || glob.contains(File.separator));
+    }
+
+    /**
+     * Select files and directories directly inside a directory, reading only that directory.
+     * Selects the same things as {@link #match(Path, String)} would, for a glob that does not need a walk.
+     *
+     * @param directory Where to select from. If it is a file, a blank glob selects it and any other glob selects nothing.
+     * @param glob What to select, or blank for everything in the directory
+     */
+    @Nonnull
+    public static List<File> matchChildren(final @Nonnull Path directory, final String glob) throws IOException {
+        final Path normalizedDirectory = directory.toAbsolutePath().normalize();
+        final List<File> matched = Lists.newArrayList();
+        if (!Files.isDirectory(normalizedDirectory)) {
+            if (StringUtils.isBlank(glob) && Files.exists(normalizedDirectory)) {
+                matched.add(normalizedDirectory.toFile());
+            }
+            return matched;
+        }
+
+        try (final DirectoryStream<Path> children = StringUtils.isBlank(glob) ?
+                Files.newDirectoryStream(normalizedDirectory) :
+                Files.newDirectoryStream(normalizedDirectory, glob)) {
+            for (final Path child : children) {
+                matched.add(child.toFile());
+            }
+        }
+        return matched;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return true if the path is this listing's root or is under it
+     */
+    public boolean contains(final @Nonnull Path path) {
+        return path.toAbsolutePath().normalize().startsWith(root);
+    }
+
+    /**
+     * Select files and directories under a directory in this listing.
+     *
+     * With a blank glob we select everything directly inside the directory, or the path itself if it is a file.
+     * Otherwise we select everything that matches the glob. When a directory matches, its contents come along
+     * with it and are not selected again on their own.
+     *
+     * @param directory Where to select from. Must be this listing's root or under it.
+     * @param glob What to select, relative to the directory
+     * @return The selected files and directories, in the order we walked them
+     */
+    @Nonnull
+    public List<File> match(final @Nonnull Path directory, final String glob) {
+        final Path relativeDirectory = root.relativize(directory.toAbsolutePath().normalize());
+        final boolean atRoot = relativeDirectory.toString().isEmpty();
+
+        final List<File> matched = Lists.newArrayList();
+        if (StringUtils.isBlank(glob)) {
+            for (final Entry entry : entries) {
+                if (atRoot ? entry.path.getNameCount() == 1 : isChild(entry.path, relativeDirectory)) {
+                    matched.add(root.resolve(entry.path).toFile());
+                } else if (!atRoot && !entry.isDirectory && entry.path.equals(relativeDirectory)) {
+                    matched.add(root.resolve(entry.path).toFile());
+                }
+            }
+            return matched;
+        }
+
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        final PathMatcher topLevelMatcher = glob.startsWith("**/") ?
+                FileSystems.getDefault().getPathMatcher("glob:" + glob.substring(3)) :
+                null;
+
+        Path matchedDirectory = null;
+        for (final Entry entry : entries) {
+            if (!atRoot && !entry.path.startsWith(relativeDirectory) || entry.path.equals(relativeDirectory)) {
+                continue;
+            }
+            if (matchedDirectory != null && entry.path.startsWith(matchedDirectory)) {
+                // Already selected along with its directory
+                continue;
+            }
+
+            final Path candidate = atRoot ? entry.path : relativeDirectory.relativize(entry.path);
+            if (matcher.matches(candidate) || topLevelMatcher != null && topLevelMatcher.matches(candidate)) {
+                matched.add(root.resolve(entry.path).toFile());
+                if (entry.isDirectory) {
+                    matchedDirectory = entry.path;
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static boolean isChild(final Path path, final Path directory) {
+        return path.getNameCount() == directory.getNameCount() + 1 && path.startsWith(directory);
+    }
+
+    private static class Entry {
+        private final Path path;
+        private final boolean isDirectory;
+
+        private Entry(final Path path, final boolean isDirectory) {
+            this.path = path;
+            this.isDirectory = isDirectory;
+        }
+    }
+}
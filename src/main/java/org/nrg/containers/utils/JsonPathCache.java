@@ -0,0 +1,74 @@
+package org.nrg.containers.utils;
+
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, least-recently-used cache of compiled JSONPath expressions, keyed by the path string.
+ *
+ * Compiling a path means tokenizing it and parsing any filter predicates. During command resolution
+ * we search with the same handful of paths (and the same generated child matchers, like
+ * {@code $.scans[?(@.id == '1')]}) over and over, so we compile each one once and keep it.
+ * A compiled {@link JsonPath} is immutable and safe to share between threads.
+ */
+public class JsonPathCache {
+    public static final int MAX_SIZE = 1000;
+
+    private static final Map<String, JsonPath> CACHE = new LinkedHashMap<String, JsonPath>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, JsonPath> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get the compiled form of a JSONPath expression, compiling it if we haven't seen it recently.
+     *
+     * @param path A JSONPath expression
+     * @return The compiled expression
+     * @throws InvalidPathException If the path cannot be compiled. Invalid paths are not cached.
+     */
+    public static JsonPath compile(final String path) {
+        synchronized (CACHE) {
+            final JsonPath cached = CACHE.get(path);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        misses.incrementAndGet();
+        final JsonPath compiled = JsonPath.compile(path);
+        synchronized (CACHE) {
+            CACHE.put(path, compiled);
+        }
+        return compiled;
+    }
+
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+}
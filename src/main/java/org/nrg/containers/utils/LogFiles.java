@@ -0,0 +1,189 @@
+package org.nrg.containers.utils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read parts of saved container log files without reading the whole file into memory.
+ *
+ * For use cases, see tests in org.nrg.containers.utils.LogFilesTest.
+ */
+public class LogFiles {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Pattern SINGLE_BYTE_RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    /**
+     * Parse an HTTP Range header for a file of the given length.
+     * We only serve a single range. If the header asks for anything else, we ignore it and serve the whole file.
+     *
+     * @param rangeHeader The value of the Range header, if there was one
+     * @param fileLength The length of the file in bytes
+     * @return The requested range, or null if we should serve the whole file.
+     *         Check {@link ByteRange#isSatisfiable()} before using it.
+     */
+    @Nullable
+    public static ByteRange parseRange(final @Nullable String rangeHeader, final long fileLength) {
+        if (rangeHeader == null) {
+            return null;
+        }
+        final Matcher matcher = SINGLE_BYTE_RANGE.matcher(rangeHeader.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        final String first = matcher.group(1);
+        final String last = matcher.group(2);
+        try {
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                // "bytes=-N" means the last N bytes
+                final long suffixLength = Math.min(Long.parseLong(last), fileLength);
+                return new ByteRange(fileLength - suffixLength, fileLength - 1, fileLength);
+            }
+
+            final long start = Long.parseLong(first);
+            final long requestedEnd = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (requestedEnd < start) {
+                return null;
+            }
+            return new ByteRange(start, Math.min(requestedEnd, fileLength - 1), fileLength);
+        } catch (NumberFormatException e) {
+            // Too big to be a real offset
+            return null;
+        }
+    }
+
+    /**
+     * Find where the last lines of a file begin. A newline at the very end of the file does not start a new line.
+     *
+     * @param file The file
+     * @param lines How many lines from the end we want
+     * @return The byte offset of the first of those lines
+     */
+    public static long tailOffset(final @Nonnull File file, final int lines) throws IOException {
+        try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             final FileChannel channel = randomAccessFile.getChannel()) {
+            final long length = channel.size();
+            if (lines <= 0) {
+                return length;
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long blockEnd = length;
+            boolean atLastByte = true;
+            int newlines = 0;
+            while (blockEnd > 0) {
+                final long blockStart = Math.max(0L, blockEnd - BUFFER_SIZE);
+                buffer.clear();
+                buffer.limit((int) (blockEnd - blockStart));
+                readFully(channel, buffer, blockStart);
+
+                for (int i = buffer.limit() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        if (atLastByte) {
+                            atLastByte = false;
+                            continue;
+                        }
+                        if (++newlines == lines) {
+                            return blockStart + i + 1;
+                        }
+                    }
+                    atLastByte = false;
+                }
+                blockEnd = blockStart;
+            }
+            return 0L;
+        }
+    }
+
+    /**
+     * Copy part of a file to an output stream, one large buffer at a time.
+     *
+     * @param file The file
+     * @param start The offset of the first byte to copy
+     * @param length How many bytes to copy
+     * @param outputStream Where to write them
+     */
+    public static void copy(final @Nonnull File file, final long start, final long length, final @Nonnull OutputStream outputStream)
+            throws IOException {
+        try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             final FileChannel channel = randomAccessFile.getChannel()) {
+            final byte[] bytes = new byte[BUFFER_SIZE];
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(bytes.length, remaining));
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                outputStream.write(bytes, 0, read);
+                position += read;
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long readPosition = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, readPosition);
+            if (read < 0) {
+                break;
+            }
+            readPosition += read;
+        }
+    }
+
+    /**
+     * A range of bytes in a file, first and last inclusive, as in an HTTP Range header.
+     */
+    public static final class ByteRange {
+        private final long first;
+        private final long last;
+        private final long fileLength;
+
+        private ByteRange(final long first, final long last, final long fileLength) {
+            this.first = first;
+            this.last = last;
+            this.fileLength = fileLength;
+        }
+
+        public long first() {
+            return first;
+        }
+
+        public long last() {
+            return last;
+        }
+
+        public long length() {
+            return last - first + 1;
+        }
+
+        public boolean isSatisfiable() {
+            return first < fileLength && first <= last;
+        }
+
+        /**
+         * @return The value for a Content-Range header
+         */
+        public String contentRange() {
+            return isSatisfiable() ?
+                    String.format("bytes %d-%d/%d", first, last, fileLength) :
+                    String.format("bytes */%d", fileLength);
+        }
+    }
+}
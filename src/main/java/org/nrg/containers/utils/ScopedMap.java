@@ -0,0 +1,97 @@
+package org.nrg.containers.utils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only map made of one binding on top of a parent map. Adding a binding makes a new scope that
+ * points at this one, so it takes constant time and space, and the parent is unchanged.
+ *
+ * Looking up a key walks up the scopes to the base map, so lookups take time proportional to the depth.
+ * We use these for the replacement key values that each level of an input tree adds for its children;
+ * those trees are wide, but not deep.
+ *
+ * The base map is not copied. Changes to it show through every scope built on it.
+ *
+ * For use cases, see tests in org.nrg.containers.utils.ScopedMapTest.
+ */
+public class ScopedMap<K, V> extends AbstractMap<K, V> {
+    private final Map<K, V> base;
+    private final ScopedMap<K, V> parent;
+    private final K key;
+    private final V value;
+
+    private ScopedMap(final Map<K, V> base, final ScopedMap<K, V> parent, final K key, final V value) {
+        this.base = base;
+        this.parent = parent;
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * @return A scope over the base map, with no bindings of its own. If the map is already a scope, it is returned.
+     */
+    @Nonnull
+    public static <K, V> ScopedMap<K, V> of(final @Nonnull Map<K, V> base) {
+        if (base instanceof ScopedMap) {
+            return (ScopedMap<K, V>) base;
+        }
+        return new ScopedMap<>(base, null, null, null);
+    }
+
+    /**
+     * @return A new scope with the key bound to the value, in front of everything in this one
+     */
+    @Nonnull
+    public ScopedMap<K, V> with(final K key, final V value) {
+        return new ScopedMap<>(base, this, key, value);
+    }
+
+    @Override
+    public V get(final Object lookup) {
+        for (ScopedMap<K, V> scope = this; scope.parent != null; scope = scope.parent) {
+            if (equal(scope.key, lookup)) {
+                return scope.value;
+            }
+        }
+        return base.get(lookup);
+    }
+
+    @Override
+    public boolean containsKey(final Object lookup) {
+        for (ScopedMap<K, V> scope = this; scope.parent != null; scope = scope.parent) {
+            if (equal(scope.key, lookup)) {
+                return true;
+            }
+        }
+        return base.containsKey(lookup);
+    }
+
+    /**
+     * Copies everything into a new map, so only use it for logging and the like.
+     */
+    @Override
+    @Nonnull
+    public Set<Entry<K, V>> entrySet() {
+        final List<ScopedMap<K, V>> scopes = Lists.newArrayList();
+        for (ScopedMap<K, V> scope = this; scope.parent != null; scope = scope.parent) {
+            scopes.add(scope);
+        }
+
+        final Map<K, V> flattened = Maps.newLinkedHashMap(base);
+        for (final ScopedMap<K, V> scope : Lists.reverse(scopes)) {
+            flattened.put(scope.key, scope.value);
+        }
+        return flattened.entrySet();
+    }
+
+    private static boolean equal(final Object a, final Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
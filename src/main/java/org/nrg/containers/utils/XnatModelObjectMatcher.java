@@ -0,0 +1,508 @@
+package org.nrg.containers.utils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates a JSONPath filter expression, like {@code @.scan-type in ['T1', 'MPRAGE'] && @.label == 'DICOM'},
+ * directly against XNAT model objects.
+ *
+ * We used to apply matchers by serializing the parent object to JSON, running a JSONPath filter
+ * over its children, and deserializing the matches. Here we read the same properties (by their JSON names)
+ * straight off the objects instead.
+ *
+ * Only the common subset of the filter syntax is supported: comparisons of a single top-level property
+ * using {@code ==}, {@code !=}, {@code in}, and {@code =~}, combined with {@code &&}, {@code ||},
+ * and parentheses. {@link #compile(String)} returns null for anything else, and callers should fall back to JSONPath.
+ *
+ * The model objects are serialized without their null properties, so JSONPath never sees a null property;
+ * it is simply not there, and no comparison on it matches. A null property does not match here either, for any operator.
+ */
+public class XnatModelObjectMatcher {
+    private static final int MAX_CACHE_SIZE = 500;
+    private static final XnatModelObjectMatcher UNSUPPORTED = new XnatModelObjectMatcher(null);
+
+    private static final Map<String, XnatModelObjectMatcher> CACHE = new LinkedHashMap<String, XnatModelObjectMatcher>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, XnatModelObjectMatcher> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    private static final ConcurrentMap<Class<?>, Map<String, PropertyAccessor>> ACCESSORS_BY_CLASS = new ConcurrentHashMap<>();
+
+    private final Node root;
+
+    private XnatModelObjectMatcher(final Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Parse a filter expression.
+     *
+     * @param filterExpression The body of a JSONPath filter, without the surrounding {@code [?( )]}
+     * @return A matcher, or null if the expression uses syntax we can't evaluate directly
+     */
+    @Nullable
+    public static XnatModelObjectMatcher compile(final String filterExpression) {
+        if (StringUtils.isBlank(filterExpression)) {
+            return null;
+        }
+
+        synchronized (CACHE) {
+            final XnatModelObjectMatcher cached = CACHE.get(filterExpression);
+            if (cached != null) {
+                return cached == UNSUPPORTED ? null : cached;
+            }
+        }
+
+        XnatModelObjectMatcher compiled;
+        try {
+            compiled = new XnatModelObjectMatcher(new Parser(filterExpression).parse());
+        } catch (IllegalArgumentException e) {
+            compiled = UNSUPPORTED;
+        }
+
+        synchronized (CACHE) {
+            CACHE.put(filterExpression, compiled);
+        }
+        return compiled == UNSUPPORTED ? null : compiled;
+    }
+
+    /**
+     * @return A matcher that checks whether a property is equal to a string value
+     */
+    @Nonnull
+    public static XnatModelObjectMatcher propertyEquals(final String property, final String value) {
+        return new XnatModelObjectMatcher(new Comparison(property, "==", value));
+    }
+
+    @Nonnull
+    public XnatModelObjectMatcher and(final @Nullable XnatModelObjectMatcher other) {
+        return other == null ? this : new XnatModelObjectMatcher(new And(this.root, other.root));
+    }
+
+    /**
+     * @param modelObject An object to test
+     * @return Whether the object matches
+     * @throws IllegalArgumentException If the expression refers to a property the object does not have.
+     *                                  JSONPath may treat that case differently, so callers should fall back.
+     */
+    public boolean matches(final @Nonnull Object modelObject) {
+        return root.matches(modelObject);
+    }
+
+    /**
+     * Filter a list of objects, keeping the ones that match.
+     *
+     * @throws IllegalArgumentException If the expression refers to a property the objects do not have
+     */
+    @Nonnull
+    public <T> List<T> filter(final @Nullable List<T> modelObjects) {
+        if (modelObjects == null) {
+            return Collections.emptyList();
+        }
+        final List<T> matches = new ArrayList<>();
+        for (final T modelObject : modelObjects) {
+            if (modelObject != null && matches(modelObject)) {
+                matches.add(modelObject);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Read a property off of a model object by its JSON name.
+     *
+     * @throws IllegalArgumentException If the object has no such property
+     */
+    @Nullable
+    public static Object getProperty(final @Nonnull Object modelObject, final String jsonPropertyName) {
+        final PropertyAccessor accessor = accessorsFor(modelObject.getClass()).get(jsonPropertyName);
+        if (accessor == null) {
+            throw new IllegalArgumentException(String.format("%s has no property \"%s\".",
+                    modelObject.getClass().getSimpleName(), jsonPropertyName));
+        }
+        return accessor.get(modelObject);
+    }
+
+    private static Map<String, PropertyAccessor> accessorsFor(final Class<?> cls) {
+        Map<String, PropertyAccessor> accessors = ACCESSORS_BY_CLASS.get(cls);
+        if (accessors == null) {
+            accessors = buildAccessors(cls);
+            ACCESSORS_BY_CLASS.putIfAbsent(cls, accessors);
+        }
+        return accessors;
+    }
+
+    /**
+     * Find the serialized properties of a model class the same way the model classes are written:
+     * each non-ignored field, named by its {@link JsonProperty} annotation if it has one,
+     * read with its getter if it has one.
+     */
+    private static Map<String, PropertyAccessor> buildAccessors(final Class<?> cls) {
+        final Map<String, PropertyAccessor> accessors = new HashMap<>();
+        for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (final Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isAnnotationPresent(JsonIgnore.class)) {
+                    continue;
+                }
+                final JsonProperty jsonProperty = field.getAnnotation(JsonProperty.class);
+                final String name = jsonProperty != null && StringUtils.isNotBlank(jsonProperty.value()) ?
+                        jsonProperty.value() : field.getName();
+                if (!accessors.containsKey(name)) {
+                    accessors.put(name, accessorFor(cls, field));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(accessors);
+    }
+
+    private static PropertyAccessor accessorFor(final Class<?> cls, final Field field) {
+        final String capitalized = StringUtils.capitalize(field.getName());
+        for (final String getterName : new String[] {"get" + capitalized, "is" + capitalized}) {
+            try {
+                final Method getter = cls.getMethod(getterName);
+                return new PropertyAccessor() {
+                    @Override
+                    public Object get(final Object modelObject) {
+                        try {
+                            return getter.invoke(modelObject);
+                        } catch (Exception e) {
+                            throw new IllegalArgumentException(e);
+                        }
+                    }
+                };
+            } catch (NoSuchMethodException ignored) {
+                // try the next one
+            }
+        }
+
+        field.setAccessible(true);
+        return new PropertyAccessor() {
+            @Override
+            public Object get(final Object modelObject) {
+                try {
+                    return field.get(modelObject);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        };
+    }
+
+    private interface PropertyAccessor {
+        Object get(Object modelObject);
+    }
+
+    private interface Node {
+        boolean matches(Object modelObject);
+    }
+
+    private static class And implements Node {
+        private final Node left;
+        private final Node right;
+
+        private And(final Node left, final Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(final Object modelObject) {
+            return left.matches(modelObject) && right.matches(modelObject);
+        }
+    }
+
+    private static class Or implements Node {
+        private final Node left;
+        private final Node right;
+
+        private Or(final Node left, final Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(final Object modelObject) {
+            return left.matches(modelObject) || right.matches(modelObject);
+        }
+    }
+
+    private static class Comparison implements Node {
+        private final String property;
+        private final String operator;
+        private final Object operand;
+
+        private Comparison(final String property, final String operator, final Object operand) {
+            this.property = property;
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean matches(final Object modelObject) {
+            final Object value = getProperty(modelObject, property);
+            if (value == null) {
+                return false;
+            }
+            switch (operator) {
+                case "==":
+                    return valueEquals(value, operand);
+                case "!=":
+                    return !valueEquals(value, operand);
+                case "in":
+                    for (final Object option : (List<?>) operand) {
+                        if (valueEquals(value, option)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case "=~":
+                    return value instanceof String && ((Pattern) operand).matcher((String) value).matches();
+                default:
+                    return false;
+            }
+        }
+
+        private static boolean valueEquals(final Object value, final Object literal) {
+            if (literal == null) {
+                return false;
+            }
+            if (value instanceof Number && literal instanceof BigDecimal) {
+                return new BigDecimal(value.toString()).compareTo((BigDecimal) literal) == 0;
+            }
+            return value.equals(literal);
+        }
+    }
+
+    /**
+     * A small recursive-descent parser for the supported subset of the filter syntax.
+     * Anything it does not understand is an {@link IllegalArgumentException}.
+     */
+    private static class Parser {
+        private final String expression;
+        private int pos = 0;
+
+        private Parser(final String expression) {
+            this.expression = expression;
+        }
+
+        private Node parse() {
+            final Node node = parseOr();
+            skipWhitespace();
+            if (pos != expression.length()) {
+                throw unsupported();
+            }
+            return node;
+        }
+
+        private Node parseOr() {
+            Node node = parseAnd();
+            while (consume("||")) {
+                node = new Or(node, parseAnd());
+            }
+            return node;
+        }
+
+        private Node parseAnd() {
+            Node node = parseUnary();
+            while (consume("&&")) {
+                node = new And(node, parseUnary());
+            }
+            return node;
+        }
+
+        private Node parseUnary() {
+            if (consume("(")) {
+                final Node node = parseOr();
+                if (!consume(")")) {
+                    throw unsupported();
+                }
+                return node;
+            }
+            return parseComparison();
+        }
+
+        private Node parseComparison() {
+            final String property = parseProperty();
+            if (consume("==")) {
+                return new Comparison(property, "==", parseLiteral());
+            } else if (consume("!=")) {
+                return new Comparison(property, "!=", parseLiteral());
+            } else if (consume("=~")) {
+                return new Comparison(property, "=~", parseRegex());
+            } else if (consumeWord("in")) {
+                return new Comparison(property, "in", parseList());
+            }
+            throw unsupported();
+        }
+
+        private String parseProperty() {
+            skipWhitespace();
+            if (expression.startsWith("@['", pos) || expression.startsWith("@[\"", pos)) {
+                pos += 2;
+                final String name = parseQuoted();
+                if (!consume("]")) {
+                    throw unsupported();
+                }
+                return checkPropertyEnd(name);
+            } else if (expression.startsWith("@.", pos)) {
+                pos += 2;
+                final int start = pos;
+                while (pos < expression.length() &&
+                        (Character.isLetterOrDigit(expression.charAt(pos)) || expression.charAt(pos) == '-' || expression.charAt(pos) == '_')) {
+                    pos++;
+                }
+                if (pos == start) {
+                    throw unsupported();
+                }
+                return checkPropertyEnd(expression.substring(start, pos));
+            }
+            throw unsupported();
+        }
+
+        private String checkPropertyEnd(final String name) {
+            // Nested paths like @.resources[*].label or @.a.b are not supported
+            if (pos < expression.length() && (expression.charAt(pos) == '.' || expression.charAt(pos) == '[')) {
+                throw unsupported();
+            }
+            return name;
+        }
+
+        private Object parseLiteral() {
+            skipWhitespace();
+            if (pos >= expression.length()) {
+                throw unsupported();
+            }
+            final char c = expression.charAt(pos);
+            if (c == '\'' || c == '"') {
+                return parseQuoted();
+            } else if (consumeWord("true")) {
+                return Boolean.TRUE;
+            } else if (consumeWord("false")) {
+                return Boolean.FALSE;
+            } else if (consumeWord("null")) {
+                return null;
+            } else if (c == '-' || Character.isDigit(c)) {
+                final int start = pos++;
+                while (pos < expression.length() &&
+                        (Character.isDigit(expression.charAt(pos)) || expression.charAt(pos) == '.')) {
+                    pos++;
+                }
+                try {
+                    return new BigDecimal(expression.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    throw unsupported();
+                }
+            }
+            throw unsupported();
+        }
+
+        private String parseQuoted() {
+            final char quote = expression.charAt(pos++);
+            final StringBuilder sb = new StringBuilder();
+            while (pos < expression.length()) {
+                final char c = expression.charAt(pos++);
+                if (c == '\\' && pos < expression.length()) {
+                    sb.append(expression.charAt(pos++));
+                } else if (c == quote) {
+                    return sb.toString();
+                } else {
+                    sb.append(c);
+                }
+            }
+            throw unsupported();
+        }
+
+        private List<Object> parseList() {
+            if (!consume("[")) {
+                throw unsupported();
+            }
+            final List<Object> values = new ArrayList<>();
+            if (consume("]")) {
+                return values;
+            }
+            do {
+                values.add(parseLiteral());
+            } while (consume(","));
+            if (!consume("]")) {
+                throw unsupported();
+            }
+            return values;
+        }
+
+        private Pattern parseRegex() {
+            skipWhitespace();
+            if (pos >= expression.length() || expression.charAt(pos) != '/') {
+                throw unsupported();
+            }
+            int end = pos + 1;
+            while (end < expression.length() && expression.charAt(end) != '/') {
+                end += expression.charAt(end) == '\\' ? 2 : 1;
+            }
+            if (end >= expression.length()) {
+                throw unsupported();
+            }
+            final String regex = expression.substring(pos + 1, end);
+            pos = end + 1;
+            int flags = 0;
+            if (pos < expression.length() && expression.charAt(pos) == 'i') {
+                flags = Pattern.CASE_INSENSITIVE;
+                pos++;
+            }
+            try {
+                return Pattern.compile(regex, flags);
+            } catch (IllegalArgumentException e) {
+                throw unsupported();
+            }
+        }
+
+        private boolean consume(final String token) {
+            skipWhitespace();
+            if (expression.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean consumeWord(final String word) {
+            skipWhitespace();
+            final int end = pos + word.length();
+            if (expression.startsWith(word, pos) &&
+                    (end == expression.length() || !Character.isLetterOrDigit(expression.charAt(end)))) {
+                pos = end;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException unsupported() {
+            return new IllegalArgumentException("Unsupported matcher expression: " + expression);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.nrg.containers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.Option;
+import com.jayway.jsonpath.spi.json.JacksonJsonProvider;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
+import com.jayway.jsonpath.spi.mapper.MappingProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nrg.containers.config.IntegrationTestConfig;
+import org.nrg.containers.model.command.auto.Command;
+import org.nrg.containers.model.command.auto.Command.CommandWrapper;
+import org.nrg.containers.model.command.auto.Command.ConfiguredCommand;
+import org.nrg.containers.model.command.auto.ResolvedCommand.PartiallyResolvedCommand;
+import org.nrg.containers.model.command.auto.ResolvedInputTreeNode;
+import org.nrg.containers.model.command.auto.ResolvedInputValue;
+import org.nrg.containers.services.CommandResolutionService;
+import org.nrg.containers.services.CommandService;
+import org.nrg.xdat.model.XnatAbstractresourceI;
+import org.nrg.xdat.model.XnatImageassessordataI;
+import org.nrg.xdat.model.XnatImagescandataI;
+import org.nrg.xdat.model.XnatImagesessiondataI;
+import org.nrg.xdat.om.XnatImagesessiondata;
+import org.nrg.xdat.security.helpers.Permissions;
+import org.nrg.xft.security.UserI;
+import org.nrg.xnat.helpers.uri.UriParserUtils;
+import org.nrg.xnat.helpers.uri.archive.impl.ExptURI;
+import org.nrg.xnat.turbine.utils.ArchivableItem;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+/**
+ * Resolve inputs from XNAT objects that load their children on demand, the way they are built in XNAT,
+ * and check that we only load the children that some input needs.
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(SpringJUnit4ClassRunner.class)
+@PrepareForTest({UriParserUtils.class, Permissions.class})
+@PowerMockIgnore({"org.apache.*", "java.*", "javax.*", "org.w3c.*", "com.sun.*"})
+@ContextConfiguration(classes = IntegrationTestConfig.class)
+@Transactional
+public class CommandResolutionChildLoadingTest {
+    private static final String SESSION_URI = "/experiments/E1";
+
+    private UserI mockUser;
+    private Command dummyCommand;
+
+    @Autowired private ObjectMapper mapper;
+    @Autowired private CommandService commandService;
+    @Autowired private CommandResolutionService commandResolutionService;
+
+    @Before
+    public void setup() throws Exception {
+        Configuration.setDefaults(new Configuration.Defaults() {
+
+            private final JsonProvider jsonProvider = new JacksonJsonProvider();
+            private final MappingProvider mappingProvider = new JacksonMappingProvider();
+
+            @Override
+            public JsonProvider jsonProvider() {
+                return jsonProvider;
+            }
+
+            @Override
+            public MappingProvider mappingProvider() {
+                return mappingProvider;
+            }
+
+            @Override
+            public Set<Option> options() {
+                return Sets.newHashSet(Option.DEFAULT_PATH_LEAF_TO_NULL);
+            }
+        });
+
+        mockUser = mock(UserI.class);
+        when(mockUser.getLogin()).thenReturn("mockUser");
+
+        final String resourceDir = Paths.get(ClassLoader.getSystemResource("commandResolutionTest").toURI()).toString().replace("%20", " ");
+        final Command tempCommand = mapper.readValue(new File(resourceDir + "/command.json"), Command.class);
+        dummyCommand = commandService.create(tempCommand);
+
+        mockStatic(UriParserUtils.class);
+        mockStatic(Permissions.class);
+        when(Permissions.canRead(any(UserI.class), any(ArchivableItem.class))).thenReturn(true);
+    }
+
+    @Test
+    public void testOnlyChildrenThatInputsNeedAreLoaded() throws Exception {
+        final XnatImagesessiondata xnatSession = mock(XnatImagesessiondata.class);
+        when(xnatSession.getId()).thenReturn("E1");
+        when(xnatSession.getLabel()).thenReturn("E1");
+        when(xnatSession.getProject()).thenReturn("P1");
+        when(xnatSession.getSubjectId()).thenReturn("S1");
+        when(xnatSession.getScans_scan()).thenReturn(Collections.<XnatImagescandataI>emptyList());
+        when(xnatSession.getAssessors_assessor()).thenReturn(Collections.<XnatImageassessordataI>emptyList());
+        when(xnatSession.getResources_resource()).thenReturn(Collections.<XnatAbstractresourceI>emptyList());
+        when(UriParserUtils.getArchiveUri((XnatImagesessiondataI) xnatSession)).thenReturn(SESSION_URI);
+
+        final ExptURI sessionUri = mock(ExptURI.class);
+        when(sessionUri.getExperiment()).thenReturn(xnatSession);
+        when(sessionUri.getSecurityItem()).thenReturn(mock(ArchivableItem.class));
+        when(UriParserUtils.parseURI("/archive" + SESSION_URI)).thenReturn(sessionUri);
+
+        // The only derived input under the session is an assessor, so we need the assessors and nothing else
+        CommandWrapper sessionAssessorWrapper = null;
+        for (final CommandWrapper commandWrapper : dummyCommand.xnatCommandWrappers()) {
+            if (commandWrapper.name().equals("session-assessor")) {
+                sessionAssessorWrapper = commandWrapper;
+            }
+        }
+        final ConfiguredCommand configuredCommand = commandService.getAndConfigure(sessionAssessorWrapper.id());
+
+        final PartiallyResolvedCommand preResolved = commandResolutionService.preResolve(configuredCommand,
+                Collections.singletonMap("session", SESSION_URI), mockUser);
+
+        final ResolvedInputTreeNode<? extends Command.Input> sessionNode = preResolved.resolvedInputTrees().get(0);
+        assertThat(sessionNode.valuesAndChildren(), hasSize(1));
+        final ResolvedInputValue sessionValue = sessionNode.valuesAndChildren().get(0).resolvedValue();
+        assertThat(sessionValue.value(), is(SESSION_URI));
+
+        verify(xnatSession, times(1)).getAssessors_assessor();
+        verify(xnatSession, never()).getScans_scan();
+        verify(xnatSession, never()).getResources_resource();
+
+        // Until something reads the session's JSON, which needs all of it
+        sessionValue.jsonValue();
+        verify(xnatSession, times(1)).getScans_scan();
+        verify(xnatSession, times(1)).getResources_resource();
+    }
+}
@@ -1,6 +1,9 @@
 package org.nrg.containers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.jayway.jsonpath.Configuration;
@@ -15,6 +18,8 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.nrg.config.services.ConfigService;
 import org.nrg.containers.config.IntegrationTestConfig;
 import org.nrg.containers.exceptions.CommandResolutionException;
@@ -25,6 +30,7 @@ import org.nrg.containers.model.command.auto.Command.CommandWrapper;
 import org.nrg.containers.model.command.auto.Command.CommandWrapperExternalInput;
 import org.nrg.containers.model.command.auto.Command.ConfiguredCommand;
 import org.nrg.containers.model.command.auto.ResolvedCommand;
+import org.nrg.containers.model.command.auto.ResolvedCommand.PartiallyResolvedCommand;
 import org.nrg.containers.model.command.auto.ResolvedCommandMount;
 import org.nrg.containers.model.command.auto.ResolvedInputTreeNode;
 import org.nrg.containers.model.command.auto.ResolvedInputValue;
@@ -36,15 +42,24 @@ import org.nrg.containers.model.xnat.Project;
 import org.nrg.containers.model.xnat.Resource;
 import org.nrg.containers.model.xnat.Scan;
 import org.nrg.containers.model.xnat.Session;
+import org.nrg.containers.model.xnat.XnatModelObject;
 import org.nrg.containers.services.CommandResolutionService;
+import org.nrg.containers.services.CommandResolutionService.ResolutionBatch;
 import org.nrg.containers.services.CommandService;
 import org.nrg.containers.services.ContainerConfigService;
+import org.nrg.containers.services.DockerService;
+import org.nrg.containers.services.impl.BuildDirectoryPopulator;
+import org.nrg.containers.services.impl.CommandResolutionServiceImpl;
+import org.nrg.containers.services.impl.PreResolutionCache;
 import org.nrg.framework.constants.Scope;
 import org.nrg.xdat.preferences.SiteConfigPreferences;
 import org.nrg.xft.security.UserI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -54,17 +69,22 @@ import org.springframework.transaction.annotation.Transactional;
 import java.io.File;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
 
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -84,6 +104,9 @@ public class CommandResolutionTest {
     @Autowired private CommandResolutionService commandResolutionService;
     @Autowired private ConfigService mockConfigService;
     @Autowired private SiteConfigPreferences mockSiteConfigPreferences;
+    @Autowired private DockerService dockerService;
+    @Autowired private BuildDirectoryPopulator buildDirectoryPopulator;
+    @Autowired private PreResolutionCache preResolutionCache;
 
     @Rule
     public TemporaryFolder folder = new TemporaryFolder(new File("/tmp"));
@@ -268,6 +291,141 @@ public class CommandResolutionTest {
                 runtimeValues, expectedWrapperInputValues, expectedCommandInputValues);
     }
 
+    @Test
+    public void testParallelResolutionMatchesSerialResolution() throws Exception {
+        final CommandWrapper commandWrapper = xnatCommandWrappers.get("session-scan-resource");
+        final ConfiguredCommand configuredCommand = commandService.getAndConfigure(commandWrapper.id());
+
+        // Three scans match, and each has six derived inputs under it, so there are subtrees to resolve side by side
+        final Map<String, String> runtimeValues = Maps.newHashMap();
+        runtimeValues.put("session", sessionWithScans(3));
+
+        // Record who the resolution pool's threads are acting for when they serialize the derived values
+        final Authentication authentication = new TestingAuthenticationToken(mockUser, "password");
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        final List<Authentication> authenticationsOnPool = Collections.synchronizedList(Lists.<Authentication>newArrayList());
+        final ObjectMapper recordingMapper = Mockito.spy(mapper);
+        doAnswer(new Answer<String>() {
+            @Override
+            public String answer(final InvocationOnMock invocation) throws Throwable {
+                if (ForkJoinTask.inForkJoinPool()) {
+                    authenticationsOnPool.add(SecurityContextHolder.getContext().getAuthentication());
+                }
+                return (String) invocation.callRealMethod();
+            }
+        }).when(recordingMapper).writeValueAsString(any());
+
+        final CommandResolutionServiceImpl parallelResolutionService = new CommandResolutionServiceImpl(commandService,
+                mockConfigService, mockSiteConfigPreferences, recordingMapper, dockerService, buildDirectoryPopulator,
+                preResolutionCache, 4);
+        try {
+            final PartiallyResolvedCommand serial = commandResolutionService.preResolve(configuredCommand, runtimeValues, mockUser);
+            final PartiallyResolvedCommand parallel = parallelResolutionService.preResolve(configuredCommand, runtimeValues, mockUser);
+
+            // Same values, in the same order
+            final List<String> serialValues = flatten(serial.resolvedInputTrees());
+            assertThat(serialValues, hasSize(2 + 3 * 7));
+            assertThat(flatten(parallel.resolvedInputTrees()), is(serialValues));
+
+            assertThat(authenticationsOnPool.isEmpty(), is(false));
+            for (final Authentication authenticationOnPool : authenticationsOnPool) {
+                assertThat(authenticationOnPool, is(sameInstance(authentication)));
+            }
+        } finally {
+            parallelResolutionService.shutdown();
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Test
+    public void testPreResolveAgainOnlyResolvesUnderChangedInputs() throws Exception {
+        final CommandWrapper commandWrapper = xnatCommandWrappers.get("session-scan-resource");
+        final ConfiguredCommand configuredCommand = commandService.getAndConfigure(commandWrapper.id());
+        final Map<String, String> inputValues = Maps.newHashMap();
+        inputValues.put("session", sessionWithScans(3));
+        final PartiallyResolvedCommand first = commandResolutionService.preResolve(configuredCommand, inputValues, mockUser);
+
+        // Change an input at the bottom of the session tree
+        final Map<String, String> framesChanged = Maps.newHashMap(inputValues);
+        framesChanged.put("frames", "99");
+        final PartiallyResolvedCommand second = commandResolutionService.preResolve(configuredCommand, first, framesChanged, mockUser);
+        assertThat(flatten(second.resolvedInputTrees()),
+                is(flatten(commandResolutionService.preResolve(configuredCommand, framesChanged, mockUser).resolvedInputTrees())));
+
+        // The other tree is reused whole
+        assertThat(root(second, "T1-scantype"), is(sameInstance(root(first, "T1-scantype"))));
+
+        // Above the changed input, the values are reused and only the path down to it is rebuilt
+        final ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren firstSession = root(first, "session").valuesAndChildren().get(0);
+        final ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren secondSession = root(second, "session").valuesAndChildren().get(0);
+        assertThat(secondSession.resolvedValue(), is(sameInstance(firstSession.resolvedValue())));
+        final ResolvedInputTreeNode<? extends Command.Input> firstScan = child(firstSession, "scan");
+        final ResolvedInputTreeNode<? extends Command.Input> secondScan = child(secondSession, "scan");
+        assertThat(secondScan, is(not(sameInstance(firstScan))));
+        assertThat(secondScan.valuesAndChildren(), hasSize(3));
+        for (int i = 0; i < 3; i++) {
+            final ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren firstScanValue = firstScan.valuesAndChildren().get(i);
+            final ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren secondScanValue = secondScan.valuesAndChildren().get(i);
+            assertThat(secondScanValue.resolvedValue(), is(sameInstance(firstScanValue.resolvedValue())));
+            for (final String unchanged : Lists.newArrayList("dicom", "scan-id", "series-description", "modality", "quality", "note")) {
+                assertThat(child(secondScanValue, unchanged), is(sameInstance(child(firstScanValue, unchanged))));
+            }
+            assertThat(child(secondScanValue, "frames"), is(not(sameInstance(child(firstScanValue, "frames")))));
+        }
+
+        // Changing an input in the middle of the tree resolves everything under it again
+        final Map<String, String> scanChanged = Maps.newHashMap(framesChanged);
+        scanChanged.put("scan", "scan2");
+        final PartiallyResolvedCommand third = commandResolutionService.preResolve(configuredCommand, second, scanChanged, mockUser);
+        assertThat(flatten(third.resolvedInputTrees()),
+                is(flatten(commandResolutionService.preResolve(configuredCommand, scanChanged, mockUser).resolvedInputTrees())));
+        assertThat(root(third, "T1-scantype"), is(sameInstance(root(first, "T1-scantype"))));
+        final ResolvedInputTreeNode<? extends Command.Input> thirdScan = child(root(third, "session").valuesAndChildren().get(0), "scan");
+        assertThat(thirdScan.valuesAndChildren(), hasSize(1));
+        assertThat(thirdScan.valuesAndChildren().get(0).resolvedValue().value(), is("/experiments/session1/scans/scan2"));
+        assertThat(child(thirdScan.valuesAndChildren().get(0), "dicom"),
+                is(not(sameInstance(child(secondScan.valuesAndChildren().get(1), "dicom")))));
+    }
+
+    @Test
+    public void testPreResolutionBatchSharesXnatObjects() throws Exception {
+        final CommandWrapper commandWrapper = xnatCommandWrappers.get("session-scan-resource");
+        final ConfiguredCommand configuredCommand = commandService.getAndConfigure(commandWrapper.id());
+        final Map<String, String> bothScanTypes = Maps.newHashMap();
+        bothScanTypes.put("session", sessionWithScans(2));
+        final Map<String, String> otherScanType = Maps.newHashMap(bothScanTypes);
+        otherScanType.put("T1-scantype", "\"OTHER_SCANTYPE\"");
+
+        final ResolutionBatch batch = commandResolutionService.resolutionBatch(configuredCommand, mockUser);
+        final PartiallyResolvedCommand first = batch.preResolve(bothScanTypes);
+        final PartiallyResolvedCommand second = batch.preResolve(otherScanType);
+        final PartiallyResolvedCommand alone = commandResolutionService.preResolve(configuredCommand, otherScanType, mockUser);
+
+        // Each item in the batch resolves the same as it would on its own
+        assertThat(flatten(first.resolvedInputTrees()),
+                is(flatten(commandResolutionService.preResolve(configuredCommand, bothScanTypes, mockUser).resolvedInputTrees())));
+        assertThat(flatten(second.resolvedInputTrees()), is(flatten(alone.resolvedInputTrees())));
+
+        // But the session is only built once for the whole batch
+        final ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren firstSession = root(first, "session").valuesAndChildren().get(0);
+        final ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren secondSession = root(second, "session").valuesAndChildren().get(0);
+        final XnatModelObject session = firstSession.resolvedValue().xnatModelObject();
+        assertThat(session, is(not(nullValue())));
+        assertThat(secondSession.resolvedValue().xnatModelObject(), is(sameInstance(session)));
+        assertThat(root(alone, "session").valuesAndChildren().get(0).resolvedValue().xnatModelObject(), is(not(sameInstance(session))));
+
+        // So its scans are the same objects too
+        final ResolvedInputTreeNode<? extends Command.Input> firstScan = child(firstSession, "scan");
+        final ResolvedInputTreeNode<? extends Command.Input> secondScan = child(secondSession, "scan");
+        assertThat(firstScan.valuesAndChildren(), hasSize(2));
+        assertThat(secondScan.valuesAndChildren(), hasSize(1));
+        final ResolvedInputValue otherScan = secondScan.valuesAndChildren().get(0).resolvedValue();
+        assertThat(otherScan.value(), is("/experiments/session1/scans/scan2"));
+        final ResolvedInputValue sameScanInFirst = firstScan.valuesAndChildren().get(1).resolvedValue();
+        assertThat(sameScanInFirst.value(), is(otherScan.value()));
+        assertThat(otherScan.xnatModelObject(), is(sameInstance(sameScanInFirst.xnatModelObject())));
+    }
+
     @Test
     public void testResourceFile() throws Exception {
         final String commandWrapperName = "scan-resource-file";
@@ -478,6 +636,64 @@ public class CommandResolutionTest {
     //     assertThat(inputValues, hasEntry(projectInputName, projectUri));
     // }
 
+    /**
+     * @return The test session, with more scans like its first one. Every other scan has the other T1 scan type.
+     */
+    private String sessionWithScans(final int numScans) throws Exception {
+        final String dicomDir = folder.newFolder("DICOM-" + numScans).getAbsolutePath();
+        final ObjectNode session = (ObjectNode) mapper.readTree(new File(resourceDir + "/testSessionScanResource/session.json"));
+        final ArrayNode scans = (ArrayNode) session.get("scans");
+        final ObjectNode firstScan = (ObjectNode) scans.get(0);
+        ((ObjectNode) firstScan.get("resources").get(0)).put("directory", dicomDir);
+        for (int i = 2; i <= numScans; i++) {
+            final ObjectNode scan = firstScan.deepCopy();
+            final String scanUri = "/experiments/session1/scans/scan" + i;
+            scan.put("id", "scan" + i);
+            scan.put("uri", scanUri);
+            scan.put("scan-type", i % 2 == 0 ? "OTHER_SCANTYPE" : "SCANTYPE");
+            scan.put("frames", String.valueOf(i));
+            ((ObjectNode) scan.get("resources").get(0)).put("uri", scanUri + "/resources/0");
+            scans.add(scan);
+        }
+        return mapper.writeValueAsString(session);
+    }
+
+    private ResolvedInputTreeNode<? extends Command.Input> root(final PartiallyResolvedCommand partiallyResolvedCommand,
+                                                                final String inputName) {
+        for (final ResolvedInputTreeNode<? extends Command.Input> node : partiallyResolvedCommand.resolvedInputTrees()) {
+            if (node.input().name().equals(inputName)) {
+                return node;
+            }
+        }
+        fail("No input tree with root input \"" + inputName + "\".");
+        return null;
+    }
+
+    private ResolvedInputTreeNode<? extends Command.Input> child(final ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren valueAndChildren,
+                                                                 final String inputName) {
+        for (final ResolvedInputTreeNode<? extends Command.Input> node : valueAndChildren.children()) {
+            if (node.input().name().equals(inputName)) {
+                return node;
+            }
+        }
+        fail("No child input \"" + inputName + "\".");
+        return null;
+    }
+
+    /**
+     * @return Each input's name and value, walking the trees depth first
+     */
+    private List<String> flatten(final List<ResolvedInputTreeNode<? extends Command.Input>> nodes) {
+        final List<String> values = Lists.newArrayList();
+        for (final ResolvedInputTreeNode<? extends Command.Input> node : nodes) {
+            for (final ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren valueAndChildren : node.valuesAndChildren()) {
+                values.add(node.input().name() + "=" + valueAndChildren.resolvedValue().value());
+                values.addAll(flatten(valueAndChildren.children()));
+            }
+        }
+        return values;
+    }
+
     private void assertStuffAboutResolvedCommand(final ResolvedCommand resolvedCommand,
                                                  final Command dummyCommand,
                                                  final CommandWrapper commandWrapper,
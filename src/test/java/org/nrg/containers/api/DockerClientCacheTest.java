@@ -0,0 +1,113 @@
+package org.nrg.containers.api;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nrg.containers.api.DockerClientCache.ClientLease;
+import org.nrg.containers.exceptions.DockerServerException;
+import org.nrg.containers.model.server.docker.DockerServerBase.DockerServer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DockerClientCacheTest {
+    private static final DockerServer SERVER = DockerServer.create(0L, "test", "http://localhost:2375", null, false);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLeasesShareOneClient() throws Exception {
+        final DockerClientCache cache = new DockerClientCache(2);
+        try (final ClientLease first = cache.lease(SERVER);
+             final ClientLease second = cache.lease(SERVER)) {
+            assertThat(first.client(), is(sameInstance(second.client())));
+        }
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void testInvalidatedClientIsClosedAfterLastLease() throws Exception {
+        final DockerClientCache cache = new DockerClientCache(2);
+        final ClientLease lease = cache.lease(SERVER);
+
+        cache.invalidate();
+        // Still in use, so not closed yet
+        assertThat(cache.getRetiredClientCount(), is(1));
+
+        // New leases get a new client
+        try (final ClientLease newLease = cache.lease(SERVER)) {
+            assertThat(newLease.client(), is(not(sameInstance(lease.client()))));
+        }
+
+        lease.close();
+        assertThat(cache.getRetiredClientCount(), is(0));
+
+        // Closing twice doesn't give back more than we took
+        lease.close();
+        cache.invalidate();
+        assertThat(cache.getRetiredClientCount(), is(0));
+    }
+
+    @Test
+    public void testLeaseWaitsForAConnection() throws Exception {
+        final DockerClientCache cache = new DockerClientCache(1);
+        final ClientLease lease = cache.lease(SERVER);
+
+        final Future<Boolean> waiting = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                try (final ClientLease ignored = cache.lease(SERVER)) {
+                    return true;
+                }
+            }
+        });
+        Thread.sleep(100L);
+        assertThat(waiting.isDone(), is(false));
+
+        lease.close();
+        assertThat(waiting.get(5, TimeUnit.SECONDS), is(true));
+        assertThat(cache.getMaxLeaseWaitMillis(), is(greaterThanOrEqualTo(50L)));
+    }
+
+    @Test
+    public void testInterruptedLeaseIsNotCounted() throws Exception {
+        final DockerClientCache cache = new DockerClientCache(1);
+        try (final ClientLease ignored = cache.lease(SERVER)) {
+            Thread.currentThread().interrupt();
+            try {
+                cache.lease(SERVER);
+                fail("Leasing while interrupted should fail.");
+            } catch (DockerServerException expected) {
+                assertThat(Thread.interrupted(), is(true));
+            }
+        }
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHitCount(), is(0L));
+    }
+
+    @Test
+    public void testLeaseAfterInvalidationIsOneMiss() throws Exception {
+        final DockerClientCache cache = new DockerClientCache(2);
+        cache.lease(SERVER).close();
+        cache.invalidate();
+        cache.lease(SERVER).close();
+        cache.lease(SERVER).close();
+        assertThat(cache.getMissCount(), is(2L));
+        assertThat(cache.getHitCount(), is(1L));
+    }
+}
@@ -9,6 +9,7 @@ import org.nrg.containers.services.CommandService;
 import org.nrg.containers.services.ContainerConfigService;
 import org.nrg.containers.services.impl.CommandServiceImpl;
 import org.nrg.containers.services.impl.ContainerConfigServiceImpl;
+import org.nrg.containers.services.impl.PreResolutionCache;
 import org.nrg.containers.services.impl.HibernateCommandEntityService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -19,8 +20,14 @@ import org.springframework.context.annotation.Import;
 public class CommandConfig {
     @Bean
     public CommandService commandService(final CommandEntityService commandEntityService,
-                                         final ContainerConfigService containerConfigService) {
-        return new CommandServiceImpl(commandEntityService, containerConfigService);
+                                         final ContainerConfigService containerConfigService,
+                                         final PreResolutionCache preResolutionCache) {
+        return new CommandServiceImpl(commandEntityService, containerConfigService, preResolutionCache);
+    }
+
+    @Bean
+    public PreResolutionCache preResolutionCache() {
+        return new PreResolutionCache(0L, 100);
     }
 
     @Bean
@@ -36,7 +43,7 @@ public class CommandConfig {
     @Bean
     public ContainerConfigService containerConfigService(final ConfigService configService,
                                                          final ObjectMapper objectMapper) {
-        return new ContainerConfigServiceImpl(configService, objectMapper);
+        return new ContainerConfigServiceImpl(configService, objectMapper, 0L);
     }
 
     @Bean
@@ -9,6 +9,7 @@ import org.nrg.containers.services.CommandService;
 import org.nrg.containers.services.ContainerConfigService;
 import org.nrg.containers.services.impl.CommandServiceImpl;
 import org.nrg.containers.services.impl.ContainerConfigServiceImpl;
+import org.nrg.containers.services.impl.PreResolutionCache;
 import org.nrg.framework.services.ContextService;
 import org.nrg.xdat.security.services.PermissionsServiceI;
 import org.nrg.xdat.security.services.RoleHolder;
@@ -37,8 +38,14 @@ public class CommandConfigurationRestApiTestConfig extends WebSecurityConfigurer
 
     @Bean
     public CommandService commandService(final CommandEntityService commandEntityService,
-                                         final ContainerConfigService containerConfigService) {
-        return new CommandServiceImpl(commandEntityService, containerConfigService);
+                                         final ContainerConfigService containerConfigService,
+                                         final PreResolutionCache preResolutionCache) {
+        return new CommandServiceImpl(commandEntityService, containerConfigService, preResolutionCache);
+    }
+
+    @Bean
+    public PreResolutionCache preResolutionCache() {
+        return new PreResolutionCache(0L, 100);
     }
 
     @Bean
@@ -49,7 +56,7 @@ public class CommandConfigurationRestApiTestConfig extends WebSecurityConfigurer
     @Bean
     public ContainerConfigService containerConfigService(final ConfigService configService,
                                                          final ObjectMapper objectMapper) {
-        return new ContainerConfigServiceImpl(configService, objectMapper);
+        return new ContainerConfigServiceImpl(configService, objectMapper, 0L);
     }
 
     @Bean
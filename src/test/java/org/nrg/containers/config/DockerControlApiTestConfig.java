@@ -2,6 +2,7 @@ package org.nrg.containers.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.mockito.Mockito;
+import org.nrg.containers.api.DockerClientCache;
 import org.nrg.containers.api.DockerControlApi;
 import org.nrg.containers.daos.ContainerEntityRepository;
 import org.nrg.containers.services.CommandLabelService;
@@ -26,8 +27,14 @@ public class DockerControlApiTestConfig {
     @Bean
     public DockerControlApi dockerControlApi(final DockerServerService dockerServerService,
                                              final CommandLabelService commandLabelService,
-                                             final NrgEventService eventService) {
-        return new DockerControlApi(dockerServerService, commandLabelService, eventService);
+                                             final NrgEventService eventService,
+                                             final DockerClientCache dockerClientCache) {
+        return new DockerControlApi(dockerServerService, commandLabelService, eventService, dockerClientCache);
+    }
+
+    @Bean
+    public DockerClientCache dockerClientCache() {
+        return new DockerClientCache();
     }
 
     @Bean
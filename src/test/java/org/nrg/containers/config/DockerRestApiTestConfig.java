@@ -3,6 +3,7 @@ package org.nrg.containers.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.mockito.Mockito;
 import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.api.DockerClientCache;
 import org.nrg.containers.api.DockerControlApi;
 import org.nrg.containers.rest.DockerRestApi;
 import org.nrg.containers.services.CommandLabelService;
@@ -67,11 +68,17 @@ public class DockerRestApiTestConfig extends WebSecurityConfigurerAdapter {
     @Bean
     public ContainerControlApi mockContainerControlApi(final DockerServerService dockerServerService,
                                                        final CommandLabelService commandLabelService,
-                                                       final NrgEventService eventService) {
-        final ContainerControlApi controlApi = new DockerControlApi(dockerServerService, commandLabelService, eventService);
+                                                       final NrgEventService eventService,
+                                                       final DockerClientCache dockerClientCache) {
+        final ContainerControlApi controlApi = new DockerControlApi(dockerServerService, commandLabelService, eventService, dockerClientCache);
         return Mockito.spy(controlApi);
     }
 
+    @Bean
+    public DockerClientCache dockerClientCache() {
+        return new DockerClientCache();
+    }
+
     @Bean
     public NrgPreferenceService nrgPreferenceService() {
         return Mockito.mock(NrgPreferenceService.class);
@@ -1,9 +1,11 @@
 package org.nrg.containers.config;
 
 import org.nrg.containers.api.DockerControlApi;
+import org.nrg.containers.events.DockerEventStreamer;
 import org.nrg.containers.events.DockerStatusUpdater;
 import org.nrg.containers.services.ContainerService;
 import org.nrg.containers.services.DockerServerService;
+import org.nrg.framework.services.NrgEventService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
@@ -25,8 +27,17 @@ public class EventPullingIntegrationTestConfig implements SchedulingConfigurer {
     @Bean
     public DockerStatusUpdater dockerStatusUpdater(final DockerControlApi dockerControlApi,
                                                    final DockerServerService dockerServerService,
-                                                   final ContainerService containerService) {
-        return new DockerStatusUpdater(dockerControlApi, dockerServerService, containerService);
+                                                   final ContainerService containerService,
+                                                   final DockerEventStreamer dockerEventStreamer,
+                                                   final NrgEventService eventService) {
+        return new DockerStatusUpdater(dockerControlApi, dockerServerService, containerService, dockerEventStreamer, eventService, 4, 30L);
+    }
+
+    @Bean
+    public DockerEventStreamer dockerEventStreamer(final DockerControlApi dockerControlApi,
+                                                   final DockerServerService dockerServerService,
+                                                   final NrgEventService eventService) {
+        return new DockerEventStreamer(dockerControlApi, dockerServerService, eventService, true);
     }
 
     @Bean
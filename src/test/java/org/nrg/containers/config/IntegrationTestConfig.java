@@ -5,6 +5,7 @@ import org.hibernate.SessionFactory;
 import org.mockito.Mockito;
 import org.nrg.config.services.ConfigService;
 import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.api.DockerClientCache;
 import org.nrg.containers.api.DockerControlApi;
 import org.nrg.containers.daos.ContainerEntityRepository;
 import org.nrg.containers.daos.DockerServerEntityRepository;
@@ -39,11 +40,15 @@ import org.nrg.containers.services.DockerServerEntityService;
 import org.nrg.containers.services.DockerServerService;
 import org.nrg.containers.services.DockerService;
 import org.nrg.containers.services.impl.CommandLabelServiceImpl;
+import org.nrg.containers.services.impl.BuildDirectoryPopulator;
 import org.nrg.containers.services.impl.CommandResolutionServiceImpl;
 import org.nrg.containers.services.impl.ContainerFinalizeServiceImpl;
+import org.nrg.containers.services.impl.ContainerLogShipper;
+import org.nrg.containers.services.impl.ContainerFinalizationQueue;
 import org.nrg.containers.services.impl.ContainerServiceImpl;
 import org.nrg.containers.services.impl.DockerServerServiceImpl;
 import org.nrg.containers.services.impl.DockerServiceImpl;
+import org.nrg.containers.services.impl.PreResolutionCache;
 import org.nrg.containers.services.impl.HibernateContainerEntityService;
 import org.nrg.containers.services.impl.HibernateDockerServerEntityService;
 import org.nrg.framework.services.ContextService;
@@ -81,13 +86,20 @@ public class IntegrationTestConfig {
     @Bean
     public DockerControlApi dockerControlApi(final DockerServerService dockerServerService,
                                              final CommandLabelService commandLabelService,
-                                             final NrgEventService eventService) {
-        return new DockerControlApi(dockerServerService, commandLabelService, eventService);
+                                             final NrgEventService eventService,
+                                             final DockerClientCache dockerClientCache) {
+        return new DockerControlApi(dockerServerService, commandLabelService, eventService, dockerClientCache);
     }
 
     @Bean
-    public DockerServerService dockerServerService(final DockerServerEntityService dockerServerEntityService) {
-        return new DockerServerServiceImpl(dockerServerEntityService);
+    public DockerClientCache dockerClientCache() {
+        return new DockerClientCache();
+    }
+
+    @Bean
+    public DockerServerService dockerServerService(final DockerServerEntityService dockerServerEntityService,
+                                                   final DockerClientCache dockerClientCache) {
+        return new DockerServerServiceImpl(dockerServerEntityService, dockerClientCache);
     }
 
     @Bean
@@ -144,10 +156,16 @@ public class IntegrationTestConfig {
                                              final CommandResolutionService commandResolutionService,
                                              final AliasTokenService aliasTokenService,
                                              final SiteConfigPreferences siteConfigPreferences,
-                                             final ContainerFinalizeService containerFinalizeService) {
+                                             final ContainerFinalizeService containerFinalizeService,
+                                             final ContainerFinalizationQueue containerFinalizationQueue) {
         return new ContainerServiceImpl(containerControlApi, containerEntityService,
                         commandResolutionService, aliasTokenService, siteConfigPreferences,
-                        containerFinalizeService);
+                        containerFinalizeService, containerFinalizationQueue);
+    }
+
+    @Bean
+    public ContainerFinalizationQueue containerFinalizationQueue() {
+        return new ContainerFinalizationQueue(2, 1, 1L);
     }
 
     @Bean
@@ -155,8 +173,15 @@ public class IntegrationTestConfig {
                                                              final ConfigService configService,
                                                              final SiteConfigPreferences siteConfigPreferences,
                                                              final ObjectMapper objectMapper,
-                                                             final DockerService dockerService) {
-        return new CommandResolutionServiceImpl(commandService, configService, siteConfigPreferences, objectMapper, dockerService);
+                                                             final DockerService dockerService,
+                                                             final BuildDirectoryPopulator buildDirectoryPopulator,
+                                                             final PreResolutionCache preResolutionCache) {
+        return new CommandResolutionServiceImpl(commandService, configService, siteConfigPreferences, objectMapper, dockerService, buildDirectoryPopulator, preResolutionCache, 0);
+    }
+
+    @Bean
+    public BuildDirectoryPopulator buildDirectoryPopulator() {
+        return new BuildDirectoryPopulator("reflink", 2);
     }
 
     @Bean
@@ -177,8 +202,16 @@ public class IntegrationTestConfig {
     public ContainerFinalizeService containerFinalizeService(final ContainerControlApi containerControlApi,
                                                              final SiteConfigPreferences siteConfigPreferences,
                                                              final TransportService transportService,
-                                                             final CatalogService catalogService) {
-        return new ContainerFinalizeServiceImpl(containerControlApi, siteConfigPreferences, transportService, catalogService);
+                                                             final CatalogService catalogService,
+                                                             final ContainerLogShipper containerLogShipper) {
+        return new ContainerFinalizeServiceImpl(containerControlApi, siteConfigPreferences, transportService, catalogService, containerLogShipper, 2);
+    }
+
+    @Bean
+    public ContainerLogShipper containerLogShipper(final ContainerControlApi containerControlApi,
+                                                   final ContainerEntityService containerEntityService,
+                                                   final SiteConfigPreferences siteConfigPreferences) {
+        return new ContainerLogShipper(containerControlApi, containerEntityService, siteConfigPreferences, 16L);
     }
 
     @Bean
@@ -3,12 +3,15 @@ package org.nrg.containers.config;
 import org.mockito.Mockito;
 import org.nrg.containers.api.ContainerControlApi;
 import org.nrg.containers.rest.LaunchRestApi;
+import org.nrg.containers.services.BulkLaunchService;
 import org.nrg.containers.services.CommandResolutionService;
 import org.nrg.containers.services.CommandService;
 import org.nrg.containers.services.ContainerEntityService;
 import org.nrg.containers.services.ContainerFinalizeService;
 import org.nrg.containers.services.ContainerService;
 import org.nrg.containers.services.DockerServerService;
+import org.nrg.containers.services.impl.BulkLaunchServiceImpl;
+import org.nrg.containers.services.impl.ContainerFinalizationQueue;
 import org.nrg.containers.services.impl.ContainerServiceImpl;
 import org.nrg.framework.services.ContextService;
 import org.nrg.transporter.TransportService;
@@ -38,9 +41,17 @@ public class LaunchRestApiTestConfig extends WebSecurityConfigurerAdapter {
     public LaunchRestApi launchRestApi(final CommandService commandService,
                                        final ContainerService containerService,
                                        final CommandResolutionService commandResolutionService,
+                                       final BulkLaunchService bulkLaunchService,
                                        final UserManagementServiceI userManagementServiceI,
                                        final RoleHolder roleHolder) {
-        return new LaunchRestApi(commandService, containerService, commandResolutionService, userManagementServiceI, roleHolder);
+        return new LaunchRestApi(commandService, containerService, commandResolutionService, bulkLaunchService, userManagementServiceI, roleHolder);
+    }
+
+    @Bean
+    public BulkLaunchService bulkLaunchService(final CommandService commandService,
+                                               final CommandResolutionService commandResolutionService,
+                                               final ContainerService containerService) {
+        return new BulkLaunchServiceImpl(commandService, commandResolutionService, containerService, 2, 2, 60);
     }
 
     @Bean
@@ -49,10 +60,16 @@ public class LaunchRestApiTestConfig extends WebSecurityConfigurerAdapter {
                                              final CommandResolutionService commandResolutionService,
                                              final AliasTokenService aliasTokenService,
                                              final SiteConfigPreferences siteConfigPreferences,
-                                             final ContainerFinalizeService containerFinalizeService) {
+                                             final ContainerFinalizeService containerFinalizeService,
+                                             final ContainerFinalizationQueue containerFinalizationQueue) {
         return new ContainerServiceImpl(containerControlApi, containerEntityService,
                 commandResolutionService, aliasTokenService, siteConfigPreferences,
-                containerFinalizeService);
+                containerFinalizeService, containerFinalizationQueue);
+    }
+
+    @Bean
+    public ContainerFinalizationQueue containerFinalizationQueue() {
+        return new ContainerFinalizationQueue(2, 1, 1L);
     }
 
     @Bean
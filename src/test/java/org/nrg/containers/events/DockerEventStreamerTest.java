@@ -0,0 +1,192 @@
+package org.nrg.containers.events;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.api.ContainerEventSubscription;
+import org.nrg.containers.events.model.DockerContainerEvent;
+import org.nrg.containers.exceptions.DockerServerException;
+import org.nrg.containers.model.server.docker.DockerServerBase.DockerServer;
+import org.nrg.containers.services.DockerServerService;
+import org.nrg.framework.services.NrgEventService;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DockerEventStreamerTest {
+    private static final long MIN_BACKOFF_MILLIS = 50L;
+    private static final long MAX_BACKOFF_MILLIS = 200L;
+
+    private final Date lastEventCheckTime = new Date(1000L);
+
+    private ContainerControlApi controlApi;
+    private NrgEventService eventService;
+    private DockerEventStreamer streamer;
+
+    @Before
+    public void setup() {
+        controlApi = mock(ContainerControlApi.class);
+        eventService = mock(NrgEventService.class);
+        final DockerServerService dockerServerService = mock(DockerServerService.class);
+        when(dockerServerService.retrieveServer())
+                .thenReturn(DockerServer.create(0L, "name", "unix:///var/run/docker.sock", null, false, lastEventCheckTime));
+
+        streamer = new DockerEventStreamer(controlApi, dockerServerService, eventService, true, MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    @After
+    public void teardown() {
+        streamer.stop();
+    }
+
+    @Test
+    public void testReconnectResumesFromLastEvent() throws Exception {
+        final FakeSubscription first = new FakeSubscription();
+        final FakeSubscription second = new FakeSubscription();
+        final DockerContainerEvent event = event("die", new Date(5000L));
+        when(controlApi.subscribeToContainerEvents(any(Date.class))).thenReturn(first, second);
+
+        streamer.start();
+        verify(controlApi, timeout(5000)).subscribeToContainerEvents(lastEventCheckTime);
+
+        first.send(event);
+        first.fail();
+
+        verify(eventService, timeout(5000)).triggerEvent(event);
+        verify(controlApi, timeout(5000)).subscribeToContainerEvents(event.time());
+        assertThat(first.closed, is(true));
+        awaitStreaming(true);
+    }
+
+    @Test
+    public void testReconnectBacksOff() throws Exception {
+        final List<Long> subscribeTimes = Collections.synchronizedList(Lists.<Long>newArrayList());
+        final CountDownLatch fourAttempts = new CountDownLatch(4);
+        final FakeSubscription connected = new FakeSubscription();
+        when(controlApi.subscribeToContainerEvents(any(Date.class))).thenAnswer(new Answer<ContainerEventSubscription>() {
+            @Override
+            public ContainerEventSubscription answer(final InvocationOnMock invocation) throws Throwable {
+                subscribeTimes.add(System.nanoTime());
+                fourAttempts.countDown();
+                if (subscribeTimes.size() < 4) {
+                    throw new DockerServerException("Cannot connect");
+                }
+                return connected;
+            }
+        });
+
+        streamer.start();
+        assertThat(fourAttempts.await(5, TimeUnit.SECONDS), is(true));
+        awaitStreaming(true);
+
+        // We wait twice as long after each failure, up to the maximum
+        assertThat(millisBetweenAttempts(subscribeTimes, 0), is(greaterThanOrEqualTo(MIN_BACKOFF_MILLIS)));
+        assertThat(millisBetweenAttempts(subscribeTimes, 1), is(greaterThanOrEqualTo(2 * MIN_BACKOFF_MILLIS)));
+        assertThat(millisBetweenAttempts(subscribeTimes, 2), is(greaterThanOrEqualTo(MAX_BACKOFF_MILLIS)));
+    }
+
+    @Test
+    public void testStopAndStartAgain() throws Exception {
+        final FakeSubscription first = new FakeSubscription();
+        final FakeSubscription second = new FakeSubscription();
+        when(controlApi.subscribeToContainerEvents(any(Date.class))).thenReturn(first, second);
+
+        streamer.start();
+        awaitStreaming(true);
+
+        // Stopping closes the stream and waits for its thread
+        streamer.stop();
+        assertThat(streamer.isStreaming(), is(false));
+        assertThat(first.closed, is(true));
+        verify(controlApi, times(1)).subscribeToContainerEvents(any(Date.class));
+
+        // Starting again opens one new stream, which nothing from the old stream turns off
+        streamer.start();
+        streamer.start();
+        awaitStreaming(true);
+        verify(controlApi, times(2)).subscribeToContainerEvents(any(Date.class));
+        Thread.sleep(2 * MIN_BACKOFF_MILLIS);
+        assertThat(streamer.isStreaming(), is(true));
+
+        // Each event is thrown once
+        final DockerContainerEvent event = event("start", new Date(6000L));
+        second.send(event);
+        verify(eventService, timeout(5000)).triggerEvent(event);
+        Thread.sleep(2 * MIN_BACKOFF_MILLIS);
+        verify(eventService, times(1)).triggerEvent(event);
+    }
+
+    private void awaitStreaming(final boolean streaming) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (streamer.isStreaming() != streaming && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(streamer.isStreaming(), is(streaming));
+    }
+
+    private long millisBetweenAttempts(final List<Long> attemptNanos, final int attempt) {
+        return TimeUnit.NANOSECONDS.toMillis(attemptNanos.get(attempt + 1) - attemptNanos.get(attempt));
+    }
+
+    private DockerContainerEvent event(final String status, final Date time) {
+        return DockerContainerEvent.create(status, "container-id", time, time.getTime() * 1000000L, null);
+    }
+
+    /**
+     * A stream whose events we send from the test. Like the real one, closing it ends a blocked {@link #next()}.
+     */
+    private static class FakeSubscription implements ContainerEventSubscription {
+        private static final Object END = new Object();
+        private static final Object FAILURE = new Object();
+
+        private final BlockingQueue<Object> items = new LinkedBlockingQueue<>();
+        private volatile boolean closed = false;
+
+        void send(final DockerContainerEvent event) {
+            items.add(event);
+        }
+
+        void fail() {
+            items.add(FAILURE);
+        }
+
+        @Override
+        public DockerContainerEvent next() throws DockerServerException {
+            final Object item;
+            try {
+                item = items.take();
+            } catch (InterruptedException e) {
+                return null;
+            }
+            if (item == FAILURE) {
+                throw new DockerServerException("Stream failed");
+            }
+            return item == END ? null : (DockerContainerEvent) item;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            items.add(END);
+        }
+    }
+}
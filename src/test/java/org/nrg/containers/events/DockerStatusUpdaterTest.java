@@ -0,0 +1,205 @@
+package org.nrg.containers.events;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.events.model.ServiceTaskEvent;
+import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.model.container.auto.Container.ContainerHistory;
+import org.nrg.containers.model.container.auto.ServiceTask;
+import org.nrg.containers.model.server.docker.DockerServerBase.DockerServer;
+import org.nrg.containers.services.ContainerService;
+import org.nrg.containers.services.DockerServerService;
+import org.nrg.framework.services.NrgEventService;
+import org.nrg.xft.schema.XFTManager;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(XFTManager.class)
+@PowerMockIgnore({"org.apache.*", "java.*", "javax.*", "org.w3c.*", "com.sun.*"})
+public class DockerStatusUpdaterTest {
+    private final DockerServer swarm = DockerServer.create(0L, "swarm", "unix:///var/run/docker.sock", null, true, new Date(0L));
+
+    private ContainerControlApi controlApi;
+    private ContainerService containerService;
+    private NrgEventService eventService;
+    private DockerStatusUpdater statusUpdater;
+
+    @Before
+    public void setup() throws Exception {
+        mockStatic(XFTManager.class);
+        when(XFTManager.isInitialized()).thenReturn(true);
+
+        controlApi = mock(ContainerControlApi.class);
+        when(controlApi.canConnect()).thenReturn(true);
+        final DockerServerService dockerServerService = mock(DockerServerService.class);
+        when(dockerServerService.getServer()).thenReturn(swarm);
+        containerService = mock(ContainerService.class);
+        eventService = mock(NrgEventService.class);
+
+        statusUpdater = new DockerStatusUpdater(controlApi, dockerServerService, containerService,
+                mock(DockerEventStreamer.class), eventService, 4, 1L);
+    }
+
+    @After
+    public void teardown() {
+        statusUpdater.shutdown();
+    }
+
+    @Test
+    public void testOneTaskListingCoversAllServices() throws Exception {
+        final List<Container> services = Lists.newArrayList(service("s1"), service("s2"), service("s3"));
+        final ImmutableMap.Builder<String, ServiceTask> tasksByServiceId = ImmutableMap.builder();
+        for (final Container service : services) {
+            tasksByServiceId.put(service.serviceId(), task(service.serviceId(), "running", 100L));
+        }
+        when(containerService.retrieveNonfinalizedServices()).thenReturn(services);
+        when(controlApi.getTasksForLabeledServices(swarm)).thenReturn(tasksByServiceId.build());
+        returnTasksUnchanged();
+
+        statusUpdater.run();
+
+        verify(controlApi, times(1)).getTasksForLabeledServices(swarm);
+        verify(controlApi, never()).throwTaskEventForService(any(DockerServer.class), any(Container.class));
+        verify(controlApi, times(3)).withContainerExitCode(eq(swarm), any(ServiceTask.class));
+        verify(eventService, times(3)).triggerEvent(any(ServiceTaskEvent.class));
+        assertThat(statusUpdater.getLastRunServicesChecked(), is(3));
+    }
+
+    @Test
+    public void testTaskStatusAlreadyInHistoryIsNotThrownAgain() throws Exception {
+        final ServiceTask seen = task("seen", "running", 100L);
+        final ServiceTask changed = task("changed", "complete", 200L);
+        final Container seenService = service("seen", ContainerHistory.fromServiceTask(seen));
+        final Container changedService = service("changed", ContainerHistory.fromServiceTask(task("changed", "running", 100L)));
+        when(containerService.retrieveNonfinalizedServices()).thenReturn(Lists.newArrayList(seenService, changedService));
+        when(controlApi.getTasksForLabeledServices(swarm)).thenReturn(ImmutableMap.of("seen", seen, "changed", changed));
+        returnTasksUnchanged();
+
+        statusUpdater.run();
+
+        verify(controlApi, never()).withContainerExitCode(swarm, seen);
+        verify(controlApi, times(1)).withContainerExitCode(swarm, changed);
+        verify(eventService, times(1)).triggerEvent(any(ServiceTaskEvent.class));
+    }
+
+    @Test
+    public void testTimedOutServiceDoesNotBlockTheOthers() throws Exception {
+        final ServiceTask slow = task("slow", "running", 100L);
+        final ServiceTask fast1 = task("fast1", "running", 100L);
+        final ServiceTask fast2 = task("fast2", "running", 100L);
+        when(containerService.retrieveNonfinalizedServices())
+                .thenReturn(Lists.newArrayList(service("slow"), service("fast1"), service("fast2")));
+        when(controlApi.getTasksForLabeledServices(swarm)).thenReturn(ImmutableMap.of("slow", slow, "fast1", fast1, "fast2", fast2));
+
+        final CountDownLatch neverReleased = new CountDownLatch(1);
+        when(controlApi.withContainerExitCode(any(DockerServer.class), any(ServiceTask.class))).thenAnswer(new Answer<ServiceTask>() {
+            @Override
+            public ServiceTask answer(final InvocationOnMock invocation) throws Throwable {
+                final ServiceTask task = (ServiceTask) invocation.getArguments()[1];
+                if (task.serviceId().equals("slow")) {
+                    neverReleased.await();
+                }
+                return task;
+            }
+        });
+
+        final Thread run = new Thread(statusUpdater);
+        run.start();
+
+        // The other services are updated while the slow one is still waiting
+        verify(eventService, timeout(900).times(2)).triggerEvent(any(ServiceTaskEvent.class));
+
+        run.join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(run.isAlive(), is(false));
+        assertThat(statusUpdater.getTimeoutCount(), is(1L));
+        verify(eventService, times(2)).triggerEvent(any(ServiceTaskEvent.class));
+    }
+
+    @Test
+    public void testRunIsSkippedWhileAnotherIsInProgress() throws Exception {
+        final CountDownLatch firstRunStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstRun = new CountDownLatch(1);
+        when(containerService.retrieveNonfinalizedServices()).thenAnswer(new Answer<List<Container>>() {
+            @Override
+            public List<Container> answer(final InvocationOnMock invocation) throws Throwable {
+                firstRunStarted.countDown();
+                releaseFirstRun.await();
+                return Lists.newArrayList();
+            }
+        });
+
+        final Thread firstRun = new Thread(statusUpdater);
+        firstRun.start();
+        assertThat(firstRunStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        statusUpdater.run();
+        assertThat(statusUpdater.getSkippedRunCount(), is(1L));
+        assertThat(statusUpdater.getRunCount(), is(0L));
+
+        releaseFirstRun.countDown();
+        firstRun.join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(statusUpdater.getRunCount(), is(1L));
+        verify(containerService, times(1)).retrieveNonfinalizedServices();
+    }
+
+    private void returnTasksUnchanged() throws Exception {
+        when(controlApi.withContainerExitCode(any(DockerServer.class), any(ServiceTask.class))).thenAnswer(new Answer<ServiceTask>() {
+            @Override
+            public ServiceTask answer(final InvocationOnMock invocation) {
+                return (ServiceTask) invocation.getArguments()[1];
+            }
+        });
+    }
+
+    private Container service(final String serviceId, final ContainerHistory... history) {
+        return Container.builder()
+                .databaseId(serviceId.hashCode())
+                .commandId(1L)
+                .wrapperId(1L)
+                .userId("user")
+                .dockerImage("busybox:latest")
+                .commandLine("echo hello")
+                .swarm(true)
+                .serviceId(serviceId)
+                .status("Running")
+                .history(Arrays.asList(history))
+                .build();
+    }
+
+    private ServiceTask task(final String serviceId, final String status, final long statusTime) {
+        return ServiceTask.builder()
+                .serviceId(serviceId)
+                .taskId("task-" + serviceId)
+                .nodeId("node")
+                .status(status)
+                .statusTime(new Date(statusTime))
+                .build();
+    }
+}
@@ -0,0 +1,109 @@
+package org.nrg.containers.model;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nrg.containers.config.QueuedCommandLaunchTestConfig;
+import org.nrg.containers.services.QueuedCommandLaunchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional
+@ContextConfiguration(classes = QueuedCommandLaunchTestConfig.class)
+public class QueuedCommandLaunchTest {
+
+    @Autowired private QueuedCommandLaunchService queuedCommandLaunchService;
+
+    @Test
+    public void testSpringConfiguration() {
+        assertThat(queuedCommandLaunchService, not(nullValue()));
+    }
+
+    @Test
+    @DirtiesContext
+    public void testSaveAndChangeStatus() throws Exception {
+        final Map<String, String> inputValues = Maps.newHashMap();
+        inputValues.put("session", "{\"id\": \"XNAT_E00001\"}");
+
+        final QueuedCommandLaunch created = queuedCommandLaunchService.create(
+                QueuedCommandLaunch.create("project", 5L, "wrapper", inputValues, "someone"));
+        assertThat(created.getId(), is(not(0L)));
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        TestTransaction.start();
+
+        final QueuedCommandLaunch queued = queuedCommandLaunchService.retrieve(created.getId());
+        assertThat(queued.getStatus(), is(QueuedCommandLaunch.STATUS_QUEUED));
+        assertThat(queued.getStatusTime(), is(not(nullValue())));
+        assertThat(queued.getInputValues(), is(inputValues));
+        assertThat(queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_QUEUED), contains(queued));
+        assertThat(queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_RESOLVING), is(empty()));
+
+        final Date queuedTime = queued.getStatusTime();
+        Thread.sleep(10L);
+        queued.getInputValues().clear();
+        queuedCommandLaunchService.setStatus(queued, QueuedCommandLaunch.STATUS_LAUNCHING, null);
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        TestTransaction.start();
+
+        final QueuedCommandLaunch launching = queuedCommandLaunchService.retrieve(created.getId());
+        assertThat(launching.getStatus(), is(QueuedCommandLaunch.STATUS_LAUNCHING));
+        assertThat(launching.getStatusTime().getTime(), is(greaterThan(queuedTime.getTime())));
+        assertThat(launching.getInputValues().isEmpty(), is(true));
+        assertThat(queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_QUEUED), is(empty()));
+    }
+
+    @Test
+    @DirtiesContext
+    public void testDeleteOldFailedLaunches() throws Exception {
+        final Date now = new Date();
+        final Date longAgo = new Date(now.getTime() - TimeUnit.DAYS.toMillis(7L));
+        final QueuedCommandLaunch oldFailure = save(QueuedCommandLaunch.STATUS_FAILED, longAgo);
+        final QueuedCommandLaunch newFailure = save(QueuedCommandLaunch.STATUS_FAILED, now);
+        final QueuedCommandLaunch oldQueued = save(QueuedCommandLaunch.STATUS_QUEUED, longAgo);
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        TestTransaction.start();
+
+        final Date cutoff = new Date(now.getTime() - TimeUnit.DAYS.toMillis(1L));
+        assertThat(queuedCommandLaunchService.deleteByStatusBefore(QueuedCommandLaunch.STATUS_FAILED, cutoff), is(1));
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        TestTransaction.start();
+
+        assertThat(queuedCommandLaunchService.retrieve(oldFailure.getId()), is(nullValue()));
+        assertThat(queuedCommandLaunchService.retrieve(newFailure.getId()), is(not(nullValue())));
+        assertThat(queuedCommandLaunchService.retrieve(oldQueued.getId()), is(not(nullValue())));
+    }
+
+    private QueuedCommandLaunch save(final String status, final Date statusTime) {
+        final Map<String, String> inputValues = Maps.newHashMap();
+        inputValues.put("session", "{\"id\": \"XNAT_E00001\"}");
+        final QueuedCommandLaunch queuedCommandLaunch = QueuedCommandLaunch.create("project", 5L, "wrapper", inputValues, "someone");
+        queuedCommandLaunch.setStatus(status);
+        queuedCommandLaunch.setStatusTime(statusTime);
+        return queuedCommandLaunchService.create(queuedCommandLaunch);
+    }
+}
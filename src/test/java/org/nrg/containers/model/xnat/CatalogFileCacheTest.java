@@ -0,0 +1,94 @@
+package org.nrg.containers.model.xnat;
+
+import com.google.common.base.Supplier;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nrg.containers.model.xnat.CatalogFileCache.CatalogEntry;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CatalogFileCacheTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder(new File("/tmp"));
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Supplier<List<CatalogEntry>> loader = new Supplier<List<CatalogEntry>>() {
+        @Override
+        public List<CatalogEntry> get() {
+            loads.incrementAndGet();
+            return Collections.singletonList(CatalogEntry.create("file.dcm", "file.dcm", "", "DICOM", "RAW", null));
+        }
+    };
+
+    private CatalogFileCache catalogFileCache;
+
+    @Before
+    public void setup() {
+        catalogFileCache = new CatalogFileCache(CatalogFileCache.DEFAULT_MAX_BYTES);
+    }
+
+    @Test
+    public void unchangedCatalogIsReadOnce() throws Exception {
+        final File catalog = oldCatalog("catalog.xml", "<catalog/>");
+
+        catalogFileCache.getEntries(catalog, loader);
+        catalogFileCache.getEntries(catalog, loader);
+        assertThat(loads.get(), is(1));
+        assertThat(catalogFileCache.getMissCount(), is(1L));
+        assertThat(catalogFileCache.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void changedCatalogIsReadAgain() throws Exception {
+        final File catalog = oldCatalog("catalog.xml", "<catalog/>");
+        catalogFileCache.getEntries(catalog, loader);
+
+        FileUtils.writeStringToFile(catalog, "<catalog><entry/></catalog>");
+        catalogFileCache.getEntries(catalog, loader);
+        assertThat(loads.get(), is(2));
+    }
+
+    @Test
+    public void recentlyModifiedCatalogIsNotCached() throws Exception {
+        // A same-size rewrite within the timestamp resolution would look unchanged, so we can't trust it yet
+        final File catalog = folder.newFile("catalog.xml");
+        FileUtils.writeStringToFile(catalog, "<catalog/>");
+
+        catalogFileCache.getEntries(catalog, loader);
+        FileUtils.writeStringToFile(catalog, "<catalog/>");
+        catalogFileCache.getEntries(catalog, loader);
+        assertThat(loads.get(), is(2));
+        assertThat(catalogFileCache.getCatalogCount(), is(0));
+    }
+
+    @Test
+    public void evictsToStayUnderMaxBytes() throws Exception {
+        final File first = oldCatalog("first.xml", "<catalog/>");
+        final File second = oldCatalog("second.xml", "<catalog/>");
+
+        catalogFileCache.getEntries(first, loader);
+        final CatalogFileCache oneCatalogCache = new CatalogFileCache(catalogFileCache.getSizeBytes());
+        oneCatalogCache.getEntries(first, loader);
+        oneCatalogCache.getEntries(second, loader);
+
+        assertThat(oneCatalogCache.getCatalogCount(), is(1));
+        assertThat(oneCatalogCache.getEvictionCount(), is(1L));
+        oneCatalogCache.getEntries(first, loader);
+        assertThat(loads.get(), is(4));
+    }
+
+    private File oldCatalog(final String name, final String contents) throws Exception {
+        final File catalog = folder.newFile(name);
+        FileUtils.writeStringToFile(catalog, contents);
+        assertThat(catalog.setLastModified(System.currentTimeMillis() - 10 * CatalogFileCache.MIN_CATALOG_AGE_MILLIS), is(true));
+        return catalog;
+    }
+}
@@ -12,7 +12,12 @@ import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
 import com.jayway.jsonpath.spi.mapper.MappingProvider;
 import org.junit.Before;
 import org.junit.Test;
+import org.nrg.xdat.model.XnatAbstractresourceI;
+import org.nrg.xdat.model.XnatImageassessordataI;
+import org.nrg.xdat.model.XnatImagescandataI;
+import org.nrg.xdat.om.XnatImagesessiondata;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -22,6 +27,11 @@ import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class XnatModelTest {
     private static final String FILE_JSON = "{\"name\":\"file.txt\", \"type\":\"File\", \"path\":\"/path/to/files/file.txt\", " +
@@ -131,4 +141,50 @@ public class XnatModelTest {
 
         assertThat(results, contains(expected));
     }
+
+    @Test
+    public void testSessionChildrenAreLoadedOnDemand() throws Exception {
+        final XnatImagesessiondata xnatSession = mockXnatSession("E1");
+        final Session session = new Session(xnatSession, "/archive/projects/P1/subjects/S1", null);
+        assertThat(session.getUri(), is("/archive/projects/P1/subjects/S1/experiments/E1"));
+        verify(xnatSession, never()).getScans_scan();
+
+        assertThat(session.getScans(), hasSize(0));
+        assertThat(session.getScans(), hasSize(0));
+        verify(xnatSession, times(1)).getScans_scan();
+        verify(xnatSession, never()).getAssessors_assessor();
+        verify(xnatSession, never()).getResources_resource();
+    }
+
+    @Test
+    public void testSessionEqualityDoesNotLoadChildren() throws Exception {
+        final XnatImagesessiondata xnatSession = mockXnatSession("E1");
+        final Session session = new Session(xnatSession, "/archive/projects/P1/subjects/S1", null);
+        final Session same = new Session(xnatSession, "/archive/projects/P1/subjects/S1", null);
+
+        final Set<Session> sessions = Sets.newHashSet(session);
+        assertThat(sessions.contains(same), is(true));
+        assertThat(session.equals(same), is(true));
+        verify(xnatSession, never()).getScans_scan();
+        verify(xnatSession, never()).getAssessors_assessor();
+        verify(xnatSession, never()).getResources_resource();
+
+        // Loading the children doesn't change the hash
+        final int hashBeforeLoading = session.hashCode();
+        session.getScans();
+        assertThat(session.hashCode(), is(hashBeforeLoading));
+        assertThat(session.equals(same), is(true));
+    }
+
+    private XnatImagesessiondata mockXnatSession(final String id) {
+        final XnatImagesessiondata xnatSession = mock(XnatImagesessiondata.class);
+        when(xnatSession.getId()).thenReturn(id);
+        when(xnatSession.getLabel()).thenReturn(id);
+        when(xnatSession.getProject()).thenReturn("P1");
+        when(xnatSession.getSubjectId()).thenReturn("S1");
+        when(xnatSession.getScans_scan()).thenReturn(Collections.<XnatImagescandataI>emptyList());
+        when(xnatSession.getAssessors_assessor()).thenReturn(Collections.<XnatImageassessordataI>emptyList());
+        when(xnatSession.getResources_resource()).thenReturn(Collections.<XnatAbstractresourceI>emptyList());
+        return xnatSession;
+    }
 }
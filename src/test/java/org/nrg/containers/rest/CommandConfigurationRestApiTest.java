@@ -1,6 +1,7 @@
 package org.nrg.containers.rest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -126,8 +127,7 @@ public class CommandConfigurationRestApiTest {
                 .addInput(CommandInput.builder().name(inputName).build())
                 .addOutput(CommandOutput.builder().name(outputName).build())
                 .build();
-        when(mockCommandEntityService.getWrapperId(commandId, wrapperName)).thenReturn(wrapperId);
-        when(mockCommandEntityService.getCommandByWrapperId(wrapperId)).thenReturn(CommandEntity.fromPojo(command));
+        when(mockCommandEntityService.getAll()).thenReturn(Lists.newArrayList(CommandEntity.fromPojo(command)));
 
         // Create a command configuration
         final CommandConfigurationInternal commandConfigurationInternal = CommandConfigurationInternal.builder()
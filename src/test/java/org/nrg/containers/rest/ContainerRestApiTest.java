@@ -0,0 +1,193 @@
+package org.nrg.containers.rest;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.nrg.containers.exceptions.BadRequestException;
+import org.nrg.containers.exceptions.DockerServerException;
+import org.nrg.containers.model.container.auto.ContainerLogParameters;
+import org.nrg.containers.services.ContainerService;
+import org.nrg.xdat.security.services.RoleHolder;
+import org.nrg.xdat.security.services.UserManagementServiceI;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ContainerRestApiTest {
+    private static final String CONTAINER_ID = "abc123";
+    private static final String LOG = "first\nsecond\nthird\n";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private ContainerService containerService;
+    private ContainerRestApi containerRestApi;
+
+    @Before
+    public void setup() throws Exception {
+        containerService = mock(ContainerService.class);
+        containerRestApi = new ContainerRestApi(containerService, mock(UserManagementServiceI.class), mock(RoleHolder.class));
+    }
+
+    @Test
+    public void testGetLogsZipsEachLog() throws Exception {
+        writesLog(ContainerService.STDOUT_LOG_NAME, "out\n");
+        writesLog(ContainerService.STDERR_LOG_NAME, "");
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        containerRestApi.getLogs(CONTAINER_ID, response);
+
+        final Map<String, String> entries = unzip(response);
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(ContainerService.STDOUT_LOG_NAME), is("out\n"));
+        assertThat(entries.get(ContainerService.STDERR_LOG_NAME), is(""));
+    }
+
+    @Test
+    public void testGetLogsLeavesOutLogThatFailsBeforeWriting() throws Exception {
+        writesLog(ContainerService.STDOUT_LOG_NAME, "out\n");
+        doThrow(new DockerServerException("no docker"))
+                .when(containerService).writeLog(eq(CONTAINER_ID), eq(ContainerService.STDERR_LOG_NAME),
+                        any(ContainerLogParameters.class), any(OutputStream.class));
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        containerRestApi.getLogs(CONTAINER_ID, response);
+
+        final Map<String, String> entries = unzip(response);
+        assertThat(entries.size(), is(1));
+        assertThat(entries.get(ContainerService.STDOUT_LOG_NAME), is("out\n"));
+    }
+
+    @Test
+    public void testGetLogsFailsOnLogCutShort() throws Exception {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[3]).write("part of the lo".getBytes(StandardCharsets.UTF_8));
+                throw new DockerServerException("connection reset");
+            }
+        }).when(containerService).writeLog(eq(CONTAINER_ID), eq(ContainerService.STDOUT_LOG_NAME),
+                any(ContainerLogParameters.class), any(OutputStream.class));
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            containerRestApi.getLogs(CONTAINER_ID, response);
+            fail("A log cut short should fail the download.");
+        } catch (DockerServerException ignored) {
+            // expected
+        }
+
+        // Whatever was sent is not a zip that looks complete
+        final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(response.getContentAsByteArray()));
+        assertThat(zipInputStream.getNextEntry(), is(nullValue()));
+    }
+
+    @Test
+    public void testGetSavedLogWithSendfile() throws Exception {
+        final File logFile = savedLog();
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        containerRestApi.getLog(CONTAINER_ID, ContainerService.STDOUT_LOG_NAME, null, null, false, "bytes=6-12", request, response);
+
+        assertThat(response.getStatus(), is(HttpStatus.PARTIAL_CONTENT.value()));
+        assertThat(response.getHeader("Content-Range"), is("bytes 6-12/" + LOG.length()));
+        assertThat((String) request.getAttribute("org.apache.tomcat.sendfile.filename"), is(logFile.getCanonicalPath()));
+        assertThat((Long) request.getAttribute("org.apache.tomcat.sendfile.start"), is(6L));
+        assertThat((Long) request.getAttribute("org.apache.tomcat.sendfile.end"), is(13L));
+        assertThat(response.getContentAsByteArray().length, is(0));
+    }
+
+    @Test
+    public void testGetSavedLogWithoutSendfile() throws Exception {
+        savedLog();
+        final MockHttpServletResponse whole = new MockHttpServletResponse();
+        containerRestApi.getLog(CONTAINER_ID, ContainerService.STDOUT_LOG_NAME, null, null, false, null,
+                new MockHttpServletRequest(), whole);
+        assertThat(whole.getStatus(), is(HttpStatus.OK.value()));
+        assertThat(whole.getContentAsString(), is(LOG));
+
+        final MockHttpServletResponse part = new MockHttpServletResponse();
+        containerRestApi.getLog(CONTAINER_ID, ContainerService.STDOUT_LOG_NAME, null, null, false, "bytes=6-12",
+                new MockHttpServletRequest(), part);
+        assertThat(part.getStatus(), is(HttpStatus.PARTIAL_CONTENT.value()));
+        assertThat(part.getContentAsString(), is("second\n"));
+    }
+
+    @Test
+    public void testGetSavedLogSinceIsRejected() throws Exception {
+        savedLog();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            containerRestApi.getLog(CONTAINER_ID, ContainerService.STDOUT_LOG_NAME, null, 1520278316, false, null,
+                    new MockHttpServletRequest(), response);
+            fail("A saved log has no timestamps to read since.");
+        } catch (BadRequestException ignored) {
+            // expected
+        }
+        assertThat(response.getContentAsByteArray().length, is(0));
+    }
+
+    @Test
+    public void testFollowSavedLogGetsWholeLog() throws Exception {
+        savedLog();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        containerRestApi.getLog(CONTAINER_ID, ContainerService.STDOUT_LOG_NAME, null, null, true, null,
+                new MockHttpServletRequest(), response);
+        assertThat(response.getStatus(), is(HttpStatus.OK.value()));
+        assertThat(response.getContentAsString(), is(LOG));
+    }
+
+    private File savedLog() throws Exception {
+        final File logFile = folder.newFile("stdout.log");
+        Files.write(logFile.toPath(), LOG.getBytes(StandardCharsets.UTF_8));
+        when(containerService.getSavedLogFile(CONTAINER_ID, ContainerService.STDOUT_LOG_NAME)).thenReturn(logFile);
+        return logFile;
+    }
+
+    private void writesLog(final String logName, final String contents) throws Exception {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[3]).write(contents.getBytes(StandardCharsets.UTF_8));
+                return null;
+            }
+        }).when(containerService).writeLog(eq(CONTAINER_ID), eq(logName), any(ContainerLogParameters.class), any(OutputStream.class));
+    }
+
+    private static Map<String, String> unzip(final MockHttpServletResponse response) throws Exception {
+        final Map<String, String> entries = Maps.newHashMap();
+        try (final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(ByteStreams.toByteArray(zipInputStream), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+}
@@ -23,6 +23,7 @@ import org.nrg.containers.api.ContainerControlApi;
 import org.nrg.containers.config.LaunchRestApiTestConfig;
 import org.nrg.containers.exceptions.CommandResolutionException;
 import org.nrg.containers.model.command.auto.Command.CommandWrapper;
+import org.nrg.containers.model.command.auto.Command.ConfiguredCommand;
 import org.nrg.containers.model.command.auto.LaunchReport;
 import org.nrg.containers.model.command.auto.LaunchUi;
 import org.nrg.containers.model.command.auto.ResolvedCommand;
@@ -272,16 +273,21 @@ public class LaunchRestApiTest {
         bulkInputs.add(input2);
         final String bulkInputJson = mapper.writeValueAsString(bulkInputs);
 
+        // The command is configured once for the whole bulk launch
+        final ConfiguredCommand configuredCommand = Mockito.mock(ConfiguredCommand.class);
+        when(configuredCommand.id()).thenReturn(COMMAND_ID);
+        when(configuredCommand.wrapper()).thenReturn(COMMAND_WRAPPER);
+        when(mockCommandService.getAndConfigure(WRAPPER_ID)).thenReturn(configuredCommand);
 
         when(mockCommandResolutionService.resolve(
-                eq(WRAPPER_ID),
+                eq(configuredCommand),
                 argThat(isMapWithEntry(INPUT_NAME, INPUT_VALUE)),
                 eq(mockAdmin)
         )).thenReturn(RESOLVED_COMMAND);
 
         final String exceptionMessage = "uh oh!";
         when(mockCommandResolutionService.resolve(
-                eq(WRAPPER_ID),
+                eq(configuredCommand),
                 argThat(isMapWithEntry(INPUT_NAME, badInputValue)),
                 eq(mockAdmin)
         )).thenThrow(new CommandResolutionException(exceptionMessage));
@@ -0,0 +1,76 @@
+package org.nrg.containers.services.impl;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BuildDirectoryPopulatorTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path source;
+    private Path buildDirectory;
+
+    @Before
+    public void setup() throws Exception {
+        source = folder.newFolder("source").toPath();
+        Files.createDirectories(source.resolve("scans/1"));
+        Files.write(source.resolve("top.txt"), "top".getBytes(StandardCharsets.UTF_8));
+        Files.write(source.resolve("scans/1/a.dcm"), "scan one".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(source.resolve("empty"));
+
+        buildDirectory = folder.newFolder("build").toPath();
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        final BuildDirectoryPopulator populator = new BuildDirectoryPopulator("copy", 2);
+        final BuildDirectoryPopulator.Report report = populator.populate(source, buildDirectory);
+        populator.shutdown();
+
+        assertPopulated();
+        assertThat(report.method(), is(BuildDirectoryPopulator.Method.COPY));
+        assertThat(report.files(), is(2L));
+        assertThat(report.bytes(), is(11L));
+        assertThat(Files.isSameFile(source.resolve("top.txt"), buildDirectory.resolve("top.txt")), is(false));
+        assertThat(populator.getCopiedCount(), is(1L));
+        assertThat(populator.getBytesPopulated(), is(11L));
+    }
+
+    @Test
+    public void testHardLink() throws Exception {
+        final BuildDirectoryPopulator populator = new BuildDirectoryPopulator("hardlink", 2);
+        final BuildDirectoryPopulator.Report report = populator.populate(source, buildDirectory);
+        populator.shutdown();
+
+        assertPopulated();
+        assertThat(report.method(), is(BuildDirectoryPopulator.Method.HARDLINK));
+        assertThat(Files.isSameFile(source.resolve("top.txt"), buildDirectory.resolve("top.txt")), is(true));
+        assertThat(populator.getCopiedCount(), is(0L));
+    }
+
+    @Test
+    public void testReflinkFallsBackToCopy() throws Exception {
+        // Whether or not this file system can clone files, we end up with the same files
+        final BuildDirectoryPopulator populator = new BuildDirectoryPopulator("reflink", 2);
+        final BuildDirectoryPopulator.Report report = populator.populate(source, buildDirectory);
+        populator.shutdown();
+
+        assertPopulated();
+        assertThat(report.files(), is(2L));
+        assertThat(report.bytes(), is(11L));
+    }
+
+    private void assertPopulated() throws Exception {
+        assertThat(new String(Files.readAllBytes(buildDirectory.resolve("top.txt")), StandardCharsets.UTF_8), is("top"));
+        assertThat(new String(Files.readAllBytes(buildDirectory.resolve("scans/1/a.dcm")), StandardCharsets.UTF_8), is("scan one"));
+        assertThat(Files.isDirectory(buildDirectory.resolve("empty")), is(true));
+    }
+}
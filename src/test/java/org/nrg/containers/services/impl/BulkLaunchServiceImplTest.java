@@ -0,0 +1,354 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.nrg.containers.exceptions.CommandResolutionException;
+import org.nrg.containers.model.command.auto.Command;
+import org.nrg.containers.model.command.auto.Command.CommandWrapperExternalInput;
+import org.nrg.containers.model.command.auto.Command.ConfiguredCommand;
+import org.nrg.containers.model.command.auto.LaunchReport;
+import org.nrg.containers.model.command.auto.LaunchReport.BulkLaunchStatus;
+import org.nrg.containers.model.command.auto.LaunchUi.BulkLaunchUi;
+import org.nrg.containers.model.command.auto.LaunchUi.BulkLaunchUiStatus;
+import org.nrg.containers.model.command.auto.LaunchUi.LaunchUiInput;
+import org.nrg.containers.model.command.auto.ResolvedCommand;
+import org.nrg.containers.model.command.auto.ResolvedCommand.PartiallyResolvedCommand;
+import org.nrg.containers.model.command.auto.ResolvedInputTreeNode;
+import org.nrg.containers.model.command.auto.ResolvedInputTreeNode.ResolvedInputTreeValueAndChildren;
+import org.nrg.containers.model.command.auto.ResolvedInputValue;
+import org.nrg.containers.model.configuration.CommandConfiguration;
+import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.services.CommandResolutionService;
+import org.nrg.containers.services.CommandResolutionService.ResolutionBatch;
+import org.nrg.containers.services.CommandService;
+import org.nrg.containers.services.ContainerService;
+import org.nrg.framework.exceptions.NotFoundException;
+import org.nrg.xft.security.UserI;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkLaunchServiceImplTest {
+    private static final long TIMEOUT = 5000L;
+
+    private CommandService commandService;
+    private CommandResolutionService commandResolutionService;
+    private ResolutionBatch resolutionBatch;
+    private ContainerService containerService;
+    private ConfiguredCommand configuredCommand;
+    private ResolvedCommand resolvedCommand;
+    private Container container;
+    private UserI user;
+    private UserI otherUser;
+
+    private BulkLaunchServiceImpl bulkLaunchService;
+
+    @Before
+    public void setup() throws Exception {
+        commandService = mock(CommandService.class);
+        commandResolutionService = mock(CommandResolutionService.class);
+        resolutionBatch = mock(ResolutionBatch.class);
+        containerService = mock(ContainerService.class);
+        configuredCommand = mock(ConfiguredCommand.class, RETURNS_DEEP_STUBS);
+        resolvedCommand = mock(ResolvedCommand.class);
+        container = mock(Container.class);
+        user = mock(UserI.class);
+        otherUser = mock(UserI.class);
+
+        when(user.getLogin()).thenReturn("someone");
+        when(otherUser.getLogin()).thenReturn("someone-else");
+        when(commandService.getAndConfigure("project", 1L, "wrapper")).thenReturn(configuredCommand);
+        when(commandResolutionService.resolutionBatch(eq(configuredCommand), any(UserI.class))).thenReturn(resolutionBatch);
+        when(resolutionBatch.resolve(anyMapOf(String.class, String.class))).thenReturn(resolvedCommand);
+        when(resolutionBatch.resolve(params("fail"))).thenThrow(new CommandResolutionException("no good"));
+        when(containerService.launchResolvedCommand(resolvedCommand, user)).thenReturn(container);
+    }
+
+    @After
+    public void teardown() {
+        if (bulkLaunchService != null) {
+            bulkLaunchService.shutdown();
+        }
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testLaunchRunsAsRequestingUser() throws Exception {
+        final Authentication authentication = new TestingAuthenticationToken(user, "password");
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        final List<Authentication> launchedAs = Collections.synchronizedList(Lists.<Authentication>newArrayList());
+        when(containerService.launchResolvedCommand(resolvedCommand, user)).thenAnswer(new Answer<Container>() {
+            @Override
+            public Container answer(final InvocationOnMock invocation) {
+                launchedAs.add(SecurityContextHolder.getContext().getAuthentication());
+                return container;
+            }
+        });
+        bulkLaunchService = new BulkLaunchServiceImpl(commandService, commandResolutionService, containerService, 2, 2, 60L);
+
+        final LaunchReport.BulkLaunchReport report = bulkLaunchService.launch("project", 1L, "wrapper", 0L,
+                Lists.newArrayList(params("a"), params("b"), params("c")), user);
+
+        assertThat(report.successes(), hasSize(3));
+        assertThat(launchedAs, hasSize(3));
+        for (final Authentication launchedAuthentication : launchedAs) {
+            assertThat(launchedAuthentication, is(sameInstance(authentication)));
+        }
+
+        // Every item was resolved in the same batch, so they share what they look up
+        verify(commandResolutionService, times(1)).resolutionBatch(configuredCommand, user);
+        verify(resolutionBatch, times(3)).resolve(anyMapOf(String.class, String.class));
+    }
+
+    @Test
+    public void testLaunchReportsItemsInInputOrder() throws Exception {
+        // The first item finishes last
+        final CountDownLatch othersResolved = new CountDownLatch(2);
+        when(resolutionBatch.resolve(anyMapOf(String.class, String.class))).thenAnswer(new Answer<ResolvedCommand>() {
+            @Override
+            public ResolvedCommand answer(final InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked") final String session = ((Map<String, String>) invocation.getArguments()[0]).get("session");
+                if (session.equals("a")) {
+                    othersResolved.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                    Thread.sleep(100L);
+                } else {
+                    othersResolved.countDown();
+                }
+                throw new CommandResolutionException(session);
+            }
+        });
+        bulkLaunchService = new BulkLaunchServiceImpl(commandService, commandResolutionService, containerService, 3, 2, 60L);
+
+        final LaunchReport.BulkLaunchReport report = bulkLaunchService.launch("project", 1L, "wrapper", 0L,
+                Lists.newArrayList(params("a"), params("b"), params("c")), user);
+
+        final List<String> messages = Lists.newArrayList();
+        for (final LaunchReport.Failure failure : report.failures()) {
+            messages.add(failure.message());
+        }
+        assertThat(messages, contains("a", "b", "c"));
+    }
+
+    @Test
+    public void testBackgroundLaunchStatus() throws Exception {
+        bulkLaunchService = new BulkLaunchServiceImpl(commandService, commandResolutionService, containerService, 2, 2, 60L);
+
+        final BulkLaunchStatus started = bulkLaunchService.launchInBackground("project", 1L, "wrapper", 0L,
+                Lists.newArrayList(params("a"), params("fail"), params("b")), user);
+        assertThat(started.total(), is(3));
+
+        final BulkLaunchStatus done = awaitDone(started.id());
+        assertThat(done.successCount(), is(2));
+        assertThat(done.failureCount(), is(1));
+        assertThat(done.next(), is(3));
+        assertThat(done.reports(), hasSize(3));
+
+        // Only what finished since the last poll
+        final BulkLaunchStatus again = bulkLaunchService.getStatus(started.id(), done.next(), user);
+        assertThat(again.done(), is(true));
+        assertThat(again.next(), is(3));
+        assertThat(again.reports(), hasSize(0));
+        final BulkLaunchStatus lastTwo = bulkLaunchService.getStatus(started.id(), 1, user);
+        assertThat(lastTwo.reports(), hasSize(2));
+    }
+
+    @Test
+    public void testOnlyOwnerCanSeeBackgroundLaunch() throws Exception {
+        bulkLaunchService = new BulkLaunchServiceImpl(commandService, commandResolutionService, containerService, 2, 2, 60L);
+
+        final BulkLaunchStatus started = bulkLaunchService.launchInBackground("project", 1L, "wrapper", 0L,
+                Lists.newArrayList(params("a")), user);
+
+        try {
+            bulkLaunchService.getStatus(started.id(), 0, otherUser);
+            fail("Another user should not see the bulk launch.");
+        } catch (NotFoundException ignored) {
+            // expected
+        }
+        try {
+            bulkLaunchService.getStatus("not-a-job", 0, user);
+            fail("There should be no bulk launch with an unknown id.");
+        } catch (NotFoundException ignored) {
+            // expected
+        }
+        assertThat(awaitDone(started.id()).successCount(), is(1));
+    }
+
+    @Test
+    public void testFinishedBackgroundLaunchesExpire() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(containerService.launchResolvedCommand(resolvedCommand, user)).thenAnswer(new Answer<Container>() {
+            @Override
+            public Container answer(final InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return container;
+            }
+        });
+        bulkLaunchService = new BulkLaunchServiceImpl(commandService, commandResolutionService, containerService, 2, 2, 0L);
+
+        final BulkLaunchStatus started = bulkLaunchService.launchInBackground("project", 1L, "wrapper", 0L,
+                Lists.newArrayList(params("a")), user);
+
+        // Running jobs are kept no matter how long they take
+        Thread.sleep(10L);
+        assertThat(bulkLaunchService.getStatus(started.id(), 0, user).done(), is(false));
+
+        release.countDown();
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                bulkLaunchService.getStatus(started.id(), 0, user);
+            } catch (NotFoundException e) {
+                return;
+            }
+            Thread.sleep(10L);
+        }
+        fail("Finished bulk launch was not removed.");
+    }
+
+    @Test
+    public void testLaunchUiInBackgroundReportsEachItem() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(commandService.getProjectConfiguration("project", 1L, "wrapper")).thenReturn(CommandConfiguration.create(null, null));
+        when(resolutionBatch.preResolve(anyMapOf(String.class, String.class))).thenAnswer(new Answer<PartiallyResolvedCommand>() {
+            @Override
+            public PartiallyResolvedCommand answer(final InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked") final String session = ((Map<String, String>) invocation.getArguments()[0]).get("session");
+                if (session.equals("fail")) {
+                    throw new CommandResolutionException("no good");
+                } else if (session.equals("slow")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return partiallyResolved(session);
+            }
+        });
+        bulkLaunchService = new BulkLaunchServiceImpl(commandService, commandResolutionService, containerService, 2, 2, 60L);
+
+        final BulkLaunchUiStatus started = bulkLaunchService.getLaunchUiInBackground("project", 1L, "wrapper", 0L,
+                Lists.newArrayList(params("a"), params("fail"), params("slow")), user);
+        assertThat(started.total(), is(3));
+
+        // The items that are done can be shown while the slow one is still going
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        BulkLaunchUiStatus partial = bulkLaunchService.getLaunchUiStatus(started.id(), 0, user);
+        while (partial.completed() < 2 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+            partial = bulkLaunchService.getLaunchUiStatus(started.id(), 0, user);
+        }
+        assertThat(partial.done(), is(false));
+        assertThat(partial.next(), is(2));
+        assertThat(sessions(partial.launchUi()), contains("a"));
+        assertThat(partial.failures(), hasSize(1));
+        assertThat(partial.failures().get(0).message(), is("no good"));
+
+        // Then only what finished since
+        release.countDown();
+        final BulkLaunchUiStatus rest = awaitLaunchUiDone(started.id(), partial.next());
+        assertThat(rest.next(), is(3));
+        assertThat(sessions(rest.launchUi()), contains("slow"));
+        assertThat(rest.failures(), hasSize(0));
+
+        final BulkLaunchUiStatus all = bulkLaunchService.getLaunchUiStatus(started.id(), 0, user);
+        assertThat(sessions(all.launchUi()), containsInAnyOrder("a", "slow"));
+        final BulkLaunchUiStatus nothingNew = bulkLaunchService.getLaunchUiStatus(started.id(), 3, user);
+        assertThat(nothingNew.launchUi(), is(nullValue()));
+        assertThat(nothingNew.failures(), hasSize(0));
+
+        // Every item was pre-resolved in the same batch, so they share what they look up
+        verify(commandResolutionService, times(1)).resolutionBatch(configuredCommand, user);
+
+        try {
+            bulkLaunchService.getLaunchUiStatus(started.id(), 0, otherUser);
+            fail("Another user should not see the bulk launch UI.");
+        } catch (NotFoundException ignored) {
+            // expected
+        }
+    }
+
+    private BulkLaunchUiStatus awaitLaunchUiDone(final String jobId, final int since) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        BulkLaunchUiStatus status = bulkLaunchService.getLaunchUiStatus(jobId, since, user);
+        while (!status.done() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+            status = bulkLaunchService.getLaunchUiStatus(jobId, since, user);
+        }
+        assertThat(status.done(), is(true));
+        return status;
+    }
+
+    /**
+     * @return The session value of each item in the UI
+     */
+    private static List<String> sessions(final BulkLaunchUi launchUi) {
+        final List<String> sessions = Lists.newArrayList();
+        for (final Map<String, LaunchUiInput> inputs : launchUi.inputs()) {
+            sessions.add(inputs.get("session").ui().get("default").values().get(0).value());
+        }
+        return sessions;
+    }
+
+    private static PartiallyResolvedCommand partiallyResolved(final String session) {
+        final ResolvedInputTreeNode<? extends Command.Input> sessionTree = ResolvedInputTreeNode.create(
+                CommandWrapperExternalInput.builder().name("session").type("string").build(),
+                Lists.newArrayList(ResolvedInputTreeValueAndChildren.create(
+                        ResolvedInputValue.builder().type("string").value(session).valueLabel(session).build())));
+        return PartiallyResolvedCommand.builder()
+                .commandId(1L)
+                .commandName("command")
+                .wrapperId(2L)
+                .wrapperName("wrapper")
+                .image("image")
+                .rawInputValues(params(session))
+                .addResolvedInputTree(sessionTree)
+                .build();
+    }
+
+    private BulkLaunchStatus awaitDone(final String jobId) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        BulkLaunchStatus status = bulkLaunchService.getStatus(jobId, 0, user);
+        while (!status.done() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+            status = bulkLaunchService.getStatus(jobId, 0, user);
+        }
+        assertThat(status.done(), is(true));
+        return status;
+    }
+
+    private static Map<String, String> params(final String session) {
+        final Map<String, String> params = Maps.newHashMap();
+        params.put("session", session);
+        return params;
+    }
+}
@@ -0,0 +1,240 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.nrg.containers.exceptions.CommandResolutionException;
+import org.nrg.containers.model.QueuedCommandLaunch;
+import org.nrg.containers.model.command.auto.ResolvedCommand;
+import org.nrg.containers.services.CommandResolutionService;
+import org.nrg.containers.services.ContainerService;
+import org.nrg.containers.services.QueuedCommandLaunchService;
+import org.nrg.xdat.security.services.UserManagementServiceI;
+import org.nrg.xft.security.UserI;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CommandLaunchQueueImplTest {
+    private static final long TIMEOUT = 5000L;
+    private static final String LOGIN = "someone";
+
+    private CommandResolutionService commandResolutionService;
+    private ContainerService containerService;
+    private QueuedCommandLaunchService queuedCommandLaunchService;
+    private UserManagementServiceI userManagementService;
+    private UserI user;
+    private ResolvedCommand resolvedCommand;
+
+    // Every status change, as "<id> <status> <number of input values>"
+    private final List<String> statusChanges = Collections.synchronizedList(Lists.<String>newArrayList());
+    private final AtomicLong nextId = new AtomicLong(1L);
+
+    private CommandLaunchQueueImpl commandLaunchQueue;
+
+    @Before
+    public void setup() throws Exception {
+        commandResolutionService = mock(CommandResolutionService.class);
+        containerService = mock(ContainerService.class);
+        queuedCommandLaunchService = mock(QueuedCommandLaunchService.class);
+        userManagementService = mock(UserManagementServiceI.class);
+        user = mock(UserI.class);
+        resolvedCommand = mock(ResolvedCommand.class);
+
+        when(user.getLogin()).thenReturn(LOGIN);
+        when(userManagementService.getUser(LOGIN)).thenReturn(user);
+        when(commandResolutionService.resolve(anyString(), anyLong(), anyString(), anyMapOf(String.class, String.class), any(UserI.class)))
+                .thenReturn(resolvedCommand);
+
+        when(queuedCommandLaunchService.create(any(QueuedCommandLaunch.class))).thenAnswer(new Answer<QueuedCommandLaunch>() {
+            @Override
+            public QueuedCommandLaunch answer(final InvocationOnMock invocation) {
+                final QueuedCommandLaunch queuedCommandLaunch = (QueuedCommandLaunch) invocation.getArguments()[0];
+                queuedCommandLaunch.setId(nextId.getAndIncrement());
+                return queuedCommandLaunch;
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                final QueuedCommandLaunch queuedCommandLaunch = (QueuedCommandLaunch) invocation.getArguments()[0];
+                final String status = (String) invocation.getArguments()[1];
+                queuedCommandLaunch.setStatus(status);
+                queuedCommandLaunch.setMessage((String) invocation.getArguments()[2]);
+                statusChanges.add(queuedCommandLaunch.getId() + " " + status + " " + queuedCommandLaunch.getInputValues().size());
+                return null;
+            }
+        }).when(queuedCommandLaunchService).setStatus(any(QueuedCommandLaunch.class), anyString(), anyString());
+        when(queuedCommandLaunchService.findByStatus(anyString())).thenReturn(Lists.<QueuedCommandLaunch>newArrayList());
+    }
+
+    @After
+    public void teardown() {
+        if (commandLaunchQueue != null) {
+            commandLaunchQueue.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueuedLaunchIsResolvedLaunchedAndDeleted() throws Exception {
+        commandLaunchQueue = launchQueue(1, 10);
+
+        final QueuedCommandLaunch queued = commandLaunchQueue.queue("project", 5L, "wrapper", inputValues(), user);
+        assertThat(queued.getStatus(), is(QueuedCommandLaunch.STATUS_QUEUED));
+
+        verify(queuedCommandLaunchService, timeout(TIMEOUT)).delete(same(queued));
+        verify(commandResolutionService).resolve("project", 5L, "wrapper", inputValues(), user);
+        verify(containerService).launchResolvedCommand(resolvedCommand, user);
+
+        // Input values are dropped once we don't need them to resolve the command
+        assertThat(statusChanges, contains("1 Resolving 1", "1 Launching 0"));
+        assertThat(commandLaunchQueue.getLaunchedCount(), is(1L));
+        assertThat(commandLaunchQueue.getFailedCount(), is(0L));
+    }
+
+    @Test
+    public void testResolutionFailureMarksLaunchFailed() throws Exception {
+        when(commandResolutionService.resolve(anyString(), anyLong(), anyString(), anyMapOf(String.class, String.class), any(UserI.class)))
+                .thenThrow(new CommandResolutionException("no good"));
+        commandLaunchQueue = launchQueue(1, 10);
+
+        final QueuedCommandLaunch queued = commandLaunchQueue.queue("project", 5L, "wrapper", inputValues(), user);
+
+        verify(queuedCommandLaunchService, timeout(TIMEOUT)).setStatus(same(queued), eq(QueuedCommandLaunch.STATUS_FAILED), anyString());
+        assertThat(statusChanges, contains("1 Resolving 1", "1 Failed 1"));
+        verify(containerService, never()).launchResolvedCommand(any(ResolvedCommand.class), any(UserI.class));
+        verify(queuedCommandLaunchService, never()).delete(same(queued));
+        assertThat(commandLaunchQueue.getFailedCount(), is(1L));
+    }
+
+    @Test(timeout = 10000L)
+    public void testFullBacklogLeavesLaunchQueued() throws Exception {
+        final CountDownLatch resolving = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(commandResolutionService.resolve(anyString(), anyLong(), anyString(), anyMapOf(String.class, String.class), any(UserI.class)))
+                .thenAnswer(new Answer<ResolvedCommand>() {
+                    @Override
+                    public ResolvedCommand answer(final InvocationOnMock invocation) throws Throwable {
+                        resolving.countDown();
+                        release.await();
+                        return resolvedCommand;
+                    }
+                });
+        commandLaunchQueue = launchQueue(1, 1);
+
+        // One resolving, one waiting in the backlog, and one that doesn't fit
+        commandLaunchQueue.queue("project", 5L, "wrapper", inputValues(), user);
+        resolving.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        commandLaunchQueue.queue("project", 5L, "wrapper", inputValues(), user);
+        final QueuedCommandLaunch overflow = commandLaunchQueue.queue("project", 5L, "wrapper", inputValues(), user);
+        assertThat(overflow.getStatus(), is(QueuedCommandLaunch.STATUS_QUEUED));
+
+        release.countDown();
+        verify(containerService, timeout(TIMEOUT).times(2)).launchResolvedCommand(resolvedCommand, user);
+        verify(queuedCommandLaunchService, never()).setStatus(same(overflow), anyString(), anyString());
+
+        // The saved launch is picked up by the next drain
+        when(queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_QUEUED)).thenReturn(Lists.newArrayList(overflow));
+        when(queuedCommandLaunchService.retrieve(overflow.getId())).thenReturn(overflow);
+        assertThat(commandLaunchQueue.drain(), is(1));
+        verify(queuedCommandLaunchService, timeout(TIMEOUT)).delete(same(overflow));
+        assertThat(commandLaunchQueue.getLaunchedCount(), is(3L));
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws Exception {
+        final QueuedCommandLaunch launching = saved(QueuedCommandLaunch.STATUS_LAUNCHING);
+        final QueuedCommandLaunch resolving = saved(QueuedCommandLaunch.STATUS_RESOLVING);
+        final QueuedCommandLaunch queued = saved(QueuedCommandLaunch.STATUS_QUEUED);
+        when(queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_LAUNCHING)).thenReturn(Lists.newArrayList(launching));
+        when(queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_RESOLVING)).thenReturn(Lists.newArrayList(resolving));
+        when(queuedCommandLaunchService.findByStatus(QueuedCommandLaunch.STATUS_QUEUED)).thenReturn(Lists.newArrayList(queued, resolving));
+        commandLaunchQueue = launchQueue(1, 10);
+
+        commandLaunchQueue.onApplicationEvent(null);
+
+        verify(queuedCommandLaunchService, timeout(TIMEOUT)).delete(same(resolving));
+        verify(queuedCommandLaunchService, timeout(TIMEOUT)).delete(same(queued));
+        verify(queuedCommandLaunchService, never()).delete(same(launching));
+        verify(containerService, never()).launchResolvedCommand(any(ResolvedCommand.class), isNull(UserI.class));
+        verify(userManagementService, timeout(TIMEOUT).times(2)).getUser(LOGIN);
+
+        // We can't tell if an interrupted launch created its container, so we don't try again
+        assertThat(launching.getStatus(), is(QueuedCommandLaunch.STATUS_FAILED));
+        assertThat(statusChanges.subList(0, 2), contains(
+                launching.getId() + " Failed 1",
+                resolving.getId() + " Queued 1"
+        ));
+        assertThat(statusChanges, containsInAnyOrder(
+                launching.getId() + " Failed 1",
+                resolving.getId() + " Queued 1",
+                queued.getId() + " Resolving 1",
+                queued.getId() + " Launching 0",
+                resolving.getId() + " Resolving 1",
+                resolving.getId() + " Launching 0"
+        ));
+    }
+
+    @Test
+    public void testDrainDeletesOldFailedLaunches() throws Exception {
+        commandLaunchQueue = launchQueue(1, 10);
+
+        final long before = System.currentTimeMillis();
+        commandLaunchQueue.drain();
+
+        final ArgumentCaptor<Date> cutoff = ArgumentCaptor.forClass(Date.class);
+        verify(queuedCommandLaunchService).deleteByStatusBefore(eq(QueuedCommandLaunch.STATUS_FAILED), cutoff.capture());
+        final long retention = before - cutoff.getValue().getTime();
+        assertThat(retention, is(greaterThan(TimeUnit.HOURS.toMillis(2L) - 1000L)));
+        assertThat(retention, is(lessThan(TimeUnit.HOURS.toMillis(2L) + 1000L)));
+    }
+
+    private CommandLaunchQueueImpl launchQueue(final int resolveThreads, final int maxBacklog) {
+        return new CommandLaunchQueueImpl(commandResolutionService, containerService, queuedCommandLaunchService,
+                userManagementService, resolveThreads, 1, maxBacklog, 2L);
+    }
+
+    private QueuedCommandLaunch saved(final String status) {
+        final QueuedCommandLaunch queuedCommandLaunch = QueuedCommandLaunch.create("project", 5L, "wrapper", inputValues(), LOGIN);
+        queuedCommandLaunch.setId(nextId.getAndIncrement());
+        queuedCommandLaunch.setStatus(status);
+        when(queuedCommandLaunchService.retrieve(queuedCommandLaunch.getId())).thenReturn(queuedCommandLaunch);
+        return queuedCommandLaunch;
+    }
+
+    private static Map<String, String> inputValues() {
+        final Map<String, String> inputValues = Maps.newHashMap();
+        inputValues.put("session", "{\"id\": \"XNAT_E00001\"}");
+        return inputValues;
+    }
+}
@@ -0,0 +1,92 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+import org.nrg.containers.model.command.auto.Command;
+import org.nrg.containers.model.command.auto.Command.CommandWrapper;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CommandRegistryTest {
+    private CommandWrapper sessionWrapper;
+    private CommandWrapper scanWrapper;
+    private CommandRegistry registry;
+
+    @Before
+    public void setup() {
+        sessionWrapper = CommandWrapper.builder()
+                .id(10L)
+                .name("session-wrapper")
+                .contexts(Sets.newHashSet("xnat:imageSessionData"))
+                .build();
+        scanWrapper = CommandWrapper.builder()
+                .id(11L)
+                .name("scan-wrapper")
+                .contexts(Sets.newHashSet("xnat:imageScanData", "xnat:imageSessionData"))
+                .build();
+        final Command command = Command.builder()
+                .id(1L)
+                .name("command")
+                .type("docker")
+                .image("image:latest")
+                .addCommandWrapper(sessionWrapper)
+                .addCommandWrapper(scanWrapper)
+                .build();
+        registry = new CommandRegistry(Lists.newArrayList(command));
+    }
+
+    @Test
+    public void findsWrappersByIdAndName() {
+        assertThat(registry.getWrapper(11L), is(scanWrapper));
+        assertThat(registry.getWrapperId(1L, "session-wrapper"), is(10L));
+        assertThat(registry.getWrapperId(1L, "11"), is(11L));
+        assertThat(registry.getWrapperId(2L, "session-wrapper"), is(nullValue()));
+        assertThat(registry.getWrapperId(1L, "no-such-wrapper"), is(nullValue()));
+    }
+
+    @Test
+    public void commandWithOneWrapper() {
+        final Command command = registry.getCommandWithOneWrapper(11L);
+        assertThat(command.xnatCommandWrappers(), contains(scanWrapper));
+        assertThat(registry.getCommand(1L).xnatCommandWrappers(), hasSize(2));
+    }
+
+    @Test
+    public void indexesByImageAndContext() {
+        assertThat(registry.getByImage("image:latest"), hasSize(1));
+        assertThat(registry.getByImage("other:latest"), hasSize(0));
+        assertThat(registry.getWrappersByContext("xnat:imageSessionData"), contains(sessionWrapper, scanWrapper));
+        assertThat(registry.getWrappersByContext("xnat:imageScanData"), contains(scanWrapper));
+    }
+
+    @Test
+    public void findsLaunchableWrappersForDescendedXsiTypes() {
+        final CommandRegistry.XsiTypeContextMatcher mrSessionIsAnImageSession = new CommandRegistry.XsiTypeContextMatcher() {
+            @Override
+            public boolean matches(final String xsiType, final String context) {
+                return xsiType.equals("xnat:mrSessionData") && context.equals("xnat:imageSessionData");
+            }
+        };
+
+        final List<CommandRegistry.LaunchableWrapper> forMrSession =
+                registry.getLaunchableWrappers("xnat:mrSessionData", mrSessionIsAnImageSession);
+        assertThat(forMrSession, hasSize(2));
+        assertThat(forMrSession.get(0).wrapper(), is(sessionWrapper));
+        assertThat(forMrSession.get(0).externalInputName(), is(""));
+
+        final List<CommandRegistry.LaunchableWrapper> forScan =
+                registry.getLaunchableWrappers("xnat:imageScanData", mrSessionIsAnImageSession);
+        assertThat(forScan, hasSize(1));
+        assertThat(forScan.get(0).wrapper(), is(scanWrapper));
+
+        assertThat(registry.getLaunchableWrappers("xnat:subjectData", mrSessionIsAnImageSession), hasSize(0));
+    }
+}
@@ -0,0 +1,90 @@
+package org.nrg.containers.services.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.nrg.config.entities.Configuration;
+import org.nrg.config.services.ConfigService;
+import org.nrg.containers.config.ObjectMapperConfig;
+import org.nrg.containers.model.configuration.CommandConfigurationInternal;
+import org.nrg.framework.constants.Scope;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.nrg.containers.services.ContainerConfigService.TOOL_ID;
+
+public class ContainerConfigServiceImplTest {
+    private static final long WRAPPER_ID = 12L;
+    private static final String PROJECT = "project";
+    private static final String PATH = "wrapper-" + WRAPPER_ID;
+
+    private ConfigService mockConfigService;
+    private ObjectMapper mapper;
+    private ContainerConfigServiceImpl containerConfigService;
+
+    @Before
+    public void setup() {
+        mockConfigService = Mockito.mock(ConfigService.class);
+        mapper = new ObjectMapperConfig().objectMapper();
+        containerConfigService = new ContainerConfigServiceImpl(mockConfigService, mapper, 60L);
+    }
+
+    @Test
+    public void readsEachConfigurationOnce() throws Exception {
+        final Configuration siteConfiguration = mockConfiguration(1L, CommandConfigurationInternal.create(true, null));
+        when(mockConfigService.getConfig(TOOL_ID, PATH, Scope.Site, null)).thenReturn(siteConfiguration);
+
+        assertThat(containerConfigService.isEnabledForSite(WRAPPER_ID), is(true));
+        assertThat(containerConfigService.isEnabledForSite(WRAPPER_ID), is(true));
+        verify(mockConfigService, times(1)).getConfig(TOOL_ID, PATH, Scope.Site, null);
+    }
+
+    @Test
+    public void writesThroughTheCache() throws Exception {
+        containerConfigService.disableForSite(WRAPPER_ID, "user", "reason");
+        assertThat(containerConfigService.isEnabledForSite(WRAPPER_ID), is(false));
+
+        containerConfigService.enableForSite(WRAPPER_ID, "user", "reason");
+        assertThat(containerConfigService.isEnabledForSite(WRAPPER_ID), is(true));
+
+        // Only the first write had to look up what was already there
+        verify(mockConfigService, times(1)).getConfig(TOOL_ID, PATH, Scope.Site, null);
+    }
+
+    @Test
+    public void bulkReadUsesOneQueryPerScope() throws Exception {
+        final long otherWrapperId = 13L;
+        when(mockConfigService.getConfigsByTool(eq(TOOL_ID), eq(Scope.Site), isNull(String.class)))
+                .thenReturn(Lists.newArrayList(mockConfiguration(1L, CommandConfigurationInternal.create(true, null))));
+        when(mockConfigService.getConfigsByTool(TOOL_ID, Scope.Project, PROJECT))
+                .thenReturn(Lists.newArrayList(
+                        mockConfiguration(2L, CommandConfigurationInternal.create(false, null)),
+                        mockConfiguration(3L, CommandConfigurationInternal.create(true, null))));
+
+        final Map<Long, Boolean> enabled =
+                containerConfigService.isEnabledForProject(PROJECT, Lists.newArrayList(WRAPPER_ID, otherWrapperId));
+        assertThat(enabled.get(WRAPPER_ID), is(true));
+        assertThat(enabled.get(otherWrapperId), is(false));
+
+        verify(mockConfigService, never()).getConfig(anyString(), anyString(), Mockito.any(Scope.class), anyString());
+    }
+
+    private Configuration mockConfiguration(final long id, final CommandConfigurationInternal contents) throws Exception {
+        final Configuration configuration = Mockito.mock(Configuration.class);
+        when(configuration.getId()).thenReturn(id);
+        when(configuration.getPath()).thenReturn(PATH);
+        when(configuration.getContents()).thenReturn(mapper.writeValueAsString(contents));
+        return configuration;
+    }
+}
@@ -0,0 +1,146 @@
+package org.nrg.containers.services.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nrg.containers.exceptions.ContainerException;
+import org.nrg.containers.exceptions.DockerServerException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ContainerFinalizationQueueTest {
+    private ContainerFinalizationQueue queue;
+
+    @Before
+    public void setup() {
+        queue = new ContainerFinalizationQueue(2, 2, 10L, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void teardown() {
+        queue.shutdown();
+    }
+
+    @Test
+    public void testSameContainerIsNotFinalizedTwiceAtOnce() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final ContainerFinalizationQueue.Finalization blocking = new ContainerFinalizationQueue.Finalization() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        assertThat(queue.submit(1L, blocking), is(true));
+        started.await(5, TimeUnit.SECONDS);
+        assertThat(queue.submit(1L, blocking), is(false));
+        assertThat(queue.runNow(1L, blocking), is(false));
+        assertThat(queue.isFinalizing(1L), is(true));
+
+        release.countDown();
+        awaitIdle(1L);
+        assertThat(runs.get(), is(1));
+        assertThat(queue.getCompletedCount(), is(1L));
+        assertThat(queue.getDroppedCount(), is(2L));
+
+        // Once it is done, it can be finalized again
+        assertThat(queue.runNow(1L, blocking), is(true));
+        assertThat(runs.get(), is(2));
+    }
+
+    @Test
+    public void testFinalizedContainerIsNotQueuedAgain() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final ContainerFinalizationQueue.Finalization finalization = new ContainerFinalizationQueue.Finalization() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                queue.markFinalized(5L);
+            }
+        };
+
+        assertThat(queue.submit(5L, finalization), is(true));
+        awaitIdle(5L);
+        assertThat(queue.isFinalized(5L), is(true));
+        assertThat(queue.submit(5L, finalization), is(false));
+        assertThat(queue.isFinalizing(5L), is(false));
+        assertThat(runs.get(), is(1));
+
+        // Asking for it directly still finalizes it again
+        assertThat(queue.runNow(5L, finalization), is(true));
+        assertThat(runs.get(), is(2));
+    }
+
+    @Test
+    public void testRetriesWhenDockerCantBeReached() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        queue.submit(2L, new ContainerFinalizationQueue.Finalization() {
+            @Override
+            public void run() throws DockerServerException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new DockerServerException("Docker is down");
+                }
+            }
+        });
+
+        awaitIdle(2L);
+        assertThat(attempts.get(), is(3));
+        assertThat(queue.getRetryCount(), is(2L));
+        assertThat(queue.getCompletedCount(), is(1L));
+        assertThat(queue.getFailedCount(), is(0L));
+        assertThat(queue.getQueueDepth(), is(0));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        queue.submit(3L, new ContainerFinalizationQueue.Finalization() {
+            @Override
+            public void run() throws DockerServerException {
+                attempts.incrementAndGet();
+                throw new DockerServerException("Docker is down");
+            }
+        });
+
+        awaitIdle(3L);
+        assertThat(attempts.get(), is(3));
+        assertThat(queue.getFailedCount(), is(1L));
+    }
+
+    @Test
+    public void testDoesNotRetryOtherFailures() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        queue.submit(4L, new ContainerFinalizationQueue.Finalization() {
+            @Override
+            public void run() throws ContainerException {
+                attempts.incrementAndGet();
+                throw new ContainerException("Could not upload outputs");
+            }
+        });
+
+        awaitIdle(4L);
+        assertThat(attempts.get(), is(1));
+        assertThat(queue.getFailedCount(), is(1L));
+        assertThat(queue.getRetryCount(), is(0L));
+    }
+
+    private void awaitIdle(final long databaseId) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (queue.isFinalizing(databaseId) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+    }
+}
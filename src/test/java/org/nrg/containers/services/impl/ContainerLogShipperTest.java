@@ -0,0 +1,194 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.model.container.auto.ContainerLogParameters;
+import org.nrg.containers.model.container.entity.ContainerEntity;
+import org.nrg.containers.services.ContainerEntityService;
+import org.nrg.containers.services.ContainerService;
+import org.nrg.xdat.preferences.SiteConfigPreferences;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ContainerLogShipperTest {
+    private static final String CONTAINER_ID = "abc123";
+    private static final String FIRST = "2018-03-05T19:31:56.000000001Z first\n";
+    private static final String SECOND = "2018-03-05T19:31:56.000000002Z second\n";
+    private static final String THIRD = "2018-03-05T19:31:57.000000000Z third\n";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private ContainerControlApi containerControlApi;
+    private ContainerEntityService containerEntityService;
+    private SiteConfigPreferences siteConfigPreferences;
+    private ContainerLogShipper containerLogShipper;
+    private Container container;
+    private File archive;
+
+    // What docker would give us for each log. Docker gives the whole log each time; the shipper drops what it has.
+    private final StringBuilder stdout = new StringBuilder();
+    private final StringBuilder stderr = new StringBuilder();
+
+    @Before
+    public void setup() throws Exception {
+        archive = folder.newFolder("archive");
+        containerControlApi = mock(ContainerControlApi.class);
+        containerEntityService = mock(ContainerEntityService.class);
+        siteConfigPreferences = mock(SiteConfigPreferences.class);
+        when(siteConfigPreferences.getArchivePath()).thenReturn(archive.getAbsolutePath());
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                final boolean isStderr = (Boolean) invocation.getArguments()[1];
+                // Shipping into our own files is allowed to use the shared docker connections
+                assertThat(((ContainerLogParameters) invocation.getArguments()[2]).internal(), is(true));
+                final OutputStream outputStream = (OutputStream) invocation.getArguments()[3];
+                outputStream.write((isStderr ? stderr : stdout).toString().getBytes(StandardCharsets.UTF_8));
+                return null;
+            }
+        }).when(containerControlApi).writeContainerLog(eq(CONTAINER_ID), anyBoolean(), any(ContainerLogParameters.class), any(OutputStream.class));
+
+        container = Container.builder()
+                .databaseId(1L)
+                .commandId(2L)
+                .wrapperId(3L)
+                .containerId(CONTAINER_ID)
+                .userId("me")
+                .dockerImage("whale")
+                .commandLine("exit 0")
+                .status("Running")
+                .build();
+        when(containerEntityService.retrieveNonfinalized()).thenReturn(Lists.newArrayList(ContainerEntity.fromPojo(container)));
+
+        containerLogShipper = new ContainerLogShipper(containerControlApi, containerEntityService, siteConfigPreferences, 1L);
+    }
+
+    @Test
+    public void testShipsWhileRunningAndFinishes() throws Exception {
+        stdout.append(FIRST);
+        containerLogShipper.ship();
+        final File stdoutLog = new File(logsDirectory(), ContainerService.STDOUT_LOG_NAME);
+        assertThat(read(stdoutLog), is("first\n"));
+
+        // Only what is new is added
+        stdout.append(SECOND);
+        containerLogShipper.ship();
+        assertThat(read(stdoutLog), is("first\nsecond\n"));
+
+        stdout.append(THIRD);
+        final List<String> logPaths = containerLogShipper.finish(container);
+        assertThat(logPaths, contains(stdoutLog.getAbsolutePath()));
+        assertThat(read(stdoutLog), is("first\nsecond\nthird\n"));
+        assertThat(new File(logsDirectory(), ContainerService.STDERR_LOG_NAME).exists(), is(false));
+        assertThat(containerLogShipper.getBytesShipped(), is((long) "first\nsecond\nthird\n".length()));
+        assertThat(containerLogShipper.getRunCount(), is(2L));
+
+        // Finishing again, like a retried finalization, gives the same logs and doesn't copy anything
+        stdout.append("2018-03-05T19:31:58.000000000Z fourth\n");
+        assertThat(containerLogShipper.finish(container), is(logPaths));
+        assertThat(read(stdoutLog), is("first\nsecond\nthird\n"));
+
+        // Once it is finalized, we stop shipping it
+        when(containerEntityService.retrieveNonfinalized()).thenReturn(Lists.<ContainerEntity>newArrayList());
+        containerLogShipper.ship();
+        assertThat(read(stdoutLog), is("first\nsecond\nthird\n"));
+    }
+
+    @Test
+    public void testEmptyLogsAreNotKept() throws Exception {
+        containerLogShipper.ship();
+        assertThat(containerLogShipper.finish(container), is(empty()));
+        assertThat(containerLogShipper.finish(container), is(empty()));
+
+        // The timestamp directory is removed too
+        assertThat(new File(archive, "CONTAINER_EXEC").listFiles(), is(arrayWithSize(0)));
+    }
+
+    @Test
+    public void testRestartResumesInTheSameDirectory() throws Exception {
+        stdout.append(FIRST);
+        containerLogShipper.ship();
+        final File stdoutLog = new File(logsDirectory(), ContainerService.STDOUT_LOG_NAME);
+
+        // A new shipper, like after XNAT restarts, picks up where the old one left off
+        final ContainerLogShipper restarted = new ContainerLogShipper(containerControlApi, containerEntityService, siteConfigPreferences, 1L);
+        stdout.append(SECOND);
+        restarted.ship();
+        assertThat(new File(logsDirectory(), ContainerService.STDOUT_LOG_NAME), is(stdoutLog));
+        assertThat(read(stdoutLog), is("first\nsecond\n"));
+
+        stdout.append(THIRD);
+        assertThat(restarted.finish(container), contains(stdoutLog.getAbsolutePath()));
+        assertThat(read(stdoutLog), is("first\nsecond\nthird\n"));
+
+        // Once finished, there is nothing left to resume
+        assertThat(new File(archive, "CONTAINER_EXEC/.shipping").exists(), is(false));
+    }
+
+    @Test
+    public void testOneBrokenContainerDoesNotStopTheRest() throws Exception {
+        final Container broken = container.toBuilder()
+                .databaseId(4L)
+                .containerId("broken")
+                .build();
+        doThrow(new IllegalStateException("docker went away")).when(containerControlApi)
+                .writeContainerLog(eq("broken"), anyBoolean(), any(ContainerLogParameters.class), any(OutputStream.class));
+        when(containerEntityService.retrieveNonfinalized())
+                .thenReturn(Lists.newArrayList(ContainerEntity.fromPojo(broken), ContainerEntity.fromPojo(container)));
+
+        stdout.append(FIRST);
+        containerLogShipper.ship();
+        assertThat(containerLogShipper.getRunCount(), is(1L));
+
+        // Both containers got a directory, but only the one docker answered for has a log in it
+        final List<String> shipped = Lists.newArrayList();
+        for (final File timestampDirectory : new File(archive, "CONTAINER_EXEC").listFiles()) {
+            final File stdoutLog = new File(timestampDirectory, "LOGS/" + ContainerService.STDOUT_LOG_NAME);
+            if (!timestampDirectory.isHidden() && stdoutLog.length() > 0) {
+                shipped.add(read(stdoutLog));
+            }
+        }
+        assertThat(shipped, contains("first\n"));
+    }
+
+    private File logsDirectory() {
+        final File[] timestampDirectories = new File(archive, "CONTAINER_EXEC").listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return !file.isHidden();
+            }
+        });
+        assertThat(timestampDirectories, is(arrayWithSize(1)));
+        return new File(timestampDirectories[0], "LOGS");
+    }
+
+    private static String read(final File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
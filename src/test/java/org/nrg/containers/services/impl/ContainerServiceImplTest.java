@@ -0,0 +1,139 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.nrg.containers.api.ContainerControlApi;
+import org.nrg.containers.model.command.entity.CommandType;
+import org.nrg.containers.model.container.auto.Container;
+import org.nrg.containers.model.container.auto.Container.ContainerHistory;
+import org.nrg.containers.model.container.entity.ContainerEntity;
+import org.nrg.containers.services.CommandResolutionService;
+import org.nrg.containers.services.ContainerEntityService;
+import org.nrg.containers.services.ContainerFinalizeService;
+import org.nrg.xdat.preferences.SiteConfigPreferences;
+import org.nrg.xdat.services.AliasTokenService;
+import org.nrg.xft.security.UserI;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ContainerServiceImplTest {
+    private static final long PARENT_ID = 1L;
+
+    private ContainerEntityService containerEntityService;
+    private ContainerFinalizationQueue containerFinalizationQueue;
+    private ContainerServiceImpl containerService;
+    private UserI user;
+
+    // Database ids of the containers, in the order they were finalized
+    private final List<Long> finalizedIds = Collections.synchronizedList(Lists.<Long>newArrayList());
+
+    @Before
+    public void setup() throws Exception {
+        containerEntityService = mock(ContainerEntityService.class);
+        final ContainerFinalizeService containerFinalizeService = mock(ContainerFinalizeService.class);
+        containerFinalizationQueue = new ContainerFinalizationQueue(2, 0, 0L, TimeUnit.MILLISECONDS);
+        user = mock(UserI.class);
+
+        when(containerFinalizeService.finalizeContainer(any(Container.class), any(UserI.class), anyBoolean(), anyListOf(Container.class)))
+                .thenAnswer(new Answer<Container>() {
+                    @Override
+                    public Container answer(final InvocationOnMock invocation) {
+                        final Container toFinalize = (Container) invocation.getArguments()[0];
+                        finalizedIds.add(toFinalize.databaseId());
+                        return toFinalize.toBuilder().status("Complete").build();
+                    }
+                });
+
+        containerService = new ContainerServiceImpl(mock(ContainerControlApi.class), containerEntityService,
+                mock(CommandResolutionService.class), mock(AliasTokenService.class), mock(SiteConfigPreferences.class),
+                containerFinalizeService, containerFinalizationQueue);
+    }
+
+    @After
+    public void teardown() {
+        containerFinalizationQueue.shutdown();
+    }
+
+    @Test(timeout = 10000L)
+    public void testParentIsFinalizedOnceWhenWrapupsFinishTogether() throws Exception {
+        final Container parent = container(PARENT_ID, "parent", null, null);
+        final Container firstWrapup = container(2L, "wrapup-1", CommandType.DOCKER_WRAPUP.getName(), parent);
+        final Container secondWrapup = container(3L, "wrapup-2", CommandType.DOCKER_WRAPUP.getName(), parent);
+
+        // Both wrapups have exited, so whichever is finalized first sees they are all done
+        when(containerEntityService.retrieveWrapupContainersForParent(PARENT_ID)).thenAnswer(new Answer<List<ContainerEntity>>() {
+            @Override
+            public List<ContainerEntity> answer(final InvocationOnMock invocation) {
+                return Lists.newArrayList(ContainerEntity.fromPojo(firstWrapup), ContainerEntity.fromPojo(secondWrapup));
+            }
+        });
+
+        final CyclicBarrier bothFinishing = new CyclicBarrier(2);
+        final Thread first = finalizeWhenReady(firstWrapup, bothFinishing);
+        final Thread second = finalizeWhenReady(secondWrapup, bothFinishing);
+        first.join();
+        second.join();
+        while (containerFinalizationQueue.isFinalizing(PARENT_ID)) {
+            Thread.sleep(5L);
+        }
+
+        // Each wrapup queued the parent, but it was only finalized once
+        assertThat(finalizedIds, containsInAnyOrder(2L, 3L, PARENT_ID));
+        assertThat(containerFinalizationQueue.isFinalized(PARENT_ID), is(true));
+        assertThat(containerFinalizationQueue.getDroppedCount(), is(1L));
+    }
+
+    private Thread finalizeWhenReady(final Container wrapup, final CyclicBarrier barrier) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                    containerService.finalize(wrapup, user, "0");
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static Container container(final long databaseId, final String containerId, final String subtype, final Container parent) {
+        return Container.builder()
+                .databaseId(databaseId)
+                .commandId(4L)
+                .wrapperId(5L)
+                .containerId(containerId)
+                .userId("me")
+                .dockerImage("whale")
+                .commandLine("exit 0")
+                .status("die")
+                .subtype(subtype)
+                .parent(parent)
+                .history(Lists.newArrayList(ContainerHistory.builder()
+                        .status("die")
+                        .entityType("event")
+                        .timeRecorded(new Date())
+                        .exitCode("0")
+                        .build()))
+                .build();
+    }
+}
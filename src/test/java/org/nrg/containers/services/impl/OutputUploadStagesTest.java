@@ -0,0 +1,189 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+import org.nrg.containers.exceptions.ContainerException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class OutputUploadStagesTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final OutputUploadStages outputUploadStages = new OutputUploadStages(executor, "Container 1: ");
+
+    // Names of the outputs in the order their uploads finished
+    private final List<String> uploaded = Collections.synchronizedList(Lists.<String>newArrayList());
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOutputsWaitForTheOutputsTheyDependOn() {
+        final FakeUpload resource = new FakeUpload("resource", null, "/archive/experiments/E1");
+        final FakeUpload assessor = new FakeUpload("assessor", null, "/archive/experiments/E1");
+        final FakeUpload assessorResource = new FakeUpload("assessor-resource", "assessor", "/archive/experiments/E1/assessors/A1");
+        final FakeUpload nested = new FakeUpload("nested", "assessor-resource", "/archive/experiments/E1/assessors/A1/resources/R1");
+        final List<FakeUpload> uploads = Lists.newArrayList(nested, assessorResource, resource, assessor);
+
+        final List<List<OutputUploadStages.Upload>> stages = outputUploadStages.orderByDependencies(uploads);
+        assertThat(stages.size(), is(3));
+        assertThat(stages.get(0), contains((OutputUploadStages.Upload) resource, assessor));
+        assertThat(stages.get(1), contains((OutputUploadStages.Upload) assessorResource));
+        assertThat(stages.get(2), contains((OutputUploadStages.Upload) nested));
+
+        outputUploadStages.uploadAll(uploads);
+        assertThat(uploaded.indexOf("assessor") < uploaded.indexOf("assessor-resource"), is(true));
+        assertThat(uploaded.indexOf("assessor-resource") < uploaded.indexOf("nested"), is(true));
+        assertThat(uploaded.size(), is(4));
+    }
+
+    @Test
+    public void testOutputsThatDependOnThemselvesFail() {
+        final FakeUpload first = new FakeUpload("first", "second", "/archive/experiments/E1");
+        final FakeUpload second = new FakeUpload("second", "first", "/archive/experiments/E1");
+        final FakeUpload self = new FakeUpload("self", "self", "/archive/experiments/E1");
+        final FakeUpload fine = new FakeUpload("fine", null, "/archive/experiments/E1");
+
+        outputUploadStages.uploadAll(Lists.newArrayList(first, second, self, fine));
+
+        assertThat(uploaded, contains("fine"));
+        for (final FakeUpload cyclic : Lists.newArrayList(first, second, self)) {
+            assertThat(cyclic.isDone(), is(true));
+            assertThat(cyclic.exception, is(instanceOf(ContainerException.class)));
+        }
+        assertThat(fine.exception, is(nullValue()));
+    }
+
+    @Test(timeout = 10000L)
+    public void testOutputsToDifferentParentsUploadInParallel() {
+        // Each upload waits for the other to start, so they only finish if they run at the same time
+        final CyclicBarrier bothStarted = new CyclicBarrier(2);
+        final FakeUpload session = new WaitingUpload("session-resource", "/archive/experiments/E1", bothStarted);
+        final FakeUpload scan = new WaitingUpload("scan-resource", "/archive/experiments/E1/scans/1", bothStarted);
+
+        outputUploadStages.uploadAll(Lists.newArrayList(session, scan));
+
+        assertThat(session.exception, is(nullValue()));
+        assertThat(scan.exception, is(nullValue()));
+        assertThat(uploaded.size(), is(2));
+    }
+
+    @Test
+    public void testOutputsToTheSameParentUploadOneAtATime() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostRunning = new AtomicInteger();
+        final List<FakeUpload> uploads = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            uploads.add(new CountingUpload("resource-" + i, "/archive/experiments/E1", running, mostRunning));
+        }
+        uploads.add(new CountingUpload("other", "/archive/experiments/E2", new AtomicInteger(), new AtomicInteger()));
+
+        outputUploadStages.uploadAll(uploads);
+
+        assertThat(mostRunning.get(), is(1));
+        assertThat(uploaded.size(), is(5));
+        assertThat(uploaded.indexOf("resource-0") < uploaded.indexOf("resource-3"), is(true));
+    }
+
+    private class FakeUpload implements OutputUploadStages.Upload {
+        private final String name;
+        private final String dependsOn;
+        private final String parentUri;
+        private volatile Exception exception;
+        private volatile boolean done = false;
+
+        private FakeUpload(final String name, final String dependsOn, final String parentUri) {
+            this.name = name;
+            this.dependsOn = dependsOn;
+            this.parentUri = parentUri;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String dependsOn() {
+            return dependsOn;
+        }
+
+        @Override
+        public String parentUri() {
+            return parentUri;
+        }
+
+        @Override
+        public void upload() {
+            try {
+                doUpload();
+                uploaded.add(name);
+            } catch (Exception e) {
+                exception = e;
+            }
+            done = true;
+        }
+
+        void doUpload() throws Exception {}
+
+        @Override
+        public void fail(final Exception e) {
+            exception = e;
+            done = true;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+    }
+
+    private class WaitingUpload extends FakeUpload {
+        private final CyclicBarrier barrier;
+
+        private WaitingUpload(final String name, final String parentUri, final CyclicBarrier barrier) {
+            super(name, null, parentUri);
+            this.barrier = barrier;
+        }
+
+        @Override
+        void doUpload() throws Exception {
+            barrier.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private class CountingUpload extends FakeUpload {
+        private final AtomicInteger running;
+        private final AtomicInteger mostRunning;
+
+        private CountingUpload(final String name, final String parentUri, final AtomicInteger running, final AtomicInteger mostRunning) {
+            super(name, null, parentUri);
+            this.running = running;
+            this.mostRunning = mostRunning;
+        }
+
+        @Override
+        void doUpload() throws Exception {
+            final int nowRunning = running.incrementAndGet();
+            synchronized (mostRunning) {
+                mostRunning.set(Math.max(mostRunning.get(), nowRunning));
+            }
+            Thread.sleep(20L);
+            running.decrementAndGet();
+        }
+    }
+}
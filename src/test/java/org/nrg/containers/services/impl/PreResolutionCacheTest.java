@@ -0,0 +1,104 @@
+package org.nrg.containers.services.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.nrg.containers.model.command.auto.Command;
+import org.nrg.containers.model.command.auto.ResolvedCommand.PartiallyResolvedCommand;
+import org.nrg.containers.model.command.auto.ResolvedInputTreeNode;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class PreResolutionCacheTest {
+    private static final PreResolutionCache.Context CONTEXT = new PreResolutionCache.Context(1L, "project", "user", "config 1");
+
+    @Test
+    public void testInputValuesAreNormalized() throws Exception {
+        final PreResolutionCache cache = new PreResolutionCache(TimeUnit.HOURS.toMillis(1), 10, TimeUnit.MILLISECONDS);
+        final Map<String, String> inputValues = Maps.newHashMap();
+        inputValues.put("session", "XNAT_E00001");
+        inputValues.put("scan", null);
+        final PartiallyResolvedCommand result = result(inputValues);
+        cache.put(CONTEXT, inputValues, result, cache.generation());
+
+        // Null values are the same as missing ones
+        assertThat(cache.get(CONTEXT, Collections.singletonMap("session", "XNAT_E00001")) == result, is(true));
+        assertThat(cache.get(CONTEXT, Collections.singletonMap("session", "XNAT_E00002")), is(nullValue()));
+        assertThat(cache.getLatest(CONTEXT) == result, is(true));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(cache.getMissCount(), is(1L));
+
+        // Anything else that differs is a different result
+        assertThat(cache.get(new PreResolutionCache.Context(1L, "project", "other user", "config 1"), inputValues), is(nullValue()));
+        assertThat(cache.get(new PreResolutionCache.Context(1L, "project", "user", "config 2"), inputValues), is(nullValue()));
+        assertThat(cache.getLatest(new PreResolutionCache.Context(1L, null, "user", "config 1")), is(nullValue()));
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        final PreResolutionCache cache = new PreResolutionCache(TimeUnit.HOURS.toMillis(1), 10, TimeUnit.MILLISECONDS);
+        final PreResolutionCache.Context otherWrapper = new PreResolutionCache.Context(2L, "project", "user", "config 1");
+        final Map<String, String> inputValues = Collections.singletonMap("session", "XNAT_E00001");
+        cache.put(CONTEXT, inputValues, result(inputValues), cache.generation());
+        cache.put(otherWrapper, inputValues, result(inputValues), cache.generation());
+
+        cache.invalidate(1L);
+        assertThat(cache.get(CONTEXT, inputValues), is(nullValue()));
+        assertThat(cache.getLatest(CONTEXT), is(nullValue()));
+        assertThat(cache.size(), is(1));
+
+        // A result that was being resolved when the cache was invalidated is not kept
+        final long generation = cache.generation();
+        cache.invalidateAll();
+        cache.put(CONTEXT, inputValues, result(inputValues), generation);
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void testExpiryAndSize() throws Exception {
+        final Map<String, String> inputValues = Collections.singletonMap("session", "XNAT_E00001");
+
+        final PreResolutionCache disabled = new PreResolutionCache(0L, 10);
+        disabled.put(CONTEXT, inputValues, result(inputValues), disabled.generation());
+        assertThat(disabled.isEnabled(), is(false));
+        assertThat(disabled.get(CONTEXT, inputValues), is(nullValue()));
+
+        final PreResolutionCache expiring = new PreResolutionCache(1L, 10, TimeUnit.MILLISECONDS);
+        expiring.put(CONTEXT, inputValues, result(inputValues), expiring.generation());
+        Thread.sleep(10L);
+        assertThat(expiring.get(CONTEXT, inputValues), is(nullValue()));
+        assertThat(expiring.getLatest(CONTEXT), is(nullValue()));
+
+        final PreResolutionCache small = new PreResolutionCache(TimeUnit.HOURS.toMillis(1), 2, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 3; i++) {
+            final Map<String, String> values = Collections.singletonMap("session", "XNAT_E0000" + i);
+            small.put(CONTEXT, values, result(values), small.generation());
+        }
+        assertThat(small.size(), is(2));
+        assertThat(small.get(CONTEXT, Collections.singletonMap("session", "XNAT_E00000")), is(nullValue()));
+    }
+
+    private PartiallyResolvedCommand result(final Map<String, String> inputValues) {
+        final Map<String, String> nonNull = Maps.newHashMap();
+        for (final Map.Entry<String, String> inputValue : inputValues.entrySet()) {
+            if (inputValue.getValue() != null) {
+                nonNull.put(inputValue.getKey(), inputValue.getValue());
+            }
+        }
+        return PartiallyResolvedCommand.builder()
+                .wrapperId(1L)
+                .wrapperName("wrapper")
+                .commandId(1L)
+                .commandName("command")
+                .image("image")
+                .rawInputValues(nonNull)
+                .resolvedInputTrees(Lists.<ResolvedInputTreeNode<? extends Command.Input>>newArrayList())
+                .build();
+    }
+}
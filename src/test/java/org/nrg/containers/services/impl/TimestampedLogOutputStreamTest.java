@@ -0,0 +1,63 @@
+package org.nrg.containers.services.impl;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class TimestampedLogOutputStreamTest {
+    private static final String FIRST = "2018-03-05T19:31:56.000000001Z";
+    private static final String SECOND = "2018-03-05T19:31:56.000000002Z";
+    private static final String THIRD = "2018-03-05T19:31:57.000000000Z";
+    private static final String LOG = FIRST + " first\n" + SECOND + " second\n" + THIRD + " third\n";
+
+    @Test
+    public void testStripsTimestamps() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final TimestampedLogOutputStream logOutputStream = new TimestampedLogOutputStream(out, null, Long.MAX_VALUE);
+        assertThat(logOutputStream.lastTimestamp(), is(nullValue()));
+
+        logOutputStream.write(LOG.getBytes(StandardCharsets.UTF_8));
+        assertThat(out.toString(StandardCharsets.UTF_8.name()), is("first\nsecond\nthird\n"));
+        assertThat(logOutputStream.lastTimestamp(), is(THIRD));
+    }
+
+    @Test
+    public void testDropsLinesAlreadyWritten() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final TimestampedLogOutputStream logOutputStream = new TimestampedLogOutputStream(out, FIRST, Long.MAX_VALUE);
+
+        // Written a byte at a time, the way a frame could be split
+        for (final byte b : LOG.getBytes(StandardCharsets.UTF_8)) {
+            logOutputStream.write(b);
+        }
+        assertThat(out.toString(StandardCharsets.UTF_8.name()), is("second\nthird\n"));
+        assertThat(logOutputStream.lastTimestamp(), is(THIRD));
+    }
+
+    @Test
+    public void testStopsAtTheEndOfALineWhenFull() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final TimestampedLogOutputStream logOutputStream = new TimestampedLogOutputStream(out, null, 3L);
+        try {
+            logOutputStream.write(LOG.getBytes(StandardCharsets.UTF_8));
+            fail("Expected the chunk to fill up.");
+        } catch (TimestampedLogOutputStream.ChunkFullException e) {
+            // expected
+        }
+        assertThat(out.toString(StandardCharsets.UTF_8.name()), is("first\n"));
+        assertThat(logOutputStream.lastTimestamp(), is(FIRST));
+    }
+
+    @Test
+    public void testEpochSeconds() {
+        assertThat(ContainerLogShipper.toEpochSeconds(THIRD), is(1520278317));
+        assertThat(ContainerLogShipper.toEpochSeconds(null), is(nullValue()));
+        assertThat(ContainerLogShipper.toEpochSeconds("not a timestamp"), is(nullValue()));
+    }
+}
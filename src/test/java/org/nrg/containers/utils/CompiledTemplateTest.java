@@ -0,0 +1,76 @@
+package org.nrg.containers.utils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+import org.nrg.containers.exceptions.CommandResolutionException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CompiledTemplateTest {
+    private static final CompiledTemplate.Keys KEYS = CompiledTemplate.Keys.of(Lists.newArrayList("#SESSION#", "#SCAN#", "#SCAN_ID#"));
+
+    private final List<String> searches = Lists.newArrayList();
+    private final CompiledTemplate.JsonpathSearcher searcher = new CompiledTemplate.JsonpathSearcher() {
+        @Override
+        public String search(final String jsonpath, final boolean searchWrapper) throws CommandResolutionException {
+            searches.add((searchWrapper ? "wrapper:" : "") + jsonpath);
+            return jsonpath.equals("$.name") ? "found" : null;
+        }
+    };
+
+    @Before
+    public void setup() {
+        CompiledTemplate.clear();
+    }
+
+    @Test
+    public void testReplacesKeys() throws Exception {
+        final Map<String, String> values = Maps.newHashMap();
+        values.put("#SESSION#", "session1");
+        values.put("#SCAN_ID#", "4");
+        values.put("#SCAN#", null);
+
+        assertThat(render("run #SESSION# --scan #SCAN_ID# #SCAN##SESSION#", values), is("run session1 --scan 4 session1"));
+    }
+
+    @Test
+    public void testKeysWithoutValuesAreLeftInPlace() throws Exception {
+        assertThat(render("run #SESSION# #OTHER#", Collections.<String, String>emptyMap()), is("run #SESSION# #OTHER#"));
+    }
+
+    @Test
+    public void testJsonpathSearch() throws Exception {
+        final Map<String, String> values = Collections.singletonMap("#SCAN#", "1");
+        // Each occurrence of the search is replaced, and the search is done once
+        assertThat(render("^$.name^ #SCAN#\n^$.name^", values), is("found 1\nfound"));
+        assertThat(searches, is((List<String>) Lists.newArrayList("$.name")));
+
+        assertThat(render("^wrapper:$.missing^ #SCAN#", values), is("^wrapper:$.missing^ 1"));
+        assertThat(searches.get(1), is("wrapper:$.missing"));
+    }
+
+    @Test
+    public void testTemplatesAreCompiledOnce() throws Exception {
+        final Map<String, String> values = Collections.singletonMap("#SCAN#", "1");
+        render("scan #SCAN#", values);
+        render("scan #SCAN#", Collections.singletonMap("#SCAN#", "2"));
+        assertThat(CompiledTemplate.getMissCount() >= 1, is(true));
+        assertThat(CompiledTemplate.size(), is(1));
+
+        // The same text with different keys is a different template
+        CompiledTemplate.compile("scan #SCAN#", CompiledTemplate.Keys.NONE);
+        assertThat(CompiledTemplate.size(), is(2));
+        assertThat(CompiledTemplate.compile("scan #SCAN#", CompiledTemplate.Keys.NONE).render(values, searcher), is("scan #SCAN#"));
+    }
+
+    private String render(final String template, final Map<String, String> values) throws CommandResolutionException {
+        return CompiledTemplate.compile(template, KEYS).render(values, searcher);
+    }
+}
@@ -0,0 +1,116 @@
+package org.nrg.containers.utils;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FileListingTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private FileListing listing;
+
+    @Before
+    public void setup() throws Exception {
+        folder.newFile("a.dcm");
+        folder.newFile("notes.txt");
+        folder.newFolder("scans", "1");
+        folder.newFile("scans/1/b.dcm");
+        folder.newFile("scans/1/c.nii");
+        folder.newFolder("scans", "2.dcm");
+        folder.newFile("scans/2.dcm/d.dcm");
+
+        root = folder.getRoot().toPath();
+        listing = FileListing.walk(root);
+    }
+
+    @Test
+    public void testBlankGlobSelectsDirectoryContents() throws Exception {
+        assertThat(names(listing.match(root, "")), containsInAnyOrder("a.dcm", "notes.txt", "scans"));
+        assertThat(names(listing.match(root.resolve("scans/1"), null)), containsInAnyOrder("b.dcm", "c.nii"));
+    }
+
+    @Test
+    public void testBlankGlobSelectsAFile() throws Exception {
+        assertThat(names(listing.match(root.resolve("notes.txt"), "")), containsInAnyOrder("notes.txt"));
+    }
+
+    @Test
+    public void testStarDoesNotCrossDirectories() throws Exception {
+        assertThat(names(listing.match(root, "*.dcm")), containsInAnyOrder("a.dcm"));
+    }
+
+    @Test
+    public void testDoubleStarCrossesDirectories() throws Exception {
+        // The directory 2.dcm matches, so its contents are not selected again
+        assertThat(names(listing.match(root, "**/*.dcm")), containsInAnyOrder("a.dcm", "b.dcm", "2.dcm"));
+        assertThat(names(listing.match(root, "**.nii")), containsInAnyOrder("c.nii"));
+    }
+
+    @Test
+    public void testGlobIsRelativeToTheDirectory() throws Exception {
+        assertThat(names(listing.match(root.resolve("scans"), "1/*")), containsInAnyOrder("b.dcm", "c.nii"));
+        assertThat(names(listing.match(root.resolve("scans"), "*.txt")), hasSize(0));
+    }
+
+    @Test
+    public void testSubdirectoryOfTheRootSelectsWhatItsOwnWalkWould() throws Exception {
+        final Path scans = root.resolve("scans");
+        final FileListing scansListing = FileListing.walk(scans);
+        for (final String glob : Lists.newArrayList("**", "**/*.dcm", "1/*", "**.nii")) {
+            assertThat(listing.match(scans, glob), is(scansListing.match(scans, glob)));
+        }
+    }
+
+    @Test
+    public void testMissingDirectory() throws Exception {
+        final Path missing = root.resolve("missing");
+        assertThat(FileListing.walk(missing).match(missing, "**"), hasSize(0));
+        assertThat(listing.contains(missing), is(true));
+        assertThat(listing.contains(root.getParent()), is(false));
+    }
+
+    @Test
+    public void testOnlyGlobsThatCrossDirectoriesNeedAWalk() throws Exception {
+        assertThat(FileListing.needsWalk(""), is(false));
+        assertThat(FileListing.needsWalk(null), is(false));
+        assertThat(FileListing.needsWalk("*.dcm"), is(false));
+        assertThat(FileListing.needsWalk("{a,notes}.*"), is(false));
+        assertThat(FileListing.needsWalk("**/*.dcm"), is(true));
+        assertThat(FileListing.needsWalk("**.nii"), is(true));
+        assertThat(FileListing.needsWalk("1/*"), is(true));
+    }
+
+    @Test
+    public void testMatchChildrenSelectsWhatMatchWould() throws Exception {
+        final Path scans = root.resolve("scans");
+        for (final String glob : Lists.newArrayList("", "*.dcm", "*", "{a,notes}.*", "*.nii")) {
+            assertThat(names(FileListing.matchChildren(root, glob)), containsInAnyOrder(names(listing.match(root, glob)).toArray(new String[0])));
+            assertThat(names(FileListing.matchChildren(scans, glob)), containsInAnyOrder(names(listing.match(scans, glob)).toArray(new String[0])));
+        }
+
+        final Path notes = root.resolve("notes.txt");
+        assertThat(names(FileListing.matchChildren(notes, "")), containsInAnyOrder("notes.txt"));
+        assertThat(FileListing.matchChildren(notes, "*"), hasSize(0));
+        assertThat(FileListing.matchChildren(root.resolve("missing"), ""), hasSize(0));
+    }
+
+    private List<String> names(final List<File> files) {
+        final List<String> names = Lists.newArrayList();
+        for (final File file : files) {
+            names.add(file.getName());
+        }
+        return names;
+    }
+}
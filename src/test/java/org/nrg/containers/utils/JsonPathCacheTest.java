@@ -0,0 +1,32 @@
+package org.nrg.containers.utils;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class JsonPathCacheTest {
+    @Before
+    public void setup() {
+        JsonPathCache.clear();
+    }
+
+    @Test
+    public void samePathReturnsSameCompiledPath() {
+        final JsonPath first = JsonPathCache.compile("$.scans[?(@.id == '1')]");
+        final JsonPath second = JsonPathCache.compile("$.scans[?(@.id == '1')]");
+        assertThat(second, is(sameInstance(first)));
+        assertThat(JsonPathCache.size(), is(1));
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        for (int i = 0; i < JsonPathCache.MAX_SIZE + 10; i++) {
+            JsonPathCache.compile("$.scans[?(@.id == '" + i + "')]");
+        }
+        assertThat(JsonPathCache.size(), is(JsonPathCache.MAX_SIZE));
+    }
+}
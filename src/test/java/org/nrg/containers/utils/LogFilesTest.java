@@ -0,0 +1,78 @@
+package org.nrg.containers.utils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class LogFilesTest {
+    private static final String LOG = "first\nsecond\nthird\n";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File logFile;
+
+    @Before
+    public void setup() throws Exception {
+        logFile = folder.newFile("stdout.log");
+        Files.write(logFile.toPath(), LOG.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTail() throws Exception {
+        assertThat(tail(1), is("third\n"));
+        assertThat(tail(2), is("second\nthird\n"));
+        assertThat(tail(3), is(LOG));
+        assertThat(tail(10), is(LOG));
+        assertThat(tail(0), is(""));
+    }
+
+    @Test
+    public void testTailWithoutTrailingNewline() throws Exception {
+        Files.write(logFile.toPath(), "first\nsecond".getBytes(StandardCharsets.UTF_8));
+        assertThat(tail(1), is("second"));
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        final long length = LOG.length();
+
+        assertThat(LogFiles.parseRange(null, length), is(nullValue()));
+        assertThat(LogFiles.parseRange("bytes=0-1,4-5", length), is(nullValue()));
+        assertThat(LogFiles.parseRange("bytes=5-2", length), is(nullValue()));
+
+        final LogFiles.ByteRange firstLine = LogFiles.parseRange("bytes=0-5", length);
+        assertThat(firstLine.contentRange(), is("bytes 0-5/" + length));
+        assertThat(copy(firstLine.first(), firstLine.length()), is("first\n"));
+
+        final LogFiles.ByteRange suffix = LogFiles.parseRange("bytes=-6", length);
+        assertThat(copy(suffix.first(), suffix.length()), is("third\n"));
+
+        final LogFiles.ByteRange openEnded = LogFiles.parseRange("bytes=13-", length);
+        assertThat(copy(openEnded.first(), openEnded.length()), is("third\n"));
+
+        final LogFiles.ByteRange pastTheEnd = LogFiles.parseRange("bytes=100-", length);
+        assertThat(pastTheEnd.isSatisfiable(), is(false));
+        assertThat(pastTheEnd.contentRange(), is("bytes */" + length));
+    }
+
+    private String tail(final int lines) throws Exception {
+        final long start = LogFiles.tailOffset(logFile, lines);
+        return copy(start, logFile.length() - start);
+    }
+
+    private String copy(final long start, final long length) throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        LogFiles.copy(logFile, start, length, outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8.name());
+    }
+}
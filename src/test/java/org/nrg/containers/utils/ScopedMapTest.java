@@ -0,0 +1,56 @@
+package org.nrg.containers.utils;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ScopedMapTest {
+    @Test
+    public void testInnerBindingsHideOuterOnes() {
+        final Map<String, String> base = Maps.newHashMap();
+        base.put("#SESSION#", "session1");
+        base.put("#SCAN#", "base scan");
+
+        final ScopedMap<String, String> session = ScopedMap.of(base);
+        final ScopedMap<String, String> scan1 = session.with("#SCAN#", "1");
+        final ScopedMap<String, String> scan2 = session.with("#SCAN#", "2");
+        final ScopedMap<String, String> resource = scan1.with("#RESOURCE#", null);
+
+        assertThat(scan1.get("#SCAN#"), is("1"));
+        assertThat(scan2.get("#SCAN#"), is("2"));
+        assertThat(resource.get("#SCAN#"), is("1"));
+        assertThat(resource.get("#SESSION#"), is("session1"));
+        assertThat(session.get("#SCAN#"), is("base scan"));
+
+        // A key bound to null is still there
+        assertThat(resource.containsKey("#RESOURCE#"), is(true));
+        assertThat(resource.get("#RESOURCE#"), is(nullValue()));
+        assertThat(scan1.containsKey("#RESOURCE#"), is(false));
+    }
+
+    @Test
+    public void testBaseIsSharedNotCopied() {
+        final Map<String, String> base = Maps.newHashMap();
+        final ScopedMap<String, String> scope = ScopedMap.of(base).with("#SCAN#", "1");
+        base.put("#SESSION#", "session1");
+
+        assertThat(scope.get("#SESSION#"), is("session1"));
+        assertThat(ScopedMap.of(scope) == scope, is(true));
+    }
+
+    @Test
+    public void testFlattened() {
+        final Map<String, String> base = Maps.newHashMap();
+        base.put("#SCAN#", "base scan");
+        final Map<String, String> scope = ScopedMap.of(base).with("#SCAN#", "1").with("#RESOURCE#", "DICOM");
+
+        assertThat(scope.size(), is(2));
+        assertThat(scope.equals(Maps.newHashMap(scope)), is(true));
+        assertThat(Maps.newHashMap(scope).get("#SCAN#"), is("1"));
+    }
+}
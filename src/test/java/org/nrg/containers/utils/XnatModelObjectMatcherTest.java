@@ -0,0 +1,71 @@
+package org.nrg.containers.utils;
+
+import org.junit.Test;
+import org.nrg.containers.model.xnat.Scan;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class XnatModelObjectMatcherTest {
+    private Scan scan(final String id, final String scanType, final Integer frames) {
+        final Scan scan = new Scan();
+        scan.setId(id);
+        scan.setLabel(id + " - " + scanType);
+        scan.setScanType(scanType);
+        scan.setFrames(frames);
+        return scan;
+    }
+
+    @Test
+    public void equality() {
+        final XnatModelObjectMatcher matcher = XnatModelObjectMatcher.compile("@.scan-type == 'T1'");
+        assertThat(matcher.matches(scan("1", "T1", 10)), is(true));
+        assertThat(matcher.matches(scan("2", "T2", 10)), is(false));
+    }
+
+    @Test
+    public void inList() {
+        final XnatModelObjectMatcher matcher = XnatModelObjectMatcher.compile("@.scan-type in [\"T1\", 'MPRAGE']");
+        assertThat(matcher.matches(scan("1", "MPRAGE", 10)), is(true));
+        assertThat(matcher.matches(scan("2", "T2", 10)), is(false));
+    }
+
+    @Test
+    public void booleanOperatorsAndNumbers() {
+        final XnatModelObjectMatcher matcher =
+                XnatModelObjectMatcher.compile("(@.scan-type == 'T1' || @.scan-type == 'T2') && @.frames == 10");
+        assertThat(matcher.matches(scan("1", "T2", 10)), is(true));
+        assertThat(matcher.matches(scan("2", "T2", 11)), is(false));
+        assertThat(matcher.matches(scan("3", "FLAIR", 10)), is(false));
+    }
+
+    @Test
+    public void regex() {
+        final XnatModelObjectMatcher matcher = XnatModelObjectMatcher.compile("@.scan-type =~ /t1.*/i");
+        assertThat(matcher.matches(scan("1", "T1w", 10)), is(true));
+        assertThat(matcher.matches(scan("2", "T2w", 10)), is(false));
+    }
+
+    @Test
+    public void nullPropertiesNeverMatch() {
+        // JSONPath never sees null properties, because they are not serialized
+        final Scan noScanType = scan("1", null, 10);
+        assertThat(XnatModelObjectMatcher.compile("@.scan-type != 'T1'").matches(noScanType), is(false));
+        assertThat(XnatModelObjectMatcher.compile("@.scan-type == null").matches(noScanType), is(false));
+        assertThat(XnatModelObjectMatcher.compile("@.scan-type in ['T1']").matches(noScanType), is(false));
+        assertThat(XnatModelObjectMatcher.compile("@.scan-type =~ /.*/").matches(noScanType), is(false));
+        assertThat(XnatModelObjectMatcher.compile("@.scan-type != 'T1'").matches(scan("2", "T2", 10)), is(true));
+    }
+
+    @Test
+    public void unsupportedExpressionsAreNotCompiled() {
+        assertThat(XnatModelObjectMatcher.compile("'ECAT' in @.resources[*].label"), is(nullValue()));
+        assertThat(XnatModelObjectMatcher.compile("@.scan-type"), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPropertyIsAnError() {
+        XnatModelObjectMatcher.compile("@.not-a-property == 'x'").matches(scan("1", "T1", 10));
+    }
+}